@@ -23,3 +23,12 @@
 # If you keep the line number information, uncomment this to
 # hide the original source file name.
 #-renamesourcefileattribute SourceFile
+
+# orm: EntityMeta按"实体类名_RowMapper"/"实体类名_ValueBinder"加载orm-compiler生成的类
+-keepnames @com.remvp.library.db.orm.annotation.Table class *
+-keep class * implements com.remvp.library.db.orm.RowMapper {
+    <init>();
+}
+-keep class * implements com.remvp.library.db.orm.ValueBinder {
+    <init>();
+}
@@ -0,0 +1,85 @@
+package com.remvp.library.db.orm;
+
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.remvp.library.db.orm.annotation.Cacheable;
+import com.remvp.library.db.orm.annotation.Column;
+import com.remvp.library.db.orm.annotation.Id;
+import com.remvp.library.db.orm.annotation.Table;
+import com.remvp.library.db.orm.dao.BaseDao;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * 描述：{@link Cacheable}实体的queryOne命中缓存，更新后缓存失效.
+ */
+@RunWith(AndroidJUnit4.class)
+public class EntityCacheTest {
+
+    private static final String DB_NAME = "entity_cache_test.db";
+
+    @Table(name = "cache_item")
+    @Cacheable(maxEntries = 16)
+    public static class Item {
+        @Id
+        @Column(name = "id")
+        public int id;
+
+        @Column(name = "name")
+        public String name;
+
+        public Item() {
+        }
+
+        Item(String name) {
+            this.name = name;
+        }
+    }
+
+    static class ItemDao extends BaseDao<Item> {
+        ItemDao(DBHelper helper) {
+            super(helper, Item.class);
+        }
+    }
+
+    private Context mContext;
+    private DBHelper mHelper;
+
+    @Before
+    public void setUp() throws Exception {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mContext.deleteDatabase(DB_NAME);
+        mHelper = new DBHelper(mContext, DB_NAME, null, 1, new Class<?>[]{Item.class});
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mHelper.getConnectionManager().close();
+        mContext.deleteDatabase(DB_NAME);
+    }
+
+    @Test
+    public void entityCacheHitsAndIsEvictedOnUpdate() throws Exception {
+        ItemDao dao = new ItemDao(mHelper);
+        Item item = new Item("a");
+        dao.insert(item);
+
+        assertEquals("a", dao.queryOne(item.id).name);
+        assertEquals("a", dao.queryOne(item.id).name);
+        assertNotNull(dao.getEntityCache());
+        assertEquals(1, dao.getEntityCache().getHitCount());
+
+        Item changed = new Item("b");
+        changed.id = item.id;
+        dao.update(changed);
+        assertEquals("b", dao.queryOne(item.id).name);
+    }
+}
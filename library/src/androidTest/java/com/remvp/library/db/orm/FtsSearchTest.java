@@ -0,0 +1,106 @@
+package com.remvp.library.db.orm;
+
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.remvp.library.db.orm.annotation.Column;
+import com.remvp.library.db.orm.annotation.Fts;
+import com.remvp.library.db.orm.annotation.Id;
+import com.remvp.library.db.orm.annotation.Table;
+import com.remvp.library.db.orm.dao.BaseDao;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 描述：{@link Fts}全文索引随增删改同步，搜索结果按相关度排序.
+ */
+@RunWith(AndroidJUnit4.class)
+public class FtsSearchTest {
+
+    private static final String DB_NAME = "fts_search_test.db";
+
+    @Table(name = "fts_article")
+    @Fts(columns = {"title", "body"})
+    public static class Article {
+        @Id
+        @Column(name = "id")
+        public int id;
+
+        @Column(name = "title")
+        public String title;
+
+        @Column(name = "body")
+        public String body;
+
+        public Article() {
+        }
+
+        Article(String title, String body) {
+            this.title = title;
+            this.body = body;
+        }
+    }
+
+    static class ArticleDao extends BaseDao<Article> {
+        ArticleDao(DBHelper helper) {
+            super(helper, Article.class);
+        }
+    }
+
+    private Context mContext;
+    private DBHelper mHelper;
+
+    @Before
+    public void setUp() throws Exception {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mContext.deleteDatabase(DB_NAME);
+        mHelper = new DBHelper(mContext, DB_NAME, null, 1, new Class<?>[]{Article.class});
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mHelper.getConnectionManager().close();
+        mContext.deleteDatabase(DB_NAME);
+    }
+
+    @Test
+    public void searchFindsInsertedRowsByRelevance() throws Exception {
+        ArticleDao dao = new ArticleDao(mHelper);
+        Article once = new Article("database", "sqlite notes");
+        Article twice = new Article("sqlite", "sqlite full text search");
+        dao.insert(once);
+        dao.insert(twice);
+        dao.insert(new Article("network", "http client"));
+
+        List<Article> result = dao.search("sqlite", 10);
+        assertEquals(2, result.size());
+        assertEquals(twice.id, result.get(0).id);
+        assertEquals(once.id, result.get(1).id);
+        assertEquals(1, dao.search("sqlite", 1).size());
+    }
+
+    @Test
+    public void indexFollowsUpdateAndDelete() throws Exception {
+        ArticleDao dao = new ArticleDao(mHelper);
+        Article article = new Article("draft", "first version");
+        dao.insert(article);
+
+        Article changed = new Article("draft", "second version");
+        changed.id = article.id;
+        dao.update(changed);
+        assertTrue(dao.search("first", 10).isEmpty());
+        assertEquals(1, dao.search("second", 10).size());
+
+        dao.delete(article.id);
+        assertTrue(dao.search("draft", 10).isEmpty());
+    }
+}
@@ -0,0 +1,128 @@
+package com.remvp.library.db.orm;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.remvp.library.db.orm.annotation.Column;
+import com.remvp.library.db.orm.annotation.Id;
+import com.remvp.library.db.orm.annotation.Index;
+import com.remvp.library.db.orm.annotation.Table;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 描述：主键与{@link Index}声明的索引在查询计划中被使用.
+ */
+@RunWith(AndroidJUnit4.class)
+public class IndexQueryPlanTest {
+
+    private static final String DB_NAME = "index_query_plan_test.db";
+
+    @Table(name = "plan_user")
+    @Index(columns = {"last_name", "first_name"})
+    public static class User {
+        @Id
+        @Column(name = "id")
+        public int id;
+
+        @Index(unique = true)
+        @Column(name = "email")
+        public String email;
+
+        @Column(name = "first_name")
+        public String firstName;
+
+        @Column(name = "last_name")
+        public String lastName;
+    }
+
+    @Table(name = "plan_tag")
+    public static class Tag {
+        @Id
+        @Column(name = "code")
+        public String code;
+
+        @Column(name = "label")
+        public String label;
+    }
+
+    private Context mContext;
+    private DBHelper mHelper;
+    private SQLiteDatabase mDb;
+
+    @Before
+    public void setUp() throws Exception {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mContext.deleteDatabase(DB_NAME);
+        mHelper = new DBHelper(mContext, DB_NAME, null, 1, new Class<?>[]{User.class, Tag.class});
+        mDb = mHelper.getConnectionManager().getDatabase();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mHelper.getConnectionManager().close();
+        mContext.deleteDatabase(DB_NAME);
+    }
+
+    @Test
+    public void integerIdLookupUsesRowid() throws Exception {
+        List<String> plan = queryPlan("SELECT * FROM plan_user WHERE id = ?", new String[]{"1"});
+        assertTrue(plan.toString(), planContains(plan, "USING INTEGER PRIMARY KEY"));
+    }
+
+    @Test
+    public void textIdLookupUsesIndex() throws Exception {
+        List<String> plan = queryPlan("SELECT * FROM plan_tag WHERE code = ?", new String[]{"a"});
+        assertTrue(plan.toString(), planContains(plan, "USING INDEX"));
+    }
+
+    @Test
+    public void columnIndexIsUsed() throws Exception {
+        List<String> plan = queryPlan("SELECT * FROM plan_user WHERE email = ?", new String[]{"a@b.c"});
+        assertTrue(plan.toString(), planContains(plan, "USING INDEX"));
+    }
+
+    @Test
+    public void compositeIndexIsUsed() throws Exception {
+        List<String> plan = queryPlan("SELECT * FROM plan_user WHERE last_name = ? AND first_name = ?",
+                new String[]{"Li", "Lei"});
+        assertTrue(plan.toString(), planContains(plan, "USING INDEX"));
+    }
+
+    /**
+     * 查询计划中每一步的描述.
+     */
+    private List<String> queryPlan(String sql, String[] args) {
+        List<String> details = new ArrayList<String>();
+        Cursor cursor = mDb.rawQuery("EXPLAIN QUERY PLAN " + sql, args);
+        try {
+            int detail = cursor.getColumnIndexOrThrow("detail");
+            while (cursor.moveToNext()) {
+                details.add(cursor.getString(detail));
+            }
+        } finally {
+            cursor.close();
+        }
+        return details;
+    }
+
+    private static boolean planContains(List<String> plan, String text) {
+        for (String detail : plan) {
+            if (detail.contains(text)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
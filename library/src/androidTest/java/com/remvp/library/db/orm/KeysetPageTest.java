@@ -0,0 +1,119 @@
+package com.remvp.library.db.orm;
+
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.remvp.library.db.orm.annotation.Column;
+import com.remvp.library.db.orm.annotation.Id;
+import com.remvp.library.db.orm.annotation.Table;
+import com.remvp.library.db.orm.dao.BaseDao;
+import com.remvp.library.db.orm.dao.KeysetPage;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 描述：按键值分页，起点与LIMIT按数值绑定.
+ */
+@RunWith(AndroidJUnit4.class)
+public class KeysetPageTest {
+
+    private static final String DB_NAME = "keyset_page_test.db";
+
+    @Table(name = "page_score")
+    public static class Score {
+        @Id
+        @Column(name = "id")
+        public int id;
+
+        @Column(name = "points")
+        public double points;
+    }
+
+    static class ScoreDao extends BaseDao<Score> {
+        ScoreDao(DBHelper helper) {
+            super(helper, Score.class);
+        }
+    }
+
+    private Context mContext;
+    private DBHelper mHelper;
+
+    @Before
+    public void setUp() throws Exception {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mContext.deleteDatabase(DB_NAME);
+        mHelper = new DBHelper(mContext, DB_NAME, null, 1, new Class<?>[]{Score.class});
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mHelper.getConnectionManager().close();
+        mContext.deleteDatabase(DB_NAME);
+    }
+
+    @Test
+    public void pagesThroughIdsInNumericOrder() throws Exception {
+        ScoreDao dao = new ScoreDao(mHelper);
+        insert(dao, 25);
+
+        List<Integer> ids = new ArrayList<Integer>();
+        String key = null;
+        int pages = 0;
+        do {
+            KeysetPage<Score> page = dao.queryPage(key, 10);
+            for (Score score : page.getList()) {
+                ids.add(score.id);
+            }
+            key = page.getNextKey();
+            pages++;
+        } while (key != null);
+
+        assertEquals(3, pages);
+        assertEquals(25, ids.size());
+        for (int i = 1; i < ids.size(); i++) {
+            // 按数值而不是字符串比较，9之后是10
+            assertTrue(ids.get(i) > ids.get(i - 1));
+        }
+    }
+
+    @Test
+    public void pagesThroughRealColumn() throws Exception {
+        ScoreDao dao = new ScoreDao(mHelper);
+        insert(dao, 25);
+
+        List<Double> points = new ArrayList<Double>();
+        String key = null;
+        do {
+            KeysetPage<Score> page = dao.queryPage("points", key, 7);
+            for (Score score : page.getList()) {
+                points.add(score.points);
+            }
+            key = page.getNextKey();
+        } while (key != null);
+
+        assertEquals(25, points.size());
+        for (int i = 1; i < points.size(); i++) {
+            assertTrue(points.get(i) > points.get(i - 1));
+        }
+    }
+
+    private static void insert(ScoreDao dao, int count) {
+        List<Score> scores = new ArrayList<Score>();
+        for (int i = 0; i < count; i++) {
+            Score score = new Score();
+            score.points = i * 1.5;
+            scores.add(score);
+        }
+        dao.insertList(scores);
+    }
+}
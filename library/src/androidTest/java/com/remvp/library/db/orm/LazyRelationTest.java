@@ -0,0 +1,152 @@
+package com.remvp.library.db.orm;
+
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.remvp.library.db.orm.annotation.Column;
+import com.remvp.library.db.orm.annotation.FetchType;
+import com.remvp.library.db.orm.annotation.Id;
+import com.remvp.library.db.orm.annotation.RelationDao;
+import com.remvp.library.db.orm.annotation.RelationsType;
+import com.remvp.library.db.orm.annotation.Table;
+import com.remvp.library.db.orm.dao.BaseDao;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 描述：{@link FetchType#lazy}的关联在第一次访问时才查询.
+ */
+@RunWith(AndroidJUnit4.class)
+public class LazyRelationTest {
+
+    private static final String DB_NAME = "lazy_relation_test.db";
+
+    @Table(name = "lazy_order")
+    public static class Order {
+        @Id
+        @Column(name = "id")
+        public int id;
+
+        @Column(name = "customer")
+        public String customer;
+
+        @RelationDao(name = "id", foreignKey = "order_id", type = RelationsType.one2many, fetch = FetchType.lazy)
+        public List<Line> lines;
+
+        @RelationDao(name = "id", foreignKey = "order_id", type = RelationsType.one2one, fetch = FetchType.lazy)
+        public Lazy<Note> note;
+    }
+
+    @Table(name = "lazy_line")
+    public static class Line {
+        @Id
+        @Column(name = "id")
+        public int id;
+
+        @Column(name = "order_id")
+        public int orderId;
+
+        @Column(name = "product")
+        public String product;
+
+        public Line() {
+        }
+
+        Line(int orderId, String product) {
+            this.orderId = orderId;
+            this.product = product;
+        }
+    }
+
+    @Table(name = "lazy_note")
+    public static class Note {
+        @Id
+        @Column(name = "id")
+        public int id;
+
+        @Column(name = "order_id")
+        public int orderId;
+
+        @Column(name = "text")
+        public String text;
+    }
+
+    static class OrderDao extends BaseDao<Order> {
+        OrderDao(DBHelper helper) {
+            super(helper, Order.class);
+        }
+    }
+
+    static class LineDao extends BaseDao<Line> {
+        LineDao(DBHelper helper) {
+            super(helper, Line.class);
+        }
+    }
+
+    private Context mContext;
+    private DBHelper mHelper;
+
+    @Before
+    public void setUp() throws Exception {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mContext.deleteDatabase(DB_NAME);
+        mHelper = new DBHelper(mContext, DB_NAME, null, 1, new Class<?>[]{Order.class, Line.class, Note.class});
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mHelper.getConnectionManager().close();
+        mContext.deleteDatabase(DB_NAME);
+    }
+
+    @Test
+    public void relationsLoadOnFirstAccess() throws Exception {
+        OrderDao dao = new OrderDao(mHelper);
+        Order order = new Order();
+        order.id = 7;
+        order.customer = "c";
+        order.lines = new ArrayList<Line>(Arrays.asList(new Line(7, "a"), new Line(7, "b")));
+        Note note = new Note();
+        note.orderId = 7;
+        note.text = "gift";
+        order.note = Lazy.of(note);
+        dao.insert(order);
+
+        Order loaded = dao.queryOne(7);
+        assertTrue(loaded.lines instanceof LazyRelationList);
+        assertFalse(((LazyRelationList<Line>) loaded.lines).isLoaded());
+        assertFalse(loaded.note.isLoaded());
+
+        assertEquals(2, loaded.lines.size());
+        assertTrue(((LazyRelationList<Line>) loaded.lines).isLoaded());
+        assertEquals("gift", loaded.note.get().text);
+    }
+
+    @Test
+    public void unloadedRelationsAreNotRewrittenOnUpdate() throws Exception {
+        OrderDao dao = new OrderDao(mHelper);
+        Order order = new Order();
+        order.id = 7;
+        order.customer = "c";
+        order.lines = new ArrayList<Line>(Arrays.asList(new Line(7, "a"), new Line(7, "b")));
+        dao.insert(order);
+
+        Order loaded = dao.queryOne(7);
+        loaded.customer = "d";
+        dao.update(loaded);
+        assertEquals(2, new LineDao(mHelper).queryCount());
+        assertEquals("d", dao.queryOne(7).customer);
+    }
+}
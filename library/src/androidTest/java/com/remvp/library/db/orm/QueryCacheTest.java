@@ -0,0 +1,106 @@
+package com.remvp.library.db.orm;
+
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.remvp.library.db.orm.annotation.Column;
+import com.remvp.library.db.orm.annotation.Id;
+import com.remvp.library.db.orm.annotation.Table;
+import com.remvp.library.db.orm.dao.BaseDao;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 描述：queryList的结果缓存在写入后失效，命中时返回新的实体.
+ */
+@RunWith(AndroidJUnit4.class)
+public class QueryCacheTest {
+
+    private static final String DB_NAME = "query_cache_test.db";
+
+    @Table(name = "query_cache_item")
+    public static class Item {
+        @Id
+        @Column(name = "id")
+        public int id;
+
+        @Column(name = "name")
+        public String name;
+
+        @Column(name = "data")
+        public byte[] data;
+
+        public Item() {
+        }
+
+        Item(String name) {
+            this.name = name;
+        }
+    }
+
+    static class ItemDao extends BaseDao<Item> {
+        ItemDao(DBHelper helper) {
+            super(helper, Item.class);
+        }
+    }
+
+    private Context mContext;
+    private DBHelper mHelper;
+
+    @Before
+    public void setUp() throws Exception {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mContext.deleteDatabase(DB_NAME);
+        mHelper = new DBHelper(mContext, DB_NAME, null, 1, new Class<?>[]{Item.class});
+        mHelper.setQueryCacheSize(64 * 1024);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mHelper.getConnectionManager().close();
+        mContext.deleteDatabase(DB_NAME);
+    }
+
+    @Test
+    public void queryCacheHitsAndIsInvalidatedOnInsert() throws Exception {
+        ItemDao dao = new ItemDao(mHelper);
+        dao.insert(new Item("a"));
+
+        List<Item> first = dao.queryList("name = ?", new String[]{"a"});
+        List<Item> second = dao.queryList("name = ?", new String[]{"a"});
+        assertEquals(1, first.size());
+        assertEquals(1, second.size());
+        assertEquals(1, mHelper.getQueryCache().getHitCount());
+
+        dao.insert(new Item("a"));
+        assertEquals(2, dao.queryList("name = ?", new String[]{"a"}).size());
+        assertEquals(1, mHelper.getQueryCache().getInvalidationCount());
+    }
+
+    @Test
+    public void modifyingResultDoesNotChangeCache() throws Exception {
+        ItemDao dao = new ItemDao(mHelper);
+        Item item = new Item("a");
+        item.data = new byte[]{1, 2};
+        dao.insert(item);
+
+        Item first = dao.queryList("name = ?", new String[]{"a"}).get(0);
+        first.name = "changed";
+        first.data[0] = 9;
+
+        Item second = dao.queryList("name = ?", new String[]{"a"}).get(0);
+        assertEquals(1, mHelper.getQueryCache().getHitCount());
+        assertTrue(first != second);
+        assertEquals("a", second.name);
+        assertEquals(1, second.data[0]);
+    }
+}
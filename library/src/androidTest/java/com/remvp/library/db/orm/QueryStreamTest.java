@@ -0,0 +1,101 @@
+package com.remvp.library.db.orm;
+
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.remvp.library.db.orm.annotation.Column;
+import com.remvp.library.db.orm.annotation.Id;
+import com.remvp.library.db.orm.annotation.Table;
+import com.remvp.library.db.orm.dao.BaseDao;
+import com.remvp.library.db.orm.dao.CloseableIterator;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 描述：逐行查询跨多页遍历时，期间的写入不会导致行被跳过或重复返回.
+ */
+@RunWith(AndroidJUnit4.class)
+public class QueryStreamTest {
+
+    private static final String DB_NAME = "query_stream_test.db";
+
+    private static final int ROWS = 1000;
+
+    @Table(name = "stream_row")
+    public static class Row {
+        @Id
+        @Column(name = "id")
+        public int id;
+
+        @Column(name = "value")
+        public int value;
+    }
+
+    static class RowDao extends BaseDao<Row> {
+        RowDao(DBHelper helper) {
+            super(helper, Row.class);
+        }
+    }
+
+    private Context mContext;
+    private DBHelper mHelper;
+
+    @Before
+    public void setUp() throws Exception {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mContext.deleteDatabase(DB_NAME);
+        mHelper = new DBHelper(mContext, DB_NAME, null, 1, new Class<?>[]{Row.class});
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mHelper.getConnectionManager().close();
+        mContext.deleteDatabase(DB_NAME);
+    }
+
+    @Test
+    public void writesDuringIterationDoNotShiftRows() throws Exception {
+        RowDao dao = new RowDao(mHelper);
+        for (String orderBy : new String[]{null, "value DESC"}) {
+            dao.deleteAll();
+            List<Row> rows = new ArrayList<Row>();
+            for (int i = 0; i < ROWS; i++) {
+                Row row = new Row();
+                row.value = i;
+                rows.add(row);
+            }
+            dao.insertList(rows);
+
+            Set<Integer> seen = new HashSet<Integer>();
+            CloseableIterator<Row> iterator = dao.queryStream(null, null, orderBy);
+            try {
+                int count = 0;
+                while (iterator.hasNext()) {
+                    Row row = iterator.next();
+                    assertTrue("duplicate " + row.id, seen.add(row.id));
+                    if (++count == 10) {
+                        // 删除已读过的行，后面的行号随之前移
+                        for (int id : seen) {
+                            dao.delete(id);
+                        }
+                    }
+                }
+            } finally {
+                iterator.close();
+            }
+            assertEquals(ROWS, seen.size());
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.remvp.library.db.orm;
+
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.remvp.library.db.orm.annotation.Column;
+import com.remvp.library.db.orm.annotation.Id;
+import com.remvp.library.db.orm.annotation.Table;
+import com.remvp.library.db.orm.dao.BaseDao;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 描述：queryCount与isExist由SQLite计算，缓存的总行数随写入更新.
+ */
+@RunWith(AndroidJUnit4.class)
+public class RowCountTest {
+
+    private static final String DB_NAME = "row_count_test.db";
+
+    @Table(name = "count_item")
+    public static class Item {
+        @Id
+        @Column(name = "id")
+        public int id;
+
+        @Column(name = "name")
+        public String name;
+
+        public Item() {
+        }
+
+        Item(String name) {
+            this.name = name;
+        }
+    }
+
+    static class ItemDao extends BaseDao<Item> {
+        ItemDao(DBHelper helper) {
+            super(helper, Item.class);
+        }
+    }
+
+    private Context mContext;
+    private DBHelper mHelper;
+
+    @Before
+    public void setUp() throws Exception {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mContext.deleteDatabase(DB_NAME);
+        mHelper = new DBHelper(mContext, DB_NAME, null, 1, new Class<?>[]{Item.class});
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mHelper.getConnectionManager().close();
+        mContext.deleteDatabase(DB_NAME);
+    }
+
+    @Test
+    public void rowCountFollowsWrites() throws Exception {
+        ItemDao dao = new ItemDao(mHelper);
+        assertEquals(0, dao.queryCount());
+        Item item = new Item("a");
+        dao.insert(item);
+        assertEquals(1, dao.queryCount());
+        dao.insert(new Item("b"));
+        assertEquals(2, dao.queryCount());
+        dao.delete(item.id);
+        assertEquals(1, dao.queryCount());
+    }
+
+    @Test
+    public void countAndExistWithCondition() throws Exception {
+        ItemDao dao = new ItemDao(mHelper);
+        dao.insert(new Item("a"));
+        dao.insert(new Item("a"));
+        dao.insert(new Item("b"));
+
+        assertEquals(2, dao.queryCount("name = ?", new String[]{"a"}));
+        assertTrue(dao.isExist("SELECT * FROM count_item WHERE name = ?", new String[]{"b"}));
+        assertFalse(dao.isExist("SELECT * FROM count_item WHERE name = ?", new String[]{"c"}));
+    }
+}
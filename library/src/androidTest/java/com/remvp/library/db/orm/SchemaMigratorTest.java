@@ -0,0 +1,212 @@
+package com.remvp.library.db.orm;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.remvp.library.db.orm.annotation.Column;
+import com.remvp.library.db.orm.annotation.Id;
+import com.remvp.library.db.orm.annotation.Index;
+import com.remvp.library.db.orm.annotation.Table;
+import com.remvp.library.db.orm.dao.BaseDao;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 描述：升级时沿一条路径执行手写步骤、新增列与索引，失败时整体回滚且版本号不变.
+ */
+@RunWith(AndroidJUnit4.class)
+public class SchemaMigratorTest {
+
+    private static final String DB_NAME = "schema_migrator_test.db";
+
+    @Table(name = "migrate_note")
+    public static class NoteV1 {
+        @Id
+        @Column(name = "id")
+        public int id;
+
+        @Column(name = "title")
+        public String title;
+    }
+
+    @Table(name = "migrate_note")
+    public static class NoteV2 {
+        @Id
+        @Column(name = "id")
+        public int id;
+
+        @Index
+        @Column(name = "title")
+        public String title;
+
+        @Column(name = "body")
+        public String body;
+    }
+
+    static class NoteV1Dao extends BaseDao<NoteV1> {
+        NoteV1Dao(DBHelper helper) {
+            super(helper, NoteV1.class);
+        }
+    }
+
+    static class NoteV2Dao extends BaseDao<NoteV2> {
+        NoteV2Dao(DBHelper helper) {
+            super(helper, NoteV2.class);
+        }
+    }
+
+    /**
+     * 记录执行过的步骤.
+     */
+    private static final class RecordingMigration extends Migration {
+        private final List<String> mLog;
+
+        RecordingMigration(int startVersion, int endVersion, List<String> log) {
+            super(startVersion, endVersion);
+            this.mLog = log;
+        }
+
+        @Override
+        public void migrate(SQLiteDatabase db) {
+            mLog.add(getStartVersion() + "->" + getEndVersion());
+        }
+    }
+
+    private Context mContext;
+    private DBHelper mHelper;
+
+    @Before
+    public void setUp() throws Exception {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mContext.deleteDatabase(DB_NAME);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (mHelper != null) {
+            mHelper.getConnectionManager().close();
+        }
+        mContext.deleteDatabase(DB_NAME);
+    }
+
+    @Test
+    public void upgradeRunsMigrationsAndAddsColumnsAndIndexes() throws Exception {
+        NoteV1 note = new NoteV1();
+        note.title = "hello";
+        new NoteV1Dao(reopen(1, NoteV1.class)).insert(note);
+
+        DBHelper v2 = reopen(2, NoteV2.class, new Migration(1, 2) {
+            @Override
+            public void migrate(SQLiteDatabase db) {
+                db.execSQL("UPDATE migrate_note SET title = upper(title)");
+            }
+        });
+        SQLiteDatabase db = v2.getConnectionManager().getDatabase();
+        assertEquals(2, db.getVersion());
+        assertTrue(columns(db).contains("body"));
+        assertTrue(DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM sqlite_master"
+                + " WHERE type = 'index' AND tbl_name = 'migrate_note'", null) > 0);
+        assertEquals("HELLO", new NoteV2Dao(v2).queryOne(note.id).title);
+    }
+
+    @Test
+    public void upgradeTakesTheLongestStepFromEachVersion() throws Exception {
+        reopen(1, NoteV1.class).getConnectionManager().getDatabase();
+
+        List<String> log = new ArrayList<String>();
+        reopen(4, NoteV2.class,
+                new RecordingMigration(1, 2, log),
+                new RecordingMigration(2, 3, log),
+                new RecordingMigration(1, 3, log),
+                new RecordingMigration(3, 4, log),
+                new RecordingMigration(3, 5, log)).getConnectionManager().getDatabase();
+        // 1->2与2->3被1->3覆盖，3->5超出新版本
+        assertEquals(Arrays.asList("1->3", "3->4"), log);
+    }
+
+    @Test
+    public void missingMigrationPathFailsAndKeepsVersion() throws Exception {
+        reopen(1, NoteV1.class).getConnectionManager().getDatabase();
+
+        List<String> log = new ArrayList<String>();
+        DBHelper v3 = reopen(3, NoteV2.class, new RecordingMigration(2, 3, log));
+        try {
+            v3.getConnectionManager().getDatabase();
+            fail("upgrade should fail");
+        } catch (IllegalStateException expected) {
+            // 没有从1开始的步骤，不能只靠自动对比升级
+        }
+        assertTrue(log.isEmpty());
+
+        SQLiteDatabase db = reopen(1, NoteV1.class).getConnectionManager().getDatabase();
+        assertEquals(1, db.getVersion());
+        assertFalse(columns(db).contains("body"));
+    }
+
+    @Test
+    public void failedUpgradeRollsBackAndKeepsVersion() throws Exception {
+        reopen(1, NoteV1.class).getConnectionManager().getDatabase();
+
+        DBHelper v2 = reopen(2, NoteV2.class, new Migration(1, 2) {
+            @Override
+            public void migrate(SQLiteDatabase db) {
+                db.execSQL("CREATE TABLE migrate_partial (id INTEGER)");
+                throw new IllegalStateException("broken migration");
+            }
+        });
+        try {
+            v2.getConnectionManager().getDatabase();
+            fail("upgrade should fail");
+        } catch (IllegalStateException expected) {
+            // 升级失败时异常抛出到打开数据库的调用方
+        }
+
+        SQLiteDatabase db = reopen(1, NoteV1.class).getConnectionManager().getDatabase();
+        assertEquals(1, db.getVersion());
+        assertFalse(columns(db).contains("body"));
+        assertEquals(0, DatabaseUtils.longForQuery(db,
+                "SELECT COUNT(*) FROM sqlite_master WHERE name = 'migrate_partial'", null));
+    }
+
+    /**
+     * 关闭之前打开的数据库，以指定版本重新打开.
+     */
+    private DBHelper reopen(int version, Class<?> modelClass, Migration... migrations) {
+        if (mHelper != null) {
+            mHelper.getConnectionManager().close();
+        }
+        mHelper = new DBHelper(mContext, DB_NAME, null, version, new Class<?>[]{modelClass});
+        mHelper.addMigrations(migrations);
+        return mHelper;
+    }
+
+    private static List<String> columns(SQLiteDatabase db) {
+        List<String> columns = new ArrayList<String>();
+        Cursor cursor = db.rawQuery("PRAGMA table_info(migrate_note)", null);
+        try {
+            int name = cursor.getColumnIndexOrThrow("name");
+            while (cursor.moveToNext()) {
+                columns.add(cursor.getString(name));
+            }
+        } finally {
+            cursor.close();
+        }
+        return columns;
+    }
+}
@@ -0,0 +1,125 @@
+package com.remvp.library.db.orm;
+
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.remvp.library.db.orm.annotation.Column;
+import com.remvp.library.db.orm.annotation.Id;
+import com.remvp.library.db.orm.annotation.Index;
+import com.remvp.library.db.orm.annotation.Table;
+import com.remvp.library.db.orm.dao.BaseDao;
+import com.remvp.library.db.orm.dao.ConflictStrategy;
+import com.remvp.library.db.orm.dao.UpsertOutcome;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * 描述：按主键或唯一索引的批量插入或更新.
+ */
+@RunWith(AndroidJUnit4.class)
+public class UpsertTest {
+
+    private static final String DB_NAME = "upsert_test.db";
+
+    @Table(name = "upsert_product")
+    public static class Product {
+        @Id
+        @Column(name = "id")
+        public int id;
+
+        @Index(unique = true)
+        @Column(name = "sku")
+        public String sku;
+
+        @Column(name = "name")
+        public String name;
+
+        public Product() {
+        }
+
+        Product(String sku, String name) {
+            this.sku = sku;
+            this.name = name;
+        }
+    }
+
+    static class ProductDao extends BaseDao<Product> {
+        ProductDao(DBHelper helper) {
+            super(helper, Product.class);
+        }
+    }
+
+    private Context mContext;
+    private DBHelper mHelper;
+
+    @Before
+    public void setUp() throws Exception {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mContext.deleteDatabase(DB_NAME);
+        mHelper = new DBHelper(mContext, DB_NAME, null, 1, new Class<?>[]{Product.class});
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mHelper.getConnectionManager().close();
+        mContext.deleteDatabase(DB_NAME);
+    }
+
+    @Test
+    public void insertsNewRows() throws Exception {
+        ProductDao dao = new ProductDao(mHelper);
+        List<UpsertOutcome> outcomes = dao.upsertList(
+                Arrays.asList(new Product("a", "A"), new Product("b", "B")), ConflictStrategy.UPDATE);
+        assertEquals(Arrays.asList(UpsertOutcome.INSERTED, UpsertOutcome.INSERTED), outcomes);
+        assertEquals(2, dao.queryCount());
+    }
+
+    @Test
+    public void updateByUniqueIndexKeepsId() throws Exception {
+        ProductDao dao = new ProductDao(mHelper);
+        Product original = new Product("a", "A");
+        dao.insert(original);
+
+        Product incoming = new Product("a", "A2");
+        List<UpsertOutcome> outcomes = dao.upsertList(Collections.singletonList(incoming), ConflictStrategy.UPDATE);
+        assertEquals(Collections.singletonList(UpsertOutcome.UPDATED), outcomes);
+        assertEquals(original.id, incoming.id);
+        assertEquals(1, dao.queryCount());
+        assertEquals("A2", dao.queryOne(original.id).name);
+    }
+
+    @Test
+    public void replaceByUniqueIndexKeepsId() throws Exception {
+        ProductDao dao = new ProductDao(mHelper);
+        Product original = new Product("a", "A");
+        dao.insert(original);
+
+        Product incoming = new Product("a", "A2");
+        dao.upsertList(Collections.singletonList(incoming), ConflictStrategy.REPLACE);
+        assertEquals(original.id, incoming.id);
+        assertEquals(1, dao.queryCount());
+        assertEquals("A2", dao.queryOne(original.id).name);
+    }
+
+    @Test
+    public void ignoreKeepsExistingRow() throws Exception {
+        ProductDao dao = new ProductDao(mHelper);
+        Product original = new Product("a", "A");
+        dao.insert(original);
+
+        List<UpsertOutcome> outcomes = dao.upsertList(
+                Collections.singletonList(new Product("a", "A2")), ConflictStrategy.IGNORE);
+        assertEquals(Collections.singletonList(UpsertOutcome.IGNORED), outcomes);
+        assertEquals("A", dao.queryOne(original.id).name);
+    }
+}
@@ -0,0 +1,110 @@
+package com.remvp.library.db.orm;
+
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.remvp.library.db.orm.annotation.Column;
+import com.remvp.library.db.orm.annotation.Id;
+import com.remvp.library.db.orm.annotation.Table;
+import com.remvp.library.db.orm.dao.BaseDao;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 描述：异步写队列的合并提交与失败后的逐个重试.
+ */
+@RunWith(AndroidJUnit4.class)
+public class WriteQueueTest {
+
+    private static final String DB_NAME = "write_queue_test.db";
+
+    @Table(name = "queue_event")
+    public static class Event {
+        @Id
+        @Column(name = "id")
+        public int id;
+
+        @Column(name = "name")
+        public String name;
+
+        public Event() {
+        }
+
+        Event(int id, String name) {
+            this.id = id;
+            this.name = name;
+        }
+    }
+
+    static class EventDao extends BaseDao<Event> {
+        EventDao(DBHelper helper) {
+            super(helper, Event.class);
+        }
+    }
+
+    private Context mContext;
+    private DBHelper mHelper;
+
+    @Before
+    public void setUp() throws Exception {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mContext.deleteDatabase(DB_NAME);
+        mHelper = new DBHelper(mContext, DB_NAME, null, 1, new Class<?>[]{Event.class});
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mHelper.getConnectionManager().close();
+        mContext.deleteDatabase(DB_NAME);
+    }
+
+    @Test
+    public void enqueuedInsertsAreCommitted() throws Exception {
+        EventDao dao = new EventDao(mHelper);
+        List<Future<Long>> futures = new ArrayList<Future<Long>>();
+        for (int i = 0; i < 100; i++) {
+            futures.add(dao.enqueueInsert(new Event(0, "e" + i)));
+        }
+        for (Future<Long> future : futures) {
+            assertTrue(future.get() >= 0);
+        }
+        assertEquals(100, dao.queryCount());
+        assertTrue(dao.getWriteQueue().getCommitCount() < 100);
+    }
+
+    @Test
+    public void failedOperationDoesNotAffectOthers() throws Exception {
+        EventDao dao = new EventDao(mHelper);
+        dao.insert(new Event(1, "existing"));
+
+        Event before = new Event(0, "before");
+        Event duplicate = new Event(1, "duplicate");
+        Event after = new Event(0, "after");
+        Future<Long> first = dao.enqueueInsert(before);
+        Future<Long> failed = dao.enqueueInsert(duplicate);
+        Future<Long> last = dao.enqueueInsert(after);
+
+        assertTrue(first.get() >= 0);
+        assertEquals(-1L, (long) failed.get());
+        assertTrue(last.get() >= 0);
+        assertEquals(3, dao.queryCount());
+        assertEquals("existing", dao.queryOne(1).name);
+
+        // 重试前写回的主键已恢复，实体的主键与最终写入的行一致
+        assertNotNull(dao.queryOne(before.id));
+        assertEquals("before", dao.queryOne(before.id).name);
+        assertEquals("after", dao.queryOne(after.id).name);
+    }
+}
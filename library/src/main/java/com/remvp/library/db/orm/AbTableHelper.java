@@ -15,18 +15,21 @@
  */
 package com.remvp.library.db.orm;
 
+import android.database.SQLException;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.text.TextUtils;
 import android.util.Log;
 
 import com.remvp.library.db.orm.annotation.Column;
 import com.remvp.library.db.orm.annotation.Id;
 import com.remvp.library.db.orm.annotation.RelationDao;
-import com.remvp.library.db.orm.annotation.Table;
 import com.remvp.library.util.AbStrUtil;
 
 import java.lang.reflect.Field;
 import java.sql.Blob;
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -73,11 +76,8 @@ public class AbTableHelper {
 	 * @param clazz 对象映射
 	 */
 	public static <T> void createTable(SQLiteDatabase db, Class<T> clazz) {
-		String tableName = "";
-		if (clazz.isAnnotationPresent(Table.class)) {
-			Table table = clazz.getAnnotation(Table.class);
-			tableName = table.name();
-		}
+		EntityMeta<T> meta = EntityMeta.of(clazz);
+		String tableName = meta.getTableName();
 		if(AbStrUtil.isEmpty(tableName)){
 			Log.d(TAG, "想要映射的实体["+clazz.getName()+"],未注解@Table(name=\"?\"),被跳过");
 			return;
@@ -85,33 +85,20 @@ public class AbTableHelper {
 		StringBuilder sb = new StringBuilder();
 		sb.append("CREATE TABLE ").append(tableName).append(" (");
 
-		List<Field> allFields = AbTableHelper.joinFieldsOnlyColumn(clazz.getDeclaredFields(), clazz.getSuperclass().getDeclaredFields());
-		for (Field field : allFields) {
-			if (!field.isAnnotationPresent(Column.class)) {
-				continue;
-			}
-
-			Column column = field.getAnnotation(Column.class);
-
-			String columnType = "";
-			if (column.type().equals(""))
-				columnType = getColumnType(field.getType());
-			else {
-				columnType = column.type();
-			}
-
-			sb.append(column.name() + " " + columnType);
+		for (ColumnMeta column : meta.getColumns()) {
+			if (column.isPrimaryKey() && column.isIntegral()) {
+				//整数主键作为rowid的别名，按id查询直接走rowid，不自增时也会自动生成
+				sb.append(column.getName() + " INTEGER PRIMARY KEY");
+			} else {
+				sb.append(column.getName() + " " + column.getType());
 
-			if (column.length() != 0) {
-				sb.append("(" + column.length() + ")");
+				if (column.getLength() != 0) {
+					sb.append("(" + column.getLength() + ")");
+				}
+				if (column.isPrimaryKey()) {
+					sb.append(" PRIMARY KEY");
+				}
 			}
-			//实体类定义为Integer类型后不能生成Id异常
-//			if ((field.isAnnotationPresent(Id.class))
-//					&& ((field.getType() == Integer.TYPE) || (field.getType() == Integer.class)))
-//				sb.append(" primary key autoincrement");
-//			else if (field.isAnnotationPresent(Id.class)) {
-//				sb.append(" primary key");
-//			}
 
 			sb.append(", ");
 		}
@@ -124,6 +111,163 @@ public class AbTableHelper {
 		Log.d(TAG, "crate table [" + tableName + "]: " + sql);
 
 		db.execSQL(sql);
+
+		createIndexes(db, clazz);
+		createFts(db, clazz);
+	}
+
+	/**
+	 * 创建实体上{@link com.remvp.library.db.orm.annotation.Index}声明的索引，已存在的索引不会重建.
+	 *
+	 * @param <T> the generic type
+	 * @param db 数据库对象
+	 * @param clazz 对象映射
+	 */
+	public static <T> void createIndexes(SQLiteDatabase db, Class<T> clazz) {
+		EntityMeta<T> meta = EntityMeta.of(clazz);
+		String tableName = meta.getTableName();
+		if(AbStrUtil.isEmpty(tableName)){
+			return;
+		}
+		for (IndexMeta index : meta.getIndexes()) {
+			String name = index.getName();
+			String[] columns = index.getColumns();
+			StringBuilder sb = new StringBuilder("CREATE ");
+			if (index.isUnique()) {
+				sb.append("UNIQUE ");
+			}
+			sb.append("INDEX IF NOT EXISTS ").append(name)
+					.append(" ON ").append(tableName).append(" (");
+			for (int j = 0; j < columns.length; j++) {
+				sb.append(j == 0 ? "" : ", ").append(columns[j]);
+			}
+			sb.append(")");
+			String sql = sb.toString();
+			Log.d(TAG, "create index [" + name + "]: " + sql);
+			try {
+				db.execSQL(sql);
+			} catch (SQLException e) {
+				//已有数据不满足唯一约束等情况，不影响其它索引
+				Log.e(TAG, "create index [" + name + "] failed: " + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * 为没有主键约束的旧表的主键列补建普通索引.
+	 * 旧版本建表时没有声明主键，已有数据可能重复，所以不使用唯一索引.
+	 *
+	 * @param <T> the generic type
+	 * @param db 数据库对象
+	 * @param clazz 对象映射
+	 */
+	public static <T> void createIdIndex(SQLiteDatabase db, Class<T> clazz) {
+		EntityMeta<T> meta = EntityMeta.of(clazz);
+		ColumnMeta id = meta.getIdColumn();
+		if (id == null || AbStrUtil.isEmpty(meta.getTableName())) {
+			return;
+		}
+		String name = IndexMeta.defaultName(meta.getTableName(), new String[]{id.getName()});
+		String sql = "CREATE INDEX IF NOT EXISTS " + name + " ON " + meta.getTableName()
+				+ " (" + id.getName() + ")";
+		Log.d(TAG, "create index [" + name + "]: " + sql);
+		db.execSQL(sql);
+	}
+
+	/**
+	 * 创建{@link com.remvp.library.db.orm.annotation.Fts}声明的全文索引表与同步的触发器.
+	 * 索引表不存在或列、分词器与实体不一致时重建，并写入表中已有的数据；触发器已存在时不会重建.
+	 *
+	 * @param <T> the generic type
+	 * @param db 数据库对象
+	 * @param clazz 对象映射
+	 */
+	public static <T> void createFts(SQLiteDatabase db, Class<T> clazz) {
+		EntityMeta<T> meta = EntityMeta.of(clazz);
+		String ftsTable = meta.getFtsTableName();
+		if (ftsTable == null) {
+			return;
+		}
+		String tableName = meta.getTableName();
+		String[] columns = meta.getFtsColumns();
+		String columnList = TextUtils.join(", ", columns);
+
+		StringBuilder sb = new StringBuilder("CREATE VIRTUAL TABLE ").append(ftsTable)
+				.append(" USING fts4(").append(columnList);
+		if (!AbStrUtil.isEmpty(meta.getFtsTokenizer())) {
+			sb.append(", tokenize=").append(meta.getFtsTokenizer());
+		}
+		sb.append(")");
+		String sql = sb.toString();
+		String existing = readSql(db, ftsTable);
+		if (!sql.equals(existing)) {
+			if (existing != null) {
+				dropFts(db, clazz);
+			}
+			Log.d(TAG, "create fts [" + ftsTable + "]: " + sql);
+			db.execSQL(sql);
+			db.execSQL("INSERT INTO " + ftsTable + " (docid, " + columnList + ") SELECT rowid, "
+					+ columnList + " FROM " + tableName);
+		}
+
+		StringBuilder values = new StringBuilder();
+		for (String column : columns) {
+			values.append(", new.").append(column);
+		}
+		String insert = "INSERT INTO " + ftsTable + " (docid, " + columnList + ") VALUES (new.rowid"
+				+ values + ");";
+		String delete = "DELETE FROM " + ftsTable + " WHERE docid = old.rowid;";
+		// 整数主键是rowid的别名，修改主键时docid也要随之修改
+		ColumnMeta id = meta.getIdColumn();
+		String updateOf = id != null && id.isIntegral() ? id.getName() + ", " + columnList : columnList;
+		// INSERT OR REPLACE替换旧行时不会触发删除触发器，先删除同一docid的旧记录
+		createTrigger(db, ftsTable + "_ai", "AFTER INSERT ON " + tableName,
+				"DELETE FROM " + ftsTable + " WHERE docid = new.rowid; " + insert);
+		createTrigger(db, ftsTable + "_au", "AFTER UPDATE OF " + updateOf + " ON " + tableName,
+				delete + " " + insert);
+		createTrigger(db, ftsTable + "_ad", "AFTER DELETE ON " + tableName, delete);
+	}
+
+	private static void createTrigger(SQLiteDatabase db, String name, String event, String body) {
+		String sql = "CREATE TRIGGER IF NOT EXISTS " + name + " " + event + " BEGIN " + body + " END";
+		Log.d(TAG, "create trigger [" + name + "]: " + sql);
+		db.execSQL(sql);
+	}
+
+	/**
+	 * 读取表或索引的建表语句.
+	 *
+	 * @return 不存在时为null
+	 */
+	private static String readSql(SQLiteDatabase db, String name) {
+		Cursor cursor = null;
+		try {
+			cursor = db.rawQuery("SELECT sql FROM sqlite_master WHERE name = ?", new String[]{name});
+			return cursor.moveToFirst() ? cursor.getString(0) : null;
+		} finally {
+			if (cursor != null) {
+				cursor.close();
+			}
+		}
+	}
+
+	/**
+	 * 删除全文索引表与同步的触发器.
+	 *
+	 * @param <T> the generic type
+	 * @param db 数据库对象
+	 * @param clazz 对象映射
+	 */
+	public static <T> void dropFts(SQLiteDatabase db, Class<T> clazz) {
+		EntityMeta<T> meta = EntityMeta.of(clazz);
+		String ftsTable = meta.getFtsTableName();
+		if (ftsTable == null) {
+			return;
+		}
+		db.execSQL("DROP TRIGGER IF EXISTS " + ftsTable + "_ai");
+		db.execSQL("DROP TRIGGER IF EXISTS " + ftsTable + "_au");
+		db.execSQL("DROP TRIGGER IF EXISTS " + ftsTable + "_ad");
+		db.execSQL("DROP TABLE IF EXISTS " + ftsTable);
 	}
 
 	/**
@@ -134,11 +278,8 @@ public class AbTableHelper {
 	 * @param clazz 对象映射
 	 */
 	public static <T> void dropTable(SQLiteDatabase db, Class<T> clazz) {
-		String tableName = "";
-		if (clazz.isAnnotationPresent(Table.class)) {
-			Table table = clazz.getAnnotation(Table.class);
-			tableName = table.name();
-		}
+		dropFts(db, clazz);
+		String tableName = EntityMeta.of(clazz).getTableName();
 		String sql = "DROP TABLE IF EXISTS " + tableName;
 		Log.d(TAG, "dropTable[" + tableName + "]:" + sql);
 		db.execSQL(sql);
@@ -148,9 +289,15 @@ public class AbTableHelper {
 	 * 获取列类型.
 	 *
 	 * @param fieldType the field type
+	 * @param typed 是否按{@link com.remvp.library.db.orm.annotation.StorageMode#typed}存储，
+	 *              Date、boolean、char为INTEGER
 	 * @return 列类型
 	 */
-	private static String getColumnType(Class<?> fieldType) {
+	static String getColumnType(Class<?> fieldType, boolean typed) {
+		if (typed && (Date.class == fieldType || Boolean.TYPE == fieldType
+				|| Boolean.class == fieldType || Character.TYPE == fieldType)) {
+			return "INTEGER";
+		}
 		if (String.class == fieldType) {
 			return "TEXT";
 		}
@@ -169,7 +316,7 @@ public class AbTableHelper {
 		if ((Double.TYPE == fieldType) || (Double.class == fieldType)) {
 			return "DOUBLE";
 		}
-		if (Blob.class == fieldType) {
+		if (Blob.class == fieldType || byte[].class == fieldType) {
 			return "BLOB";
 		}
 
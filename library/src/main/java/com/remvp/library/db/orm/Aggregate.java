@@ -0,0 +1,18 @@
+package com.remvp.library.db.orm;
+
+/**
+ * 描述：{@link Query}中的聚合函数.
+ */
+public enum Aggregate {
+    COUNT, SUM, AVG, MIN, MAX;
+
+    /**
+     * 聚合表达式.
+     *
+     * @param column 已解析的列，COUNT可以为"*"
+     * @return 例如SUM(t.price)
+     */
+    String of(String column) {
+        return name() + "(" + column + ")";
+    }
+}
@@ -0,0 +1,64 @@
+package com.remvp.library.db.orm;
+
+import android.database.sqlite.SQLiteStatement;
+
+import java.util.Date;
+
+/**
+ * 描述：绑定列值时需要转换存储格式的类型.
+ * 反射实现与orm-compiler生成的{@link ValueBinder}共用，保证两者写入的数据一致.
+ */
+public final class BindUtil {
+
+    private BindUtil() {
+    }
+
+    /**
+     * float按其十进制字符串的值写入，与旧版本以字符串写入REAL列的结果一致.
+     */
+    public static void bindFloat(SQLiteStatement statement, int index, float value) {
+        statement.bindDouble(index, Double.parseDouble(Float.toString(value)));
+    }
+
+    /**
+     * boolean写入"true"/"false".
+     */
+    public static void bindBoolean(SQLiteStatement statement, int index, boolean value) {
+        statement.bindString(index, value ? "true" : "false");
+    }
+
+    /**
+     * char写入单个字符的字符串.
+     */
+    public static void bindChar(SQLiteStatement statement, int index, char value) {
+        statement.bindString(index, String.valueOf(value));
+    }
+
+    /**
+     * typed格式的boolean写入1/0.
+     */
+    public static void bindTypedBoolean(SQLiteStatement statement, int index, boolean value) {
+        statement.bindLong(index, value ? 1 : 0);
+    }
+
+    /**
+     * typed格式的char写入字符编码.
+     */
+    public static void bindTypedChar(SQLiteStatement statement, int index, char value) {
+        statement.bindLong(index, value);
+    }
+
+    /**
+     * Date写入毫秒数.
+     */
+    public static void bindDate(SQLiteStatement statement, int index, Date value) {
+        statement.bindLong(index, value.getTime());
+    }
+
+    /**
+     * 从游标读取boolean，兼容"true"与"1".
+     */
+    public static boolean toBoolean(String value) {
+        return "true".equals(value) || "1".equals(value);
+    }
+}
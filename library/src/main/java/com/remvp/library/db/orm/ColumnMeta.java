@@ -0,0 +1,326 @@
+package com.remvp.library.db.orm;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteStatement;
+
+import com.remvp.library.db.orm.annotation.Column;
+import com.remvp.library.db.orm.annotation.Id;
+
+import java.lang.reflect.Field;
+import java.sql.Blob;
+import java.util.Date;
+
+/**
+ * 描述：实体中一个{@link Column}列的元数据.
+ * 列名、列类型、是否主键在创建时一次性解析，读写游标的方式也预先确定，
+ * 避免每一行数据都重复做注解查找与类型判断.
+ */
+public final class ColumnMeta {
+
+    /**
+     * 字段值与游标之间的转换方式.
+     */
+    enum Handler {
+        INT, LONG, SHORT, FLOAT, DOUBLE, STRING, DATE, BLOB, BYTES, CHAR, BOOLEAN, UNSUPPORTED
+    }
+
+    private final String name;
+    private final Field field;
+    private final Class<?> fieldType;
+    private final String type;
+    private final int length;
+    private final boolean primaryKey;
+    private final boolean primitive;
+    private final Handler handler;
+    /**
+     * 是否按{@link com.remvp.library.db.orm.annotation.StorageMode#typed}存储.
+     */
+    private final boolean typed;
+
+    ColumnMeta(Field field, boolean typed) {
+        Column column = field.getAnnotation(Column.class);
+        field.setAccessible(true);
+        this.field = field;
+        this.fieldType = field.getType();
+        this.name = column.name();
+        this.length = column.length();
+        this.primaryKey = field.isAnnotationPresent(Id.class);
+        this.primitive = fieldType.isPrimitive();
+        this.typed = typed;
+        this.type = column.type().equals("") ? AbTableHelper.getColumnType(fieldType, typed) : column.type();
+        this.handler = resolveHandler(fieldType);
+    }
+
+    /**
+     * 列名.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * 映射的字段，已设置为可访问.
+     */
+    public Field getField() {
+        return field;
+    }
+
+    public Class<?> getFieldType() {
+        return fieldType;
+    }
+
+    /**
+     * 建表时使用的列类型.
+     */
+    public String getType() {
+        return type;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    public boolean isPrimaryKey() {
+        return primaryKey;
+    }
+
+    /**
+     * 是否整数类型（int、long、short），整数主键建表为INTEGER PRIMARY KEY，即rowid.
+     */
+    public boolean isIntegral() {
+        return handler == Handler.INT || handler == Handler.LONG || handler == Handler.SHORT;
+    }
+
+    /**
+     * 是否浮点类型（float、double）.
+     */
+    public boolean isReal() {
+        return handler == Handler.FLOAT || handler == Handler.DOUBLE;
+    }
+
+    Handler getHandler() {
+        return handler;
+    }
+
+    boolean isTyped() {
+        return typed;
+    }
+
+    /**
+     * 读取实体中该列的值.
+     *
+     * @param entity 映射实体
+     * @return 字段值
+     * @throws IllegalAccessException the illegal access exception
+     */
+    public Object get(Object entity) throws IllegalAccessException {
+        return field.get(entity);
+    }
+
+    /**
+     * 设置实体中该列的值.
+     *
+     * @param entity 映射实体
+     * @param value  字段值，基本类型为对应的包装类型
+     * @throws IllegalAccessException the illegal access exception
+     */
+    public void set(Object entity, Object value) throws IllegalAccessException {
+        field.set(entity, value);
+    }
+
+    /**
+     * 从游标的当前行读取该列并设置到实体.
+     *
+     * @param cursor 游标
+     * @param index  列在游标中的位置，已预先解析
+     * @param entity 映射实体
+     * @throws IllegalAccessException the illegal access exception
+     */
+    public void read(Cursor cursor, int index, Object entity) throws IllegalAccessException {
+        switch (handler) {
+            case INT:
+                if (primitive) {
+                    field.setInt(entity, cursor.getInt(index));
+                } else {
+                    field.set(entity, cursor.getInt(index));
+                }
+                break;
+            case STRING:
+                field.set(entity, cursor.getString(index));
+                break;
+            case LONG:
+                if (primitive) {
+                    field.setLong(entity, cursor.getLong(index));
+                } else {
+                    field.set(entity, cursor.getLong(index));
+                }
+                break;
+            case FLOAT:
+                if (primitive) {
+                    field.setFloat(entity, cursor.getFloat(index));
+                } else {
+                    field.set(entity, cursor.getFloat(index));
+                }
+                break;
+            case SHORT:
+                if (primitive) {
+                    field.setShort(entity, cursor.getShort(index));
+                } else {
+                    field.set(entity, cursor.getShort(index));
+                }
+                break;
+            case DOUBLE:
+                if (primitive) {
+                    field.setDouble(entity, cursor.getDouble(index));
+                } else {
+                    field.set(entity, cursor.getDouble(index));
+                }
+                break;
+            case DATE:
+                // 处理java.util.Date类型,update2012-06-10
+                field.set(entity, new Date(cursor.getLong(index)));
+                break;
+            case BLOB:
+            case BYTES:
+                field.set(entity, cursor.getBlob(index));
+                break;
+            case CHAR: {
+                if (typed) {
+                    if (!cursor.isNull(index)) {
+                        field.setChar(entity, (char) cursor.getInt(index));
+                    }
+                    break;
+                }
+                String value = cursor.getString(index);
+                if ((value != null) && (value.length() > 0)) {
+                    field.setChar(entity, value.charAt(0));
+                }
+                break;
+            }
+            case BOOLEAN: {
+                boolean b = typed ? cursor.getLong(index) != 0 : BindUtil.toBoolean(cursor.getString(index));
+                if (primitive) {
+                    field.setBoolean(entity, b);
+                } else {
+                    field.set(entity, b);
+                }
+                break;
+            }
+            default:
+                break;
+        }
+    }
+
+    /**
+     * 把该列的值绑定到预编译语句.
+     *
+     * @param statement 预编译语句
+     * @param index     绑定位置，从1开始
+     * @param value     非空的字段值
+     */
+    public void bind(SQLiteStatement statement, int index, Object value) {
+        switch (handler) {
+            case INT:
+            case LONG:
+            case SHORT:
+                statement.bindLong(index, ((Number) value).longValue());
+                break;
+            case FLOAT:
+                BindUtil.bindFloat(statement, index, (Float) value);
+                break;
+            case DOUBLE:
+                statement.bindDouble(index, (Double) value);
+                break;
+            case DATE:
+                BindUtil.bindDate(statement, index, (Date) value);
+                break;
+            case BOOLEAN:
+                if (typed) {
+                    BindUtil.bindTypedBoolean(statement, index, (Boolean) value);
+                } else {
+                    BindUtil.bindBoolean(statement, index, (Boolean) value);
+                }
+                break;
+            case CHAR:
+                if (typed) {
+                    BindUtil.bindTypedChar(statement, index, (Character) value);
+                } else {
+                    BindUtil.bindChar(statement, index, (Character) value);
+                }
+                break;
+            case BYTES:
+                statement.bindBlob(index, (byte[]) value);
+                break;
+            default:
+                statement.bindString(index, String.valueOf(value));
+                break;
+        }
+    }
+
+    /**
+     * 把值转换为查询参数，格式与{@link #bind(SQLiteStatement, int, Object)}写入的一致.
+     *
+     * @param value 字段值，不能为null
+     * @return 参数
+     */
+    public String toArg(Object value) {
+        switch (handler) {
+            case BOOLEAN:
+                if (value instanceof Boolean) {
+                    boolean b = (Boolean) value;
+                    return typed ? (b ? "1" : "0") : (b ? "true" : "false");
+                }
+                break;
+            case CHAR:
+                if (value instanceof Character) {
+                    return typed ? String.valueOf((int) (Character) value) : String.valueOf(value);
+                }
+                break;
+            case DATE:
+                if (value instanceof Date) {
+                    return Long.toString(((Date) value).getTime());
+                }
+                break;
+            default:
+                break;
+        }
+        return String.valueOf(value);
+    }
+
+    private static Handler resolveHandler(Class<?> fieldType) {
+        if ((Integer.TYPE == fieldType) || (Integer.class == fieldType)) {
+            return Handler.INT;
+        }
+        if (String.class == fieldType) {
+            return Handler.STRING;
+        }
+        if ((Long.TYPE == fieldType) || (Long.class == fieldType)) {
+            return Handler.LONG;
+        }
+        if ((Float.TYPE == fieldType) || (Float.class == fieldType)) {
+            return Handler.FLOAT;
+        }
+        if ((Short.TYPE == fieldType) || (Short.class == fieldType)) {
+            return Handler.SHORT;
+        }
+        if ((Double.TYPE == fieldType) || (Double.class == fieldType)) {
+            return Handler.DOUBLE;
+        }
+        if (Date.class == fieldType) {
+            return Handler.DATE;
+        }
+        if (Blob.class == fieldType) {
+            return Handler.BLOB;
+        }
+        if (byte[].class == fieldType) {
+            return Handler.BYTES;
+        }
+        if (Character.TYPE == fieldType) {
+            return Handler.CHAR;
+        }
+        if ((Boolean.TYPE == fieldType) || (Boolean.class == fieldType)) {
+            return Handler.BOOLEAN;
+        }
+        return Handler.UNSUPPORTED;
+    }
+}
@@ -0,0 +1,161 @@
+package com.remvp.library.db.orm;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * 描述：{@link Query}的查询条件，值都作为?参数绑定，不拼接到sql中.
+ * 列名为主表的列或"关联表名.列"，在{@link Query}生成sql时按实体校验.
+ * 条件不可变，and、or返回新的条件.
+ */
+public final class Condition {
+
+    private static final String AND = "AND";
+    private static final String OR = "OR";
+    private static final String IN = "IN";
+    private static final String IS_NULL = "IS NULL";
+    private static final String IS_NOT_NULL = "IS NOT NULL";
+
+    private final String operator;
+    private final String column;
+    private final Object[] values;
+    private final Condition[] children;
+
+    private Condition(String operator, String column, Object[] values, Condition[] children) {
+        this.operator = operator;
+        this.column = column;
+        this.values = values;
+        this.children = children;
+    }
+
+    private static Condition compare(String column, String operator, Object value) {
+        if (value == null) {
+            throw new IllegalArgumentException(column + " " + operator + " null, use isNull/isNotNull");
+        }
+        return new Condition(operator, column, new Object[]{value}, null);
+    }
+
+    /**
+     * 等于，value为null时为IS NULL.
+     */
+    public static Condition eq(String column, Object value) {
+        return value == null ? isNull(column) : compare(column, "=", value);
+    }
+
+    /**
+     * 不等于，value为null时为IS NOT NULL.
+     */
+    public static Condition ne(String column, Object value) {
+        return value == null ? isNotNull(column) : compare(column, "<>", value);
+    }
+
+    public static Condition lt(String column, Object value) {
+        return compare(column, "<", value);
+    }
+
+    public static Condition le(String column, Object value) {
+        return compare(column, "<=", value);
+    }
+
+    public static Condition gt(String column, Object value) {
+        return compare(column, ">", value);
+    }
+
+    public static Condition ge(String column, Object value) {
+        return compare(column, ">=", value);
+    }
+
+    /**
+     * LIKE，通配符由调用方写在pattern中.
+     */
+    public static Condition like(String column, String pattern) {
+        return compare(column, "LIKE", pattern);
+    }
+
+    /**
+     * IN，值的个数不同时sql不同，空集合为恒假.
+     */
+    public static Condition in(String column, Collection<?> values) {
+        return new Condition(IN, column, values.toArray(), null);
+    }
+
+    public static Condition in(String column, Object... values) {
+        return in(column, Arrays.asList(values));
+    }
+
+    public static Condition isNull(String column) {
+        return new Condition(IS_NULL, column, null, null);
+    }
+
+    public static Condition isNotNull(String column) {
+        return new Condition(IS_NOT_NULL, column, null, null);
+    }
+
+    /**
+     * 所有条件都满足.
+     */
+    public static Condition and(Condition... conditions) {
+        return new Condition(AND, null, null, conditions.clone());
+    }
+
+    /**
+     * 满足任一条件.
+     */
+    public static Condition or(Condition... conditions) {
+        return new Condition(OR, null, null, conditions.clone());
+    }
+
+    public Condition and(Condition other) {
+        return and(this, other);
+    }
+
+    public Condition or(Condition other) {
+        return or(this, other);
+    }
+
+    /**
+     * 生成sql与参数.
+     *
+     * @param sql   输出的sql
+     * @param args  输出的参数
+     * @param query 用于解析列名与转换参数
+     */
+    void appendTo(StringBuilder sql, List<String> args, Query<?> query) {
+        if (children != null && children.length == 0) {
+            sql.append(AND.equals(operator) ? '1' : '0');
+            return;
+        }
+        if (children != null) {
+            sql.append('(');
+            for (int i = 0; i < children.length; i++) {
+                if (i > 0) {
+                    sql.append(' ').append(operator).append(' ');
+                }
+                children[i].appendTo(sql, args, query);
+            }
+            sql.append(')');
+            return;
+        }
+        String qualified = query.qualify(column);
+        if (values == null) {
+            sql.append(qualified).append(' ').append(operator);
+            return;
+        }
+        if (IN.equals(operator)) {
+            if (values.length == 0) {
+                sql.append('0');
+                return;
+            }
+            sql.append(qualified).append(" IN (");
+            for (int i = 0; i < values.length; i++) {
+                sql.append(i == 0 ? "?" : ",?");
+                args.add(query.toArg(column, values[i]));
+            }
+            sql.append(')');
+            return;
+        }
+        sql.append(qualified).append(' ').append(operator).append(" ?");
+        args.add(query.toArg(column, values[0]));
+    }
+}
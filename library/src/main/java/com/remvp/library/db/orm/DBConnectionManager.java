@@ -0,0 +1,110 @@
+package com.remvp.library.db.orm;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
+import android.util.Log;
+
+/**
+ * 描述：{@link DBHelper}的长连接.
+ * 数据库只打开一次，所有Dao共用同一个{@link SQLiteDatabase}，不再每次操作后关闭.
+ * 开启WAL后读操作使用连接池中的只读连接，可以与唯一的写连接并行.
+ * 通过{@link DBHelper#getConnectionManager()}获取.
+ */
+public final class DBConnectionManager {
+
+    private static final String TAG = "DBConnectionManager";
+
+    private final DBHelper mHelper;
+
+    private final boolean mWriteAheadLogging;
+
+    private volatile SQLiteDatabase mDatabase;
+
+    DBConnectionManager(DBHelper helper, boolean writeAheadLogging) {
+        this.mHelper = helper;
+        this.mWriteAheadLogging = writeAheadLogging;
+    }
+
+    /**
+     * 共用的数据库，首次调用时打开.
+     *
+     * @return 已打开的数据库
+     */
+    public SQLiteDatabase getDatabase() {
+        SQLiteDatabase db = mDatabase;
+        if (db != null && db.isOpen()) {
+            return db;
+        }
+        synchronized (this) {
+            db = mDatabase;
+            if (db == null || !db.isOpen()) {
+                db = open();
+                mDatabase = db;
+            }
+            return db;
+        }
+    }
+
+    private SQLiteDatabase open() {
+        if (mWriteAheadLogging && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            // 需要在打开之前设置
+            mHelper.setWriteAheadLoggingEnabled(true);
+        }
+        SQLiteDatabase db = mHelper.getWritableDatabase();
+        if (mWriteAheadLogging && Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            db.enableWriteAheadLogging();
+        }
+        boolean wal = isWriteAheadLoggingEnabled(db);
+        Log.i(TAG, "DBConnectionManager: open: [wal]=" + wal);
+        // WAL下读操作由连接池并发处理，不需要读锁
+        mHelper.getDBLock().setConcurrentReads(wal);
+        return db;
+    }
+
+    /**
+     * 是否已开启WAL，开启后读写可以并行.
+     */
+    public boolean isWriteAheadLoggingEnabled() {
+        SQLiteDatabase db = mDatabase;
+        return db != null && db.isOpen() && isWriteAheadLoggingEnabled(db);
+    }
+
+    private static boolean isWriteAheadLoggingEnabled(SQLiteDatabase db) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            return db.isWriteAheadLoggingEnabled();
+        }
+        // API 16以下没有查询接口，以journal_mode为准
+        Cursor cursor = null;
+        try {
+            cursor = db.rawQuery("PRAGMA journal_mode", null);
+            return cursor.moveToFirst() && "wal".equalsIgnoreCase(cursor.getString(0));
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+    }
+
+    /**
+     * 关闭连接，之后再调用{@link #getDatabase()}会重新打开.
+     * 只在不再使用数据库时调用，例如应用退出.
+     * 持有写锁关闭，等待进行中的写操作（以及未开启WAL时的读操作）结束；
+     * 开启WAL后读操作不加锁，调用前需要结束所有查询.
+     */
+    public void close() {
+        DBLock lock = mHelper.getDBLock();
+        // 与写操作相同，先获取写锁再同步，顺序一致不会死锁
+        lock.lockWrite();
+        try {
+            synchronized (this) {
+                if (mDatabase != null) {
+                    mDatabase = null;
+                    mHelper.close();
+                }
+            }
+        } finally {
+            lock.unlockWrite();
+        }
+    }
+}
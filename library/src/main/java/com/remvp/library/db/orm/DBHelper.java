@@ -16,28 +16,23 @@
 package com.remvp.library.db.orm;
 
 import android.content.Context;
-import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteDatabase.CursorFactory;
 import android.database.sqlite.SQLiteOpenHelper;
-import android.text.TextUtils;
 import android.util.Log;
 
-import com.remvp.library.db.orm.annotation.Table;
 import com.remvp.library.util.AbStrUtil;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
 
 
 /**
  * The Class DBHelper.java
  * 描述：手机data/data下面的数据库
- * 对于更新数据库，只更新新增表和新增表的列 {@link #onUpgrade(SQLiteDatabase)}
+ * 对于更新数据库，由{@link SchemaMigrator}执行手写的升级步骤，再新增表和新增表的列，并补建缺少的索引
  * 对于删除表和删除列未做处理
  */
 public class DBHelper extends SQLiteOpenHelper {
@@ -52,6 +47,36 @@ public class DBHelper extends SQLiteOpenHelper {
      */
     private static AtomicInteger mAtomicInteger = new AtomicInteger();
 
+    /**
+     * 同一个数据库的所有Dao共用的读写锁
+     */
+    private final DBLock mDBLock = new DBLock();
+
+    /**
+     * 所有Dao共用的嵌套事务状态
+     */
+    private final TransactionState mTransactionState = new TransactionState();
+
+    /**
+     * 所有Dao共用的长连接
+     */
+    private final DBConnectionManager mConnectionManager;
+
+    /**
+     * 所有Dao共用的表修改记录
+     */
+    private final InvalidationTracker mInvalidationTracker;
+
+    /**
+     * 查询结果缓存，未开启时为null
+     */
+    private volatile QueryCache mQueryCache;
+
+    /**
+     * 手写的升级步骤
+     */
+    private final List<Migration> mMigrations = new ArrayList<Migration>();
+
     /**
      * 初始化一个AbSDDBHelper.
      *
@@ -63,326 +88,171 @@ public class DBHelper extends SQLiteOpenHelper {
      */
     public DBHelper(Context context, String name, CursorFactory factory,
                     int version, Class<?>[] modelClasses) {
-        super(context, name, factory, version);
-        this.modelClasses = modelClasses;
+        this(context, name, factory, version, modelClasses, true);
     }
 
     /**
-     * 描述：表的创建.
+     * 初始化一个AbSDDBHelper.
      *
-     * @param db 数据库对象
+     * @param context           应用context
+     * @param name              数据库名
+     * @param factory           数据库查询的游标工厂
+     * @param version           数据库的新版本号
+     * @param modelClasses      要初始化的表的对象
+     * @param writeAheadLogging 是否开启WAL，开启后读操作可以与写操作并行
      */
-    @Override
-    public void onCreate(SQLiteDatabase db) {
-        AbTableHelper.createTablesByClasses(db, this.modelClasses);
+    public DBHelper(Context context, String name, CursorFactory factory,
+                    int version, Class<?>[] modelClasses, boolean writeAheadLogging) {
+        super(context, name, factory, version);
+        this.modelClasses = modelClasses;
+        this.mConnectionManager = new DBConnectionManager(this, writeAheadLogging);
+        this.mInvalidationTracker = new InvalidationTracker(getTrackedTables(modelClasses));
+        // 事务提交后、释放写锁前再增加一次版本号：
+        // WAL下读连接不加锁，在第一次增加之后、提交之前读到旧数据的查询不能按新版本号缓存
+        this.mDBLock.setBeforeReleaseListener(new Runnable() {
+            @Override
+            public void run() {
+                mInvalidationTracker.invalidatePendingAgain();
+            }
+        });
+        // 写锁的最外层释放时事务已提交或回滚，此时通知观察者
+        this.mDBLock.setReleaseListener(new Runnable() {
+            @Override
+            public void run() {
+                mInvalidationTracker.dispatchPending();
+            }
+        });
     }
 
     /**
-     * 描述：表的重建.
+     * 映射实体的表与其关联表
      *
-     * @param db         数据库对象
-     * @param oldVersion 旧版本号
-     * @param newVersion 新版本号
-     *                   int, int)
+     * @param modelClasses
+     * @return
      */
-    @Override
-    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        Log.i(TAG, "DBHelper: onUpgrade: [uuuuuuu]="
-                + "  oldVersion=" + oldVersion + "  newVersion" + newVersion);
-        try {
-//            List olderTables = saveOldTables(db, this.modelClasses);
-//            onCreate(db);
-//            restoreData(db, this.modelClasses, olderTables);
-            onUpgrade(db);
-            Log.i(TAG, "DBHelper: onUpgrade: [sssssss]="
-                    + "成功了");
-        } catch (Exception e) {
-            Log.i(TAG, "DBHelper: onUpgrade: [eeeee]="
-                    + e);
+    private static List<String> getTrackedTables(Class<?>[] modelClasses) {
+        List<String> tables = new ArrayList<>();
+        for (Class<?> clazz : modelClasses) {
+            EntityMeta<?> meta = EntityMeta.of(clazz);
+            if (!AbStrUtil.isEmpty(meta.getTableName())) {
+                tables.add(meta.getTableName());
+            }
+            for (RelationMeta relation : meta.getRelations()) {
+                if (!AbStrUtil.isEmpty(relation.getChildTableName())) {
+                    tables.add(relation.getChildTableName());
+                }
+            }
         }
-
+        return tables;
     }
 
     /**
-     * 更新数据库，只实现了新建表和新增表的列
+     * 描述：表的创建.
      *
-     * @param db
+     * @param db 数据库对象
      */
-    private void onUpgrade(SQLiteDatabase db) {
-        List<String> oldTables = getOldTables(db);
-        List<String> newTables = getNewTables();
-        Map<String, Integer> map = getDiff(oldTables, newTables);
-        for (Map.Entry<String, Integer> entry : map.entrySet()) {
-            if (entry.getValue() == 1) {
-                //删除表
-//                String sql = "DROP TABLE IF EXISTS " + entry.getKey();
-//                Log.d(TAG, "dropTable[" + entry.getKey() + "]:" + sql);
-//                db.execSQL(sql);
-            } else if (entry.getValue() == 2) {
-                //新建表
-                Class<?> clazz = getClassByTableName(entry.getKey());
-                if (clazz != null) {
-                    AbTableHelper.createTable(db, clazz);
-                }
-                Log.d(TAG, "onUpgrade: create table" + entry.getKey());
-            } else {
-                //更新表
-                String tableName = entry.getKey();
-                onUpgradeColumns(db, tableName);
-            }
-        }
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        new SchemaMigrator(this.modelClasses, mMigrations).create(db);
     }
 
     /**
-     * 更新表的列，只实现了新增列
+     * 描述：数据库升级，先沿一条从旧版本到新版本的路径执行{@link #addMigrations(Migration...)}注册的步骤，
+     * 再新建缺少的表、新增缺少的列并补建索引，实体结构与上次升级相同时跳过对比.
+     * 整个升级在一个事务中，失败时回滚并抛出异常，getWritableDatabase随之失败，下次打开时重试.
      *
-     * @param db
-     * @param tableName
+     * @param db         数据库对象
+     * @param oldVersion 旧版本号
+     * @param newVersion 新版本号
+     * @throws RuntimeException 升级失败，已回滚
      */
-    private void onUpgradeColumns(SQLiteDatabase db, String tableName) {
-        Class<?> clazz = getClassByTableName(tableName);
-        List<String> oldColumns = getColumns(db, tableName);
-        List<String> newColumns = getColumns(clazz, tableName);
-        Map<String, Integer> map = getDiff(oldColumns, newColumns);
-        for (Map.Entry<String, Integer> entry : map.entrySet()) {
-            if (entry.getValue() == 1) {
-                //删除列
-                Log.d(TAG, "onUpgradeColumns: delete 暂不执行");
-            } else if (entry.getValue() == 2) {
-                //新建列
-                String columnName = entry.getKey();
-                String columnType = getColumnType(clazz, tableName, entry.getKey());
-                StringBuilder sql = new StringBuilder("ALTER TABLE ");
-                sql.append(tableName)
-                        .append(" ADD COLUMN '").append(columnName)
-                        .append("' ").append(columnType)
-                        .append(";");
-                db.execSQL(sql.toString());
-                Log.d(TAG, "onUpgradeColumns: " + sql.toString());
-            }
-        }
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        Log.i(TAG, "DBHelper: onUpgrade: oldVersion=" + oldVersion + "  newVersion=" + newVersion);
+        new SchemaMigrator(this.modelClasses, mMigrations).upgrade(db, oldVersion, newVersion);
     }
 
     /**
-     * 对比两个列表的不同，返回Map<String, Integer>
+     * 注册手写的升级步骤，需要在数据库打开之前调用，一般在子类的构造方法中
      *
-     * @param one
-     * @param two
-     * @return key是列表的值，value 1：只有第一个列表有，2：只有第二个列表有，3：两个列表都有
+     * @param migrations 升级步骤
      */
-    private Map<String, Integer> getDiff(List<String> one, List<String> two) {
-        Map<String, Integer> map = new HashMap<String, Integer>(one.size() + two.size());
-        for (String string : one) {
-            map.put(string, 1);
-        }
-        for (String string : two) {
-            Integer cc = map.get(string);
-            if (cc != null) {
-                map.put(string, 3);
-                continue;
-            }
-            map.put(string, 2);
-        }
-        return map;
-    }
-
-    private Class<?> getClassByTableName(String tableName) {
-        for (Class<?> clazz : this.modelClasses) {
-            if (tableName.equals(getTableName(clazz))) {
-                return clazz;
-            }
-        }
-        return null;
+    public void addMigrations(Migration... migrations) {
+        mMigrations.addAll(Arrays.asList(migrations));
     }
 
     /**
-     * 获取当前数据库(低版本)内表名集合
-     *
-     * @param db
-     * @return
+     * 所有Dao共用的长连接
      */
-    private List<String> getOldTables(SQLiteDatabase db) {
-        List<String> list = new ArrayList<>();
-        Cursor cursor = db.rawQuery("select name from sqlite_master where type='table';", null);
-        while (cursor.moveToNext()) {
-            //遍历出表名
-            String tablename = cursor.getString(0);
-            list.add(tablename);
-        }
-        return list;
+    public DBConnectionManager getConnectionManager() {
+        return mConnectionManager;
     }
 
     /**
-     * 通过{@link #modelClasses}获取新版本表名集合
-     *
-     * @return
+     * 同一个数据库的所有Dao共用的读写锁
      */
-    private List<String> getNewTables() {
-        List<String> list = new ArrayList<>();
-        for (Class<?> clazz : this.modelClasses) {
-            list.add(getTableName(clazz));
-        }
-        return list;
+    public DBLock getDBLock() {
+        return mDBLock;
     }
 
     /**
-     * 根据注解class获取列集合
-     *
-     * @param clazz
-     * @param tableName
-     * @return
+     * 所有Dao共用的嵌套事务状态
      */
-    private List<String> getColumns(Class<?> clazz, String tableName) {
-        DaoConfig daoConfig = new DaoConfig(clazz, tableName);
-        List<String> properties = new ArrayList();
-        for (int j = 0; j < daoConfig.properties.length; j++) {
-            String columnName = daoConfig.properties[j].columnName;
-            properties.add(columnName);
-        }
-        return properties;
+    public TransactionState getTransactionState() {
+        return mTransactionState;
     }
 
     /**
-     * 获取列的类型
-     *
-     * @param clazz
-     * @param tableName
-     * @param columnsName
-     * @return
+     * 所有Dao共用的表修改记录
      */
-    private String getColumnType(Class<?> clazz, String tableName, String columnsName) {
-        DaoConfig daoConfig = new DaoConfig(clazz, tableName);
-        for (int j = 0; j < daoConfig.properties.length; j++) {
-            String columnName = daoConfig.properties[j].columnName;
-            if (columnName.equals(columnsName)) {
-                return daoConfig.properties[j].type;
-            }
-        }
-        return "TEXT";
+    public InvalidationTracker getInvalidationTracker() {
+        return mInvalidationTracker;
     }
 
     /**
-     * 根据注解class获取表名
+     * 开启或关闭查询结果缓存，所有Dao的queryList与queryRaw共用
      *
-     * @param daoClasses
-     * @return
+     * @param maxBytes 估算的最大内存，字节，0为关闭
      */
-    private String getTableName(Class<?> daoClasses) {
-        String tablename = "";
-        if (daoClasses.isAnnotationPresent(Table.class)) {
-            Table table = daoClasses.getAnnotation(Table.class);
-            tablename = table.name();
-        }
-        if (AbStrUtil.isEmpty(tablename)) {
-            Log.i(TAG, "DaoConfig: DaoConfig: [daoClasses]="
-                    + "想要映射的实体[" + daoClasses.getName() + "],未注解@Table(name=\"?\"),被跳过");
-
-        }
-        return tablename;
+    public void setQueryCacheSize(int maxBytes) {
+        mQueryCache = maxBytes > 0 ? new QueryCache(mInvalidationTracker, maxBytes) : null;
     }
 
-    private List<String> saveOldTables(SQLiteDatabase db, Class<?>[] daoClasses) {
-        List<String> list = new ArrayList<>();
-        Cursor cursor = db.rawQuery("select name from sqlite_master where type='table';", null);
-        while (cursor.moveToNext()) {
-            //遍历出表名
-            String tablename = cursor.getString(0);
-            list.add(tablename);
-            Log.d(TAG, "DBHelper: onUpgrade: [*********]="
-                    + tablename);
-            String tempTableName = tablename.concat("_TEMP");
-            StringBuilder builder = new StringBuilder();
-            builder.append("ALTER TABLE ")
-                    .append(tablename)
-                    .append(" RENAME TO ")
-                    .append(tempTableName);
-            db.execSQL(builder.toString());
-        }
-        return list;
-    }
-
-    private void restoreData(SQLiteDatabase db, Class<?>[] daoClasses, List olderTables) {
-
-        for (int i = 0; i < daoClasses.length; i++) {
-            String table = getTableName(daoClasses[i]);
-            if (AbStrUtil.isEmpty(table) || !olderTables.contains(table)) {
-                continue;
-            }
-            DaoConfig daoConfig = new DaoConfig(daoClasses[i], table);
-
-            String tableName = daoConfig.mTableName;
-            String tempTableName = daoConfig.mTableName.concat("_TEMP");
-            ArrayList<String> properties = new ArrayList();
-            for (int j = 0; j < daoConfig.properties.length; j++) {
-                String columnName = daoConfig.properties[j].columnName;
-
-                if (getColumns(db, tempTableName).contains(columnName)) {
-                    properties.add(columnName);
-                }
-            }
-            StringBuilder insertTableStringBuilder = new StringBuilder();
-            insertTableStringBuilder.append("INSERT INTO ").append(tableName).append(" (");
-            insertTableStringBuilder.append(TextUtils.join(",", properties));
-            insertTableStringBuilder.append(") SELECT ");
-            insertTableStringBuilder.append(TextUtils.join(",", properties));
-            insertTableStringBuilder.append(" FROM ").append(tempTableName).append(";");
-
-            StringBuilder dropTableStringBuilder = new StringBuilder();
-
-            dropTableStringBuilder.append("DROP TABLE ").append(tempTableName);
-
-            db.execSQL(insertTableStringBuilder.toString());
-            Log.i(TAG, "DBHelper: restoreData: [rrr11111]="
-                    + insertTableStringBuilder.toString());
-            db.execSQL(dropTableStringBuilder.toString());
-            Log.i(TAG, "DBHelper: restoreData: [rrr22222]="
-                    + dropTableStringBuilder.toString());
-        }
-    }
-
-
     /**
-     * 根据当前数据库的表名获取表的列集合
+     * 查询结果缓存
      *
-     * @param db
-     * @param tableName
-     * @return
+     * @return 未开启时为null
      */
-    private List<String> getColumns(SQLiteDatabase db, String tableName) {
-        List<String> columns = new ArrayList<>();
-        Cursor cursor = null;
-        try {
-            cursor = db.rawQuery("SELECT * FROM " + tableName + " limit 1", null);
-            if (cursor != null) {
-                columns = new ArrayList<>(Arrays.asList(cursor.getColumnNames()));
-            }
-        } catch (Exception e) {
-            Log.v(tableName, e.getMessage(), e);
-            e.printStackTrace();
-        } finally {
-            if (cursor != null)
-                cursor.close();
-        }
-        return columns;
+    public QueryCache getQueryCache() {
+        return mQueryCache;
     }
 
     /**
      * 关闭数据库
+     *
+     * @deprecated 数据库由{@link DBConnectionManager}长期持有，Dao不再关闭数据库
      */
+    @Deprecated
     public boolean canCloseDb() {
         return mAtomicInteger.decrementAndGet() == 0;
     }
 
     /**
      * 计算访问数据库库个数
+     *
+     * @deprecated 数据库由{@link DBConnectionManager}长期持有，Dao不再关闭数据库
      */
+    @Deprecated
     public void openDb() {
         mAtomicInteger.incrementAndGet();
     }
 
     /**
      * 计算访问数据库库个数
+     *
+     * @deprecated 数据库由{@link DBConnectionManager}长期持有，Dao不再关闭数据库
      */
+    @Deprecated
     public boolean isOpenDb() {
         return mAtomicInteger.get() == 0;
     }
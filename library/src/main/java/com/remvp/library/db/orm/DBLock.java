@@ -0,0 +1,171 @@
+package com.remvp.library.db.orm;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 描述：同一个{@link DBHelper}的所有Dao共用的读写锁.
+ * 写操作（含事务）持有写锁，同一时刻只有一个线程写入；读操作持有读锁，多个线程可以同时读.
+ * 开启WAL后读操作使用独立的只读连接，不再需要读锁，{@link #lockRead()}直接返回.
+ * <p>
+ * 锁不可升级：持有读锁时不能再获取写锁.
+ * 每次需要等待时记录次数与等待时间，用于观察锁竞争.
+ */
+public final class DBLock {
+
+    private final ReentrantReadWriteLock mLock = new ReentrantReadWriteLock();
+
+    /**
+     * 读操作是否由连接池并发处理，不需要读锁.
+     */
+    private volatile boolean mConcurrentReads;
+
+    /**
+     * 当前线程完全释放写锁后执行，用于在提交之后通知表的修改.
+     */
+    private volatile Runnable mReleaseListener;
+
+    /**
+     * 当前线程即将完全释放写锁时执行，此时事务已结束、其它线程还不能写入.
+     */
+    private volatile Runnable mBeforeReleaseListener;
+
+    private final AtomicLong mReadContentions = new AtomicLong();
+    private final AtomicLong mReadWaitNanos = new AtomicLong();
+    private final AtomicLong mWriteContentions = new AtomicLong();
+    private final AtomicLong mWriteWaitNanos = new AtomicLong();
+
+    DBLock() {
+    }
+
+    /**
+     * 由{@link DBConnectionManager}在打开数据库后设置.
+     *
+     * @param concurrentReads 是否开启了WAL
+     */
+    void setConcurrentReads(boolean concurrentReads) {
+        this.mConcurrentReads = concurrentReads;
+    }
+
+    /**
+     * 由{@link DBHelper}设置，写锁的最外层释放后执行.
+     */
+    void setReleaseListener(Runnable listener) {
+        this.mReleaseListener = listener;
+    }
+
+    /**
+     * 由{@link DBHelper}设置，写锁的最外层释放前执行.
+     */
+    void setBeforeReleaseListener(Runnable listener) {
+        this.mBeforeReleaseListener = listener;
+    }
+
+    /**
+     * 获取读锁.
+     *
+     * @return 是否真正获取了锁，需要传给{@link #unlockRead(boolean)}
+     */
+    public boolean lockRead() {
+        if (mConcurrentReads) {
+            return false;
+        }
+        ReentrantReadWriteLock.ReadLock readLock = mLock.readLock();
+        if (!readLock.tryLock()) {
+            long start = System.nanoTime();
+            readLock.lock();
+            mReadWaitNanos.addAndGet(System.nanoTime() - start);
+            mReadContentions.incrementAndGet();
+        }
+        return true;
+    }
+
+    /**
+     * 释放读锁.
+     *
+     * @param locked {@link #lockRead()}的返回值
+     */
+    public void unlockRead(boolean locked) {
+        if (locked) {
+            mLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 获取写锁，可重入.
+     */
+    public void lockWrite() {
+        ReentrantReadWriteLock.WriteLock writeLock = mLock.writeLock();
+        if (!writeLock.tryLock()) {
+            long start = System.nanoTime();
+            writeLock.lock();
+            mWriteWaitNanos.addAndGet(System.nanoTime() - start);
+            mWriteContentions.incrementAndGet();
+        }
+    }
+
+    /**
+     * 释放写锁，最外层释放时事务已结束，通知表的修改.
+     */
+    public void unlockWrite() {
+        Runnable beforeRelease = mBeforeReleaseListener;
+        if (beforeRelease != null && mLock.getWriteHoldCount() == 1) {
+            try {
+                beforeRelease.run();
+            } finally {
+                mLock.writeLock().unlock();
+            }
+        } else {
+            mLock.writeLock().unlock();
+        }
+        Runnable listener = mReleaseListener;
+        if (listener != null && !mLock.isWriteLockedByCurrentThread()) {
+            listener.run();
+        }
+    }
+
+    /**
+     * 是否有线程持有写锁.
+     */
+    public boolean isWriteLocked() {
+        return mLock.isWriteLocked();
+    }
+
+    /**
+     * 获取读锁时需要等待的次数.
+     */
+    public long getReadContentionCount() {
+        return mReadContentions.get();
+    }
+
+    /**
+     * 获取读锁的累计等待时间，毫秒.
+     */
+    public long getReadWaitMillis() {
+        return mReadWaitNanos.get() / 1000000L;
+    }
+
+    /**
+     * 获取写锁时需要等待的次数.
+     */
+    public long getWriteContentionCount() {
+        return mWriteContentions.get();
+    }
+
+    /**
+     * 获取写锁的累计等待时间，毫秒.
+     */
+    public long getWriteWaitMillis() {
+        return mWriteWaitNanos.get() / 1000000L;
+    }
+
+    /**
+     * 清零竞争统计.
+     */
+    public void resetStats() {
+        mReadContentions.set(0);
+        mReadWaitNanos.set(0);
+        mWriteContentions.set(0);
+        mWriteWaitNanos.set(0);
+    }
+}
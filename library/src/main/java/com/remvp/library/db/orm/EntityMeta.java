@@ -0,0 +1,483 @@
+package com.remvp.library.db.orm;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import com.remvp.library.db.orm.annotation.Column;
+import com.remvp.library.db.orm.annotation.Fts;
+import com.remvp.library.db.orm.annotation.Index;
+import com.remvp.library.db.orm.annotation.Indexes;
+import com.remvp.library.db.orm.annotation.RelationDao;
+import com.remvp.library.db.orm.annotation.StorageMode;
+import com.remvp.library.db.orm.annotation.Table;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 描述：映射实体的元数据，包括表名、主键、按建表顺序排列的列以及关联字段.
+ * 每个实体类只通过反射解析一次，结果在进程内缓存并共享，创建后不可变.
+ * 通过{@link #of(Class)}获取.
+ */
+public final class EntityMeta<T> {
+
+    private static final String TAG = "EntityMeta";
+
+    /**
+     * 进程内缓存，每个实体类一份.
+     */
+    private static final ConcurrentHashMap<Class<?>, EntityMeta<?>> CACHE =
+            new ConcurrentHashMap<Class<?>, EntityMeta<?>>();
+
+    private final Class<T> entityClass;
+    private final Constructor<T> constructor;
+    private final String tableName;
+    private final boolean typedStorage;
+    private final ColumnMeta idColumn;
+    private final ColumnMeta[] columns;
+    private final List<ColumnMeta> columnList;
+    private final Map<String, ColumnMeta> columnsByName;
+    private final RelationMeta[] relations;
+    private final List<RelationMeta> relationList;
+    private final List<IndexMeta> indexList;
+    private final String[] ftsColumns;
+    private final String ftsTokenizer;
+    private final RowMapper<T> rowMapper;
+    private final ValueBinder<T> valueBinder;
+
+    /**
+     * 获取实体类的元数据，首次调用时解析并缓存.
+     *
+     * @param clazz 映射实体类
+     * @return 元数据
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> EntityMeta<T> of(Class<T> clazz) {
+        EntityMeta<?> meta = CACHE.get(clazz);
+        if (meta == null) {
+            meta = new EntityMeta<T>(clazz);
+            EntityMeta<?> old = CACHE.putIfAbsent(clazz, meta);
+            if (old != null) {
+                meta = old;
+            }
+        }
+        return (EntityMeta<T>) meta;
+    }
+
+    private EntityMeta(Class<T> clazz) {
+        this.entityClass = clazz;
+
+        String table = "";
+        String storage = StorageMode.legacy;
+        if (clazz.isAnnotationPresent(Table.class)) {
+            table = clazz.getAnnotation(Table.class).name();
+            storage = clazz.getAnnotation(Table.class).storage();
+        }
+        this.tableName = table;
+        this.typedStorage = StorageMode.typed.equals(storage);
+
+        Field[] fields1 = clazz.getDeclaredFields();
+        Field[] fields2 = clazz.getSuperclass() == null
+                ? new Field[0] : clazz.getSuperclass().getDeclaredFields();
+
+        // 合并去重，子类优先，与AbTableHelper.joinFieldsOnlyColumn的顺序一致
+        Map<String, Field> columnFields = new LinkedHashMap<String, Field>();
+        List<Field> relationFields = new ArrayList<Field>();
+        for (Field[] fields : new Field[][]{fields1, fields2}) {
+            for (Field field : fields) {
+                if (field.isAnnotationPresent(Column.class)) {
+                    String name = field.getAnnotation(Column.class).name();
+                    if (!columnFields.containsKey(name)) {
+                        columnFields.put(name, field);
+                    }
+                } else if (field.isAnnotationPresent(RelationDao.class)) {
+                    relationFields.add(field);
+                }
+            }
+        }
+
+        // 主键放在首位置
+        List<ColumnMeta> list = new ArrayList<ColumnMeta>(columnFields.size());
+        ColumnMeta id = null;
+        for (Field field : columnFields.values()) {
+            ColumnMeta column = new ColumnMeta(field, typedStorage);
+            if (column.isPrimaryKey()) {
+                list.add(0, column);
+                id = column;
+            } else {
+                list.add(column);
+            }
+        }
+        this.idColumn = id;
+        this.columns = list.toArray(new ColumnMeta[list.size()]);
+        this.columnList = Collections.unmodifiableList(Arrays.asList(columns));
+
+        Map<String, ColumnMeta> byName = new HashMap<String, ColumnMeta>(columns.length * 2);
+        for (ColumnMeta column : columns) {
+            byName.put(column.getName(), column);
+        }
+        this.columnsByName = Collections.unmodifiableMap(byName);
+
+        Map<String, RelationMeta> relationMap = new LinkedHashMap<String, RelationMeta>();
+        for (Field field : relationFields) {
+            RelationMeta relation = new RelationMeta(field, clazz, byName);
+            if (!relationMap.containsKey(relation.getName())) {
+                relationMap.put(relation.getName(), relation);
+            }
+        }
+        this.relations = relationMap.values().toArray(new RelationMeta[relationMap.size()]);
+        this.relationList = Collections.unmodifiableList(Arrays.asList(relations));
+
+        // 字段上的单列索引，类上的组合索引
+        List<IndexMeta> indexes = new ArrayList<IndexMeta>();
+        for (ColumnMeta column : columns) {
+            Index index = column.getField().getAnnotation(Index.class);
+            if (index != null) {
+                indexes.add(new IndexMeta(table, index,
+                        index.columns().length == 0 ? new String[]{column.getName()} : index.columns()));
+            }
+        }
+        List<Index> tableIndexes = new ArrayList<Index>();
+        if (clazz.isAnnotationPresent(Index.class)) {
+            tableIndexes.add(clazz.getAnnotation(Index.class));
+        }
+        if (clazz.isAnnotationPresent(Indexes.class)) {
+            tableIndexes.addAll(Arrays.asList(clazz.getAnnotation(Indexes.class).value()));
+        }
+        for (Index index : tableIndexes) {
+            if (index.columns().length == 0) {
+                Log.e(TAG, "实体[" + clazz.getName() + "]上的@Index未指定columns,被跳过");
+                continue;
+            }
+            indexes.add(new IndexMeta(table, index, index.columns()));
+        }
+        this.indexList = Collections.unmodifiableList(indexes);
+
+        List<String> fts = new ArrayList<String>();
+        String tokenizer = "";
+        if (clazz.isAnnotationPresent(Fts.class) && table.length() > 0) {
+            for (String name : clazz.getAnnotation(Fts.class).columns()) {
+                if (columnsByName.containsKey(name)) {
+                    fts.add(name);
+                } else {
+                    Log.e(TAG, "实体[" + clazz.getName() + "]上@Fts的列" + name + "不存在,被跳过");
+                }
+            }
+            tokenizer = clazz.getAnnotation(Fts.class).tokenizer();
+        }
+        this.ftsColumns = fts.toArray(new String[fts.size()]);
+        this.ftsTokenizer = tokenizer;
+
+        Constructor<T> c = null;
+        try {
+            c = clazz.getDeclaredConstructor();
+            c.setAccessible(true);
+        } catch (NoSuchMethodException e) {
+            // 没有无参构造器的类只用于读取注解，newInstance时再报错
+        }
+        this.constructor = c;
+
+        // 优先使用orm-compiler生成的实现，没有时使用反射
+        RowMapper<T> mapper = loadGenerated(clazz, "_RowMapper");
+        this.rowMapper = mapper != null ? mapper : new ReflectiveRowMapper();
+        ValueBinder<T> binder = remap(this.<ValueBinder<T>>loadGenerated(clazz, "_ValueBinder"));
+        this.valueBinder = binder != null ? binder : new ReflectiveValueBinder();
+    }
+
+    /**
+     * 加载orm-compiler生成的类.
+     *
+     * @param clazz  映射实体类
+     * @param suffix 生成类的后缀
+     * @return 生成类的实例，没有生成时为null
+     */
+    @SuppressWarnings("unchecked")
+    private <R> R loadGenerated(Class<T> clazz, String suffix) {
+        try {
+            Class<?> generated = Class.forName(clazz.getName() + suffix, true, clazz.getClassLoader());
+            return (R) generated.newInstance();
+        } catch (ClassNotFoundException e) {
+            return null;
+        } catch (Exception e) {
+            Log.w(TAG, "加载" + clazz.getName() + suffix + "失败，使用反射", e);
+            return null;
+        }
+    }
+
+    /**
+     * 生成类的列顺序由源码决定，与反射得到的字段顺序不一定相同，按列名对应到本类的编号.
+     *
+     * @param binder 生成的绑定器
+     * @return 列编号与{@link #getColumn(int)}一致的绑定器，列不完全对应时为null
+     */
+    private ValueBinder<T> remap(final ValueBinder<T> binder) {
+        if (binder == null) {
+            return null;
+        }
+        String[] names = binder.getColumns();
+        if (names.length != columns.length) {
+            return null;
+        }
+        final int[] positions = new int[columns.length];
+        boolean same = true;
+        for (int i = 0; i < columns.length; i++) {
+            positions[i] = Arrays.asList(names).indexOf(columns[i].getName());
+            if (positions[i] < 0) {
+                return null;
+            }
+            same &= positions[i] == i;
+        }
+        if (same) {
+            return binder;
+        }
+        final String[] orderedNames = new String[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            orderedNames[i] = columns[i].getName();
+        }
+        return new ValueBinder<T>() {
+            @Override
+            public String[] getColumns() {
+                return orderedNames;
+            }
+
+            @Override
+            public boolean isNull(T entity, int column) {
+                return binder.isNull(entity, positions[column]);
+            }
+
+            @Override
+            public void bind(SQLiteStatement statement, int index, T entity, int column) {
+                binder.bind(statement, index, entity, positions[column]);
+            }
+        };
+    }
+
+    public Class<T> getEntityClass() {
+        return entityClass;
+    }
+
+    /**
+     * 表名，未注解{@link Table}时为空字符串.
+     */
+    public String getTableName() {
+        return tableName;
+    }
+
+    /**
+     * 是否按{@link StorageMode#typed}存储.
+     */
+    public boolean isTypedStorage() {
+        return typedStorage;
+    }
+
+    /**
+     * 主键列，未注解主键时为null.
+     */
+    public ColumnMeta getIdColumn() {
+        return idColumn;
+    }
+
+    /**
+     * 所有列，主键在首位.
+     */
+    public List<ColumnMeta> getColumns() {
+        return columnList;
+    }
+
+    public int getColumnCount() {
+        return columns.length;
+    }
+
+    public ColumnMeta getColumn(int position) {
+        return columns[position];
+    }
+
+    /**
+     * 根据列名获取列.
+     *
+     * @param name 列名
+     * @return 列，不存在时为null
+     */
+    public ColumnMeta getColumn(String name) {
+        return columnsByName.get(name);
+    }
+
+    /**
+     * 所有关联字段.
+     */
+    public List<RelationMeta> getRelations() {
+        return relationList;
+    }
+
+    public boolean hasRelations() {
+        return relations.length > 0;
+    }
+
+    /**
+     * 所有{@link Index}声明的索引.
+     */
+    public List<IndexMeta> getIndexes() {
+        return indexList;
+    }
+
+    /**
+     * 全文索引表名.
+     *
+     * @return 未注解{@link Fts}时为null
+     */
+    public String getFtsTableName() {
+        return ftsColumns.length == 0 ? null : tableName + "_fts";
+    }
+
+    /**
+     * {@link Fts}中存在的列.
+     */
+    public String[] getFtsColumns() {
+        return ftsColumns.clone();
+    }
+
+    /**
+     * {@link Fts}的分词器，为空时使用默认分词器.
+     */
+    public String getFtsTokenizer() {
+        return ftsTokenizer;
+    }
+
+    /**
+     * 游标到实体的映射，优先使用生成的实现.
+     */
+    public RowMapper<T> getRowMapper() {
+        return rowMapper;
+    }
+
+    /**
+     * 实体到预编译语句的绑定，列编号与{@link #getColumn(int)}一致，优先使用生成的实现.
+     */
+    public ValueBinder<T> getValueBinder() {
+        return valueBinder;
+    }
+
+    /**
+     * 创建一个新的实体对象.
+     *
+     * @return 实体
+     * @throws InstantiationException the instantiation exception
+     * @throws IllegalAccessException the illegal access exception
+     */
+    public T newInstance() throws InstantiationException, IllegalAccessException {
+        if (constructor == null) {
+            throw new InstantiationException(entityClass.getName() + " 需要无参构造器");
+        }
+        try {
+            return constructor.newInstance();
+        } catch (java.lang.reflect.InvocationTargetException e) {
+            InstantiationException ie = new InstantiationException(entityClass.getName());
+            ie.initCause(e.getCause());
+            throw ie;
+        }
+    }
+
+    /**
+     * 解析每一列在游标中的位置，每个游标只需调用一次.
+     *
+     * @param cursor 游标
+     * @return 与{@link #getColumn(int)}一一对应的位置，-1表示游标中没有这一列
+     */
+    public int[] columnIndexes(Cursor cursor) {
+        int[] indexes = new int[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            indexes[i] = cursor.getColumnIndex(columns[i].getName());
+        }
+        return indexes;
+    }
+
+    /**
+     * 把游标当前行映射为实体.
+     *
+     * @param cursor  游标
+     * @param indexes {@link #columnIndexes(Cursor)}的结果
+     * @return 实体
+     * @throws InstantiationException the instantiation exception
+     * @throws IllegalAccessException the illegal access exception
+     */
+    public T readRow(Cursor cursor, int[] indexes) throws InstantiationException, IllegalAccessException {
+        T entity = newInstance();
+        for (int i = 0; i < columns.length; i++) {
+            int c = indexes[i];
+            if (c < 0) {
+                continue; // 如果不存则循环下个属性值
+            }
+            columns[i].read(cursor, c, entity);
+        }
+        return entity;
+    }
+
+    /**
+     * 没有生成{@link RowMapper}时的反射实现.
+     */
+    private final class ReflectiveRowMapper implements RowMapper<T> {
+
+        @Override
+        public int[] columnIndexes(Cursor cursor) {
+            return EntityMeta.this.columnIndexes(cursor);
+        }
+
+        @Override
+        public T map(Cursor cursor, int[] indexes) {
+            try {
+                return readRow(cursor, indexes);
+            } catch (InstantiationException e) {
+                throw new IllegalStateException(e);
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    /**
+     * 没有生成{@link ValueBinder}时的反射实现.
+     */
+    private final class ReflectiveValueBinder implements ValueBinder<T> {
+
+        private final String[] names;
+
+        ReflectiveValueBinder() {
+            names = new String[columns.length];
+            for (int i = 0; i < columns.length; i++) {
+                names[i] = columns[i].getName();
+            }
+        }
+
+        @Override
+        public String[] getColumns() {
+            return names;
+        }
+
+        @Override
+        public boolean isNull(T entity, int column) {
+            return value(entity, column) == null;
+        }
+
+        @Override
+        public void bind(SQLiteStatement statement, int index, T entity, int column) {
+            columns[column].bind(statement, index, value(entity, column));
+        }
+
+        private Object value(T entity, int column) {
+            try {
+                return columns[column].get(entity);
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.remvp.library.db.orm;
+
+import com.remvp.library.db.orm.annotation.Index;
+
+/**
+ * 描述：实体上一个{@link Index}索引的元数据，由{@link EntityMeta}解析.
+ */
+public final class IndexMeta {
+
+    private final String name;
+    private final String[] columns;
+    private final boolean unique;
+
+    IndexMeta(String tableName, Index index, String[] columns) {
+        this.columns = columns;
+        this.unique = index.unique();
+        this.name = index.name().length() == 0 ? defaultName(tableName, columns) : index.name();
+    }
+
+    /**
+     * 默认的索引名，idx_表名_列名.
+     *
+     * @param tableName 表名
+     * @param columns   索引的列
+     * @return 索引名
+     */
+    static String defaultName(String tableName, String[] columns) {
+        StringBuilder sb = new StringBuilder("idx_").append(tableName);
+        for (String column : columns) {
+            sb.append("_").append(column);
+        }
+        return sb.toString();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * 索引的列，按组合顺序.
+     */
+    public String[] getColumns() {
+        return columns.clone();
+    }
+
+    public boolean isUnique() {
+        return unique;
+    }
+}
@@ -0,0 +1,272 @@
+package com.remvp.library.db.orm;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 描述：记录每张表的修改版本，同一个{@link DBHelper}的所有Dao共用.
+ * Dao的每次写入都在写锁内增加所写表的版本号，缓存的查询结果记录查询前各表的版本号，
+ * 版本号变化即失效，事务回滚时同样视为已修改.
+ * 事务提交后、写锁释放前再增加一次版本号，开启WAL时不加锁的读操作在提交前读到的旧数据随之失效.
+ * <p>
+ * 修改的表同时记录为待通知，写锁的最外层释放（事务结束）后通知{@link Observer}，
+ * 一个事务内的多次写入只通知一次.
+ * 通过{@link DBHelper#getInvalidationTracker()}获取.
+ */
+public final class InvalidationTracker {
+
+    /**
+     * 表修改的观察者.
+     */
+    public interface Observer {
+
+        /**
+         * 观察的表有修改，在写入的线程调用，不要做耗时操作.
+         */
+        void onInvalidated();
+    }
+
+    /**
+     * from或join之后是表名.
+     */
+    private static final Pattern TABLE_CLAUSE = Pattern.compile("\\b(from|join)\\b");
+
+    /**
+     * 表名列表结束的位置.
+     */
+    private static final Pattern CLAUSE_END = Pattern.compile(
+            "\\b(where|group|order|limit|having|join|on|using|union|except|intersect"
+                    + "|left|right|inner|cross|natural|outer|full)\\b|[();]");
+
+    /**
+     * 已知的表，即映射实体的表与其关联表，小写.
+     */
+    private final Set<String> mTables;
+
+    private final ConcurrentHashMap<String, AtomicLong> mVersions = new ConcurrentHashMap<String, AtomicLong>();
+
+    /**
+     * 不确定修改了哪些表时增加，所有表都视为已修改.
+     */
+    private final AtomicLong mGlobalVersion = new AtomicLong();
+
+    /**
+     * 观察者与其观察的表，访问时同步.
+     */
+    private final Map<Observer, Set<String>> mObservers = new LinkedHashMap<Observer, Set<String>>();
+
+    /**
+     * 当前线程的写入待通知的表，写锁释放时由同一线程通知，不会通知到其它线程尚未提交的修改.
+     */
+    private final ThreadLocal<Pending> mPending = new ThreadLocal<Pending>() {
+        @Override
+        protected Pending initialValue() {
+            return new Pending();
+        }
+    };
+
+    private static final class Pending {
+        final Set<String> tables = new HashSet<String>();
+        /**
+         * 待通知所有观察者.
+         */
+        boolean all;
+    }
+
+    InvalidationTracker(Collection<String> tables) {
+        Set<String> set = new LinkedHashSet<String>();
+        for (String table : tables) {
+            set.add(normalize(table));
+        }
+        this.mTables = set;
+    }
+
+    /**
+     * 表被修改，在写锁内调用.
+     *
+     * @param tables 修改的表
+     */
+    public void invalidate(Collection<String> tables) {
+        Pending pending = mPending.get();
+        for (String table : tables) {
+            String name = normalize(table);
+            version(name).incrementAndGet();
+            pending.tables.add(name);
+        }
+    }
+
+    /**
+     * 所有表都视为已修改，用于执行任意sql之后.
+     */
+    public void invalidateAll() {
+        mGlobalVersion.incrementAndGet();
+        mPending.get().all = true;
+    }
+
+    /**
+     * 当前线程修改的表再增加一次版本号，由{@link DBLock}在写锁的最外层释放前（事务已结束）调用.
+     * 在写入时增加版本号之后、提交之前开始的查询读到的是旧数据，却记录了新的版本号，
+     * 再增加一次后这些查询的结果不会被缓存或使用.
+     */
+    void invalidatePendingAgain() {
+        Pending pending = mPending.get();
+        for (String table : pending.tables) {
+            version(table).incrementAndGet();
+        }
+        if (pending.all) {
+            mGlobalVersion.incrementAndGet();
+        }
+    }
+
+    /**
+     * 观察一些表的修改.
+     *
+     * @param observer 观察者
+     * @param tables   观察的表
+     */
+    public void addObserver(Observer observer, String[] tables) {
+        Set<String> set = new HashSet<String>();
+        for (String table : tables) {
+            set.add(normalize(table));
+        }
+        synchronized (mObservers) {
+            mObservers.put(observer, set);
+        }
+    }
+
+    public void removeObserver(Observer observer) {
+        synchronized (mObservers) {
+            mObservers.remove(observer);
+        }
+    }
+
+    /**
+     * 通知当前线程修改的表的观察者，由{@link DBLock}在写锁的最外层释放后调用.
+     */
+    void dispatchPending() {
+        Pending pending = mPending.get();
+        if (pending.tables.isEmpty() && !pending.all) {
+            return;
+        }
+        Set<String> tables = new HashSet<String>(pending.tables);
+        boolean all = pending.all;
+        pending.tables.clear();
+        pending.all = false;
+        List<Observer> observers = new ArrayList<Observer>();
+        synchronized (mObservers) {
+            for (Map.Entry<Observer, Set<String>> entry : mObservers.entrySet()) {
+                if (all || !Collections.disjoint(entry.getValue(), tables)) {
+                    observers.add(entry.getKey());
+                }
+            }
+        }
+        for (Observer observer : observers) {
+            observer.onInvalidated();
+        }
+    }
+
+    /**
+     * 获取各表当前的版本号，查询前调用.
+     *
+     * @param tables 查询读取的表
+     * @return 版本号，最后一位为全局版本号
+     */
+    public long[] getVersions(String[] tables) {
+        long[] versions = new long[tables.length + 1];
+        for (int i = 0; i < tables.length; i++) {
+            versions[i] = version(normalize(tables[i])).get();
+        }
+        versions[tables.length] = mGlobalVersion.get();
+        return versions;
+    }
+
+    /**
+     * 版本号是否仍是{@link #getVersions(String[])}时的值.
+     *
+     * @param tables   查询读取的表
+     * @param versions getVersions的返回值
+     * @return 期间这些表都没有修改
+     */
+    public boolean isCurrent(String[] tables, long[] versions) {
+        if (versions[tables.length] != mGlobalVersion.get()) {
+            return false;
+        }
+        for (int i = 0; i < tables.length; i++) {
+            if (versions[i] != version(normalize(tables[i])).get()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 解析查询语句读取的表.
+     * 只识别from与join之后的表名，出现不是映射实体的表（例如视图）时无法跟踪修改，返回null.
+     *
+     * @param sql 查询语句
+     * @return 读取的表，不能确定时为null
+     */
+    public String[] resolveTables(String sql) {
+        String lower = sql.toLowerCase(Locale.US);
+        Set<String> tables = new LinkedHashSet<String>();
+        Matcher clause = TABLE_CLAUSE.matcher(lower);
+        Matcher end = CLAUSE_END.matcher(lower);
+        while (clause.find()) {
+            int start = clause.end();
+            int stop = end.find(start) ? end.start() : lower.length();
+            for (String item : lower.substring(start, stop).split(",")) {
+                String[] words = item.trim().split("\\s+");
+                if (words[0].length() == 0) {
+                    continue;
+                }
+                String table = normalize(words[0]);
+                if (!mTables.contains(table)) {
+                    return null;
+                }
+                tables.add(table);
+            }
+        }
+        return tables.isEmpty() ? null : tables.toArray(new String[tables.size()]);
+    }
+
+    private AtomicLong version(String table) {
+        AtomicLong version = mVersions.get(table);
+        if (version == null) {
+            version = new AtomicLong();
+            AtomicLong old = mVersions.putIfAbsent(table, version);
+            if (old != null) {
+                version = old;
+            }
+        }
+        return version;
+    }
+
+    /**
+     * 表名不区分大小写，去掉引号与main.前缀.
+     */
+    private static String normalize(String table) {
+        String name = table.toLowerCase(Locale.US);
+        if (name.startsWith("main.")) {
+            name = name.substring(5);
+        }
+        if (name.length() > 1) {
+            char first = name.charAt(0);
+            if (first == '"' || first == '`' || first == '[' || first == '\'') {
+                name = name.substring(1, name.length() - 1);
+            }
+        }
+        return name;
+    }
+}
@@ -0,0 +1,66 @@
+package com.remvp.library.db.orm;
+
+import java.util.concurrent.Callable;
+
+/**
+ * 描述：{@link com.remvp.library.db.orm.annotation.FetchType#lazy}的一对一关联，关联字段声明为Lazy&lt;关联实体&gt;.
+ * 首次{@link #get()}时查询关联表并缓存结果.
+ * 插入新实体时用{@link #of(Object)}设置关联对象.
+ */
+public final class Lazy<E> {
+
+    private Callable<E> loader;
+
+    private volatile boolean loaded;
+
+    private E value;
+
+    /**
+     * @param loader 查询关联表，只调用一次
+     */
+    public Lazy(Callable<E> loader) {
+        this.loader = loader;
+    }
+
+    /**
+     * 已加载的关联对象.
+     *
+     * @param value 关联对象，可以为null
+     * @return 不需要查询的Lazy
+     */
+    public static <E> Lazy<E> of(E value) {
+        Lazy<E> lazy = new Lazy<E>(null);
+        lazy.value = value;
+        lazy.loaded = true;
+        return lazy;
+    }
+
+    /**
+     * 关联对象，首次调用时查询关联表.
+     *
+     * @return 关联对象，没有时为null
+     */
+    public E get() {
+        if (!loaded) {
+            synchronized (this) {
+                if (!loaded) {
+                    try {
+                        value = loader.call();
+                    } catch (Exception e) {
+                        throw new IllegalStateException("加载关联数据失败", e);
+                    }
+                    loaded = true;
+                    loader = null;
+                }
+            }
+        }
+        return value;
+    }
+
+    /**
+     * 是否已查询过关联表.
+     */
+    public boolean isLoaded() {
+        return loaded;
+    }
+}
@@ -0,0 +1,79 @@
+package com.remvp.library.db.orm;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * 描述：{@link com.remvp.library.db.orm.annotation.FetchType#lazy}的一对多关联列表.
+ * 首次访问时通过Dao的共享连接查询关联表，结果缓存在列表中，之后的读写都作用于缓存的列表.
+ * 未加载过的列表在插入、更新主表时跳过，不会覆盖关联表的数据.
+ */
+public final class LazyRelationList<E> extends AbstractList<E> {
+
+    private Callable<List<E>> loader;
+
+    private volatile List<E> delegate;
+
+    /**
+     * @param loader 查询关联表，只调用一次
+     */
+    public LazyRelationList(Callable<List<E>> loader) {
+        this.loader = loader;
+    }
+
+    /**
+     * 是否已查询过关联表.
+     */
+    public boolean isLoaded() {
+        return delegate != null;
+    }
+
+    private List<E> delegate() {
+        List<E> list = delegate;
+        if (list == null) {
+            synchronized (this) {
+                list = delegate;
+                if (list == null) {
+                    try {
+                        list = new ArrayList<E>(loader.call());
+                    } catch (Exception e) {
+                        throw new IllegalStateException("加载关联数据失败", e);
+                    }
+                    delegate = list;
+                    loader = null;
+                }
+            }
+        }
+        return list;
+    }
+
+    @Override
+    public E get(int index) {
+        return delegate().get(index);
+    }
+
+    @Override
+    public int size() {
+        return delegate().size();
+    }
+
+    @Override
+    public E set(int index, E element) {
+        return delegate().set(index, element);
+    }
+
+    @Override
+    public void add(int index, E element) {
+        delegate().add(index, element);
+        modCount++;
+    }
+
+    @Override
+    public E remove(int index) {
+        E removed = delegate().remove(index);
+        modCount++;
+        return removed;
+    }
+}
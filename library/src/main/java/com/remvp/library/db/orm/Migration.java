@@ -0,0 +1,43 @@
+package com.remvp.library.db.orm;
+
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * 描述：从一个数据库版本升级到另一个版本时需要手写的步骤，例如改表名、改列名、转换数据.
+ * 通过{@link DBHelper#addMigrations(Migration...)}注册，升级时从旧版本开始，每一步选择跨度最大的步骤，
+ * 直到新版本，再自动补建缺少的表、列与索引.
+ * 注册了步骤但无法连续到达新版本时升级失败.
+ */
+public abstract class Migration {
+
+    private final int startVersion;
+
+    private final int endVersion;
+
+    /**
+     * @param startVersion 升级前的版本
+     * @param endVersion   升级后的版本，大于startVersion
+     */
+    public Migration(int startVersion, int endVersion) {
+        if (endVersion <= startVersion) {
+            throw new IllegalArgumentException("endVersion must be greater than startVersion");
+        }
+        this.startVersion = startVersion;
+        this.endVersion = endVersion;
+    }
+
+    public int getStartVersion() {
+        return startVersion;
+    }
+
+    public int getEndVersion() {
+        return endVersion;
+    }
+
+    /**
+     * 执行升级，已在升级的事务中，抛出异常时整个升级回滚.
+     *
+     * @param db 数据库
+     */
+    public abstract void migrate(SQLiteDatabase db);
+}
@@ -0,0 +1,302 @@
+package com.remvp.library.db.orm;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 描述：按实体元数据校验列名的查询构造器，替代拼接字符串的{@link SqlColumn}.
+ * 条件中的值都作为?参数，按列的存储格式转换，同样结构的查询生成相同的sql，
+ * 可以命中SQLite连接的预编译语句缓存与{@link QueryCache}.
+ * <pre>
+ * Query&lt;User&gt; query = Query.from(User.class)
+ *         .where(Condition.eq("status", 1).and(Condition.like("name", "a%")))
+ *         .orderBy("created", false)
+ *         .limit(20);
+ * List&lt;User&gt; users = userDao.query(query);
+ * </pre>
+ * 列名为主表的列，关联表的列写为"关联表名.列"，需要先{@link #join(String)}.
+ * 生成的sql中列名都带表名.
+ */
+public final class Query<T> {
+
+    private final EntityMeta<T> meta;
+    private final List<String> selections = new ArrayList<String>();
+    private final List<RelationMeta> joins = new ArrayList<RelationMeta>();
+    private final List<String> groupBy = new ArrayList<String>();
+    private final List<String> orderBy = new ArrayList<String>();
+    private boolean distinct;
+    private Condition where;
+    private Condition having;
+    private int limit = -1;
+    private int offset = -1;
+
+    private String sql;
+    private String[] args;
+
+    private Query(Class<T> clazz) {
+        this.meta = EntityMeta.of(clazz);
+        if (meta.getTableName().length() == 0) {
+            throw new IllegalArgumentException(clazz.getName() + " 未注解@Table");
+        }
+    }
+
+    /**
+     * 查询实体对应的表.
+     *
+     * @param clazz 映射实体
+     * @return 查询
+     */
+    public static <T> Query<T> from(Class<T> clazz) {
+        return new Query<T>(clazz);
+    }
+
+    /**
+     * 查询的列，不调用时查询主表的所有列.
+     *
+     * @param columns 列名
+     * @return this
+     */
+    public Query<T> select(String... columns) {
+        for (String column : columns) {
+            selections.add(qualify(column));
+        }
+        return changed();
+    }
+
+    /**
+     * 查询聚合值，可以与{@link #groupBy(String...)}一起使用.
+     *
+     * @param aggregate 聚合函数
+     * @param column    列名，COUNT可以为"*"
+     * @return this
+     */
+    public Query<T> select(Aggregate aggregate, String column) {
+        String expression = "*".equals(column) && aggregate == Aggregate.COUNT ? "*" : qualify(column);
+        selections.add(aggregate.of(expression));
+        return changed();
+    }
+
+    public Query<T> distinct() {
+        distinct = true;
+        return changed();
+    }
+
+    /**
+     * 按{@link com.remvp.library.db.orm.annotation.RelationDao}连接关联表：关联表的外键等于主表的关联列.
+     *
+     * @param childTableName 关联表名
+     * @return this
+     */
+    public Query<T> join(String childTableName) {
+        for (RelationMeta relation : meta.getRelations()) {
+            if (childTableName.equals(relation.getChildTableName())) {
+                if (meta.getColumn(relation.getName()) == null || relation.getChildMeta() == null
+                        || relation.getChildMeta().getColumn(relation.getForeignKey()) == null) {
+                    throw new IllegalArgumentException("关联" + relation.getName() + "没有可以连接的列");
+                }
+                if (!joins.contains(relation)) {
+                    joins.add(relation);
+                }
+                return changed();
+            }
+        }
+        throw new IllegalArgumentException(meta.getTableName() + " 没有关联表" + childTableName);
+    }
+
+    /**
+     * 查询条件，多次调用时以最后一次为准，组合条件使用{@link Condition#and(Condition)}.
+     */
+    public Query<T> where(Condition condition) {
+        where = condition;
+        return changed();
+    }
+
+    public Query<T> groupBy(String... columns) {
+        for (String column : columns) {
+            groupBy.add(qualify(column));
+        }
+        return changed();
+    }
+
+    /**
+     * 分组的条件，列名同where.
+     */
+    public Query<T> having(Condition condition) {
+        having = condition;
+        return changed();
+    }
+
+    /**
+     * 排序，可以多次调用.
+     *
+     * @param column    列名
+     * @param ascending 是否升序
+     * @return this
+     */
+    public Query<T> orderBy(String column, boolean ascending) {
+        orderBy.add(qualify(column) + (ascending ? " ASC" : " DESC"));
+        return changed();
+    }
+
+    public Query<T> limit(int limit) {
+        this.limit = limit;
+        return changed();
+    }
+
+    /**
+     * 跳过的行数，需要同时设置limit.
+     */
+    public Query<T> offset(int offset) {
+        this.offset = offset;
+        return changed();
+    }
+
+    public Class<T> getEntityClass() {
+        return meta.getEntityClass();
+    }
+
+    /**
+     * 主表名.
+     */
+    public String getTableName() {
+        return meta.getTableName();
+    }
+
+    /**
+     * 生成的sql，值都为?.
+     */
+    public String getSql() {
+        build();
+        return sql;
+    }
+
+    /**
+     * 与{@link #getSql()}中?一一对应的参数.
+     */
+    public String[] getArgs() {
+        build();
+        return args.clone();
+    }
+
+    /**
+     * 查询涉及的表：主表与连接的关联表.
+     */
+    public String[] getTables() {
+        String[] tables = new String[joins.size() + 1];
+        tables[0] = meta.getTableName();
+        for (int i = 0; i < joins.size(); i++) {
+            tables[i + 1] = joins.get(i).getChildTableName();
+        }
+        return tables;
+    }
+
+    private Query<T> changed() {
+        sql = null;
+        args = null;
+        return this;
+    }
+
+    private void build() {
+        if (sql != null) {
+            return;
+        }
+        String table = meta.getTableName();
+        List<String> argList = new ArrayList<String>();
+        StringBuilder s = new StringBuilder("SELECT ");
+        if (distinct) {
+            s.append("DISTINCT ");
+        }
+        if (selections.isEmpty()) {
+            s.append(table).append(".*");
+        } else {
+            join(s, selections);
+        }
+        s.append(" FROM ").append(table);
+        for (RelationMeta relation : joins) {
+            String child = relation.getChildTableName();
+            s.append(" JOIN ").append(child).append(" ON ").append(child).append('.')
+                    .append(relation.getForeignKey()).append(" = ").append(table).append('.')
+                    .append(relation.getName());
+        }
+        if (where != null) {
+            s.append(" WHERE ");
+            where.appendTo(s, argList, this);
+        }
+        if (!groupBy.isEmpty()) {
+            s.append(" GROUP BY ");
+            join(s, groupBy);
+        }
+        if (having != null) {
+            s.append(" HAVING ");
+            having.appendTo(s, argList, this);
+        }
+        if (!orderBy.isEmpty()) {
+            s.append(" ORDER BY ");
+            join(s, orderBy);
+        }
+        if (limit >= 0) {
+            s.append(" LIMIT ?");
+            argList.add(String.valueOf(limit));
+            if (offset >= 0) {
+                s.append(" OFFSET ?");
+                argList.add(String.valueOf(offset));
+            }
+        }
+        sql = s.toString();
+        args = argList.toArray(new String[argList.size()]);
+    }
+
+    private static void join(StringBuilder s, List<String> parts) {
+        for (int i = 0; i < parts.size(); i++) {
+            s.append(i == 0 ? "" : ", ").append(parts.get(i));
+        }
+    }
+
+    /**
+     * 带表名的列名.
+     *
+     * @param column 主表的列或"关联表名.列"
+     * @return 例如user.name
+     * @throws IllegalArgumentException 列不存在
+     */
+    String qualify(String column) {
+        resolve(column);
+        return column.indexOf('.') < 0 ? meta.getTableName() + "." + column : column;
+    }
+
+    /**
+     * 把值按列的存储格式转换为参数.
+     */
+    String toArg(String column, Object value) {
+        if (value == null) {
+            throw new IllegalArgumentException(column + " 的参数为null");
+        }
+        return resolve(column).toArg(value);
+    }
+
+    private ColumnMeta resolve(String column) {
+        int dot = column.indexOf('.');
+        EntityMeta<?> owner = null;
+        if (dot < 0) {
+            owner = meta;
+        } else {
+            String table = column.substring(0, dot);
+            if (table.equals(meta.getTableName())) {
+                owner = meta;
+            } else {
+                for (RelationMeta relation : joins) {
+                    if (table.equals(relation.getChildTableName())) {
+                        owner = relation.getChildMeta();
+                    }
+                }
+            }
+            column = column.substring(dot + 1);
+        }
+        ColumnMeta columnMeta = owner == null ? null : owner.getColumn(column);
+        if (columnMeta == null) {
+            throw new IllegalArgumentException(meta.getTableName() + " 的查询中没有列" + column
+                    + (dot >= 0 ? "，关联表需要先join" : ""));
+        }
+        return columnMeta;
+    }
+}
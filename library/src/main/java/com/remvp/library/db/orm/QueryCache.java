@@ -0,0 +1,198 @@
+package com.remvp.library.db.orm;
+
+import android.util.LruCache;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 描述：查询结果的缓存，同一个{@link DBHelper}的所有Dao共用.
+ * 以返回类型、规范化的sql与绑定参数为key，每条结果记录查询读取的表（含关联表）及当时的版本号，
+ * 任何一张表被Dao修改后结果失效，见{@link InvalidationTracker}.
+ * 按估算的内存大小LRU淘汰.
+ * <p>
+ * 缓存的是每一行各列的值而不是实体对象，Dao命中时创建新的实体，修改返回的实体不会影响缓存.
+ * 通过{@link DBHelper#setQueryCacheSize(int)}开启.
+ */
+public final class QueryCache {
+
+    /**
+     * 每一列估算的字节数.
+     */
+    private static final int BYTES_PER_COLUMN = 24;
+
+    /**
+     * 每一行与每条结果固定估算的字节数.
+     */
+    private static final int BYTES_OVERHEAD = 64;
+
+    private static final class Entry {
+        final String[] tables;
+        final long[] versions;
+        final List<?> rows;
+        final int bytes;
+
+        Entry(String[] tables, long[] versions, List<?> rows, int bytes) {
+            this.tables = tables;
+            this.versions = versions;
+            this.rows = rows;
+            this.bytes = bytes;
+        }
+    }
+
+    private final InvalidationTracker mTracker;
+
+    private final LruCache<String, Entry> mCache;
+
+    private long mHits;
+
+    private long mMisses;
+
+    private long mInvalidations;
+
+    QueryCache(InvalidationTracker tracker, int maxBytes) {
+        this.mTracker = tracker;
+        this.mCache = new LruCache<String, Entry>(maxBytes) {
+            @Override
+            protected int sizeOf(String key, Entry value) {
+                return value.bytes;
+            }
+        };
+    }
+
+    /**
+     * 缓存的key.
+     *
+     * @param clazz         返回的实体类
+     * @param sql           查询语句
+     * @param selectionArgs 绑定参数
+     * @return key
+     */
+    public static String key(Class<?> clazz, String sql, String[] selectionArgs) {
+        StringBuilder sb = new StringBuilder(clazz.getName()).append('\n');
+        // 合并引号外的空白
+        char quote = 0;
+        boolean space = false;
+        for (int i = 0; i < sql.length(); i++) {
+            char c = sql.charAt(i);
+            if (quote != 0) {
+                sb.append(c);
+                if (c == quote) {
+                    quote = 0;
+                }
+            } else if (Character.isWhitespace(c)) {
+                space = true;
+            } else {
+                if (space && sb.charAt(sb.length() - 1) != '\n') {
+                    sb.append(' ');
+                }
+                space = false;
+                if (c == '\'' || c == '"') {
+                    quote = c;
+                }
+                sb.append(c);
+            }
+        }
+        sb.append('\n').append(Arrays.toString(selectionArgs));
+        return sb.toString();
+    }
+
+    /**
+     * 获取未失效的结果.
+     *
+     * @param key {@link #key(Class, String, String[])}
+     * @return 不可修改的结果，未缓存或已失效时为null
+     */
+    public synchronized List<?> get(String key) {
+        Entry entry = mCache.get(key);
+        if (entry == null) {
+            mMisses++;
+            return null;
+        }
+        if (!mTracker.isCurrent(entry.tables, entry.versions)) {
+            mCache.remove(key);
+            mInvalidations++;
+            mMisses++;
+            return null;
+        }
+        mHits++;
+        return entry.rows;
+    }
+
+    /**
+     * 缓存查询结果，查询期间表有修改时不缓存.
+     *
+     * @param key         {@link #key(Class, String, String[])}
+     * @param tables      查询读取的表
+     * @param versions    查询前{@link InvalidationTracker#getVersions(String[])}的返回值
+     * @param rows        每一行各列的值
+     * @param columnCount 每行的列数，用于估算大小
+     */
+    public synchronized void put(String key, String[] tables, long[] versions, List<?> rows, int columnCount) {
+        if (!mTracker.isCurrent(tables, versions)) {
+            return;
+        }
+        int bytes = BYTES_OVERHEAD + key.length() * 2
+                + rows.size() * (BYTES_OVERHEAD + columnCount * BYTES_PER_COLUMN);
+        mCache.put(key, new Entry(tables, versions, Collections.unmodifiableList(rows), bytes));
+    }
+
+    /**
+     * 清空缓存.
+     */
+    public synchronized void clear() {
+        mCache.evictAll();
+    }
+
+    /**
+     * 命中次数.
+     */
+    public synchronized long getHitCount() {
+        return mHits;
+    }
+
+    /**
+     * 未命中次数，包括已失效的.
+     */
+    public synchronized long getMissCount() {
+        return mMisses;
+    }
+
+    /**
+     * 因表修改而失效的次数.
+     */
+    public synchronized long getInvalidationCount() {
+        return mInvalidations;
+    }
+
+    /**
+     * 因超出大小被淘汰的次数.
+     */
+    public int getEvictionCount() {
+        return mCache.evictionCount();
+    }
+
+    /**
+     * 当前估算的大小，字节.
+     */
+    public int size() {
+        return mCache.size();
+    }
+
+    /**
+     * 最大估算大小，字节.
+     */
+    public int maxSize() {
+        return mCache.maxSize();
+    }
+
+    /**
+     * 清零统计，淘汰次数由LruCache记录，不清零.
+     */
+    public synchronized void resetStats() {
+        mHits = 0;
+        mMisses = 0;
+        mInvalidations = 0;
+    }
+}
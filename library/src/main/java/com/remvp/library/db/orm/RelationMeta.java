@@ -0,0 +1,192 @@
+package com.remvp.library.db.orm;
+
+import com.remvp.library.db.orm.annotation.ActionType;
+import com.remvp.library.db.orm.annotation.FetchType;
+import com.remvp.library.db.orm.annotation.RelationDao;
+import com.remvp.library.db.orm.annotation.RelationsType;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 描述：实体中一个{@link RelationDao}关联字段的元数据.
+ * 关联实体的类型、表名以及两端用于关联的列都在创建时解析好.
+ */
+public final class RelationMeta {
+
+    private final Field field;
+    private final String name;
+    private final String foreignKey;
+    private final String type;
+    private final String action;
+    private final boolean many;
+    private final boolean lazy;
+    private final Class<?> childClass;
+    private final Field parentField;
+
+    RelationMeta(Field field, Class<?> parentClass, Map<String, ColumnMeta> parentColumns) {
+        RelationDao relationDao = field.getAnnotation(RelationDao.class);
+        field.setAccessible(true);
+        this.field = field;
+        this.name = relationDao.name();
+        this.foreignKey = relationDao.foreignKey();
+        this.type = relationDao.type();
+        this.action = relationDao.action();
+        this.many = RelationsType.one2many.equals(type) || RelationsType.many2many.equals(type);
+
+        this.lazy = FetchType.lazy.equals(relationDao.fetch());
+
+        Class<?> child = null;
+        if (RelationsType.one2one.equals(type) && field.getType() == Lazy.class) {
+            child = typeArgument(field);
+        } else if (RelationsType.one2one.equals(type)) {
+            child = field.getType();
+        } else if (many && field.getType().isAssignableFrom(List.class)) {
+            //得到泛型里的class类型对象
+            child = typeArgument(field);
+        }
+        this.childClass = child;
+        this.parentField = findParentField(parentClass, parentColumns, name);
+    }
+
+    private static Class<?> typeArgument(Field field) {
+        Type fc = field.getGenericType();
+        if (fc instanceof ParameterizedType) {
+            Type arg = ((ParameterizedType) fc).getActualTypeArguments()[0];
+            if (arg instanceof Class) {
+                return (Class<?>) arg;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 关联名与主表中的列名或字段名对应，其值作为关联表外键的查询条件.
+     */
+    private static Field findParentField(Class<?> parentClass, Map<String, ColumnMeta> parentColumns,
+                                         String name) {
+        ColumnMeta column = parentColumns.get(name);
+        if (column != null) {
+            return column.getField();
+        }
+        Class<?> clazz = parentClass;
+        while (clazz != null && clazz != Object.class) {
+            try {
+                Field f = clazz.getDeclaredField(name);
+                f.setAccessible(true);
+                return f;
+            } catch (NoSuchFieldException e) {
+                clazz = clazz.getSuperclass();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 关联字段，已设置为可访问.
+     */
+    public Field getField() {
+        return field;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getForeignKey() {
+        return foreignKey;
+    }
+
+    /**
+     * 关联类型 {@link RelationsType}.
+     */
+    public String getType() {
+        return type;
+    }
+
+    /**
+     * 操作类型 {@link ActionType}.
+     */
+    public String getAction() {
+        return action;
+    }
+
+    /**
+     * 是否一对多或多对多.
+     */
+    public boolean isMany() {
+        return many;
+    }
+
+    /**
+     * 是否延迟加载 {@link FetchType#lazy}，一对多字段设置为{@link LazyRelationList}，
+     * 一对一字段需要声明为{@link Lazy}.
+     */
+    public boolean isLazy() {
+        return lazy;
+    }
+
+    /**
+     * 关联实体类型，一对多时为List的泛型，一对一声明为Lazy时为Lazy的泛型，无法解析时为null.
+     */
+    public Class<?> getChildClass() {
+        return childClass;
+    }
+
+    /**
+     * 关联实体的元数据，无法解析关联实体类型时为null.
+     */
+    public EntityMeta<?> getChildMeta() {
+        return childClass == null ? null : EntityMeta.of(childClass);
+    }
+
+    /**
+     * 关联表的表名.
+     */
+    public String getChildTableName() {
+        return childClass == null ? "" : EntityMeta.of(childClass).getTableName();
+    }
+
+    /**
+     * 是否包含某种操作.
+     *
+     * @param actionType {@link ActionType}
+     */
+    public boolean hasAction(String actionType) {
+        return action.contains(actionType);
+    }
+
+    /**
+     * 主表中用于关联的值.
+     *
+     * @param entity 主表实体
+     * @return 关联值，主表中没有对应列时为null
+     * @throws IllegalAccessException the illegal access exception
+     */
+    public Object getParentValue(Object entity) throws IllegalAccessException {
+        return parentField == null ? null : parentField.get(entity);
+    }
+
+    /**
+     * 写入关联表时使用的字段值：未加载的{@link LazyRelationList}与{@link Lazy}为null，
+     * 已加载的{@link Lazy}为其中的对象.
+     *
+     * @param entity 主表实体
+     * @return 需要写入的关联对象或列表，没有时为null
+     * @throws IllegalAccessException the illegal access exception
+     */
+    public Object getLoadedValue(Object entity) throws IllegalAccessException {
+        Object value = field.get(entity);
+        if (value instanceof LazyRelationList && !((LazyRelationList<?>) value).isLoaded()) {
+            return null;
+        }
+        if (value instanceof Lazy) {
+            Lazy<?> holder = (Lazy<?>) value;
+            return holder.isLoaded() ? holder.get() : null;
+        }
+        return value;
+    }
+}
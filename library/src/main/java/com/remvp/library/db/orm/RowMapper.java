@@ -0,0 +1,28 @@
+package com.remvp.library.db.orm;
+
+import android.database.Cursor;
+
+/**
+ * 描述：把游标的一行映射为实体.
+ * 由orm-compiler为{@link com.remvp.library.db.orm.annotation.Table}实体生成，类名为"实体类名_RowMapper"，
+ * 直接访问字段或setter，没有生成时由{@link EntityMeta}提供反射实现.
+ */
+public interface RowMapper<T> {
+
+    /**
+     * 解析每一列在游标中的位置，每个游标只需调用一次.
+     *
+     * @param cursor 游标
+     * @return 列的位置，-1表示游标中没有这一列
+     */
+    int[] columnIndexes(Cursor cursor);
+
+    /**
+     * 把游标当前行映射为实体.
+     *
+     * @param cursor  游标
+     * @param indexes {@link #columnIndexes(Cursor)}的结果
+     * @return 实体
+     */
+    T map(Cursor cursor, int[] indexes);
+}
@@ -0,0 +1,278 @@
+package com.remvp.library.db.orm;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.remvp.library.util.AbStrUtil;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 描述：{@link DBHelper}的升级.
+ * 整个升级在一个事务中：先沿一条从旧版本到新版本的路径执行注册的{@link Migration}，再对比实体与数据库，
+ * 新建缺少的表、新增缺少的列、转换存储格式、补建索引与全文索引，任何一步失败都整体回滚并抛出异常，
+ * 版本号不变，数据库不会以未升级的结构打开，下次打开时重试.
+ * <p>
+ * 实体的表结构计算出一个摘要存在{@link #SCHEMA_TABLE}中，摘要与上次升级后一致时跳过对比.
+ * 对比时每个表只读一次PRAGMA table_info，列信息直接取自缓存的{@link EntityMeta}.
+ */
+final class SchemaMigrator {
+
+    private static final String TAG = "SchemaMigrator";
+
+    /**
+     * 保存实体表结构摘要的表.
+     */
+    static final String SCHEMA_TABLE = "orm_schema";
+
+    private static final String SCHEMA_KEY = "entities";
+
+    private final Class<?>[] mModelClasses;
+
+    private final List<Migration> mMigrations;
+
+    SchemaMigrator(Class<?>[] modelClasses, List<Migration> migrations) {
+        this.mModelClasses = modelClasses;
+        this.mMigrations = migrations;
+    }
+
+    /**
+     * 新建数据库，创建所有表并记录摘要.
+     *
+     * @param db 数据库，已在SQLiteOpenHelper的事务中
+     */
+    void create(SQLiteDatabase db) {
+        AbTableHelper.createTablesByClasses(db, mModelClasses);
+        writeSchemaHash(db, schemaHash());
+    }
+
+    /**
+     * 升级数据库.
+     *
+     * @param db         数据库，已在SQLiteOpenHelper的事务中
+     * @param oldVersion 旧版本号
+     * @param newVersion 新版本号
+     * @throws RuntimeException 升级失败，已回滚
+     */
+    void upgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        long start = System.nanoTime();
+        boolean successful = false;
+        // 嵌套事务失败时外层的SQLiteOpenHelper事务也会回滚，版本号不会更新
+        db.beginTransaction();
+        try {
+            runMigrations(db, oldVersion, newVersion);
+
+            String hash = schemaHash();
+            if (hash.equals(readSchemaHash(db))) {
+                Log.i(TAG, "upgrade: schema unchanged, skip diff");
+            } else {
+                diff(db);
+                writeSchemaHash(db, hash);
+            }
+            db.setTransactionSuccessful();
+            successful = true;
+        } finally {
+            db.endTransaction();
+            Log.i(TAG, "upgrade " + oldVersion + " -> " + newVersion + " [successful]=" + successful
+                    + " [ms]=" + (System.nanoTime() - start) / 1000000L);
+        }
+    }
+
+    /**
+     * 从旧版本开始选择一条升级路径执行：每个版本取起始于该版本、能到达的最高版本不超过新版本的步骤，
+     * 同一版本跨度的步骤只执行一条.
+     * 没有注册任何步骤时只做自动对比.
+     *
+     * @throws IllegalStateException 注册的步骤无法从旧版本到达新版本
+     */
+    private void runMigrations(SQLiteDatabase db, int oldVersion, int newVersion) {
+        if (mMigrations.isEmpty()) {
+            return;
+        }
+        int version = oldVersion;
+        while (version < newVersion) {
+            Migration step = null;
+            for (Migration migration : mMigrations) {
+                if (migration.getStartVersion() == version && migration.getEndVersion() <= newVersion
+                        && (step == null || migration.getEndVersion() > step.getEndVersion())) {
+                    step = migration;
+                }
+            }
+            if (step == null) {
+                throw new IllegalStateException("no migration path from version " + version
+                        + " to " + newVersion);
+            }
+            Log.i(TAG, "migration " + step.getStartVersion() + " -> " + step.getEndVersion());
+            step.migrate(db);
+            version = step.getEndVersion();
+        }
+    }
+
+    /**
+     * 对比实体与数据库：新建表、新增列、转换存储格式、补建索引与全文索引.
+     * 只增不删，实体中已没有的表与列保留.
+     */
+    private void diff(SQLiteDatabase db) {
+        Set<String> tables = readTables(db);
+        for (Class<?> clazz : mModelClasses) {
+            EntityMeta<?> meta = EntityMeta.of(clazz);
+            String tableName = meta.getTableName();
+            if (AbStrUtil.isEmpty(tableName)) {
+                continue;
+            }
+            if (!tables.contains(tableName)) {
+                Log.d(TAG, "diff: create table " + tableName);
+                AbTableHelper.createTable(db, clazz);
+                continue;
+            }
+
+            Map<String, String> declared = new LinkedHashMap<String, String>();
+            boolean hasPrimaryKey = readTableInfo(db, tableName, declared);
+            if (TypedStorageMigration.needsMigration(meta, declared)) {
+                //重建后的表已包含所有列与主键
+                TypedStorageMigration.migrate(db, clazz, declared);
+                continue;
+            }
+            for (ColumnMeta column : meta.getColumns()) {
+                if (!declared.containsKey(column.getName())) {
+                    String sql = "ALTER TABLE " + tableName + " ADD COLUMN '" + column.getName()
+                            + "' " + column.getType();
+                    Log.d(TAG, "diff: " + sql);
+                    db.execSQL(sql);
+                }
+            }
+            //旧版本建表时没有主键约束，为主键补建索引
+            if (!hasPrimaryKey) {
+                AbTableHelper.createIdIndex(db, clazz);
+            }
+            AbTableHelper.createIndexes(db, clazz);
+            AbTableHelper.createFts(db, clazz);
+        }
+    }
+
+    private static Set<String> readTables(SQLiteDatabase db) {
+        Set<String> tables = new HashSet<String>();
+        Cursor cursor = null;
+        try {
+            cursor = db.rawQuery("SELECT name FROM sqlite_master WHERE type='table'", null);
+            while (cursor.moveToNext()) {
+                tables.add(cursor.getString(0));
+            }
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+        return tables;
+    }
+
+    /**
+     * 读取表的列.
+     *
+     * @param db        数据库
+     * @param tableName 表名
+     * @param declared  输出各列声明的类型（大写），按表中的顺序
+     * @return 表是否声明了主键
+     */
+    static boolean readTableInfo(SQLiteDatabase db, String tableName, Map<String, String> declared) {
+        boolean hasPrimaryKey = false;
+        Cursor cursor = null;
+        try {
+            cursor = db.rawQuery("PRAGMA table_info(" + tableName + ")", null);
+            int nameIndex = cursor.getColumnIndex("name");
+            int typeIndex = cursor.getColumnIndex("type");
+            int pkIndex = cursor.getColumnIndex("pk");
+            while (cursor.moveToNext()) {
+                String type = cursor.getString(typeIndex);
+                declared.put(cursor.getString(nameIndex), type == null ? "" : type.toUpperCase(Locale.US));
+                hasPrimaryKey |= cursor.getInt(pkIndex) > 0;
+            }
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+        return hasPrimaryKey;
+    }
+
+    /**
+     * 所有实体的表名、存储格式、列、索引与全文索引的摘要.
+     */
+    String schemaHash() {
+        List<String> entries = new ArrayList<String>(mModelClasses.length);
+        for (Class<?> clazz : mModelClasses) {
+            EntityMeta<?> meta = EntityMeta.of(clazz);
+            if (AbStrUtil.isEmpty(meta.getTableName())) {
+                continue;
+            }
+            StringBuilder s = new StringBuilder(meta.getTableName());
+            s.append(meta.isTypedStorage() ? "|typed" : "|legacy");
+            for (ColumnMeta column : meta.getColumns()) {
+                s.append('|').append(column.getName()).append(' ').append(column.getType())
+                        .append(' ').append(column.getLength()).append(column.isPrimaryKey() ? " pk" : "");
+            }
+            for (IndexMeta index : meta.getIndexes()) {
+                s.append("|index ").append(index.getName()).append(index.isUnique() ? " unique " : " ");
+                s.append(TextUtils.join(",", index.getColumns()));
+            }
+            if (meta.getFtsTableName() != null) {
+                s.append("|fts ").append(TextUtils.join(",", meta.getFtsColumns()))
+                        .append(' ').append(meta.getFtsTokenizer());
+            }
+            entries.add(s.toString());
+        }
+        // 与实体的注册顺序无关
+        Collections.sort(entries);
+        StringBuilder all = new StringBuilder();
+        for (String entry : entries) {
+            all.append(entry).append('\n');
+        }
+        return md5(all.toString());
+    }
+
+    private static String md5(String value) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(value.getBytes("UTF-8"));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String readSchemaHash(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE IF NOT EXISTS " + SCHEMA_TABLE + " (name TEXT PRIMARY KEY, hash TEXT)");
+        Cursor cursor = null;
+        try {
+            cursor = db.rawQuery("SELECT hash FROM " + SCHEMA_TABLE + " WHERE name = ?", new String[]{SCHEMA_KEY});
+            return cursor.moveToFirst() ? cursor.getString(0) : null;
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+    }
+
+    private static void writeSchemaHash(SQLiteDatabase db, String hash) {
+        db.execSQL("CREATE TABLE IF NOT EXISTS " + SCHEMA_TABLE + " (name TEXT PRIMARY KEY, hash TEXT)");
+        db.execSQL("INSERT OR REPLACE INTO " + SCHEMA_TABLE + " (name, hash) VALUES (?, ?)",
+                new Object[]{SCHEMA_KEY, hash});
+    }
+}
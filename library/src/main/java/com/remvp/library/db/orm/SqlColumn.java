@@ -3,6 +3,12 @@ package com.remvp.library.db.orm;
 
 import com.remvp.library.db.orm.annotation.Table;
 
+/**
+ * 描述：拼接字符串的sql，值直接写在sql中，每个不同的值都是不同的sql
+ *
+ * @deprecated 使用{@link Query}，值作为参数绑定，sql保持不变
+ */
+@Deprecated
 public class SqlColumn<T> {
     Class<T> mClass;
     String tableName;
@@ -0,0 +1,171 @@
+package com.remvp.library.db.orm;
+
+import android.database.sqlite.SQLiteDatabase;
+
+import com.remvp.library.db.orm.dao.EntitySnapshots;
+
+import java.lang.reflect.Field;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * 描述：一个{@link DBHelper}写连接上嵌套事务的状态，所有Dao与写队列共用.
+ * Android的嵌套事务中任何一层结束时未成功，整个事务在最外层结束时回滚，
+ * 这里记录是否已有一层失败，供外层判断提交是否还有意义；
+ * 最外层回滚时清空所有Dao的修改跟踪记录，事务中记录的值已不是数据库中的值；
+ * 并把事务中写回实体的主键恢复为写回前的值，回滚后这些主键在数据库中并不存在.
+ * 开启、结束事务都在持有写锁的线程中，同一时刻只有一个线程访问.
+ * 通过{@link DBHelper#getTransactionState()}获取.
+ */
+public final class TransactionState {
+
+    private int mDepth;
+
+    private boolean mFailed;
+
+    /**
+     * 事务中写回实体的字段及写回前的值，最外层结束时清空.
+     */
+    private static final class WriteBack {
+        final Object entity;
+        final Field field;
+        final Object value;
+
+        WriteBack(Object entity, Field field, Object value) {
+            this.entity = entity;
+            this.field = field;
+            this.value = value;
+        }
+    }
+
+    private final List<WriteBack> mWriteBacks = new ArrayList<WriteBack>();
+
+    /**
+     * 开启了修改跟踪的Dao的记录，Dao被回收后随之清除.
+     */
+    private final List<WeakReference<EntitySnapshots>> mSnapshots = new ArrayList<WeakReference<EntitySnapshots>>();
+
+    TransactionState() {
+    }
+
+    /**
+     * 登记一个Dao的修改跟踪记录，整个事务回滚时清空.
+     */
+    public void register(EntitySnapshots snapshots) {
+        synchronized (mSnapshots) {
+            Iterator<WeakReference<EntitySnapshots>> iterator = mSnapshots.iterator();
+            while (iterator.hasNext()) {
+                if (iterator.next().get() == null) {
+                    iterator.remove();
+                }
+            }
+            mSnapshots.add(new WeakReference<EntitySnapshots>(snapshots));
+        }
+    }
+
+    /**
+     * 在事务中把值写回实体的字段，记录原值以便整个事务回滚时恢复.
+     *
+     * @param entity 实体
+     * @param field  字段
+     * @param value  写回的值
+     * @throws IllegalAccessException the illegal access exception
+     */
+    public void writeBack(Object entity, Field field, Object value) throws IllegalAccessException {
+        if (mDepth > 0) {
+            mWriteBacks.add(new WriteBack(entity, field, field.get(entity)));
+        }
+        field.set(entity, value);
+    }
+
+    /**
+     * 开启一层事务，已在事务中时为嵌套事务.
+     *
+     * @param db 写连接，当前线程持有写锁
+     */
+    public void begin(SQLiteDatabase db) {
+        db.beginTransaction();
+        mDepth++;
+    }
+
+    /**
+     * 结束一层事务.
+     *
+     * @param db         写连接
+     * @param successful 这一层是否成功，未成功时整个事务回滚
+     * @return 最外层结束且已提交时为true，其它情况为false
+     */
+    public boolean end(SQLiteDatabase db, boolean successful) {
+        boolean marked = false;
+        boolean ended = false;
+        boolean committed = false;
+        try {
+            if (successful) {
+                db.setTransactionSuccessful();
+                marked = true;
+            }
+        } finally {
+            try {
+                db.endTransaction();
+                ended = true;
+            } finally {
+                // 提交失败时endTransaction抛出异常，同样视为回滚
+                if (!marked || !ended) {
+                    mFailed = true;
+                }
+                if (--mDepth == 0) {
+                    committed = !mFailed;
+                    mFailed = false;
+                    if (!committed) {
+                        restoreWriteBacks();
+                        clearSnapshots();
+                    }
+                    mWriteBacks.clear();
+                }
+            }
+        }
+        return committed;
+    }
+
+    private void restoreWriteBacks() {
+        // 倒序恢复，同一字段多次写回时恢复为最早的值
+        for (int i = mWriteBacks.size() - 1; i >= 0; i--) {
+            WriteBack writeBack = mWriteBacks.get(i);
+            try {
+                writeBack.field.set(writeBack.entity, writeBack.value);
+            } catch (IllegalAccessException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void clearSnapshots() {
+        synchronized (mSnapshots) {
+            Iterator<WeakReference<EntitySnapshots>> iterator = mSnapshots.iterator();
+            while (iterator.hasNext()) {
+                EntitySnapshots snapshots = iterator.next().get();
+                if (snapshots == null) {
+                    iterator.remove();
+                } else {
+                    snapshots.clear();
+                }
+            }
+        }
+    }
+
+    /**
+     * 当前事务中是否已有一层失败，此时最外层结束时一定回滚.
+     */
+    public boolean isFailed() {
+        return mFailed;
+    }
+
+    /**
+     * 当前是否在事务中.
+     */
+    public boolean inTransaction() {
+        return mDepth > 0;
+    }
+}
@@ -0,0 +1,177 @@
+package com.remvp.library.db.orm;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 描述：把legacy格式的表转换为{@link com.remvp.library.db.orm.annotation.StorageMode#typed}格式.
+ * SQLite不能修改已有列的类型，TEXT类型的列会把写入的整数再转为文本，所以需要重建表：
+ * 旧表改名，按实体新建表，逐行把"true"/"false"、字符串、文本的毫秒数转换为整数后写入，再删除旧表.
+ * 实体中已没有的旧列按原类型保留.
+ * 由{@link SchemaMigrator}在升级的事务中执行.
+ */
+final class TypedStorageMigration {
+
+    private static final String TAG = "TypedStorageMigration";
+
+    private TypedStorageMigration() {
+    }
+
+    /**
+     * 实体为typed格式，而表中Date、boolean、char列的类型与实体不一致.
+     *
+     * @param meta     实体的元数据
+     * @param declared 表中各列声明的类型，{@link SchemaMigrator#readTableInfo}的结果
+     * @return 是否需要转换
+     */
+    static boolean needsMigration(EntityMeta<?> meta, Map<String, String> declared) {
+        if (!meta.isTypedStorage()) {
+            return false;
+        }
+        for (ColumnMeta column : meta.getColumns()) {
+            String type = declared.get(column.getName());
+            if (type != null && isConverted(column) && !type.equalsIgnoreCase(column.getType())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 重建表并转换已有数据.
+     *
+     * @param db       数据库
+     * @param clazz    映射实体
+     * @param declared 表中各列声明的类型
+     */
+    static void migrate(SQLiteDatabase db, Class<?> clazz, Map<String, String> declared) {
+        EntityMeta<?> meta = EntityMeta.of(clazz);
+        String table = meta.getTableName();
+        String legacyTable = table + "_legacy";
+        Log.i(TAG, "migrate [" + table + "] to typed storage");
+
+        // 同步全文索引的触发器会随旧表改名，先删除，新建表时重建并由触发器写入复制的行
+        AbTableHelper.dropFts(db, clazz);
+        db.execSQL("ALTER TABLE " + table + " RENAME TO " + legacyTable);
+        AbTableHelper.createTable(db, clazz);
+
+        List<String> columns = new ArrayList<String>(declared.keySet());
+        for (String column : columns) {
+            if (meta.getColumn(column) == null) {
+                db.execSQL("ALTER TABLE " + table + " ADD COLUMN '" + column + "' " + declared.get(column));
+            }
+        }
+
+        long rows = copyRows(db, meta, legacyTable, columns);
+        // 旧表的索引随旧表删除，再按实体补建
+        db.execSQL("DROP TABLE " + legacyTable);
+        AbTableHelper.createIndexes(db, clazz);
+        Log.i(TAG, "migrate [" + table + "] " + rows + " rows");
+    }
+
+    private static long copyRows(SQLiteDatabase db, EntityMeta<?> meta, String legacyTable, List<String> columns) {
+        StringBuilder select = new StringBuilder("SELECT ");
+        StringBuilder insert = new StringBuilder("INSERT INTO ").append(meta.getTableName()).append(" (");
+        for (int i = 0; i < columns.size(); i++) {
+            select.append(i == 0 ? "" : ",").append(columns.get(i));
+            insert.append(i == 0 ? "" : ",").append(columns.get(i));
+        }
+        select.append(" FROM ").append(legacyTable).append(" ORDER BY rowid");
+        insert.append(") VALUES (");
+        for (int i = 0; i < columns.size(); i++) {
+            insert.append(i == 0 ? "?" : ",?");
+        }
+        insert.append(")");
+
+        ColumnMeta[] metas = new ColumnMeta[columns.size()];
+        for (int i = 0; i < metas.length; i++) {
+            metas[i] = meta.getColumn(columns.get(i));
+        }
+
+        long rows = 0;
+        Cursor cursor = null;
+        SQLiteStatement statement = db.compileStatement(insert.toString());
+        try {
+            cursor = db.rawQuery(select.toString(), null);
+            while (cursor.moveToNext()) {
+                statement.clearBindings();
+                for (int i = 0; i < metas.length; i++) {
+                    bindConverted(statement, i + 1, cursor, i, metas[i]);
+                }
+                statement.executeInsert();
+                rows++;
+            }
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+            statement.close();
+        }
+        return rows;
+    }
+
+    /**
+     * 把旧格式的值转换后绑定，不需要转换的列按原存储类型绑定.
+     */
+    private static void bindConverted(SQLiteStatement statement, int index, Cursor cursor, int column,
+                                      ColumnMeta meta) {
+        if (cursor.isNull(column)) {
+            statement.bindNull(index);
+            return;
+        }
+        if (meta != null && isConverted(meta)) {
+            switch (meta.getHandler()) {
+                case BOOLEAN:
+                    BindUtil.bindTypedBoolean(statement, index, BindUtil.toBoolean(cursor.getString(column)));
+                    return;
+                case CHAR: {
+                    String value = cursor.getString(column);
+                    if (value.length() == 0) {
+                        statement.bindNull(index);
+                    } else {
+                        BindUtil.bindTypedChar(statement, index, value.charAt(0));
+                    }
+                    return;
+                }
+                default:
+                    // Date：文本形式的毫秒数
+                    statement.bindLong(index, cursor.getLong(column));
+                    return;
+            }
+        }
+        switch (cursor.getType(column)) {
+            case Cursor.FIELD_TYPE_INTEGER:
+                statement.bindLong(index, cursor.getLong(column));
+                break;
+            case Cursor.FIELD_TYPE_FLOAT:
+                statement.bindDouble(index, cursor.getDouble(column));
+                break;
+            case Cursor.FIELD_TYPE_BLOB:
+                statement.bindBlob(index, cursor.getBlob(column));
+                break;
+            default:
+                statement.bindString(index, cursor.getString(column));
+                break;
+        }
+    }
+
+    /**
+     * typed与legacy格式不同的列.
+     */
+    private static boolean isConverted(ColumnMeta column) {
+        switch (column.getHandler()) {
+            case BOOLEAN:
+            case CHAR:
+            case DATE:
+                return column.isTyped();
+            default:
+                return false;
+        }
+    }
+}
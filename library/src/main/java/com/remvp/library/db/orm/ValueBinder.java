@@ -0,0 +1,39 @@
+package com.remvp.library.db.orm;
+
+import android.database.sqlite.SQLiteStatement;
+
+/**
+ * 描述：把实体的列值绑定到预编译语句.
+ * 由orm-compiler为{@link com.remvp.library.db.orm.annotation.Table}实体生成，类名为"实体类名_ValueBinder"，
+ * 直接访问字段或getter，没有生成时由{@link EntityMeta}提供反射实现.
+ * <p>
+ * 通过{@link EntityMeta#getValueBinder()}获取的实例，列的编号与{@link EntityMeta#getColumn(int)}一致.
+ */
+public interface ValueBinder<T> {
+
+    /**
+     * 列名，下标即其它方法中column参数的编号.
+     *
+     * @return 列名数组，不可修改
+     */
+    String[] getColumns();
+
+    /**
+     * 实体中该列的值是否为null.
+     *
+     * @param entity 映射实体
+     * @param column 列编号
+     * @return 为null时返回true
+     */
+    boolean isNull(T entity, int column);
+
+    /**
+     * 把实体中该列的值绑定到语句，值不能为null.
+     *
+     * @param statement 预编译语句
+     * @param index     绑定位置，从1开始
+     * @param entity    映射实体
+     * @param column    列编号
+     */
+    void bind(SQLiteStatement statement, int index, T entity, int column);
+}
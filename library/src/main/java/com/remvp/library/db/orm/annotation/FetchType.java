@@ -0,0 +1,12 @@
+package com.remvp.library.db.orm.annotation;
+
+/**
+ * 名称：FetchType.java
+ * 描述：关联数据的加载方式
+ * eager 查询主表时一起查询关联表
+ * lazy 查询主表时只设置代理，首次访问时再查询关联表，一对多字段为List，一对一字段需要声明为Lazy
+ */
+public class FetchType {
+    public static final String eager = "eager";
+    public static final String lazy = "lazy";
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright (C) 2013 www.418log.org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.remvp.library.db.orm.annotation;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * The Interface Fts.
+ * 为表建立FTS4全文索引表"表名_fts"，docid为表的rowid，由触发器在增删改时同步.
+ * 通过Dao的search查询.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target( { java.lang.annotation.ElementType.TYPE })
+public @interface Fts {
+
+	/**
+	 * 参与全文索引的列名.
+	 *
+	 * @return the string[]
+	 */
+	String[] columns();
+
+	/**
+	 * 分词器，例如"simple"、"porter"、"unicode61"，为空时使用SQLite默认的simple.
+	 * 中文等不以空格分词的文本需要自行分词，以空格分隔后存入单独的列.
+	 *
+	 * @return the string
+	 */
+	String tokenizer() default "";
+}
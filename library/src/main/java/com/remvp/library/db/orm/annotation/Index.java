@@ -0,0 +1,52 @@
+/*
+ * Copyright (C) 2013 www.418log.org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.remvp.library.db.orm.annotation;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * The Interface Index.
+ * 索引，建表时创建，升级时对已有的表补建.
+ * 注解在字段上时为该列的单列索引；注解在类上或放在{@link Indexes}中时需要指定{@link #columns()}，
+ * 可以是多列的组合索引.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target( { java.lang.annotation.ElementType.FIELD, java.lang.annotation.ElementType.TYPE })
+public @interface Index {
+
+	/**
+	 * 索引名，默认为idx_表名_列名.
+	 *
+	 * @return the string
+	 */
+	String name() default "";
+
+	/**
+	 * 索引的列，按顺序组合；注解在字段上时可以省略.
+	 *
+	 * @return the string[]
+	 */
+	String[] columns() default {};
+
+	/**
+	 * 是否唯一索引.
+	 *
+	 * @return the boolean
+	 */
+	boolean unique() default false;
+}
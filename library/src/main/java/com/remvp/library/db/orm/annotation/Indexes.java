@@ -0,0 +1,36 @@
+/*
+ * Copyright (C) 2013 www.418log.org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.remvp.library.db.orm.annotation;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * The Interface Indexes.
+ * 一个表的多个组合索引.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target( { java.lang.annotation.ElementType.TYPE })
+public @interface Indexes {
+
+	/**
+	 * 索引列表.
+	 *
+	 * @return the index[]
+	 */
+	Index[] value();
+}
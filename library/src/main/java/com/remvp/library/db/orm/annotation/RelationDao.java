@@ -39,4 +39,11 @@ public @interface RelationDao {
 	 * @return the string  queryRaw insert query_insert
 	 */
 	String action() default "query_insert";
+
+	/**
+	 * 加载方式.
+	 *
+	 * @return the string  eager lazy {@link FetchType}
+	 */
+	String fetch() default FetchType.eager;
 }
@@ -0,0 +1,12 @@
+package com.remvp.library.db.orm.annotation;
+
+/**
+ * 名称：StorageMode.java
+ * 描述：列值的存储格式，{@link Table#storage()}的取值
+ * legacy：boolean存"true"/"false"，char存字符串，Date、boolean、char列为TEXT类型
+ * typed：boolean存0/1，char存字符编码，Date存毫秒数，这三种列均为INTEGER类型
+ */
+public class StorageMode {
+    public static final String legacy = "legacy";
+    public static final String typed = "typed";
+}
@@ -33,4 +33,11 @@ public @interface Table {
 	 * @return the string
 	 */
 	String name();
+
+	/**
+	 * 存储格式，{@link StorageMode}，改为typed后升级数据库版本，已有的表在onUpgrade中转换.
+	 *
+	 * @return the string
+	 */
+	String storage() default StorageMode.legacy;
 }
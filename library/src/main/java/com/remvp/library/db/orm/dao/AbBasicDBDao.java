@@ -19,6 +19,9 @@ import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 
+import com.remvp.library.db.orm.Aggregate;
+import com.remvp.library.db.orm.Query;
+
 import java.util.List;
 import java.util.Map;
 
@@ -68,6 +71,15 @@ public abstract class AbBasicDBDao<T> {
      */
     protected abstract long insertListAbs(List<T> entityList, boolean flag);
 
+    /**
+     * 批量插入或更新.
+     *
+     * @param entityList 映射实体列表
+     * @param strategy   按主键或唯一索引已存在时的处理方式
+     * @return 每个实体的结果，失败时为null
+     */
+    protected abstract List<UpsertOutcome> upsertListAbs(List<T> entityList, ConflictStrategy strategy);
+
 
     /**
      * 根据ID删除数据.
@@ -103,6 +115,14 @@ public abstract class AbBasicDBDao<T> {
      */
     protected abstract List<T> deleteListAbs(List<T> ids);
 
+    /**
+     * 按主键批量删除实体.
+     *
+     * @param entities 要删除的实体
+     * @return 主表删除的行数，失败时为-1
+     */
+    protected abstract long deleteEntitiesAbs(List<T> entities);
+
 
     /**
      * 根据where删除数据.
@@ -202,6 +222,20 @@ public abstract class AbBasicDBDao<T> {
      */
     protected abstract List<T> queryListAbs(int page, int pageSize);
 
+    /**
+     * 按键值分页查询.
+     *
+     * @param selection     where语句的sql，可以为null
+     * @param selectionArgs where语句的sql的绑定变量的参数
+     * @param orderColumn   排序列，值需要唯一，null为主键
+     * @param afterKey      上一页最后一行排序列的值，null为第一页
+     * @param pageSize      每页条数
+     * @param descending    是否降序
+     * @return 一页数据
+     */
+    protected abstract KeysetPage<T> queryPageAbs(String selection, String[] selectionArgs, String orderColumn,
+                                                  String afterKey, int pageSize, boolean descending);
+
     /**
      * 映射实体列表.
      *
@@ -227,6 +261,134 @@ public abstract class AbBasicDBDao<T> {
      */
     protected abstract List<T> queryListAbs(String selection, String[] selectionArgs);
 
+    /**
+     * 逐行查询，不加载关联表.
+     *
+     * @param selection     where语句的sql
+     * @param selectionArgs where语句的sql的绑定变量的参数
+     * @param orderBy       排序
+     * @return 迭代器，遍历结束或close时释放游标
+     */
+    protected abstract CloseableIterator<T> queryStreamAbs(String selection, String[] selectionArgs, String orderBy);
+
+    /**
+     * 逐行执行查询语句，不加载关联表.
+     *
+     * @param sql           sql语句
+     * @param selectionArgs 绑定变量的参数值
+     * @param clazz         返回的对象类型
+     * @return 迭代器，遍历结束或close时释放游标
+     */
+    protected abstract CloseableIterator<T> queryRawStreamAbs(String sql, String[] selectionArgs, Class<T> clazz);
+
+    /**
+     * 查询一列整数，不创建实体.
+     *
+     * @param column        列名
+     * @param selection     where语句的sql
+     * @param selectionArgs where语句的sql的绑定变量的参数
+     * @param orderBy       排序
+     * @return 每行一个值，null为0
+     */
+    protected abstract long[] queryLongColumnAbs(String column, String selection, String[] selectionArgs, String orderBy);
+
+    /**
+     * 查询一列浮点数，不创建实体.
+     *
+     * @param column        列名
+     * @param selection     where语句的sql
+     * @param selectionArgs where语句的sql的绑定变量的参数
+     * @param orderBy       排序
+     * @return 每行一个值，null为0
+     */
+    protected abstract double[] queryDoubleColumnAbs(String column, String selection, String[] selectionArgs, String orderBy);
+
+    /**
+     * 查询一列文本，不创建实体.
+     *
+     * @param column        列名
+     * @param selection     where语句的sql
+     * @param selectionArgs where语句的sql的绑定变量的参数
+     * @param orderBy       排序
+     * @return 每行一个值
+     */
+    protected abstract String[] queryStringColumnAbs(String column, String selection, String[] selectionArgs, String orderBy);
+
+    /**
+     * 执行查询语句，结果按列存储，不创建实体.
+     *
+     * @param sql           sql语句
+     * @param selectionArgs 绑定变量的参数值
+     * @return 结果，出错时为null
+     */
+    protected abstract ResultTable queryTableAbs(String sql, String[] selectionArgs);
+
+    /**
+     * 执行查询构造器.
+     *
+     * @param query 查询
+     * @return 实体列表
+     */
+    protected abstract List<T> queryAbs(Query<T> query);
+
+    /**
+     * 执行只返回一个值的查询构造器.
+     *
+     * @param query 查询
+     * @return 第一行第一列，没有结果时为0
+     */
+    protected abstract long queryForLongAbs(Query<T> query);
+
+    /**
+     * 执行只返回一个值的查询构造器.
+     *
+     * @param query 查询
+     * @return 第一行第一列，没有结果时为null
+     */
+    protected abstract String queryForStringAbs(Query<T> query);
+
+    /**
+     * 在全文索引中搜索.
+     *
+     * @param match MATCH表达式
+     * @param limit 最多返回的个数
+     * @return 按相关度排列的实体
+     */
+    protected abstract List<T> searchAbs(String match, int limit);
+
+    /**
+     * 计算一列的聚合值.
+     *
+     * @param aggregate     聚合函数
+     * @param column        列名
+     * @param where         where语句
+     * @param selectionArgs 绑定变量的参数值
+     * @return 聚合值
+     */
+    protected abstract double aggregateAbs(Aggregate aggregate, String column, String where, String[] selectionArgs);
+
+    /**
+     * 按条件计数.
+     *
+     * @param where         where语句
+     * @param selectionArgs 绑定变量的参数值
+     * @return 行数
+     */
+    protected abstract long countAbs(String where, String[] selectionArgs);
+
+    /**
+     * 按一列分组计算聚合值.
+     *
+     * @param keyColumn     分组的列
+     * @param aggregate     聚合函数
+     * @param valueColumn   聚合的列
+     * @param where         where语句
+     * @param selectionArgs 绑定变量的参数值
+     * @return 分组键到聚合值
+     */
+    protected abstract Map<String, Double> groupByAbs(String keyColumn, Aggregate aggregate, String valueColumn,
+                                                      String where, String[] selectionArgs);
+
     /**
      * 检查是否存在数据.
      *
@@ -1,13 +1,30 @@
 package com.remvp.library.db.orm.dao;
 
+import android.database.sqlite.SQLiteException;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.util.Log;
 
+import com.remvp.library.db.orm.Aggregate;
 import com.remvp.library.db.orm.DBHelper;
-import com.remvp.library.db.orm.SqlColumn;
+import com.remvp.library.db.orm.InvalidationTracker;
+import com.remvp.library.db.orm.Query;
 
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.BackpressureStrategy;
+import io.reactivex.Emitter;
+import io.reactivex.Flowable;
+import io.reactivex.FlowableEmitter;
+import io.reactivex.FlowableOnSubscribe;
+import io.reactivex.functions.BiConsumer;
+import io.reactivex.functions.Cancellable;
+import io.reactivex.functions.Consumer;
+import io.reactivex.functions.Function;
+import io.reactivex.schedulers.Schedulers;
 
 /**
  * 新增了无锁增删改
@@ -17,11 +34,34 @@ import java.util.Map;
  * <p>
  * 新增了根据某一列，而非主键进行更新
  * {@link #updateByColumn(String, Object)}
+ * <p>
+ * 多个操作需要作为一个整体提交时使用{@link #runInTransaction(Callable)}
+ * <p>
+ * 实体注解{@link com.remvp.library.db.orm.annotation.Cacheable}或调用{@link #enableEntityCache(int)}后，
+ * {@link #queryOne(String)}按主键缓存实体，见{@link EntityCache}
+ * <p>
+ * 需要在数据修改后刷新界面时使用{@link #observeQuery(String, String[], String)}，不需要每次写入后重新查询
+ * <p>
+ * 多个线程频繁写入时使用{@link #enqueueInsert(Object)}等异步方法，由一个写线程合并提交
  */
 public abstract class BaseDao<T> extends DBImpl<T> {
     private final String TAG = "BaseDao";
+    /**
+     * @deprecated 不再使用，读写由{@link com.remvp.library.db.orm.DBLock}控制
+     */
+    @Deprecated
     public byte[] lock = new byte[0];
 
+    /**
+     * {@link #observeQuery(String, String[], String)}合并连续通知的间隔，毫秒
+     */
+    public static final long OBSERVE_DEBOUNCE_MILLIS = 50;
+
+    /**
+     * 表修改的通知
+     */
+    private static final Object CHANGED = new Object();
+
     public BaseDao(DBHelper dbHelper, Class<T> clazz) {
         super(dbHelper, clazz);
     }
@@ -32,11 +72,11 @@ public abstract class BaseDao<T> extends DBImpl<T> {
     }
 
     public T queryOne(int id) {
-        synchronized (this.lock) {
-            startReadableDatabase(true);
-            T result = super.queryOneAbs(id);
+        startReadableDatabase(true);
+        try {
+            return super.queryOneAbs(id);
+        } finally {
             closeDatabase(true);
-            return result;
         }
     }
 
@@ -47,11 +87,11 @@ public abstract class BaseDao<T> extends DBImpl<T> {
      * @return
      */
     public T queryOne(String id) {
-        synchronized (this.lock) {
-            startReadableDatabase(true);
-            T result = super.queryOneAbs(id);
+        startReadableDatabase(true);
+        try {
+            return super.queryOneAbs(id);
+        } finally {
             closeDatabase(true);
-            return result;
         }
     }
 
@@ -63,11 +103,11 @@ public abstract class BaseDao<T> extends DBImpl<T> {
      * @return
      */
     public T queryOne(String column, String data) {
-        synchronized (this.lock) {
-            startReadableDatabase(true);
-            T result = super.queryOneAbs(column, data);
+        startReadableDatabase(true);
+        try {
+            return super.queryOneAbs(column, data);
+        } finally {
             closeDatabase(true);
-            return result;
         }
     }
 
@@ -80,11 +120,11 @@ public abstract class BaseDao<T> extends DBImpl<T> {
      * @return
      */
     public List<T> queryRaw(String sql, String[] selectionArgs, Class<T> clazz) {
-        synchronized (this.lock) {
-            startReadableDatabase(true);
-            List<T> result = super.queryRawAbs(sql, selectionArgs, clazz);
+        startReadableDatabase(true);
+        try {
+            return super.queryRawAbs(sql, selectionArgs, clazz);
+        } finally {
             closeDatabase(true);
-            return result;
         }
     }
 
@@ -92,23 +132,25 @@ public abstract class BaseDao<T> extends DBImpl<T> {
      * @param sql
      * @param selectionArgs
      * @return
+     * @deprecated 使用{@link #query(Query)}，值作为参数绑定
      */
-    public List<T> queryRaw(SqlColumn<T> sql, String[] selectionArgs) {
-        synchronized (this.lock) {
-            startReadableDatabase(true);
-            List<T> result = super.queryRawAbs(sql.getSql(), selectionArgs, sql.getClazz());
+    @Deprecated
+    public List<T> queryRaw(com.remvp.library.db.orm.SqlColumn<T> sql, String[] selectionArgs) {
+        startReadableDatabase(true);
+        try {
+            return super.queryRawAbs(sql.getSql(), selectionArgs, sql.getClazz());
+        } finally {
             closeDatabase(true);
-            return result;
         }
     }
 
 
     public boolean isExist(String sql, String[] selectionArgs) {
-        synchronized (this.lock) {
-            startReadableDatabase(true);
-            boolean result = super.isExistAbs(sql, selectionArgs);
+        startReadableDatabase(true);
+        try {
+            return super.isExistAbs(sql, selectionArgs);
+        } finally {
             closeDatabase(true);
-            return result;
         }
     }
 
@@ -118,11 +160,11 @@ public abstract class BaseDao<T> extends DBImpl<T> {
      * @return
      */
     public List<T> queryList() {
-        synchronized (this.lock) {
-            startReadableDatabase(true);
-            List<T> result = super.queryListAbs();
+        startReadableDatabase(true);
+        try {
+            return super.queryListAbs();
+        } finally {
             closeDatabase(true);
-            return result;
         }
     }
 
@@ -134,11 +176,57 @@ public abstract class BaseDao<T> extends DBImpl<T> {
      * @return
      */
     public List<T> queryList(int page, int pageSize) {
-        synchronized (this.lock) {
-            startReadableDatabase(true);
-            List<T> result = super.queryListAbs(page, pageSize);
+        startReadableDatabase(true);
+        try {
+            return super.queryListAbs(page, pageSize);
+        } finally {
             closeDatabase(true);
+        }
+    }
+
+    /**
+     * 按主键分页，页数较大时比{@link #queryList(int, int)}快
+     *
+     * @param afterKey 上一页的{@link KeysetPage#getNextKey()}，第一页为null
+     * @param pageSize
+     * @return
+     */
+    public KeysetPage<T> queryPage(String afterKey, int pageSize) {
+        return queryPage(null, null, null, afterKey, pageSize, false);
+    }
+
+    /**
+     * 按某一列分页，该列的值需要唯一
+     *
+     * @param orderColumn 排序列，null为主键
+     * @param afterKey    上一页的{@link KeysetPage#getNextKey()}，第一页为null
+     * @param pageSize
+     * @return
+     */
+    public KeysetPage<T> queryPage(String orderColumn, String afterKey, int pageSize) {
+        return queryPage(null, null, orderColumn, afterKey, pageSize, false);
+    }
+
+    /**
+     * 按某一列分页，并追加查询条件
+     *
+     * @param selection     where语句，可以为null
+     * @param selectionArgs
+     * @param orderColumn   排序列，值需要唯一，null为主键
+     * @param afterKey      上一页的{@link KeysetPage#getNextKey()}，第一页为null
+     * @param pageSize
+     * @param descending    是否降序
+     * @return
+     */
+    public KeysetPage<T> queryPage(String selection, String[] selectionArgs, String orderColumn,
+                                   String afterKey, int pageSize, boolean descending) {
+        startReadableDatabase(true);
+        try {
+            KeysetPage<T> result = super.queryPageAbs(selection, selectionArgs, orderColumn,
+                    afterKey, pageSize, descending);
             return result;
+        } finally {
+            closeDatabase(true);
         }
     }
 
@@ -149,9 +237,11 @@ public abstract class BaseDao<T> extends DBImpl<T> {
      * @param selectionArgs
      */
     public void execSql(String sql, String[] selectionArgs) {
-        synchronized (this.lock) {
-            startWritableDatabase(true);
+        startWritableDatabase(true);
+        try {
             super.execSqlAbs(sql, selectionArgs);
+            setTransactionSuccessful();
+        } finally {
             closeDatabase(true);
         }
 
@@ -172,24 +262,186 @@ public abstract class BaseDao<T> extends DBImpl<T> {
     public List<T> queryList(String[] columns, String selection,
                              String[] selectionArgs, String groupBy, String having,
                              String orderBy, String limit) {
-        synchronized (this.lock) {
-            startReadableDatabase(true);
+        startReadableDatabase(true);
+        try {
             List<T> result = super.queryListAbs(columns, selection, selectionArgs,
                     groupBy, having, orderBy, limit);
-            closeDatabase(true);
             return result;
+        } finally {
+            closeDatabase(true);
         }
     }
 
     public List<T> queryList(String selection, String[] selectionArgs) {
-        synchronized (this.lock) {
-            startReadableDatabase(true);
-            List<T> result = super.queryListAbs(selection, selectionArgs);
+        startReadableDatabase(true);
+        try {
+            return super.queryListAbs(selection, selectionArgs);
+        } finally {
+            closeDatabase(true);
+        }
+    }
+
+    /**
+     * 逐行查询，按页读取，不会一次性把所有数据读入内存，不加载关联表.
+     * 按rowid分页，遍历期间其它线程的写入不会导致行被跳过或重复返回.
+     * 遍历结束时自动释放，提前结束时必须调用{@link CloseableIterator#close()}
+     *
+     * @param selection     where语句，null为全部
+     * @param selectionArgs 绑定变量
+     * @param orderBy       排序
+     * @return 迭代器
+     */
+    public CloseableIterator<T> queryStream(String selection, String[] selectionArgs, String orderBy) {
+        startReadableDatabase(true);
+        try {
+            return super.queryStreamAbs(selection, selectionArgs, orderBy);
+        } finally {
+            closeDatabase(true);
+        }
+    }
+
+    /**
+     * 逐行执行sql查询，不加载关联表.
+     * 游标按窗口读取，遍历期间其它线程的增删可能使后面的窗口错位，需要稳定遍历时使用{@link #queryStream(String, String[], String)}
+     *
+     * @param sql
+     * @param selectionArgs
+     * @param clazz
+     * @return 迭代器，用法同{@link #queryStream(String, String[], String)}
+     */
+    public CloseableIterator<T> queryRawStream(String sql, String[] selectionArgs, Class<T> clazz) {
+        startReadableDatabase(true);
+        try {
+            return super.queryRawStreamAbs(sql, selectionArgs, clazz);
+        } finally {
             closeDatabase(true);
-            return result;
         }
     }
 
+    /**
+     * {@link #queryStream(String, String[], String)}的Flowable形式.
+     * 订阅时才查询，按下游的请求数逐行读取，完成、出错或取消时释放游标.
+     *
+     * @param selection     where语句，null为全部
+     * @param selectionArgs 绑定变量
+     * @param orderBy       排序
+     * @return Flowable
+     */
+    public Flowable<T> queryFlowable(final String selection, final String[] selectionArgs, final String orderBy) {
+        return streamFlowable(new Callable<CloseableIterator<T>>() {
+            @Override
+            public CloseableIterator<T> call() throws Exception {
+                return queryStream(selection, selectionArgs, orderBy);
+            }
+        });
+    }
+
+    /**
+     * {@link #queryRawStream(String, String[], Class)}的Flowable形式.
+     *
+     * @param sql
+     * @param selectionArgs
+     * @param clazz
+     * @return Flowable
+     */
+    public Flowable<T> queryRawFlowable(final String sql, final String[] selectionArgs, final Class<T> clazz) {
+        return streamFlowable(new Callable<CloseableIterator<T>>() {
+            @Override
+            public CloseableIterator<T> call() throws Exception {
+                return queryRawStream(sql, selectionArgs, clazz);
+            }
+        });
+    }
+
+    /**
+     * 观察查询结果，订阅时查询一次，之后任何Dao修改了查询读取的表（含关联表）时重新查询.
+     * 一个事务内的多次写入在提交后只通知一次，{@link #OBSERVE_DEBOUNCE_MILLIS}内的连续通知合并为一次查询.
+     * 查询在{@link Schedulers#io()}执行，主线程使用结果时需要observeOn.
+     *
+     * @param selection     where语句，null为全部
+     * @param selectionArgs 绑定变量
+     * @param orderBy       排序
+     * @return 每次查询的结果
+     */
+    public Flowable<List<T>> observeQuery(final String selection, final String[] selectionArgs, final String orderBy) {
+        return observe(getQueryTables(selection), OBSERVE_DEBOUNCE_MILLIS, new Callable<List<T>>() {
+            @Override
+            public List<T> call() throws Exception {
+                return queryList(null, selection, selectionArgs, null, null, orderBy, null);
+            }
+        });
+    }
+
+    /**
+     * 观察查询语句的结果，见{@link #observeQuery(String, String[], String)}.
+     *
+     * @param sql            查询语句
+     * @param selectionArgs  绑定变量
+     * @param debounceMillis 连续通知合并的间隔，毫秒
+     * @return 每次查询的结果
+     */
+    public Flowable<List<T>> observeRawQuery(final String sql, final String[] selectionArgs, long debounceMillis) {
+        final Class<T> clazz = getEntityClass();
+        return observe(getRawQueryTables(sql), debounceMillis, new Callable<List<T>>() {
+            @Override
+            public List<T> call() throws Exception {
+                return queryRaw(sql, selectionArgs, clazz);
+            }
+        });
+    }
+
+    private Flowable<List<T>> observe(final String[] tables, long debounceMillis, final Callable<List<T>> query) {
+        final InvalidationTracker tracker = getInvalidationTracker();
+        Flowable<Object> changes = Flowable.create(new FlowableOnSubscribe<Object>() {
+            @Override
+            public void subscribe(final FlowableEmitter<Object> emitter) throws Exception {
+                final InvalidationTracker.Observer observer = new InvalidationTracker.Observer() {
+                    @Override
+                    public void onInvalidated() {
+                        emitter.onNext(CHANGED);
+                    }
+                };
+                tracker.addObserver(observer, tables);
+                emitter.setCancellable(new Cancellable() {
+                    @Override
+                    public void cancel() throws Exception {
+                        tracker.removeObserver(observer);
+                    }
+                });
+            }
+        }, BackpressureStrategy.LATEST);
+        return changes
+                .debounce(debounceMillis, TimeUnit.MILLISECONDS, Schedulers.io())
+                .startWith(CHANGED)
+                // 查询慢于修改时只保留最新的一次通知
+                .onBackpressureLatest()
+                .observeOn(Schedulers.io(), false, 1)
+                .map(new Function<Object, List<T>>() {
+                    @Override
+                    public List<T> apply(Object changed) throws Exception {
+                        return query.call();
+                    }
+                });
+    }
+
+    private Flowable<T> streamFlowable(Callable<CloseableIterator<T>> open) {
+        return Flowable.generate(open, new BiConsumer<CloseableIterator<T>, Emitter<T>>() {
+            @Override
+            public void accept(CloseableIterator<T> iterator, Emitter<T> emitter) throws Exception {
+                if (iterator.hasNext()) {
+                    emitter.onNext(iterator.next());
+                } else {
+                    emitter.onComplete();
+                }
+            }
+        }, new Consumer<CloseableIterator<T>>() {
+            @Override
+            public void accept(CloseableIterator<T> iterator) throws Exception {
+                iterator.close();
+            }
+        });
+    }
+
     /**
      * 根据实体类插入一条数据
      *
@@ -197,20 +449,51 @@ public abstract class BaseDao<T> extends DBImpl<T> {
      * @return
      */
     public long insert(T entity) {
-        synchronized (this.lock) {
-            startWritableDatabase(true);
+        startWritableDatabase(true);
+        try {
             long result = super.insertAbs(entity);
             setTransactionSuccessful();
+            return result;
+        } finally {
             closeDatabase(true);
+        }
+    }
+
+    /**
+     * 在一个事务中执行，callable中可以调用任意Dao的方法，也可以嵌套调用runInTransaction.
+     * callable正常返回时提交；抛出异常时回滚，异常继续抛出.
+     * 嵌套的事务由最外层统一提交，内层回滚会导致整个事务回滚：
+     * callable中的Dao操作失败（例如返回-1）时，即使callable正常返回也会回滚，并抛出SQLiteException.
+     *
+     * @param callable 事务中执行的操作
+     * @return callable的返回值
+     * @throws SQLiteException 事务中有操作失败，已整体回滚
+     */
+    public <R> R runInTransaction(Callable<R> callable) {
+        startWritableDatabase(true);
+        try {
+            R result = callable.call();
+            if (isTransactionFailed()) {
+                throw new SQLiteException("transaction rolled back by nested failure");
+            }
+            setTransactionSuccessful();
             return result;
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        } finally {
+            closeDatabase(true);
         }
     }
 
     /**
      * 复杂逻辑多次调用数据库，避免多次连接，省时
+     * 持有写锁直到{@link #unSynchronizedMethod()}，必须成对调用.
+     * 不开启事务，需要整体提交时使用{@link #runInTransaction(Callable)}
      */
     public void synchronizedMethod() {
-        startWritableDatabase(true);
+        startWritableDatabase(false);
     }
 
     /**
@@ -232,10 +515,8 @@ public abstract class BaseDao<T> extends DBImpl<T> {
      * @return
      */
     public long updateByColumnNoLock(String column, T entity) {
-        synchronized (this.lock) {
-            long result = super.updateByColumnAbs(column, entity);
-            return result;
-        }
+        long result = super.updateByColumnAbs(column, entity);
+        return result;
     }
 
     /**
@@ -249,10 +530,8 @@ public abstract class BaseDao<T> extends DBImpl<T> {
      * @return
      */
     public long deleteOneByColumnNoLock(String column, T entity) {
-        synchronized (this.lock) {
-            long result = super.deleteOneByColumnAbs(column, entity);
-            return result;
-        }
+        long result = super.deleteOneByColumnAbs(column, entity);
+        return result;
     }
 
     /**
@@ -260,10 +539,8 @@ public abstract class BaseDao<T> extends DBImpl<T> {
      * @return
      */
     public T queryOneNoLock(String id) {
-        synchronized (this.lock) {
-            T result = super.queryOneAbs(id);
-            return result;
-        }
+        T result = super.queryOneAbs(id);
+        return result;
     }
 
     /**
@@ -275,98 +552,189 @@ public abstract class BaseDao<T> extends DBImpl<T> {
      * @return
      */
     public long insertNoLock(T entity) {
-        synchronized (this.lock) {
 
-            long result = super.insertAbs(entity);
+        long result = super.insertAbs(entity);
 
-            return result;
-        }
+        return result;
+    }
+
+    /**
+     * 异步插入，由{@link WriteQueue}的写线程与其它排队的写操作在一个事务中提交
+     *
+     * @param entity
+     * @return 提交后{@link #insert(Object)}的返回值
+     */
+    public Future<Long> enqueueInsert(final T entity) {
+        return getWriteQueue().enqueue(new Callable<Long>() {
+            @Override
+            public Long call() throws Exception {
+                return insert(entity);
+            }
+        });
+    }
+
+    /**
+     * 异步按主键更新，见{@link #enqueueInsert(Object)}
+     *
+     * @param entity
+     * @return 提交后{@link #update(Object)}的返回值
+     */
+    public Future<Long> enqueueUpdate(final T entity) {
+        return getWriteQueue().enqueue(new Callable<Long>() {
+            @Override
+            public Long call() throws Exception {
+                return update(entity);
+            }
+        });
+    }
+
+    /**
+     * 异步按主键删除，见{@link #enqueueInsert(Object)}
+     *
+     * @param entity
+     * @return 提交后{@link #deleteOne(Object)}的返回值
+     */
+    public Future<Long> enqueueDelete(final T entity) {
+        return getWriteQueue().enqueue(new Callable<Long>() {
+            @Override
+            public Long call() throws Exception {
+                return deleteOne(entity);
+            }
+        });
+    }
+
+    /**
+     * 这个数据库共用的异步写队列
+     */
+    public WriteQueue getWriteQueue() {
+        return WriteQueue.of((DBHelper) getSQLiteOpenHelper());
     }
 
     public long insert(T entity, boolean flag) {
-        synchronized (this.lock) {
-            startWritableDatabase(true);
+        startWritableDatabase(true);
+        try {
             long result = super.insertAbs(entity, flag);
             setTransactionSuccessful();
-            closeDatabase(true);
             return result;
+        } finally {
+            closeDatabase(true);
         }
     }
 
     public long insertList(List<T> entityList) {
-        synchronized (this.lock) {
-            startWritableDatabase(true);
+        startWritableDatabase(true);
+        try {
             long result = super.insertListAbs(entityList);
             setTransactionSuccessful();
-            closeDatabase(true);
             return result;
+        } finally {
+            closeDatabase(true);
         }
     }
 
     public long insertListNoTransaction(List<T> entityList) {
-        synchronized (this.lock) {
-            startWritableDatabase(false);
-            long result = super.insertListAbs(entityList);
-//            setTransactionSuccessful();
+        startWritableDatabase(false);
+        try {
+            return super.insertListAbs(entityList);
+        } finally {
             closeDatabase(false);
-            return result;
         }
     }
 
     public long insertList(List<T> entityList, boolean flag) {
-        synchronized (this.lock) {
-            startWritableDatabase(true);
+        startWritableDatabase(true);
+        try {
             long result = super.insertListAbs(entityList, flag);
             setTransactionSuccessful();
+            return result;
+        } finally {
             closeDatabase(true);
+        }
+    }
+
+    /**
+     * 批量插入或更新，例如同步服务端数据.
+     *
+     * @param entityList 映射实体列表
+     * @param strategy   按主键或唯一索引已存在时的处理方式
+     * @return 每个实体的结果，失败时整个列表回滚并返回null
+     */
+    public List<UpsertOutcome> upsertList(List<T> entityList, ConflictStrategy strategy) {
+        startWritableDatabase(true);
+        try {
+            List<UpsertOutcome> result = super.upsertListAbs(entityList, strategy);
+            setTransactionSuccessful();
             return result;
+        } finally {
+            closeDatabase(true);
         }
     }
 
     public long delete(int id) {
-        synchronized (this.lock) {
-            startWritableDatabase(true);
+        startWritableDatabase(true);
+        try {
             long result = super.deleteAbs(id);
             setTransactionSuccessful();
-            closeDatabase(true);
             return result;
+        } finally {
+            closeDatabase(true);
         }
     }
 
     public long delete(String id) {
-        synchronized (this.lock) {
-            startWritableDatabase(true);
+        startWritableDatabase(true);
+        try {
             long result = super.deleteAbs(id);
             setTransactionSuccessful();
-            closeDatabase(true);
             return result;
+        } finally {
+            closeDatabase(true);
         }
     }
 
     /**
-     * 删除集合
+     * 删除集合，需要删除的行数时使用{@link #deleteEntities(List)}
      *
-     * @param ids
-     * @return
+     * @param ids 要删除的实体
+     * @return 成功时为null，失败时为传入的列表
      */
     public List<T> deleteList(List<T> ids) {
-        synchronized (this.lock) {
-            startWritableDatabase(true);
+        startWritableDatabase(true);
+        try {
             List<T> result = super.deleteListAbs(ids);
             setTransactionSuccessful();
+            return result;
+        } finally {
             closeDatabase(true);
+        }
+    }
+
+    /**
+     * 按主键批量删除实体，并删除关联表数据，主键分批作为参数绑定
+     *
+     * @param entities 要删除的实体
+     * @return 主表删除的行数，失败时整体回滚并返回-1
+     */
+    public long deleteEntities(List<T> entities) {
+        startWritableDatabase(true);
+        try {
+            long result = super.deleteEntitiesAbs(entities);
+            setTransactionSuccessful();
             return result;
+        } finally {
+            closeDatabase(true);
         }
     }
 
 
     public long delete(int[] ids) {
-        synchronized (this.lock) {
-            startWritableDatabase(true);
+        startWritableDatabase(true);
+        try {
             long result = super.deleteAbs(ids);
             setTransactionSuccessful();
-            closeDatabase(true);
             return result;
+        } finally {
+            closeDatabase(true);
         }
     }
 
@@ -375,12 +743,13 @@ public abstract class BaseDao<T> extends DBImpl<T> {
      * @return
      */
     public long delete(String[] whereArgs) {
-        synchronized (this.lock) {
-            startWritableDatabase(true);
+        startWritableDatabase(true);
+        try {
             long result = super.deleteAbs(whereArgs);
             setTransactionSuccessful();
-            closeDatabase(true);
             return result;
+        } finally {
+            closeDatabase(true);
         }
     }
 
@@ -389,12 +758,13 @@ public abstract class BaseDao<T> extends DBImpl<T> {
      * @return
      */
     public long deleteAll() {
-        synchronized (this.lock) {
-            startWritableDatabase(true);
+        startWritableDatabase(true);
+        try {
             long result = super.deleteAllAbs();
             setTransactionSuccessful();
-            closeDatabase(true);
             return result;
+        } finally {
+            closeDatabase(true);
         }
     }
 
@@ -403,12 +773,13 @@ public abstract class BaseDao<T> extends DBImpl<T> {
      * @return
      */
     public long deleteOne(T data) {
-        synchronized (this.lock) {
-            startWritableDatabase(true);
+        startWritableDatabase(true);
+        try {
             long result = super.deleteOneAbs(data);
             setTransactionSuccessful();
-            closeDatabase(true);
             return result;
+        } finally {
+            closeDatabase(true);
         }
     }
 
@@ -420,12 +791,13 @@ public abstract class BaseDao<T> extends DBImpl<T> {
      * @return
      */
     public long deleteOneByColumn(String column, T entity) {
-        synchronized (this.lock) {
-            startWritableDatabase(true);
+        startWritableDatabase(true);
+        try {
             long result = super.deleteOneByColumnAbs(column, entity);
             setTransactionSuccessful();
-            closeDatabase(true);
             return result;
+        } finally {
+            closeDatabase(true);
         }
     }
 
@@ -437,12 +809,13 @@ public abstract class BaseDao<T> extends DBImpl<T> {
      * @return
      */
     public long update(T entity) {
-        synchronized (this.lock) {
-            startWritableDatabase(true);
+        startWritableDatabase(true);
+        try {
             long result = super.updateAbs(entity);
             setTransactionSuccessful();
-            closeDatabase(true);
             return result;
+        } finally {
+            closeDatabase(true);
         }
     }
 
@@ -451,12 +824,13 @@ public abstract class BaseDao<T> extends DBImpl<T> {
      * @return
      */
     public long updateList(List<T> entityList) {
-        synchronized (this.lock) {
-            startWritableDatabase(true);
+        startWritableDatabase(true);
+        try {
             long result = super.updateListAbs(entityList);
             setTransactionSuccessful();
-            closeDatabase(true);
             return result;
+        } finally {
+            closeDatabase(true);
         }
     }
 
@@ -469,23 +843,166 @@ public abstract class BaseDao<T> extends DBImpl<T> {
      * @return
      */
     public long updateByColumn(String column, T entity) {
-        synchronized (this.lock) {
-            startWritableDatabase(true);
+        startWritableDatabase(true);
+        try {
             long result = super.updateByColumnAbs(column, entity);
             setTransactionSuccessful();
-            closeDatabase(true);
             return result;
+        } finally {
+            closeDatabase(true);
+        }
+    }
+
+    /**
+     * 查询一列整数，例如所有id，不创建实体
+     *
+     * @param column        列名
+     * @param selection     where语句，可以为null
+     * @param selectionArgs
+     * @param orderBy       排序，可以为null
+     * @return null的值为0
+     */
+    public long[] queryLongColumn(String column, String selection, String[] selectionArgs, String orderBy) {
+        startReadableDatabase(true);
+        try {
+            return super.queryLongColumnAbs(column, selection, selectionArgs, orderBy);
+        } finally {
+            closeDatabase(true);
+        }
+    }
+
+    /**
+     * 查询一列浮点数，不创建实体
+     *
+     * @param column        列名
+     * @param selection     where语句，可以为null
+     * @param selectionArgs
+     * @param orderBy       排序，可以为null
+     * @return null的值为0
+     */
+    public double[] queryDoubleColumn(String column, String selection, String[] selectionArgs, String orderBy) {
+        startReadableDatabase(true);
+        try {
+            return super.queryDoubleColumnAbs(column, selection, selectionArgs, orderBy);
+        } finally {
+            closeDatabase(true);
+        }
+    }
+
+    /**
+     * 查询一列文本，不创建实体
+     *
+     * @param column        列名
+     * @param selection     where语句，可以为null
+     * @param selectionArgs
+     * @param orderBy       排序，可以为null
+     * @return
+     */
+    public String[] queryStringColumn(String column, String selection, String[] selectionArgs, String orderBy) {
+        startReadableDatabase(true);
+        try {
+            return super.queryStringColumnAbs(column, selection, selectionArgs, orderBy);
+        } finally {
+            closeDatabase(true);
+        }
+    }
+
+    /**
+     * 查询多列，结果按列存储，比{@link #queryMapList(String, String[])}分配的对象少
+     *
+     * @param sql
+     * @param selectionArgs
+     * @return 出错时为null
+     */
+    public ResultTable queryTable(String sql, String[] selectionArgs) {
+        startReadableDatabase(true);
+        try {
+            return super.queryTableAbs(sql, selectionArgs);
+        } finally {
+            closeDatabase(true);
+        }
+    }
+
+    /**
+     * 按查询构造器查询实体，值都作为参数绑定
+     *
+     * @param query
+     * @return
+     */
+    public List<T> query(Query<T> query) {
+        startReadableDatabase(true);
+        try {
+            return super.queryAbs(query);
+        } finally {
+            closeDatabase(true);
+        }
+    }
+
+    /**
+     * 查询一个整数值，例如Query.select(Aggregate.SUM, column)
+     *
+     * @param query
+     * @return 没有结果或不是数字时为0
+     */
+    public long queryForLong(Query<T> query) {
+        startReadableDatabase(true);
+        try {
+            return super.queryForLongAbs(query);
+        } finally {
+            closeDatabase(true);
+        }
+    }
+
+    /**
+     * 查询一个值
+     *
+     * @param query
+     * @return 没有结果时为null
+     */
+    public String queryForString(Query<T> query) {
+        startReadableDatabase(true);
+        try {
+            return super.queryForStringAbs(query);
+        } finally {
+            closeDatabase(true);
+        }
+    }
+
+    /**
+     * 按查询构造器查询多列，例如分组聚合
+     *
+     * @param query
+     * @return 出错时为null
+     */
+    public ResultTable queryTable(Query<T> query) {
+        return queryTable(query.getSql(), query.getArgs());
+    }
+
+    /**
+     * 在{@link com.remvp.library.db.orm.annotation.Fts}声明的全文索引中搜索
+     *
+     * @param query FTS的MATCH表达式，例如"android"、"sql*"、"title:orm"
+     * @param limit 最多返回的个数，小于等于0时不限制
+     * @return 按相关度从高到低排列，未注解@Fts或出错时为空列表
+     */
+    public List<T> search(String query, int limit) {
+        startReadableDatabase(true);
+        try {
+            return super.searchAbs(query, limit);
+        } finally {
+            closeDatabase(true);
         }
     }
 
     public List<Map<String, String>> queryMapList(String sql,
                                                   String[] selectionArgs) {
-        synchronized (this.lock) {
-            startReadableDatabase(true);
+        startReadableDatabase(true);
+        try {
             List<Map<String, String>> result = super.queryMapListAbs(sql,
                     selectionArgs);
-            closeDatabase(true);
             return result;
+        } finally {
+            closeDatabase(true);
         }
     }
 
@@ -497,11 +1014,11 @@ public abstract class BaseDao<T> extends DBImpl<T> {
      * @return
      */
     public int queryCount(String where, String[] selectionArgs) {
-        synchronized (this.lock) {
-            startReadableDatabase(true);
-            int result = super.queryCountAbs(where, selectionArgs);
+        startReadableDatabase(true);
+        try {
+            return super.queryCountAbs(where, selectionArgs);
+        } finally {
             closeDatabase(true);
-            return result;
         }
     }
 
@@ -511,11 +1028,104 @@ public abstract class BaseDao<T> extends DBImpl<T> {
      * @return
      */
     public int queryCount() {
-        synchronized (this.lock) {
-            startReadableDatabase(true);
-            int result = super.queryCountAbs();
+        startReadableDatabase(true);
+        try {
+            return super.queryCountAbs();
+        } finally {
+            closeDatabase(true);
+        }
+    }
+
+    /**
+     * 按条件计数，条件同{@link #queryList(String, String[])}
+     *
+     * @param where         where语句，为null时为全表并使用缓存的行数
+     * @param selectionArgs 空缺值
+     * @return 行数，出错时为-1
+     */
+    public long count(String where, String[] selectionArgs) {
+        startReadableDatabase(true);
+        try {
+            return super.countAbs(where, selectionArgs);
+        } finally {
+            closeDatabase(true);
+        }
+    }
+
+    /**
+     * 在数据库中求和，不读取实体
+     *
+     * @param column        列名
+     * @param where         where语句，可以为null
+     * @param selectionArgs 空缺值
+     * @return 总和，没有行时为0，出错时为NaN
+     */
+    public double sum(String column, String where, String[] selectionArgs) {
+        return aggregate(Aggregate.SUM, column, where, selectionArgs);
+    }
+
+    /**
+     * 在数据库中求平均值，不读取实体
+     *
+     * @return 没有非NULL的值时为NaN
+     */
+    public double avg(String column, String where, String[] selectionArgs) {
+        return aggregate(Aggregate.AVG, column, where, selectionArgs);
+    }
+
+    /**
+     * 在数据库中求最小值，不读取实体
+     *
+     * @return 没有非NULL的值时为NaN
+     */
+    public double min(String column, String where, String[] selectionArgs) {
+        return aggregate(Aggregate.MIN, column, where, selectionArgs);
+    }
+
+    /**
+     * 在数据库中求最大值，不读取实体
+     *
+     * @return 没有非NULL的值时为NaN
+     */
+    public double max(String column, String where, String[] selectionArgs) {
+        return aggregate(Aggregate.MAX, column, where, selectionArgs);
+    }
+
+    /**
+     * 在数据库中计算一列的聚合值
+     *
+     * @param aggregate     聚合函数
+     * @param column        列名，COUNT可以为"*"
+     * @param where         where语句，可以为null
+     * @param selectionArgs 空缺值
+     * @return 聚合值，列不存在或出错时为NaN
+     */
+    public double aggregate(Aggregate aggregate, String column, String where, String[] selectionArgs) {
+        startReadableDatabase(true);
+        try {
+            return super.aggregateAbs(aggregate, column, where, selectionArgs);
+        } finally {
+            closeDatabase(true);
+        }
+    }
+
+    /**
+     * 按一列分组计算聚合值，例如各状态的行数：groupBy("status", Aggregate.COUNT, "*", null, null)
+     *
+     * @param keyColumn     分组的列
+     * @param aggregate     聚合函数
+     * @param valueColumn   聚合的列，COUNT可以为"*"
+     * @param where         where语句，可以为null
+     * @param selectionArgs 空缺值
+     * @return 分组键到聚合值，按分组键排序，出错时为空
+     */
+    public Map<String, Double> groupBy(String keyColumn, Aggregate aggregate, String valueColumn,
+                                       String where, String[] selectionArgs) {
+        startReadableDatabase(true);
+        try {
+            return super.groupByAbs(keyColumn, aggregate, valueColumn, where, selectionArgs);
+        } finally {
             closeDatabase(true);
-            return result;
         }
     }
 
@@ -526,10 +1136,11 @@ public abstract class BaseDao<T> extends DBImpl<T> {
      * @param selectionArgs the selection args
      */
     public void execSql(String sql, Object[] selectionArgs) {
-        synchronized (this.lock) {
-            startWritableDatabase(true);
+        startWritableDatabase(true);
+        try {
             super.execSqlAbs(sql, selectionArgs);
             setTransactionSuccessful();
+        } finally {
             closeDatabase(true);
         }
     }
@@ -0,0 +1,17 @@
+package com.remvp.library.db.orm.dao;
+
+import java.io.Closeable;
+import java.util.Iterator;
+
+/**
+ * 描述：逐行读取游标的迭代器.
+ * 遍历结束时自动关闭，提前结束遍历时必须调用{@link #close()}释放游标.
+ */
+public interface CloseableIterator<T> extends Iterator<T>, Closeable {
+
+    /**
+     * 关闭游标，可以重复调用.
+     */
+    @Override
+    void close();
+}
@@ -0,0 +1,25 @@
+package com.remvp.library.db.orm.dao;
+
+/**
+ * 描述：{@link BaseDao#upsertList(java.util.List, ConflictStrategy)}遇到已存在的行时的处理方式.
+ * 已存在是指主键或唯一索引{@link com.remvp.library.db.orm.annotation.Index#unique()}的值相同.
+ * 按唯一索引匹配到已有行时，未指定的主键（null或整数0）会被设置为已有行的主键.
+ */
+public enum ConflictStrategy {
+
+    /**
+     * 删除已存在的行再插入，实体中为null的列使用默认值（INSERT OR REPLACE）.
+     * 按唯一索引匹配且实体未指定主键时沿用已有行的主键，关联表不受影响.
+     */
+    REPLACE,
+
+    /**
+     * 保留已存在的行，不写入（INSERT OR IGNORE）.
+     */
+    IGNORE,
+
+    /**
+     * 只更新已存在的行中实体不为null的列，不存在时插入.
+     */
+    UPDATE
+}
@@ -0,0 +1,87 @@
+package com.remvp.library.db.orm.dao;
+
+import android.database.Cursor;
+
+import com.remvp.library.db.orm.DBLock;
+import com.remvp.library.db.orm.RowMapper;
+
+import java.util.NoSuchElementException;
+
+/**
+ * 描述：基于游标的{@link CloseableIterator}，每次只映射当前行.
+ * 游标按窗口从数据库读取，移动游标时持有读锁，两次移动之间不持有锁，
+ * 因此可以在任意线程关闭，也不会在遍历期间阻塞写操作.
+ * 每个窗口按行号重新查询，两次查询之间的增删会使窗口错位，只用于无法分页的任意sql.
+ */
+final class CursorIterator<T> implements CloseableIterator<T> {
+
+    private final Cursor mCursor;
+    private final RowMapper<T> mMapper;
+    private final DBLock mLock;
+    private int[] mIndexes;
+
+    /**
+     * 已读取但未返回的行.
+     */
+    private T mNext;
+    private boolean mFetched;
+    private boolean mClosed;
+
+    CursorIterator(Cursor cursor, RowMapper<T> mapper, DBLock lock) {
+        this.mCursor = cursor;
+        this.mMapper = mapper;
+        this.mLock = lock;
+    }
+
+    @Override
+    public synchronized boolean hasNext() {
+        if (mClosed) {
+            return false;
+        }
+        if (!mFetched) {
+            boolean hasRow;
+            boolean locked = mLock.lockRead();
+            try {
+                // 跨过窗口时才会真正查询数据库
+                hasRow = mCursor.moveToNext();
+            } finally {
+                mLock.unlockRead(locked);
+            }
+            if (!hasRow) {
+                close();
+                return false;
+            }
+            if (mIndexes == null) {
+                mIndexes = mMapper.columnIndexes(mCursor);
+            }
+            mNext = mMapper.map(mCursor, mIndexes);
+            mFetched = true;
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        T next = mNext;
+        mNext = null;
+        mFetched = false;
+        return next;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public synchronized void close() {
+        if (!mClosed) {
+            mClosed = true;
+            mNext = null;
+            mCursor.close();
+        }
+    }
+}
@@ -15,33 +15,57 @@
  */
 package com.remvp.library.db.orm.dao;
 
-import android.content.ContentValues;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteCursor;
+import android.database.sqlite.SQLiteCursorDriver;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteQuery;
+import android.database.sqlite.SQLiteQueryBuilder;
 import android.database.sqlite.SQLiteStatement;
 import android.util.Log;
 
-import com.remvp.library.db.orm.AbTableHelper;
+import com.remvp.library.db.orm.Aggregate;
+import com.remvp.library.db.orm.ColumnMeta;
 import com.remvp.library.db.orm.DBHelper;
+import com.remvp.library.db.orm.DBLock;
+import com.remvp.library.db.orm.EntityMeta;
+import com.remvp.library.db.orm.IndexMeta;
+import com.remvp.library.db.orm.InvalidationTracker;
+import com.remvp.library.db.orm.Lazy;
+import com.remvp.library.db.orm.LazyRelationList;
+import com.remvp.library.db.orm.Query;
+import com.remvp.library.db.orm.QueryCache;
+import com.remvp.library.db.orm.RelationMeta;
+import com.remvp.library.db.orm.RowMapper;
+import com.remvp.library.db.orm.TransactionState;
+import com.remvp.library.db.orm.ValueBinder;
 import com.remvp.library.db.orm.annotation.ActionType;
-import com.remvp.library.db.orm.annotation.Column;
-import com.remvp.library.db.orm.annotation.Id;
-import com.remvp.library.db.orm.annotation.RelationDao;
-import com.remvp.library.db.orm.annotation.RelationsType;
-import com.remvp.library.db.orm.annotation.Table;
+import com.remvp.library.db.orm.annotation.Cacheable;
+import com.remvp.library.db.orm.annotation.FetchType;
 import com.remvp.library.util.AbStrUtil;
 
-import java.lang.reflect.Field;
 import java.lang.reflect.ParameterizedType;
-import java.lang.reflect.Type;
-import java.sql.Blob;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Date;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.Set;
+import java.util.concurrent.Callable;
 
 /**
  * The Class DBImpl.
@@ -58,10 +82,27 @@ public class DBImpl<T> extends AbBasicDBDao<T> {
      * The tag.
      */
     private static final String TAG = "DBImpl";
+
+    /**
+     * IN查询每批最多的绑定变量数，低于SQLite默认的上限999.
+     */
+    private static final int MAX_IN_VARIABLES = 900;
+
+    /**
+     * search与queryStream按rowid读取主表时rowid的列名，避免与整数主键的列名冲突.
+     */
+    private static final String ROWID_ALIAS = "orm_rowid";
+
+    /**
+     * queryStream每页读取的行数，不超过{@link #MAX_IN_VARIABLES}.
+     */
+    private static final int STREAM_PAGE_SIZE = 256;
+
+    private static final ColumnMeta[] NO_COLUMNS = new ColumnMeta[0];
     /**
-     * 锁对象
+     * 同一个数据库的所有Dao共用的读写锁，查询持有读锁，增删改持有写锁
      */
-    private final ReentrantLock lock = new ReentrantLock();
+    private final DBLock mDBLock;
 
     /**
      * The table name.
@@ -80,38 +121,111 @@ public class DBImpl<T> extends AbBasicDBDao<T> {
     private Class<T> clazz;
 
     /**
-     * The all fields.
+     * 映射实体的元数据.
      */
-    private List<Field> allFields;
+    private EntityMeta<T> mEntityMeta;
 
     /**
-     * The Constant METHOD_INSERT.
+     * 这个Dao的数据库对象
+     */
+    private volatile SQLiteDatabase mSQLiteDatabase = null;
+    /**
+     * The mSQLiteDatabase helper.
      */
-    private final int METHOD_INSERT = 0;
+    private DBHelper mSQLiteOpenHelper;
 
     /**
-     * The Constant METHOD_UPDATE.
+     * 增删改的预编译语句
      */
-    private final int METHOD_UPDATE = 1;
+    private final StatementCache mStatementCache = new StatementCache(StatementCache.DEFAULT_SIZE);
 
     /**
-     * The Constant TYPE_NOT_INCREMENT.
+     * 单值查询的预编译语句，读操作可能并发，使用时同步
      */
-    private final int TYPE_NOT_INCREMENT = 0;
+    private final StatementCache mQueryStatements = new StatementCache(StatementCache.DEFAULT_SIZE);
 
     /**
-     * The Constant TYPE_INCREMENT.
+     * 按主键缓存的实体，未开启时为null
      */
-    private final int TYPE_INCREMENT = 1;
+    private volatile EntityCache<T> mEntityCache;
 
     /**
-     * 这个Dao的数据库对象
+     * 读取时的列值，用于只更新修改过的列，未开启时为null
      */
-    private SQLiteDatabase mSQLiteDatabase = null;
+    private volatile EntitySnapshots mSnapshots;
+
     /**
-     * The mSQLiteDatabase helper.
+     * 所有Dao共用的表修改记录
      */
-    private DBHelper mSQLiteOpenHelper;
+    private final InvalidationTracker mTracker;
+
+    /**
+     * 关联表，查询时一起读取
+     */
+    private final List<String> mRelationTables = new ArrayList<String>();
+
+    /**
+     * 增删改可能修改的表，即本表与关联表
+     */
+    private final List<String> mWriteTables = new ArrayList<String>();
+
+    /**
+     * 按主键查询读取的表，即本表与关联表，用于实体缓存的版本号
+     */
+    private final String[] mEntityTables;
+
+    /**
+     * 本表，用于总行数缓存的版本号
+     */
+    private final String[] mCountTables;
+
+    /**
+     * 缓存的总行数，未查询过时为null
+     */
+    private volatile RowCount mRowCount;
+
+    /**
+     * 总行数与计数时本表的版本号.
+     */
+    private static final class RowCount {
+        final long count;
+        final long[] versions;
+
+        RowCount(long count, long[] versions) {
+            this.count = count;
+            this.versions = versions;
+        }
+    }
+
+    /**
+     * start时持有了写锁.
+     */
+    private static final int STATE_WRITE_LOCKED = 1;
+
+    /**
+     * start时开启了事务.
+     */
+    private static final int STATE_TRANSACTION = 2;
+
+    /**
+     * 开启的事务已调用{@link #setTransactionSuccessful()}.
+     */
+    private static final int STATE_SUCCESSFUL = 4;
+
+    /**
+     * 同一个数据库的所有Dao共用的事务嵌套状态
+     */
+    private final TransactionState mTransactionState;
+
+    /**
+     * 当前线程每次start的状态，按调用顺序入栈，closeDatabase时出栈.
+     */
+    private final ThreadLocal<ArrayDeque<Integer>> mTransactions = new ThreadLocal<ArrayDeque<Integer>>() {
+        @Override
+        protected ArrayDeque<Integer> initialValue() {
+            return new ArrayDeque<Integer>();
+        }
+    };
 
     /**
      * 用一个对象实体初始化这个数据库操作实现类.
@@ -121,6 +235,9 @@ public class DBImpl<T> extends AbBasicDBDao<T> {
      */
     public DBImpl(DBHelper dbHelper, Class<T> clazz) {
         this.mSQLiteOpenHelper = dbHelper;
+        this.mDBLock = dbHelper.getDBLock();
+        this.mTracker = dbHelper.getInvalidationTracker();
+        this.mTransactionState = dbHelper.getTransactionState();
         if (clazz == null) {
             this.clazz = ((Class<T>) ((ParameterizedType) super
                     .getClass().getGenericSuperclass())
@@ -129,40 +246,101 @@ public class DBImpl<T> extends AbBasicDBDao<T> {
             this.clazz = clazz;
         }
 
-        if (this.clazz.isAnnotationPresent(Table.class)) {
-            Table table = this.clazz.getAnnotation(Table.class);
-            this.mTableName = table.name();
+        // 加载实体的元数据，每个实体类只解析一次
+        this.mEntityMeta = EntityMeta.of(this.clazz);
+        this.mTableName = mEntityMeta.getTableName();
+
+        // 找到主键
+        if (mEntityMeta.getIdColumn() != null) {
+            this.idColumn = mEntityMeta.getIdColumn().getName();
         }
 
-        // 加载所有字段
-        this.allFields = AbTableHelper.joinFields(this.clazz.getDeclaredFields(),
-                this.clazz.getSuperclass().getDeclaredFields());
+        mWriteTables.add(this.mTableName);
+        mCountTables = new String[]{this.mTableName};
+        for (RelationMeta relation : mEntityMeta.getRelations()) {
+            if (!AbStrUtil.isEmpty(relation.getChildTableName())) {
+                mRelationTables.add(relation.getChildTableName());
+                mWriteTables.add(relation.getChildTableName());
+            }
+        }
+        mEntityTables = mWriteTables.toArray(new String[mWriteTables.size()]);
 
-        // 找到主键
-        for (Field field : this.allFields) {
-            if (field.isAnnotationPresent(Id.class)) {
-                Column column = field.getAnnotation(Column.class);
-                this.idColumn = column.name();
-                break;
-            }
-//            if (field.isAnnotationPresent(IdDao.class)) {
-//                Column column = field.getAnnotation(Column.class);
-//                this.idColumn = column.name();
-//                mIdColumnFields = field;
-//                break;
-//            }
+        // 实体上注解了@Cacheable时开启实体缓存
+        Cacheable cacheable = this.clazz.getAnnotation(Cacheable.class);
+        if (cacheable != null) {
+            enableEntityCache(cacheable.maxEntries());
         }
 //        Log.d(TAG, "clazz:" + this.clazz + " mTableName:" + this.mTableName
 //                + " idColumn:" + this.idColumn);
     }
 
+    /**
+     * 开启按主键的实体缓存，queryOne命中时不再查询数据库.
+     * 需要有主键，已开启时按新的大小重建.
+     *
+     * @param maxEntries 最多缓存的实体数
+     */
+    public void enableEntityCache(int maxEntries) {
+        if (this.idColumn == null) {
+            Log.e(TAG, "[enableEntityCache] " + this.mTableName + " 没有主键，不能缓存");
+            return;
+        }
+        mEntityCache = new EntityCache<T>(maxEntries);
+    }
+
+    /**
+     * 关闭实体缓存.
+     */
+    public void disableEntityCache() {
+        mEntityCache = null;
+    }
+
+    /**
+     * 实体缓存，用于查看命中统计或在外部修改了表之后清空.
+     *
+     * @return 未开启时为null
+     */
+    public EntityCache<T> getEntityCache() {
+        return mEntityCache;
+    }
+
+    /**
+     * 开启修改跟踪：记录通过本Dao查询得到的实体（含关联表实体）各列的值，
+     * 更新时只写入与读取时不同的列，没有修改时不执行UPDATE.
+     * 逐行查询（queryStream）得到的实体不记录，更新时仍写入全部非null列.
+     */
+    public void enableDirtyTracking() {
+        if (mSnapshots == null) {
+            EntitySnapshots snapshots = new EntitySnapshots();
+            // 事务回滚时由最外层统一清空，不论失败的是哪个Dao
+            mTransactionState.register(snapshots);
+            mSnapshots = snapshots;
+        }
+    }
+
+    /**
+     * 关闭修改跟踪.
+     */
+    public void disableDirtyTracking() {
+        mSnapshots = null;
+    }
+
+    /**
+     * 读取时的列值记录，可以在外部修改了表之后清空.
+     *
+     * @return 未开启时为null
+     */
+    public EntitySnapshots getEntitySnapshots() {
+        return mSnapshots;
+    }
+
     /**
      * 是否在操作数据库
      *
      * @return
      */
     public boolean isLocked() {
-        return lock.isLocked();
+        return mDBLock.isWriteLocked();
     }
 
     /**
@@ -204,18 +382,7 @@ public class DBImpl<T> extends AbBasicDBDao<T> {
      */
     @Override
     protected T queryOneAbs(int id) {
-        synchronized (lock) {
-            String selection = this.idColumn + " = ?";
-            String[] selectionArgs = {Integer.toString(id)};
-            Log.d(TAG, "[queryOne]: select * from " + this.mTableName + " where "
-                    + this.idColumn + " = '" + id + "'");
-            List<T> list = queryListAbs(null, selection, selectionArgs, null, null, null,
-                    null);
-            if ((list != null) && (list.size() > 0)) {
-                return list.get(0);
-            }
-            return null;
-        }
+        return queryById(Integer.toString(id));
     }
 
     /**
@@ -226,17 +393,150 @@ public class DBImpl<T> extends AbBasicDBDao<T> {
      */
     @Override
     protected T queryOneAbs(String id) {
-        synchronized (lock) {
-            String selection = this.idColumn + " = ?";
-            String[] selectionArgs = {id};
-            Log.d(TAG, "[queryOne]: select * from " + this.mTableName + " where "
-                    + this.idColumn + " = '" + id + "'");
-            List<T> list = queryListAbs(null, selection, selectionArgs, null, null, null,
-                    null);
-            if ((list != null) && (list.size() > 0)) {
-                return list.get(0);
+        return queryById(id);
+    }
+
+    /**
+     * 按主键查询一条，开启了实体缓存时先查缓存.
+     *
+     * @param id 主键
+     * @return 实体，不存在时为null
+     */
+    private T queryById(String id) {
+        EntityCache<T> cache = mEntityCache;
+        String key = null;
+        long version = 0;
+        long[] versions = null;
+        if (cache != null && id != null) {
+            key = cacheKey(id);
+            T cached = cache.get(key);
+            if (cached != null) {
+                return cached;
             }
-            return null;
+            version = cache.version();
+            versions = mTracker.getVersions(mEntityTables);
+        }
+        String selection = this.idColumn + " = ?";
+        String[] selectionArgs = {id};
+        Log.d(TAG, "[queryOne]: select * from " + this.mTableName + " where "
+                + this.idColumn + " = '" + id + "'");
+        List<T> list = queryListAbs(null, selection, selectionArgs, null, null, null,
+                null);
+        if ((list != null) && (list.size() > 0)) {
+            T entity = list.get(0);
+            // 有线程在写入时数据可能尚未提交或即将改变，不缓存；
+            // WAL下查询期间有事务提交时，读到的可能是提交前的数据，同样不缓存
+            if (key != null && !mDBLock.isWriteLocked() && mTracker.isCurrent(mEntityTables, versions)) {
+                cache.put(key, entity, version);
+            }
+            return entity;
+        }
+        return null;
+    }
+
+    /**
+     * 缓存的key，整数主键统一格式，"05"与"5"是同一行.
+     */
+    private String cacheKey(String id) {
+        if (mEntityMeta.getIdColumn().isIntegral()) {
+            try {
+                return Long.toString(Long.parseLong(id.trim()));
+            } catch (NumberFormatException e) {
+                return id;
+            }
+        }
+        return id;
+    }
+
+    /**
+     * 本表与关联表已修改，缓存的查询结果失效，在写锁内调用.
+     */
+    private void invalidateQueries() {
+        mTracker.invalidate(mWriteTables);
+    }
+
+    /**
+     * 映射实体类.
+     */
+    protected Class<T> getEntityClass() {
+        return clazz;
+    }
+
+    /**
+     * 所有Dao共用的表修改记录.
+     */
+    protected InvalidationTracker getInvalidationTracker() {
+        return mTracker;
+    }
+
+    /**
+     * 按条件查询本表时读取的表，含关联表与条件中子查询的表.
+     *
+     * @param where 查询条件，可以为null
+     * @return 读取的表，子查询中有无法跟踪的表时只返回本表与关联表
+     */
+    protected String[] getQueryTables(String where) {
+        return getRawQueryTables(SQLiteQueryBuilder.buildQueryString(false, this.mTableName, null, where,
+                null, null, null, null));
+    }
+
+    /**
+     * 查询语句读取的表，含关联表.
+     *
+     * @param sql 查询语句
+     * @return 读取的表，有无法跟踪的表时只返回本表与关联表
+     */
+    protected String[] getRawQueryTables(String sql) {
+        String[] tables = queryTables(sql);
+        if (tables == null) {
+            Log.w(TAG, "[getRawQueryTables] 无法解析或有未映射的表: " + sql);
+            return mWriteTables.toArray(new String[mWriteTables.size()]);
+        }
+        return tables;
+    }
+
+    /**
+     * 可以缓存结果的查询读取的表.
+     *
+     * @param sql 查询语句
+     * @return 读取的表，含关联表，不能缓存时为null
+     */
+    private String[] queryTables(String sql) {
+        String[] tables = mTracker.resolveTables(sql);
+        if (tables == null || mRelationTables.isEmpty()) {
+            return tables;
+        }
+        Set<String> set = new LinkedHashSet<String>(Arrays.asList(tables));
+        set.addAll(mRelationTables);
+        return set.toArray(new String[set.size()]);
+    }
+
+    /**
+     * 从实体缓存中移除一个主键，在写锁内调用.
+     */
+    private void evictCachedId(Object id) {
+        EntityCache<T> cache = mEntityCache;
+        if (cache != null && id != null) {
+            cache.evict(cacheKey(String.valueOf(id)));
+        }
+    }
+
+    /**
+     * 从实体缓存中移除一个实体，在写锁内调用.
+     */
+    private void evictCachedEntity(T entity) throws IllegalAccessException {
+        if (mEntityCache != null && entity != null) {
+            evictCachedId(mEntityMeta.getIdColumn().get(entity));
+        }
+    }
+
+    /**
+     * 清空实体缓存，不能确定影响了哪些行时在写锁内调用.
+     */
+    private void clearCached() {
+        EntityCache<T> cache = mEntityCache;
+        if (cache != null) {
+            cache.clear();
         }
     }
 
@@ -247,18 +547,16 @@ public class DBImpl<T> extends AbBasicDBDao<T> {
      */
     @Override
     protected T queryOneAbs(String column, String data) {
-        synchronized (lock) {
-            String selection = column + " = ?";
-            String[] selectionArgs = {data};
-            Log.d(TAG, "[queryOne]: select * from " + this.mTableName + " where "
-                    + this.idColumn + " = '" + column + "'");
-            List<T> list = queryListAbs(null, selection, selectionArgs, null, null, null,
-                    null);
-            if ((list != null) && (list.size() > 0)) {
-                return list.get(0);
-            }
-            return null;
+        String selection = column + " = ?";
+        String[] selectionArgs = {data};
+        Log.d(TAG, "[queryOne]: select * from " + this.mTableName + " where "
+                + this.idColumn + " = '" + column + "'");
+        List<T> list = queryListAbs(null, selection, selectionArgs, null, null, null,
+                null);
+        if ((list != null) && (list.size() > 0)) {
+            return list.get(0);
         }
+        return null;
     }
 
     /**
@@ -271,170 +569,45 @@ public class DBImpl<T> extends AbBasicDBDao<T> {
      */
     @Override
     protected List<T> queryRawAbs(String sql, String[] selectionArgs, Class<T> clazz) {
+        QueryCache queryCache = mSQLiteOpenHelper.getQueryCache();
+        String[] tables = queryCache == null ? null : queryTables(sql);
+        String key = null;
+        long[] versions = null;
+        if (tables != null) {
+            key = QueryCache.key(clazz, sql, selectionArgs);
+            List<?> cached = queryCache.get(key);
+            if (cached != null) {
+                List<T> list = fromCachedRows(clazz, cached);
+                if (list != null) {
+                    return list;
+                }
+            }
+            versions = mTracker.getVersions(tables);
+        }
 
         List<T> list = new ArrayList<T>();
         Cursor cursor = null;
+        boolean readLocked = false;
         try {
-            lock.lock();
+            readLocked = mDBLock.lockRead();
             Log.d(TAG, "[queryRaw]: " + getLogSql(sql, selectionArgs));
             cursor = mSQLiteDatabase.rawQuery(sql, selectionArgs);
             getListFromCursor(clazz, list, cursor);
 
-
-            //获取关联域的操作类型和关系类型
-            String foreignKey = null;
-            String type = null;
-            String action = null;
-            /**
-             * 父类列表属性与外键对应
-             */
-            String name = null;
             //需要判断是否有关联表
-            for (Field childField : allFields) {
-                if (!childField.isAnnotationPresent(RelationDao.class)) {
-                    continue;
-                }
+            loadRelations(list);
 
-                RelationDao relationDao = childField.getAnnotation(RelationDao.class);
-                //获取外键列名
-                foreignKey = relationDao.foreignKey();
-                //关联类型
-                type = relationDao.type();
-                //操作类型
-                action = relationDao.action();
-
-                name = relationDao.name();
-                //设置可访问
-                childField.setAccessible(true);
-
-//                if (!(action.indexOf(ActionType.query) != -1)) {
-//                    return list;
-//                }
-
-                //得到关联表的表名查询
-                for (T entity : list) {
-                    if (RelationsType.one2one.equals(type)) {
-                        //一对一关系
-                        //获取这个实体的表名
-                        String childTableName = "";
-                        if (childField.getType().isAnnotationPresent(Table.class)) {
-                            Table table = childField.getType().getAnnotation(Table.class);
-                            childTableName = table.name();
-                        }
-
-                        List<T> RelationsDaoList = new ArrayList<T>();
-                        Field[] relationsDaoEntityFields = childField.getType().getDeclaredFields();
-                        for (Field RelationsDaoEntityField : relationsDaoEntityFields) {
-                            RelationsDaoEntityField.setAccessible(true);
-                            Column RelationsDaoEntityColumn = RelationsDaoEntityField.getAnnotation(Column.class);
-                            if (RelationsDaoEntityColumn == null) {
-                                Log.i(TAG, "DBImpl: queryList:00000000000");
-                                continue;
-                            }
-                            //获取外键的值作为关联表的查询条件
-                            if (foreignKey.equals(RelationsDaoEntityColumn.name())) {
-
-                                //主表的用于关联表的foreignKey值
-                                String value = "-1";
-                                for (Field entityField : allFields) {
-                                    //设置可访问
-                                    entityField.setAccessible(true);
-                                    Column entityForeignKeyColumn = entityField.getAnnotation(Column.class);
-                                    if (entityForeignKeyColumn == null) {
-                                        continue;
-                                    }
-                                    if (entityForeignKeyColumn.name().equals(name)) {
-                                        value = String.valueOf(entityField.get(entity));
-                                        break;
-                                    }
-                                }
-                                Log.i(TAG, "DBImpl: queryList:" +
-                                        " [c0000000000]" + "RelationsDaoTableName=" +
-                                        childTableName + "   foreignKey=" + foreignKey
-                                        + "  value=" + value);
-                                //查询数据设置给这个域
-                                cursor = mSQLiteDatabase.query(childTableName, null, foreignKey + " = ?", new String[]{value}, null, null, null, null);
-                                getListFromCursor(childField.getType(), RelationsDaoList, cursor);
-                                if (RelationsDaoList.size() > 0) {
-                                    //获取关联表的对象设置值
-                                    childField.set(entity, RelationsDaoList.get(0));
-                                }
-
-                                break;
-                            }
-                        }
-
-                    } else if (RelationsType.one2many.equals(type) || RelationsType.many2many.equals(type)) {
-                        //一对多关系
-
-                        RelationDao relationDao1 = childField.getAnnotation(RelationDao.class);
-                        //获取外键列名
-                        foreignKey = relationDao1.foreignKey();
-                        //得到泛型里的class类型对象
-                        Class listEntityClazz = null;
-                        Class<?> fieldClass = childField.getType();
-                        if (fieldClass.isAssignableFrom(List.class)) {
-                            Type fc = childField.getGenericType();
-                            if (fc == null) continue;
-                            if (fc instanceof ParameterizedType) {
-                                ParameterizedType pt = (ParameterizedType) fc;
-                                listEntityClazz = (Class) pt.getActualTypeArguments()[0];
-                            }
-                        }
-
-                        if (listEntityClazz == null) {
-                            Log.e(TAG, "对象模型需要设置List的泛型");
-                            return null;
-                        }
-
-                        //得到表名
-                        String tableName = "";
-                        if (listEntityClazz.isAnnotationPresent(Table.class)) {
-                            Table table = (Table) listEntityClazz.getAnnotation(Table.class);
-                            tableName = table.name();
-                        }
-
-                        List<T> RelationsDaoList = new ArrayList<T>();
-                        Field[] declaredFields = listEntityClazz.getDeclaredFields();
-                        for (Field field : declaredFields) {
-                            field.setAccessible(true);
-                            Column relationsDaoEntityColumn = field.getAnnotation(Column.class);
-
-                            //获取外键的值作为关联表的查询条件
-                            if (relationsDaoEntityColumn != null && relationsDaoEntityColumn.name().equals(foreignKey)) {
-
-                                //主表的用于关联表的foreignKey值
-                                String value = "-1";
-                                for (Field entityField : allFields) {
-                                    //设置可访问
-                                    entityField.setAccessible(true);
-                                    Column entityForeignKeyColumn = entityField.getAnnotation(Column.class);
-                                    if (entityForeignKeyColumn.name().equals(name)) {
-                                        value = String.valueOf(entityField.get(entity));
-                                        break;
-                                    }
-                                }
-                                //查询数据设置给这个域
-                                cursor = mSQLiteDatabase.query(tableName, null, foreignKey + " = ?", new String[]{value}, null, null, null, null);
-                                getListFromCursor(listEntityClazz, RelationsDaoList, cursor);
-                                if (RelationsDaoList.size() > 0) {
-                                    //获取关联表的对象设置值
-                                    childField.set(entity, RelationsDaoList);
-                                }
-
-                                break;
-                            }
-                        }
-
-                    }
-                }
+            // 有线程在写入时数据可能尚未提交，不缓存
+            if (key != null && !mDBLock.isWriteLocked()) {
+                queryCache.put(key, tables, versions, toCachedRows(clazz, list),
+                        EntityMeta.of(clazz).getColumnCount());
             }
         } catch (Exception e) {
             Log.e(this.TAG, "[queryRaw] from DB Exception.");
             e.printStackTrace();
         } finally {
             closeCursor(cursor);
-            lock.unlock();
+            mDBLock.unlockRead(readLocked);
         }
 
         return list;
@@ -450,19 +623,28 @@ public class DBImpl<T> extends AbBasicDBDao<T> {
     @Override
     protected boolean isExistAbs(String sql, String[] selectionArgs) {
         Cursor cursor = null;
+        boolean readLocked = false;
         try {
-            lock.lock();
+            readLocked = mDBLock.lockRead();
             Log.d(TAG, "[isExist]: " + getLogSql(sql, selectionArgs));
-            cursor = mSQLiteDatabase.rawQuery(sql, selectionArgs);
-            if (cursor.getCount() > 0) {
-                return true;
+            String query = sql.trim();
+            if (query.endsWith(";")) {
+                query = query.substring(0, query.length() - 1);
             }
+            String lower = query.toLowerCase(Locale.US);
+            if (lower.startsWith("select") || lower.startsWith("with")) {
+                // 找到第一行即返回，不填充游标
+                return DatabaseUtils.longForQuery(mSQLiteDatabase,
+                        "SELECT EXISTS(" + query + ")", selectionArgs) != 0;
+            }
+            cursor = mSQLiteDatabase.rawQuery(sql, selectionArgs);
+            return cursor.moveToFirst();
         } catch (Exception e) {
             Log.e(this.TAG, "[isExist] from DB Exception.");
             e.printStackTrace();
         } finally {
             closeCursor(cursor);
-            lock.unlock();
+            mDBLock.unlockRead(readLocked);
         }
         return false;
     }
@@ -484,6 +666,80 @@ public class DBImpl<T> extends AbBasicDBDao<T> {
         return queryListAbs(null, null, null, null, null, null, limit);
     }
 
+    /**
+     * 描述：按键值分页，以上一页最后一行排序列的值为起点，不需要扫描并丢弃前面的行.
+     * 排序列的值需要唯一，默认使用主键.
+     *
+     * @param where         额外的where语句，可以为null
+     * @param selectionArgs where语句的绑定变量
+     * @param orderColumn   排序列，null为主键
+     * @param afterKey      上一页的{@link KeysetPage#getNextKey()}，null为第一页
+     * @param pageSize      每页条数
+     * @param descending    是否降序
+     * @return 一页数据
+     */
+    @Override
+    protected KeysetPage<T> queryPageAbs(String where, String[] selectionArgs, String orderColumn,
+                                         String afterKey, int pageSize, boolean descending) {
+        String column = orderColumn == null ? this.idColumn : orderColumn;
+        List<T> list = new ArrayList<T>();
+        String nextKey = null;
+
+        StringBuilder sql = new StringBuilder("SELECT * FROM ").append(this.mTableName);
+        List<Object> args = new ArrayList<Object>();
+        String keyCondition = afterKey == null ? null : column + (descending ? " < ?" : " > ?");
+        if (!AbStrUtil.isEmpty(where) && keyCondition != null) {
+            sql.append(" WHERE (").append(where).append(") AND ").append(keyCondition);
+        } else if (!AbStrUtil.isEmpty(where)) {
+            sql.append(" WHERE ").append(where);
+        } else if (keyCondition != null) {
+            sql.append(" WHERE ").append(keyCondition);
+        }
+        if (!AbStrUtil.isEmpty(where) && selectionArgs != null) {
+            args.addAll(Arrays.asList(selectionArgs));
+        }
+        if (keyCondition != null) {
+            args.add(keyArg(mEntityMeta.getColumn(column), afterKey));
+        }
+        // 多取一行判断是否还有下一页
+        sql.append(" ORDER BY ").append(column).append(descending ? " DESC" : " ASC").append(" LIMIT ?");
+        args.add((long) pageSize + 1);
+
+        Cursor cursor = null;
+        boolean readLocked = false;
+        try {
+            readLocked = mDBLock.lockRead();
+            Log.d(TAG, "[queryPage]: " + sql + " " + args);
+            cursor = rawQueryTyped(sql.toString(), args.toArray());
+            RowMapper<T> mapper = mEntityMeta.getRowMapper();
+            int[] indexes = mapper.columnIndexes(cursor);
+            int keyIndex = cursor.getColumnIndexOrThrow(column);
+            String lastKey = null;
+            EntitySnapshots snapshots = mSnapshots;
+            while (list.size() < pageSize && cursor.moveToNext()) {
+                T entity = mapper.map(cursor, indexes);
+                if (snapshots != null) {
+                    snapshots.take(entity);
+                }
+                list.add(entity);
+                lastKey = cursor.getString(keyIndex);
+            }
+            if (cursor.moveToNext()) {
+                nextKey = lastKey;
+            }
+
+            //需要判断是否有关联表
+            loadRelations(list);
+        } catch (Exception e) {
+            Log.e(this.TAG, "[queryPage] from DB Exception");
+            e.printStackTrace();
+        } finally {
+            closeCursor(cursor);
+            mDBLock.unlockRead(readLocked);
+        }
+        return new KeysetPage<T>(list, nextKey);
+    }
+
     /**
      * 描述：查询列表.
      *
@@ -500,11 +756,32 @@ public class DBImpl<T> extends AbBasicDBDao<T> {
     protected List<T> queryListAbs(String[] columns, String where,
                                    String[] selectionArgs, String groupBy, String having,
                                    String orderBy, String limit) {
+        QueryCache queryCache = mSQLiteOpenHelper.getQueryCache();
+        String[] tables = null;
+        String key = null;
+        long[] versions = null;
+        if (queryCache != null) {
+            String sql = SQLiteQueryBuilder.buildQueryString(false, this.mTableName, columns, where,
+                    groupBy, having, orderBy, limit);
+            tables = queryTables(sql);
+            if (tables != null) {
+                key = QueryCache.key(this.clazz, sql, selectionArgs);
+                List<?> cached = queryCache.get(key);
+                if (cached != null) {
+                    List<T> list = fromCachedRows(this.clazz, cached);
+                    if (list != null) {
+                        return list;
+                    }
+                }
+                versions = mTracker.getVersions(tables);
+            }
+        }
 
         List<T> list = new ArrayList<T>();
         Cursor cursor = null;
+        boolean readLocked = false;
         try {
-            lock.lock();
+            readLocked = mDBLock.lockRead();
             Log.d(TAG, "[queryList] from " + this.mTableName + " where " + where
                     + "(" + selectionArgs + ")" + " group by " + groupBy + " having " + having + " order by " + orderBy + " limit " + limit);
             cursor = mSQLiteDatabase.query(this.mTableName, columns, where,
@@ -512,155 +789,13 @@ public class DBImpl<T> extends AbBasicDBDao<T> {
 
             getListFromCursor(this.clazz, list, cursor);
 
-            closeCursor(cursor);
-
-            //获取关联域的操作类型和关系类型
-            String foreignKey = null;
-            String type = null;
-            String action = null;
-            /**
-             * 父类列表属性与外键对应
-             */
-            String name = null;
             //需要判断是否有关联表
-            for (Field childField : allFields) {
-                if (!childField.isAnnotationPresent(RelationDao.class)) {
-                    continue;
-                }
-
-                RelationDao relationDao = childField.getAnnotation(RelationDao.class);
-                //获取外键列名
-                foreignKey = relationDao.foreignKey();
-                //关联类型
-                type = relationDao.type();
-                //操作类型
-                action = relationDao.action();
-
-                name = relationDao.name();
-                //设置可访问
-                childField.setAccessible(true);
-
-//                if (!(action.indexOf(ActionType.query) != -1)) {
-//                    return list;
-//                }
-
-                //得到关联表的表名查询
-                for (T entity : list) {
-                    if (RelationsType.one2one.equals(type)) {
-                        //一对一关系
-                        //获取这个实体的表名
-                        String childTableName = "";
-                        if (childField.getType().isAnnotationPresent(Table.class)) {
-                            Table table = childField.getType().getAnnotation(Table.class);
-                            childTableName = table.name();
-                        }
-
-                        List<T> relationsDaoList = new ArrayList<T>();
-                        Field[] relationsDaoEntityFields = childField.getType().getDeclaredFields();
-                        for (Field RelationsDaoEntityField : relationsDaoEntityFields) {
-                            RelationsDaoEntityField.setAccessible(true);
-                            Column RelationsDaoEntityColumn = RelationsDaoEntityField.getAnnotation(Column.class);
-                            if (RelationsDaoEntityColumn == null) {
-                                Log.i(TAG, "DBImpl: queryList:00000000000");
-                                continue;
-                            }
-                            //获取外键的值作为关联表的查询条件
-                            if (foreignKey.equals(RelationsDaoEntityColumn.name())) {
-
-                                //主表的用于关联表的foreignKey值
-                                String value = "-1";
-                                for (Field entityField : allFields) {
-                                    //设置可访问
-                                    entityField.setAccessible(true);
-                                    Column entityForeignKeyColumn = entityField.getAnnotation(Column.class);
-                                    if (entityForeignKeyColumn == null) {
-                                        continue;
-                                    }
-                                    if (entityForeignKeyColumn.name().equals(name)) {
-                                        value = String.valueOf(entityField.get(entity));
-                                        break;
-                                    }
-                                }
-                                Log.i(TAG, "DBImpl: queryList:" +
-                                        " [c0000000000]" + "RelationsDaoTableName=" +
-                                        childTableName + "   foreignKey=" + foreignKey
-                                        + "  value=" + value);
-                                //查询数据设置给这个域
-                                cursor = mSQLiteDatabase.query(childTableName, null, foreignKey + " = ?", new String[]{value}, null, null, null, null);
-                                getListFromCursor(childField.getType(), relationsDaoList, cursor);
-                                if (relationsDaoList.size() > 0) {
-                                    //获取关联表的对象设置值
-                                    childField.set(entity, relationsDaoList.get(0));
-                                }
-
-                                break;
-                            }
-                        }
-
-                    } else if (RelationsType.one2many.equals(type) || RelationsType.many2many.equals(type)) {
-                        //一对多关系
-
-                        RelationDao relationDao1 = childField.getAnnotation(RelationDao.class);
-                        //获取外键列名
-                        foreignKey = relationDao1.foreignKey();
-                        //得到泛型里的class类型对象
-                        Class listEntityClazz = null;
-                        Class<?> fieldClass = childField.getType();
-                        if (fieldClass.isAssignableFrom(List.class)) {
-                            Type fc = childField.getGenericType();
-                            if (fc == null) continue;
-                            if (fc instanceof ParameterizedType) {
-                                ParameterizedType pt = (ParameterizedType) fc;
-                                listEntityClazz = (Class) pt.getActualTypeArguments()[0];
-                            }
-                        }
-
-                        if (listEntityClazz == null) {
-                            Log.e(TAG, "对象模型需要设置List的泛型");
-                            return null;
-                        }
-
-                        //得到表名
-                        String tableName = "";
-                        if (listEntityClazz.isAnnotationPresent(Table.class)) {
-                            Table table = (Table) listEntityClazz.getAnnotation(Table.class);
-                            tableName = table.name();
-                        }
-
-                        List<T> relationsDaoList = new ArrayList<T>();
-                        Field[] declaredFields = listEntityClazz.getDeclaredFields();
-                        for (Field field : declaredFields) {
-                            field.setAccessible(true);
-                            Column relationsDaoEntityColumn = field.getAnnotation(Column.class);
-
-                            //获取外键的值作为关联表的查询条件
-                            if (relationsDaoEntityColumn != null && relationsDaoEntityColumn.name().equals(foreignKey)) {
-
-                                //主表的用于关联表的foreignKey值
-                                String value = "-1";
-                                for (Field entityField : allFields) {
-                                    //设置可访问
-                                    entityField.setAccessible(true);
-                                    Column entityForeignKeyColumn = entityField.getAnnotation(Column.class);
-                                    if (entityForeignKeyColumn.name().equals(name)) {
-                                        value = String.valueOf(entityField.get(entity));
-                                        break;
-                                    }
-                                }
-                                //查询数据设置给这个域
-                                cursor = mSQLiteDatabase.query(tableName, null, foreignKey + " = ?", new String[]{value}, null, null, null, null);
-                                getListFromCursor(listEntityClazz, relationsDaoList, cursor);
-                                if (relationsDaoList.size() > 0) {
-                                    //获取关联表的对象设置值
-                                    childField.set(entity, relationsDaoList);
-                                }
-
-                                break;
-                            }
-                        }
+            loadRelations(list);
 
-                    }
-                }
+            // 有线程在写入时数据可能尚未提交，不缓存
+            if (key != null && !mDBLock.isWriteLocked()) {
+                queryCache.put(key, tables, versions, toCachedRows(this.clazz, list),
+                        mEntityMeta.getColumnCount());
             }
 
         } catch (Exception e) {
@@ -668,7 +803,7 @@ public class DBImpl<T> extends AbBasicDBDao<T> {
             e.printStackTrace();
         } finally {
             closeCursor(cursor);
-            lock.unlock();
+            mDBLock.unlockRead(readLocked);
         }
 
         return list;
@@ -689,196 +824,546 @@ public class DBImpl<T> extends AbBasicDBDao<T> {
     }
 
     /**
-     * 从游标中获得映射对象列表.
+     * 描述：逐行查询，按页读取，适合导出、同步等大表的遍历.
+     * 不排序时按rowid分页，每页从上一页最后的rowid继续；
+     * 指定排序时先按顺序读出所有匹配行的rowid，再按rowid分页读取，遍历期间删除的行跳过.
      *
-     * @param list   返回的映射对象列表
-     * @param cursor 当前游标
-     * @return the list from cursor
-     * @throws IllegalAccessException the illegal access exception
-     * @throws InstantiationException the instantiation exception
+     * @param where         the selection
+     * @param selectionArgs the selection args
+     * @param orderBy       the order by
+     * @return 迭代器
      */
-    private void getListFromCursor(Class<?> clazz, List<T> list, Cursor cursor)
-            throws IllegalAccessException, InstantiationException {
-        while (cursor.moveToNext()) {
-            Object entity = clazz.newInstance();
-            // 加载所有字段
-            List<Field> allFields = AbTableHelper.joinFields(entity.getClass().getDeclaredFields(),
-                    entity.getClass().getSuperclass().getDeclaredFields());
-
-
-            for (Field field : allFields) {
-                Column column = null;
-                if (field.isAnnotationPresent(Column.class)) {
-                    column = field.getAnnotation(Column.class);
-
-                    field.setAccessible(true);
-                    Class<?> fieldType = field.getType();
-
-                    int c = cursor.getColumnIndex(column.name());
-                    if (c < 0) {
-                        continue; // 如果不存则循环下个属性值
-                    } else if ((Integer.TYPE == fieldType)
-                            || (Integer.class == fieldType)) {
-                        field.set(entity, cursor.getInt(c));
-                    } else if (String.class == fieldType) {
-                        field.set(entity, cursor.getString(c));
-                    } else if ((Long.TYPE == fieldType)
-                            || (Long.class == fieldType)) {
-                        field.set(entity, Long.valueOf(cursor.getLong(c)));
-                    } else if ((Float.TYPE == fieldType)
-                            || (Float.class == fieldType)) {
-                        field.set(entity, Float.valueOf(cursor.getFloat(c)));
-                    } else if ((Short.TYPE == fieldType)
-                            || (Short.class == fieldType)) {
-                        field.set(entity, Short.valueOf(cursor.getShort(c)));
-                    } else if ((Double.TYPE == fieldType)
-                            || (Double.class == fieldType)) {
-                        field.set(entity, Double.valueOf(cursor.getDouble(c)));
-                    } else if (Date.class == fieldType) {// 处理java.util.Date类型,update2012-06-10
-                        Date date = new Date();
-                        date.setTime(cursor.getLong(c));
-                        field.set(entity, date);
-                    } else if (Blob.class == fieldType) {
-                        field.set(entity, cursor.getBlob(c));
-                    } else if (Character.TYPE == fieldType) {
-                        String fieldValue = cursor.getString(c);
-                        if ((fieldValue != null) && (fieldValue.length() > 0)) {
-                            field.set(entity, Character.valueOf(fieldValue.charAt(0)));
-                        }
-                    } else if ((Boolean.TYPE == fieldType) || (Boolean.class == fieldType)) {
-                        String temp = cursor.getString(c);
-                        if ("true".equals(temp) || "1".equals(temp)) {
-                            field.set(entity, true);
-                        } else {
-                            field.set(entity, false);
-                        }
-                    }
-
+    @Override
+    protected CloseableIterator<T> queryStreamAbs(final String where, final String[] selectionArgs, String orderBy) {
+        Log.d(TAG, "[queryStream] from " + this.mTableName + " where " + where
+                + " order by " + orderBy);
+        if (AbStrUtil.isEmpty(orderBy)) {
+            return new PagedIterator<T>(new PagedIterator.PageLoader<T>() {
+                private Long mLastRowid;
+
+                @Override
+                public List<T> next() {
+                    List<T> page = new ArrayList<T>();
+                    mLastRowid = queryStreamPage(where, selectionArgs, mLastRowid, page);
+                    return page;
                 }
-            }
-
-            list.add((T) entity);
+            });
         }
+        final long[] rowids = queryRowids(where, selectionArgs, orderBy);
+        return new PagedIterator<T>(new PagedIterator.PageLoader<T>() {
+            private int mPosition;
+
+            @Override
+            public List<T> next() {
+                List<T> page = new ArrayList<T>();
+                while (page.isEmpty() && mPosition < rowids.length) {
+                    int end = Math.min(mPosition + STREAM_PAGE_SIZE, rowids.length);
+                    queryStreamRows(rowids, mPosition, end, page);
+                    mPosition = end;
+                }
+                return page;
+            }
+        });
     }
 
     /**
-     * 描述：插入实体.
+     * 读取queryStream的一页，rowid大于afterRowid的前{@link #STREAM_PAGE_SIZE}行.
      *
-     * @param entity the entity
-     * @return the long
+     * @param afterRowid 上一页最后的rowid，null为第一页
+     * @param page       读取的实体
+     * @return 本页最后的rowid，出错时为null
      */
-    @Override
-    protected long insertAbs(T entity) {
-        return insertAbs(entity, true);
+    private Long queryStreamPage(String where, String[] selectionArgs, Long afterRowid, List<T> page) {
+        StringBuilder sql = new StringBuilder("SELECT rowid AS ").append(ROWID_ALIAS)
+                .append(", * FROM ").append(this.mTableName);
+        List<Object> args = new ArrayList<Object>();
+        if (!AbStrUtil.isEmpty(where)) {
+            sql.append(" WHERE (").append(where).append(")");
+            if (selectionArgs != null) {
+                args.addAll(Arrays.asList(selectionArgs));
+            }
+        }
+        if (afterRowid != null) {
+            sql.append(AbStrUtil.isEmpty(where) ? " WHERE " : " AND ").append("rowid > ?");
+            args.add(afterRowid);
+        }
+        sql.append(" ORDER BY rowid LIMIT ").append(STREAM_PAGE_SIZE);
+
+        Long lastRowid = null;
+        Cursor cursor = null;
+        boolean readLocked = false;
+        try {
+            readLocked = mDBLock.lockRead();
+            cursor = rawQueryTyped(sql.toString(), args.toArray());
+            RowMapper<T> mapper = mEntityMeta.getRowMapper();
+            int[] indexes = mapper.columnIndexes(cursor);
+            int rowidIndex = cursor.getColumnIndexOrThrow(ROWID_ALIAS);
+            while (cursor.moveToNext()) {
+                page.add(mapper.map(cursor, indexes));
+                lastRowid = cursor.getLong(rowidIndex);
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "[queryStream] from DB Exception");
+            e.printStackTrace();
+            page.clear();
+        } finally {
+            closeCursor(cursor);
+            mDBLock.unlockRead(readLocked);
+        }
+        return lastRowid;
     }
 
     /**
-     * 描述：插入实体.
+     * 按参数的类型绑定的查询：Long、Integer等整数绑定为INTEGER，Float、Double绑定为REAL，null为NULL，其它为字符串.
+     * rawQuery的参数都按字符串绑定，LIMIT与没有亲和性的表达式不能可靠地与字符串比较.
      *
-     * @param entity the entity
-     * @param flag   the flag
-     * @return the long
+     * @param sql  查询语句
+     * @param args 绑定变量
+     * @return 游标
+     */
+    private Cursor rawQueryTyped(String sql, final Object[] args) {
+        return mSQLiteDatabase.rawQueryWithFactory(new SQLiteDatabase.CursorFactory() {
+            @Override
+            public Cursor newCursor(SQLiteDatabase db, SQLiteCursorDriver driver, String editTable,
+                                    SQLiteQuery query) {
+                for (int i = 0; i < args.length; i++) {
+                    Object arg = args[i];
+                    if (arg == null) {
+                        query.bindNull(i + 1);
+                    } else if (arg instanceof Long || arg instanceof Integer || arg instanceof Short) {
+                        query.bindLong(i + 1, ((Number) arg).longValue());
+                    } else if (arg instanceof Double || arg instanceof Float) {
+                        query.bindDouble(i + 1, ((Number) arg).doubleValue());
+                    } else {
+                        query.bindString(i + 1, arg.toString());
+                    }
+                }
+                return new SQLiteCursor(driver, editTable, query);
+            }
+        }, sql, null, null);
+    }
+
+    /**
+     * 键值分页的起点按排序列的类型转换，整数列为Long，浮点列为Double，其它为字符串.
+     *
+     * @param column 排序列，不是映射的列时为null
+     * @param key    上一页的{@link KeysetPage#getNextKey()}
+     * @return 绑定变量
+     */
+    private static Object keyArg(ColumnMeta column, String key) {
+        try {
+            if (column != null && column.isIntegral()) {
+                return Long.valueOf(key.trim());
+            }
+            if (column != null && column.isReal()) {
+                return Double.valueOf(key.trim());
+            }
+        } catch (NumberFormatException e) {
+            // 列中存了非数字的值，按字符串比较
+        }
+        return key;
+    }
+
+    /**
+     * 按顺序读取匹配行的rowid.
+     *
+     * @return rowid，出错时为空数组
+     */
+    private long[] queryRowids(String where, String[] selectionArgs, String orderBy) {
+        Cursor cursor = null;
+        boolean readLocked = false;
+        try {
+            readLocked = mDBLock.lockRead();
+            cursor = mSQLiteDatabase.query(this.mTableName, new String[]{"rowid"}, where,
+                    selectionArgs, null, null, orderBy);
+            long[] rowids = new long[cursor.getCount()];
+            for (int i = 0; cursor.moveToNext(); i++) {
+                rowids[i] = cursor.getLong(0);
+            }
+            return rowids;
+        } catch (Exception e) {
+            Log.e(TAG, "[queryStream] from DB Exception");
+            e.printStackTrace();
+            return new long[0];
+        } finally {
+            closeCursor(cursor);
+            mDBLock.unlockRead(readLocked);
+        }
+    }
+
+    /**
+     * 按rowids中[from, to)的顺序读取实体，已删除的行跳过.
+     */
+    private void queryStreamRows(long[] rowids, int from, int to, List<T> page) {
+        List<String> chunk = new ArrayList<String>(to - from);
+        for (int i = from; i < to; i++) {
+            chunk.add(Long.toString(rowids[i]));
+        }
+        boolean readLocked = false;
+        try {
+            readLocked = mDBLock.lockRead();
+            Map<String, T> rows = queryByRowid(chunk, false);
+            for (String rowid : chunk) {
+                T entity = rows.get(rowid);
+                if (entity != null) {
+                    page.add(entity);
+                }
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "[queryStream] from DB Exception");
+            e.printStackTrace();
+        } finally {
+            mDBLock.unlockRead(readLocked);
+        }
+    }
+
+    /**
+     * 描述：逐行执行查询语句.
+     *
+     * @param sql           完整的sql
+     * @param selectionArgs 绑定变量值
+     * @param clazz         返回的对象类型
+     * @return 迭代器
      */
     @Override
-    protected long insertAbs(T entity, boolean flag) {
-        String sql = null;
-        long row = 0L;
+    protected CloseableIterator<T> queryRawStreamAbs(String sql, String[] selectionArgs, Class<T> clazz) {
+        boolean readLocked = false;
         try {
-            lock.lock();
-            ContentValues cv = new ContentValues();
-            if (flag) {
-                // id自增
-                sql = setContentValues(entity, cv, TYPE_INCREMENT, METHOD_INSERT);
-            } else {
-                // id需指定
-                sql = setContentValues(entity, cv, TYPE_NOT_INCREMENT, METHOD_INSERT);
+            readLocked = mDBLock.lockRead();
+            Log.d(TAG, "[queryRawStream]: " + getLogSql(sql, selectionArgs));
+            Cursor cursor = mSQLiteDatabase.rawQuery(sql, selectionArgs);
+            return new CursorIterator<T>(cursor, EntityMeta.of(clazz).getRowMapper(), mDBLock);
+        } finally {
+            mDBLock.unlockRead(readLocked);
+        }
+    }
+
+    /**
+     * 从游标中获得映射对象列表.
+     *
+     * @param list   返回的映射对象列表
+     * @param cursor 当前游标
+     * @return the list from cursor
+     * @throws IllegalAccessException the illegal access exception
+     * @throws InstantiationException the instantiation exception
+     */
+    private void getListFromCursor(Class<?> clazz, List<T> list, Cursor cursor)
+            throws IllegalAccessException, InstantiationException {
+        RowMapper<?> mapper = EntityMeta.of(clazz).getRowMapper();
+        // 列的位置每个游标只解析一次
+        int[] indexes = mapper.columnIndexes(cursor);
+        EntitySnapshots snapshots = mSnapshots;
+        while (cursor.moveToNext()) {
+            T entity = (T) mapper.map(cursor, indexes);
+            if (snapshots != null) {
+                snapshots.take(entity);
             }
-            Log.i(TAG, "DBImpl: insert: [*********"
-                    + "[insert]: insert into " + this.mTableName + " " + sql);
-            row = mSQLiteDatabase.insert(this.mTableName, null, cv);
+            list.add(entity);
+        }
+    }
 
-            //获取关联域的操作类型和关系类型
-            String foreignKey = null;
-            String type = null;
-            String action = null;
-            //需要判断是否有关联表
-            for (Field relationsDaoField : allFields) {
-                if (!relationsDaoField.isAnnotationPresent(RelationDao.class)) {
+    /**
+     * 取出实体各列的值放入查询缓存，byte[]与Date复制一份，之后修改实体不会影响缓存.
+     *
+     * @param clazz 实体类
+     * @param list  查询得到的实体
+     * @return 每一行各列的值
+     * @throws IllegalAccessException the illegal access exception
+     */
+    private static List<Object[]> toCachedRows(Class<?> clazz, List<?> list) throws IllegalAccessException {
+        EntityMeta<?> meta = EntityMeta.of(clazz);
+        List<Object[]> rows = new ArrayList<Object[]>(list.size());
+        for (Object entity : list) {
+            Object[] values = new Object[meta.getColumnCount()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = EntitySnapshots.copy(meta.getColumn(i).get(entity));
+            }
+            rows.add(values);
+        }
+        return rows;
+    }
+
+    /**
+     * 用查询缓存中各列的值创建新的实体，关联表重新加载.
+     *
+     * @param clazz 实体类
+     * @param rows  {@link #toCachedRows(Class, List)}的结果
+     * @return 实体列表，创建失败时为null，由调用方重新查询
+     */
+    private List<T> fromCachedRows(Class<?> clazz, List<?> rows) {
+        EntityMeta<?> meta = EntityMeta.of(clazz);
+        EntitySnapshots snapshots = mSnapshots;
+        List<T> list = new ArrayList<T>(rows.size());
+        boolean readLocked = false;
+        try {
+            for (Object row : rows) {
+                Object[] values = (Object[]) row;
+                T entity = (T) meta.newInstance();
+                for (int i = 0; i < values.length; i++) {
+                    meta.getColumn(i).set(entity, EntitySnapshots.copy(values[i]));
+                }
+                if (snapshots != null) {
+                    snapshots.take(entity);
+                }
+                list.add(entity);
+            }
+            readLocked = mDBLock.lockRead();
+            loadRelations(list);
+            return list;
+        } catch (Exception e) {
+            Log.e(this.TAG, "[queryCache] create entity from cache Exception.");
+            e.printStackTrace();
+            return null;
+        } finally {
+            mDBLock.unlockRead(readLocked);
+        }
+    }
+
+    /**
+     * 查询并设置关联表的数据.
+     * 每个关联只按主表这一批的关联值做一次IN查询（超过{@link #MAX_IN_VARIABLES}个值时分批），
+     * 再按外键在内存中分配给各个主表对象，避免每个主表对象一次查询.
+     * {@link FetchType#lazy}的关联只设置代理，不查询关联表.
+     *
+     * @param list 主表的映射对象列表
+     * @throws IllegalAccessException the illegal access exception
+     * @throws InstantiationException the instantiation exception
+     */
+    private void loadRelations(List<T> list) throws IllegalAccessException, InstantiationException {
+        if (list.isEmpty() || !mEntityMeta.hasRelations()) {
+            return;
+        }
+        for (RelationMeta relation : mEntityMeta.getRelations()) {
+            EntityMeta<?> childMeta = relation.getChildMeta();
+            if (childMeta == null) {
+                Log.e(TAG, "对象模型需要设置List的泛型");
+                continue;
+            }
+            String foreignKey = relation.getForeignKey();
+            //获取外键的值作为关联表的查询条件
+            if (childMeta.getColumn(foreignKey) == null
+                    || AbStrUtil.isEmpty(childMeta.getTableName())) {
+                continue;
+            }
+
+            //主表的用于关联表的foreignKey值
+            String[] values = new String[list.size()];
+            Set<String> distinct = new LinkedHashSet<String>();
+            for (int i = 0; i < values.length; i++) {
+                Object parentValue = relation.getParentValue(list.get(i));
+                if (parentValue != null) {
+                    values[i] = relationArg(relation, parentValue);
+                    distinct.add(values[i]);
+                }
+            }
+            if (distinct.isEmpty()) {
+                continue;
+            }
+            boolean holder = relation.getField().getType() == Lazy.class;
+            if (relation.isLazy() && (relation.isMany() || holder)) {
+                setLazyRelations(relation, childMeta, list, values);
+                continue;
+            }
+
+            Map<String, List<Object>> children = queryChildren(childMeta, foreignKey,
+                    new ArrayList<String>(distinct));
+
+            //获取关联表的对象设置值
+            for (int i = 0; i < values.length; i++) {
+                List<Object> relationsDaoList = values[i] == null ? null : children.get(values[i]);
+                if (relationsDaoList == null || relationsDaoList.isEmpty()) {
                     continue;
                 }
-                RelationDao RelationsDao = relationsDaoField.getAnnotation(RelationDao.class);
-                //获取外键列名
-                foreignKey = RelationsDao.foreignKey();
-                //关联类型
-                type = RelationsDao.type();
-                //操作类型
-                action = RelationsDao.action();
-                //设置可访问
-                relationsDaoField.setAccessible(true);
-                if (!(action.indexOf(ActionType.insert) != -1)) {
-                    return row;
+                if (relation.isMany()) {
+                    relation.getField().set(list.get(i), new ArrayList<Object>(relationsDaoList));
+                } else if (holder) {
+                    relation.getField().set(list.get(i), Lazy.of(relationsDaoList.get(0)));
+                } else {
+                    relation.getField().set(list.get(i), relationsDaoList.get(0));
                 }
-                if (RelationsType.one2one.equals(type)) {
-                    //一对一关系
-                    //获取关联表的对象
-                    T relationsDaoEntity = (T) relationsDaoField.get(entity);
-                    if (relationsDaoEntity != null) {
-                        ContentValues contentValues = new ContentValues();
-                        if (flag) {
-                            // id自增
-                            sql = setContentValues(relationsDaoEntity, contentValues, TYPE_INCREMENT, METHOD_INSERT);
-                        } else {
-                            // id需指定
-                            sql = setContentValues(relationsDaoEntity, contentValues, TYPE_NOT_INCREMENT, METHOD_INSERT);
-                        }
-                        String relationsDaoTableName = "";
-                        if (relationsDaoEntity.getClass().isAnnotationPresent(Table.class)) {
-                            Table table = relationsDaoEntity.getClass().getAnnotation(Table.class);
-                            relationsDaoTableName = table.name();
-                        }
+            }
+        }
+    }
 
-                        Log.d(TAG, "[insert]: insert into " + relationsDaoTableName + " " + sql);
-                        row += mSQLiteDatabase.insert(relationsDaoTableName, null, contentValues);
+    /**
+     * 为{@link FetchType#lazy}的关联设置代理，首次访问时才按主表的关联值查询关联表.
+     *
+     * @param relation  关联
+     * @param childMeta 关联表实体的元数据
+     * @param list      主表的映射对象列表
+     * @param values    与list对应的关联值，为null的不设置
+     * @throws IllegalAccessException the illegal access exception
+     */
+    private void setLazyRelations(final RelationMeta relation, final EntityMeta<?> childMeta, List<T> list,
+                                  String[] values) throws IllegalAccessException {
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] == null) {
+                continue;
+            }
+            final String value = values[i];
+            if (relation.isMany()) {
+                relation.getField().set(list.get(i), new LazyRelationList<Object>(new Callable<List<Object>>() {
+                    @Override
+                    public List<Object> call() {
+                        return queryRelation(childMeta, relation.getForeignKey(), value);
                     }
-                } else if (RelationsType.one2many.equals(type) || RelationsType.many2many.equals(type)) {
-                    //一对多关系
-                    //获取关联表的对象
-                    List<T> list = (List<T>) relationsDaoField.get(entity);
-                    if (list != null && list.size() > 0) {
-                        for (T RelationsDaoEntity : list) {
-                            ContentValues RelationsDaoCv = new ContentValues();
-                            if (flag) {
-                                // id自增
-                                sql = setContentValues(RelationsDaoEntity, RelationsDaoCv, TYPE_INCREMENT, METHOD_INSERT);
-                            } else {
-                                // id需指定
-                                sql = setContentValues(RelationsDaoEntity, RelationsDaoCv, TYPE_NOT_INCREMENT, METHOD_INSERT);
-                            }
-                            String relationsDaoTableName = "";
-                            if (RelationsDaoEntity.getClass().isAnnotationPresent(Table.class)) {
-                                Table table = RelationsDaoEntity.getClass().getAnnotation(Table.class);
-                                relationsDaoTableName = table.name();
-                            }
-
-                            Log.d(TAG, "[******ddddddd]: insert into " + relationsDaoTableName + " " + sql);
-                            row += mSQLiteDatabase.insert(relationsDaoTableName, null, RelationsDaoCv);
-                        }
+                }));
+            } else {
+                relation.getField().set(list.get(i), new Lazy<Object>(new Callable<Object>() {
+                    @Override
+                    public Object call() {
+                        List<Object> children = queryRelation(childMeta, relation.getForeignKey(), value);
+                        return children.isEmpty() ? null : children.get(0);
                     }
+                }));
+            }
+        }
+    }
+
+    /**
+     * 延迟加载时查询一个主表对象的关联数据，使用共享连接并持有读锁.
+     *
+     * @return 关联对象，出错时为空列表
+     */
+    private List<Object> queryRelation(EntityMeta<?> childMeta, String foreignKey, String value) {
+        boolean readLocked = false;
+        startReadableDatabase(false);
+        try {
+            readLocked = mDBLock.lockRead();
+            List<Object> children = queryChildren(childMeta, foreignKey, Collections.singletonList(value)).get(value);
+            return children == null ? new ArrayList<Object>() : children;
+        } catch (Exception e) {
+            Log.e(TAG, "[loadRelations] lazy " + childMeta.getTableName() + " from DB exception");
+            e.printStackTrace();
+            return new ArrayList<Object>();
+        } finally {
+            mDBLock.unlockRead(readLocked);
+            closeDatabase(false);
+        }
+    }
 
+    /**
+     * 按外键批量查询关联表，结果按外键的值分组.
+     *
+     * @param childMeta  关联表实体的元数据
+     * @param foreignKey 关联表的外键
+     * @param values     不重复的外键值
+     * @return 外键值到关联对象的映射，组内保持表中的顺序
+     * @throws IllegalAccessException the illegal access exception
+     */
+    private Map<String, List<Object>> queryChildren(EntityMeta<?> childMeta, String foreignKey,
+                                                    List<String> values) throws IllegalAccessException {
+        Map<String, List<Object>> children = new HashMap<String, List<Object>>(values.size() * 2);
+        RowMapper<?> mapper = childMeta.getRowMapper();
+        for (int from = 0; from < values.size(); from += MAX_IN_VARIABLES) {
+            List<String> chunk = values.subList(from, Math.min(from + MAX_IN_VARIABLES, values.size()));
+            String selection = foreignKey + " IN (" + placeholders(chunk.size()) + ")";
+            Log.d(TAG, "[loadRelations] from " + childMeta.getTableName() + " where " + foreignKey
+                    + " in " + chunk.size() + " values");
+
+            Cursor cursor = null;
+            try {
+                cursor = mSQLiteDatabase.query(childMeta.getTableName(), null, selection,
+                        chunk.toArray(new String[chunk.size()]), null, null, "rowid");
+                int[] indexes = mapper.columnIndexes(cursor);
+                int keyIndex = cursor.getColumnIndexOrThrow(foreignKey);
+                EntitySnapshots snapshots = mSnapshots;
+                while (cursor.moveToNext()) {
+                    String key = cursor.getString(keyIndex);
+                    List<Object> group = children.get(key);
+                    if (group == null) {
+                        group = new ArrayList<Object>();
+                        children.put(key, group);
+                    }
+                    Object child = mapper.map(cursor, indexes);
+                    if (snapshots != null) {
+                        snapshots.take(child);
+                    }
+                    group.add(child);
                 }
+            } finally {
+                closeCursor(cursor);
             }
+        }
+        return children;
+    }
+
+    /**
+     * 描述：插入实体.
+     *
+     * @param entity the entity
+     * @return the long
+     */
+    @Override
+    protected long insertAbs(T entity) {
+        return insertAbs(entity, true);
+    }
+
+    /**
+     * 描述：插入实体.
+     *
+     * @param entity the entity
+     * @param flag   the flag
+     * @return the long
+     */
+    @Override
+    protected long insertAbs(T entity, boolean flag) {
+        long row = 0L;
+        boolean unit = false;
+        boolean successful = false;
+        try {
+            mDBLock.lockWrite();
+            invalidateQueries();
+            unit = beginUnit();
+            row = insertRow(entity, flag);
+            evictCachedEntity(entity);
 
+            //需要判断是否有关联表
+            row += insertRelations(entity);
+            successful = true;
         } catch (Exception e) {
             Log.d(this.TAG, "[insert] into DB Exception.");
             e.printStackTrace();
             row = -1;
         } finally {
-            lock.unlock();
+            try {
+                endUnit(unit, successful);
+            } finally {
+                mDBLock.unlockWrite();
+            }
         }
         return row;
     }
 
 
+    /**
+     * 插入实体的关联表数据.
+     *
+     * @param entity 主表实体
+     * @return 关联表插入返回值的和
+     * @throws IllegalAccessException the illegal access exception
+     */
+    private long insertRelations(T entity) throws IllegalAccessException {
+        long rows = 0;
+        for (RelationMeta relation : mEntityMeta.getRelations()) {
+            //操作类型
+            if (!relation.hasAction(ActionType.insert)) {
+                continue;
+            }
+            // 未加载的延迟关联没有改动，跳过
+            Object value = relation.getLoadedValue(entity);
+            if (value == null) {
+                continue;
+            }
+            //一对一关系只有一个对象，一对多关系为列表
+            List<?> children = relation.isMany() ? (List<?>) value : Collections.singletonList(value);
+            for (Object relationsDaoEntity : children) {
+                rows += insertRow(relationsDaoEntity, true);
+            }
+        }
+        return rows;
+    }
+
     /**
      * 描述：插入列表
      */
@@ -892,115 +1377,75 @@ public class DBImpl<T> extends AbBasicDBDao<T> {
      */
     @Override
     protected long insertListAbs(List<T> entityList, boolean flag) {
-        String sql = null;
         long rows = 0;
+        boolean unit = false;
+        boolean successful = false;
         try {
-            lock.lock();
+            mDBLock.lockWrite();
+            invalidateQueries();
+            unit = beginUnit();
             for (T entity : entityList) {
-                ContentValues cv = new ContentValues();
-                if (flag) {
-                    // id自增
-                    sql = setContentValues(entity, cv, TYPE_INCREMENT, METHOD_INSERT);
-                } else {
-                    // id需指定
-                    sql = setContentValues(entity, cv, TYPE_NOT_INCREMENT, METHOD_INSERT);
-                }
-
-                Log.d(TAG, "[insertList]: insert into " + this.mTableName + " " + sql);
-                rows += mSQLiteDatabase.insert(this.mTableName, null, cv);
+                rows += insertRow(entity, flag);
+                evictCachedEntity(entity);
 
-
-                //获取关联域的操作类型和关系类型
-                String foreignKey = null;
-                String type = null;
-                String action = null;
-                Field field = null;
                 //需要判断是否有关联表
-                for (Field RelationsDaoField : allFields) {
-                    if (!RelationsDaoField.isAnnotationPresent(RelationDao.class)) {
-                        continue;
-                    }
-
-                    RelationDao RelationsDao = RelationsDaoField.getAnnotation(RelationDao.class);
-                    //获取外键列名
-                    foreignKey = RelationsDao.foreignKey();
-                    //关联类型
-                    type = RelationsDao.type();
-                    //操作类型
-                    action = RelationsDao.action();
-                    //设置可访问
-                    RelationsDaoField.setAccessible(true);
-                    field = RelationsDaoField;
-                }
-
-                if (field == null) {
-                    continue;
-                }
-
-                if (!(action.indexOf(ActionType.insert) != -1)) {
-                    continue;
-                }
-
-                if (RelationsType.one2one.equals(type)) {
-                    //一对一关系
-                    //获取关联表的对象
-                    T RelationsDaoEntity = (T) field.get(entity);
-                    if (RelationsDaoEntity != null) {
-                        ContentValues RelationsDaoCv = new ContentValues();
-                        if (flag) {
-                            // id自增
-                            sql = setContentValues(RelationsDaoEntity, RelationsDaoCv, TYPE_INCREMENT, METHOD_INSERT);
-                        } else {
-                            // id需指定
-                            sql = setContentValues(RelationsDaoEntity, RelationsDaoCv, TYPE_NOT_INCREMENT, METHOD_INSERT);
-                        }
-                        String RelationsDaoTableName = "";
-                        if (RelationsDaoEntity.getClass().isAnnotationPresent(Table.class)) {
-                            Table table = RelationsDaoEntity.getClass().getAnnotation(Table.class);
-                            RelationsDaoTableName = table.name();
-                        }
-
-                        Log.d(TAG, "[insertList]: insert into " + RelationsDaoTableName + " " + sql);
-                        rows += mSQLiteDatabase.insert(RelationsDaoTableName, null, RelationsDaoCv);
-                    }
-
-                } else if (RelationsType.one2many.equals(type) || RelationsType.many2many.equals(type)) {
-                    //一对多关系
-                    //获取关联表的对象
-                    List<T> list = (List<T>) field.get(entity);
-                    if (list != null && list.size() > 0) {
-                        for (T RelationsDaoEntity : list) {
-                            ContentValues RelationsDaoCv = new ContentValues();
-                            if (flag) {
-                                // id自增
-                                sql = setContentValues(RelationsDaoEntity, RelationsDaoCv, TYPE_INCREMENT, METHOD_INSERT);
-                            } else {
-                                // id需指定
-                                sql = setContentValues(RelationsDaoEntity, RelationsDaoCv, TYPE_NOT_INCREMENT, METHOD_INSERT);
-                            }
-                            String RelationsDaoTableName = "";
-                            if (RelationsDaoEntity.getClass().isAnnotationPresent(Table.class)) {
-                                Table table = RelationsDaoEntity.getClass().getAnnotation(Table.class);
-                                RelationsDaoTableName = table.name();
-                            }
-
-                            Log.d(TAG, "[insertList]: insert into " + RelationsDaoTableName + " " + sql);
-                            rows += mSQLiteDatabase.insert(RelationsDaoTableName, null, RelationsDaoCv);
-                        }
-                    }
-
-                }
+                rows += insertRelations(entity);
             }
+            successful = true;
         } catch (Exception e) {
             Log.d(this.TAG, "[insertList] into DB Exception.");
             e.printStackTrace();
+            // 整个列表已回滚
+            rows = -1;
         } finally {
-            lock.unlock();
+            try {
+                endUnit(unit, successful);
+            } finally {
+                mDBLock.unlockWrite();
+            }
         }
 
         return rows;
     }
 
+    /**
+     * 描述：批量插入或更新，整个列表在一个事务单元中.
+     * 已存在的判断依据：已指定值的主键，或值都不为null的唯一索引，都没有时直接插入.
+     * 只写本表，不处理关联表.
+     *
+     * @param entityList 映射实体列表
+     * @param strategy   已存在时的处理方式
+     * @return 每个实体的结果，失败时整个列表回滚并返回null
+     */
+    @Override
+    protected List<UpsertOutcome> upsertListAbs(List<T> entityList, ConflictStrategy strategy) {
+        List<UpsertOutcome> outcomes = new ArrayList<UpsertOutcome>(entityList.size());
+        boolean unit = false;
+        boolean successful = false;
+        try {
+            mDBLock.lockWrite();
+            invalidateQueries();
+            // REPLACE会删除冲突的行，被删除的id无法逐个确定
+            clearCached();
+            unit = beginUnit();
+            for (T entity : entityList) {
+                outcomes.add(upsertRow(entity, strategy));
+            }
+            successful = true;
+        } catch (Exception e) {
+            Log.d(this.TAG, "[upsertList] into DB Exception.");
+            e.printStackTrace();
+            outcomes = null;
+        } finally {
+            try {
+                endUnit(unit, successful);
+            } finally {
+                mDBLock.unlockWrite();
+            }
+        }
+        return outcomes;
+    }
+
 
     /**
      * 描述：按id删除.
@@ -1011,69 +1456,61 @@ public class DBImpl<T> extends AbBasicDBDao<T> {
     protected long deleteAbs(int id) {
         long rows = -1;
         try {
-            lock.lock();
-            String where = this.idColumn + " = ?";
-            String[] whereValue = {Integer.toString(id)};
-            Log.d(TAG, "[delete]: delelte from " + this.mTableName + " where "
-                    + where.replace("?", String.valueOf(id)));
-            rows = mSQLiteDatabase.delete(this.mTableName, where, whereValue);
-//            mSQLiteDatabase.delete()
+            mDBLock.lockWrite();
+            invalidateQueries();
+            evictCachedId(id);
+            rows = deleteRow(this.mTableName, this.idColumn, Integer.toString(id));
         } catch (Exception e) {
             e.printStackTrace();
         } finally {
-            lock.unlock();
+            mDBLock.unlockWrite();
         }
         return rows;
     }
 
     /**
-     * 删除集合
+     * 删除集合，同{@link #deleteEntitiesAbs(List)}
      *
-     * @param ids
-     * @return
+     * @param ids 要删除的实体
+     * @return 成功时为null，失败时为传入的列表
      */
     @Override
     protected List<T> deleteListAbs(List<T> ids) {
         if (ids == null || ids.size() == 0) {
             return null;
         }
+        return deleteEntitiesAbs(ids) < 0 ? ids : null;
+    }
+
+    /**
+     * 描述：按主键批量删除实体，并以实体的关联值删除关联表数据.
+     * 主键作为参数绑定，每批不超过{@link #MAX_IN_VARIABLES}个，所有批次在一个事务中.
+     *
+     * @param entities 要删除的实体，主键为null的被跳过
+     * @return 主表删除的行数，失败时整体回滚并返回-1
+     */
+    @Override
+    protected long deleteEntitiesAbs(List<T> entities) {
+        if (entities == null || entities.isEmpty()) {
+            return 0;
+        }
+        ColumnMeta id = mEntityMeta.getIdColumn();
+        if (id == null) {
+            Log.e(TAG, "[deleteList] " + clazz.getName() + " 未注解主键");
+            return -1;
+        }
         try {
-            lock.lock();
-            int size = ids.size();
-            int size1 = size - 1;
-//            String[] whereValue = new String[ids.size()];
-            StringBuilder where = new StringBuilder("delete from ");
-            StringBuilder builder = new StringBuilder(" (");
-            for (int i = 0; i < ids.size(); i++) {
-                T data = ids.get(i);
-                // 加载所有字段
-                List<Field> fileds = AbTableHelper.joinFields(data.getClass().getDeclaredFields(),
-                        data.getClass().getSuperclass().getDeclaredFields());
-                // 找到主键
-                for (Field field : fileds) {
-                    Log.i(TAG, "DBImpl: deleteList: [111111*******]=");
-                    if (field.isAnnotationPresent(Id.class)) {
-                        Log.i(TAG, "DBImpl: deleteList: [2222222*******]=");
-                        field.setAccessible(true);
-                        String fieldValue = (String) field.get(data);
-                        if (i == size1) {
-                            builder.append("'").append(fieldValue).append("')");
-                        } else {
-                            builder.append("'").append(fieldValue).append("',");
-                        }
-                        break;
-                    }
+            Set<String> ids = new LinkedHashSet<String>(entities.size() * 2);
+            for (T entity : entities) {
+                Object value = entity == null ? null : id.get(entity);
+                if (value != null) {
+                    ids.add(id.toArg(value));
                 }
             }
-            where.append(this.mTableName).append(" where ").append(this.idColumn).append(" in").append(builder.toString());
-            Log.i(TAG, "DBImpl: deleteList: [3333333*******]=" + where.toString());
-            mSQLiteDatabase.execSQL(where.toString());
-            ids = null;
-        } catch (Exception e) {
+            return deleteByIds(new ArrayList<String>(ids), entities);
+        } catch (IllegalAccessException e) {
             e.printStackTrace();
-        } finally {
-            lock.unlock();
-            return ids;
+            return -1;
         }
     }
 
@@ -1086,90 +1523,109 @@ public class DBImpl<T> extends AbBasicDBDao<T> {
     protected long deleteAbs(String id) {
         long rows = -1;
         try {
-            lock.lock();
-            String where = this.idColumn + " = ?";
-            String[] whereValue = {id};
-            Log.d(TAG, "[delete]: delelte from " + this.mTableName + " where "
-                    + where.replace("?", id));
-            rows = mSQLiteDatabase.delete(this.mTableName, where, whereValue);
+            mDBLock.lockWrite();
+            invalidateQueries();
+            evictCachedId(id);
+            rows = deleteRow(this.mTableName, this.idColumn, id);
 
         } catch (Exception e) {
             e.printStackTrace();
         } finally {
-            lock.unlock();
+            mDBLock.unlockWrite();
         }
         return rows;
     }
 
     /**
-     * 描述：按id删除.
+     * 描述：按id批量删除，并删除关联表数据，同{@link #deleteEntitiesAbs(List)}.
      *
      * @param ids the ids
+     * @return 主表删除的行数，失败时为-1
      */
     @Override
     public long deleteAbs(int[] ids) {
-        long rows = -1;
-        try {
-            lock.lock();
-            if (ids.length > 0) {
-                StringBuilder builder = new StringBuilder(this.idColumn);
-                builder.append(" in (");
-                for (int i = 0; i < ids.length; i++) {
-                    builder.append(ids[i])
-                            .append(",");
-                }
-                builder.deleteCharAt(builder.length() - 1);
-                builder.append(")");
-                Log.i(TAG, "DBImpl: delete: [ids]="
-                        + builder.toString());
-                rows = mSQLiteDatabase.delete(this.mTableName, builder.toString(), null);
-            }
-        } catch (Exception e) {
-            e.printStackTrace();
-            Log.i(TAG, "DBImpl: delete: [ids]="
-                    + e);
-        } finally {
-            lock.unlock();
+        Set<String> values = new LinkedHashSet<String>(ids.length * 2);
+        for (int id : ids) {
+            values.add(Integer.toString(id));
         }
-        return rows;
+        return deleteByIds(new ArrayList<String>(values), null);
     }
 
     /**
+     * 描述：按id批量删除，并删除关联表数据，同{@link #deleteEntitiesAbs(List)}.
+     *
      * @param ids 根据指定的ID来删除数据,该实体类必须制定ID
-     * @return
+     * @return 主表删除的行数，失败时为-1
      */
     @Override
     protected long deleteAbs(String[] ids) {
+        return deleteByIds(new ArrayList<String>(new LinkedHashSet<String>(Arrays.asList(ids))), null);
+    }
+
+    /**
+     * 按主键分批删除，先删除关联表.
+     * 关联值取自实体；只有主键时，关联列是主键则直接使用主键，否则先分批查出主表的关联值.
+     *
+     * @param ids      不重复的主键
+     * @param entities 要删除的实体，可以为null
+     * @return 主表删除的行数，失败时回滚并返回-1
+     */
+    private long deleteByIds(List<String> ids, List<T> entities) {
+        if (ids.isEmpty()) {
+            return 0;
+        }
         long rows = -1;
+        boolean unit = false;
+        boolean successful = false;
         try {
-            lock.lock();
-            if (ids.length > 0) {
-                StringBuilder builder = new StringBuilder(this.idColumn);
-                builder.append(" in (");
-                for (int i = 0; i < ids.length; i++) {
-                    builder.append(ids[i])
-                            .append(",");
+            mDBLock.lockWrite();
+            invalidateQueries();
+            unit = beginUnit();
+            for (String id : ids) {
+                evictCachedId(id);
+            }
+            for (RelationMeta relation : mEntityMeta.getRelations()) {
+                String childTable = relation.getChildTableName();
+                if (AbStrUtil.isEmpty(childTable)) {
+                    continue;
+                }
+                List<String> values;
+                if (entities != null) {
+                    Set<String> distinct = new LinkedHashSet<String>();
+                    for (T entity : entities) {
+                        Object parentValue = entity == null ? null : relation.getParentValue(entity);
+                        if (parentValue != null) {
+                            distinct.add(relationArg(relation, parentValue));
+                        }
+                    }
+                    values = new ArrayList<String>(distinct);
+                } else if (relation.getName().equals(this.idColumn)) {
+                    values = ids;
+                } else if (mEntityMeta.getColumn(relation.getName()) != null) {
+                    values = queryColumnIn(relation.getName(), ids);
+                } else {
+                    Log.w(TAG, "[delete] 关联" + relation.getName() + "不是列，只有主键时无法删除关联表数据");
+                    continue;
                 }
-                builder.deleteCharAt(builder.length() - 1);
-                builder.append(")");
-                Log.i(TAG, "DBImpl: delete: [ids]="
-                        + builder.toString());
-                rows = mSQLiteDatabase.delete(this.mTableName, builder.toString(), null);
+                long childRows = deleteIn(childTable, relation.getForeignKey(), values);
+                Log.d(TAG, "[delete] " + childTable + " " + childRows + " rows");
             }
+            rows = deleteIn(this.mTableName, this.idColumn, ids);
+            Log.d(TAG, "[delete] " + this.mTableName + " " + rows + " rows by " + ids.size() + " ids");
+            successful = true;
         } catch (Exception e) {
             e.printStackTrace();
-            Log.i(TAG, "DBImpl: delete: [ids]="
-                    + e);
+            rows = -1;
         } finally {
-            lock.unlock();
+            try {
+                endUnit(unit, successful);
+            } finally {
+                mDBLock.unlockWrite();
+            }
         }
-
-
         return rows;
-
     }
 
-
     /**
      * 描述：按条件删除数据
      */
@@ -1177,7 +1633,9 @@ public class DBImpl<T> extends AbBasicDBDao<T> {
     protected long deleteAbs(String whereClause, String[] whereArgs) {
         long rows = -1;
         try {
-            lock.lock();
+            mDBLock.lockWrite();
+            invalidateQueries();
+            clearCached();
             String mLogSql = getLogSql(whereClause, whereArgs);
             if (!AbStrUtil.isEmpty(mLogSql)) {
                 mLogSql += " where ";
@@ -1187,7 +1645,7 @@ public class DBImpl<T> extends AbBasicDBDao<T> {
         } catch (Exception e) {
             e.printStackTrace();
         } finally {
-            lock.unlock();
+            mDBLock.unlockWrite();
         }
         return rows;
     }
@@ -1198,177 +1656,102 @@ public class DBImpl<T> extends AbBasicDBDao<T> {
     @Override
     protected long deleteAllAbs() {
         long rows = -1;
+        boolean unit = false;
+        boolean successful = false;
         try {
-            lock.lock();
+            mDBLock.lockWrite();
+            invalidateQueries();
+            clearCached();
+            unit = beginUnit();
             Log.i(TAG, "DBImpl: deleteAll: [mTableName]=" + mTableName);
             rows = mSQLiteDatabase.delete(this.mTableName, null, null);
             //需要判断是否有关联表
-            for (Field relationsDaoField : allFields) {
-                if (!relationsDaoField.isAnnotationPresent(RelationDao.class)) {
-                    continue;
-                }
-                //设置可访问
-                relationsDaoField.setAccessible(true);
-                String relationsDaoTableName = getRetationTable(relationsDaoField);
+            for (RelationMeta relation : mEntityMeta.getRelations()) {
+                String relationsDaoTableName = relation.getChildTableName();
                 Log.i(TAG, "DBImpl: deleteAll: [relationsDaoTableName=]=" + relationsDaoTableName);
                 rows += mSQLiteDatabase.delete(relationsDaoTableName, null, null);
             }
+            successful = true;
         } catch (Exception e) {
             e.printStackTrace();
+            rows = -1;
         } finally {
-            lock.unlock();
-        }
-        return rows;
-    }
-
-    String getRetationTable(Field childField) {
-        //得到表名
-        String tableName = "";
-
-        String type = null;
-
-        RelationDao relationDao = childField.getAnnotation(RelationDao.class);
-        //关联类型
-        type = relationDao.type();
-        //设置可访问
-        childField.setAccessible(true);
-
-        //得到关联表的表名查询
-
-        if (RelationsType.one2one.equals(type)) {
-            //一对一关系
-            //获取这个实体的表名
-            if (childField.getType().isAnnotationPresent(Table.class)) {
-                Table table = childField.getType().getAnnotation(Table.class);
-                tableName = table.name();
-            }
-
-
-        } else if (RelationsType.one2many.equals(type) || RelationsType.many2many.equals(type)) {
-
-            //得到泛型里的class类型对象
-            Class listEntityClazz = null;
-            Class<?> fieldClass = childField.getType();
-            if (fieldClass.isAssignableFrom(List.class)) {
-                Type fc = childField.getGenericType();
-//                if (fc == null) continue;
-                if (fc instanceof ParameterizedType) {
-                    ParameterizedType pt = (ParameterizedType) fc;
-                    listEntityClazz = (Class) pt.getActualTypeArguments()[0];
-                }
-            }
-
-
-            if (listEntityClazz.isAnnotationPresent(Table.class)) {
-                Table table = (Table) listEntityClazz.getAnnotation(Table.class);
-                tableName = table.name();
+            try {
+                endUnit(unit, successful);
+            } finally {
+                mDBLock.unlockWrite();
             }
         }
-
-        return tableName;
+        return rows;
     }
 
     protected long delete(String column, T entity) {
         long rows = -1;
+        boolean unit = false;
+        boolean successful = false;
         try {
-            lock.lock();
-            String where = column + " = ?";
-//            for (Field field : allFields) {
-//                Column column1 = field.getAnnotation(Column.class);
-//                if (column1.name().equals(column)) {
-//                    field.setAccessible(true);
-//                    String str = (String) field.get(entity);
-//                    String[] whereValue = {str};
-//                    Log.i( TAG, "DBImpl: : [deleteOne0000= delete from " + mTableName
-//                            + " where " + column + "= " + str);
-//                    rows = mSQLiteDatabase.delete(this.mTableName, where, whereValue);
-//                    break;
-//                }
-//            }
-
-
-            //获取关联域的操作类型和关系类型
-            String foreignKey = null;
-            String type = null;
-            //需要判断是否有关联表
-            for (Field relationsDaoField : allFields) {
-                Column column1 = relationsDaoField.getAnnotation(Column.class);
-                if (column1.name().equals(column)) {
-                    relationsDaoField.setAccessible(true);
-                    String str = (String) relationsDaoField.get(entity);
-                    String[] whereValue = {str};
-                    Log.i(TAG, "DBImpl: : [deleteOne0000= delete from " + mTableName
-                            + " where " + column + "= " + str);
-                    rows = mSQLiteDatabase.delete(this.mTableName, where, whereValue);
-//                    break;
-                }
-
-                if (!relationsDaoField.isAnnotationPresent(RelationDao.class)) {
-                    continue;
-                }
-
-                RelationDao relationDao = relationsDaoField.getAnnotation(RelationDao.class);
-                //获取外键列名
-                foreignKey = relationDao.foreignKey();
-                //关联类型
-                type = relationDao.type();
-                //设置可访问
-                relationsDaoField.setAccessible(true);
-                if (RelationsType.one2one.equals(type)) {
-                    //一对一关系
-                    //获取关联表的对象
-                    relationsDaoField.setAccessible(true);
-                    String relationsDaoTableName = "";
-                    if (relationsDaoField.getType().isAnnotationPresent(Table.class)) {
-                        Table table = relationsDaoField.getType().getAnnotation(Table.class);
-                        relationsDaoTableName = table.name();
-                    } else {
-                        return rows;
-                    }
-
-                    String where1 = foreignKey + " = ?";
-                    Field field = entity.getClass().getDeclaredField(relationDao.name());
-                    field.setAccessible(true);
-                    String str1 = (String) field.get(entity);
-                    String[] whereValue1 = {str1};
-                    Log.i(TAG, "DBImpl: : [deleteOne11111= delete from " + relationsDaoTableName
-                            + " where " + foreignKey + "= " + str1);
-                    rows = mSQLiteDatabase.delete(relationsDaoTableName, where1, whereValue1);
-
-
-                } else if (RelationsType.one2many.equals(type) || RelationsType.many2many.equals(type)) {
-                    //一对多关系
-                    //获取关联表的对象
-                    List<T> list = (List<T>) relationsDaoField.get(entity);
-
-                    if (list != null && list.size() > 0) {
-                        for (T relationsDaoEntity : list) {
-                            String relationsDaoTableName = "";
-                            if (relationsDaoEntity.getClass().isAnnotationPresent(Table.class)) {
-                                Table table = relationsDaoEntity.getClass().getAnnotation(Table.class);
-                                relationsDaoTableName = table.name();
-                                String where1 = foreignKey + " = ?";
-                                String str1 = (String) entity.getClass().getField(relationDao.name()).get(entity);
-                                String[] whereValue1 = {str1};
-                                Log.i(TAG, "DBImpl: : [deleteOne11111= delete from " + relationsDaoTableName
-                                        + " where " + foreignKey + "= " + str1);
-                                rows = mSQLiteDatabase.delete(relationsDaoTableName, where1, whereValue1);
-                            }
-                        }
-                    }
-
-                }
+            mDBLock.lockWrite();
+            invalidateQueries();
+            unit = beginUnit();
+            ColumnMeta columnMeta = mEntityMeta.getColumn(column);
+            if (columnMeta == null) {
+                Log.e(TAG, "DBImpl: delete: 列不存在 " + column);
+                return rows;
+            }
+            if (columnMeta.isPrimaryKey()) {
+                evictCachedEntity(entity);
+            } else {
+                clearCached();
             }
+            rows = deleteRow(this.mTableName, column, String.valueOf(columnMeta.get(entity)));
 
+            //需要判断是否有关联表
+            deleteRelations(entity);
+            successful = true;
         } catch (Exception e) {
             e.printStackTrace();
+            rows = -1;
         } finally {
-            lock.unlock();
+            try {
+                endUnit(unit, successful);
+            } finally {
+                mDBLock.unlockWrite();
+            }
         }
         return rows;
 
     }
 
+    /**
+     * 删除实体的关联表数据，以主表的关联值匹配关联表的外键.
+     *
+     * @param entity 主表实体
+     * @throws IllegalAccessException the illegal access exception
+     */
+    private void deleteRelations(T entity) throws IllegalAccessException {
+        for (RelationMeta relation : mEntityMeta.getRelations()) {
+            String relationsDaoTableName = relation.getChildTableName();
+            Object parentValue = relation.getParentValue(entity);
+            if (AbStrUtil.isEmpty(relationsDaoTableName) || parentValue == null) {
+                continue;
+            }
+            deleteRow(relationsDaoTableName, relation.getForeignKey(), relationArg(relation, parentValue));
+        }
+    }
+
+    /**
+     * 主表的关联值转换为关联表外键的查询参数，格式与关联表写入外键列时一致（例如Date为毫秒数、typed的boolean为1/0）.
+     *
+     * @param relation    关联
+     * @param parentValue 主表的关联值，不为null
+     * @return 参数
+     */
+    private static String relationArg(RelationMeta relation, Object parentValue) {
+        EntityMeta<?> childMeta = relation.getChildMeta();
+        ColumnMeta foreignKey = childMeta == null ? null : childMeta.getColumn(relation.getForeignKey());
+        return foreignKey == null ? String.valueOf(parentValue) : foreignKey.toArg(parentValue);
+    }
+
     /**
      * @param entity 根据主键删除单条数据.,该实体类必须制定ID
      * @return
@@ -1393,29 +1776,15 @@ public class DBImpl<T> extends AbBasicDBDao<T> {
     protected long updateAbs(T entity) {
         long row = 0;
         try {
-            lock.lock();
-            ContentValues cv = new ContentValues();
-
-            //注意返回的sql中包含主键列
-            String sql = setContentValues(entity, cv, TYPE_NOT_INCREMENT, METHOD_UPDATE);
-
-            String where = this.idColumn + " = ?";
-            int id = Integer.parseInt(cv.get(this.idColumn).toString());
-            //set sql中不能包含主键列
-//            cv.remove(this.idColumn);
-
-            Log.d(TAG, "[execSql]: execSql " + this.mTableName + " set " + sql
-                    + " where " + where.replace("?", String.valueOf(id)));
-
-            String[] whereValue = {Integer.toString(id)};
-            row = mSQLiteDatabase.update(this.mTableName, cv, where, whereValue);
-
-
+            mDBLock.lockWrite();
+            invalidateQueries();
+            evictCachedEntity(entity);
+            row = updateRow(entity, this.idColumn);
         } catch (Exception e) {
             Log.d(this.TAG, "[execSql] DB Exception.");
             e.printStackTrace();
         } finally {
-            lock.unlock();
+            mDBLock.unlockWrite();
         }
         return row;
     }
@@ -1438,452 +1807,1192 @@ public class DBImpl<T> extends AbBasicDBDao<T> {
 
     private long update(String column, T entity) {
         long rows = -1;
-//    String column="";
+        boolean unit = false;
+        boolean successful = false;
         try {
-            lock.lock();
-            ContentValues cv = new ContentValues();
-
-            //注意返回的sql中包含主键列
-            String sql = setContentValues(entity, cv, TYPE_NOT_INCREMENT, METHOD_UPDATE);
-            String where = column + " = ?";
-            //set sql中不能包含主键列
-//            cv.remove(this.idColumn);
-            String idValues = (String) cv.get(column);
-            Log.i(TAG, "DBImpl: execSql: [8888888899999]=" + idValues);
+            mDBLock.lockWrite();
+            invalidateQueries();
+            if (column.equals(this.idColumn)) {
+                evictCachedEntity(entity);
+            } else {
+                clearCached();
+            }
+            unit = beginUnit();
+            rows = updateRow(entity, column);
 
-            String[] whereValue = {idValues};
-            rows = mSQLiteDatabase.update(this.mTableName, cv, where, whereValue);
+            //需要判断是否有关联表
+            updateRelations(entity);
+            successful = true;
+        } catch (Exception e) {
+            e.printStackTrace();
+            rows = -1;
+        } finally {
+            try {
+                endUnit(unit, successful);
+            } finally {
+                mDBLock.unlockWrite();
+            }
+        }
+        return rows;
+    }
 
+    /**
+     * 更新实体的关联表数据.
+     * 一对一关系按关联表的外键更新，一对多关系按关联对象各自的主键更新.
+     *
+     * @param entity 主表实体
+     * @throws IllegalAccessException the illegal access exception
+     */
+    private void updateRelations(T entity) throws IllegalAccessException {
+        for (RelationMeta relation : mEntityMeta.getRelations()) {
+            String relationsDaoTableName = relation.getChildTableName();
+            Object value = relation.getLoadedValue(entity);
+            if (AbStrUtil.isEmpty(relationsDaoTableName) || value == null) {
+                continue;
+            }
+            List<?> children = relation.isMany() ? (List<?>) value : Collections.singletonList(value);
+            for (Object obj : children) {
+                String whereColumn = relation.getForeignKey();
+                if (relation.isMany()) {
+                    ColumnMeta childId = EntityMeta.of(obj.getClass()).getIdColumn();
+                    if (childId == null) {
+                        continue;
+                    }
+                    whereColumn = childId.getName();
+                }
+                updateRow(obj, whereColumn);
+            }
+        }
+    }
 
-            //获取关联域的操作类型和关系类型
-            String foreignKey = null;
-            String type = null;
-            //需要判断是否有关联表
-            for (Field relationsDaoField : allFields) {
-                if (!relationsDaoField.isAnnotationPresent(RelationDao.class)) {
-                    continue;
+    /**
+     * @param entityList 数据列表,ID主键
+     * @return
+     */
+    @Override
+    protected long updateListAbs(List<T> entityList) {
+        long rows = 0;
+        boolean unit = false;
+        boolean successful = false;
+        try {
+            mDBLock.lockWrite();
+            invalidateQueries();
+            unit = beginUnit();
+            // 按要写入的列分组，同一组共用一个预编译语句
+            String[] whereColumns = {this.idColumn};
+            Map<String, List<T>> groups = new LinkedHashMap<String, List<T>>();
+            Map<T, int[]> columnsOf = new IdentityHashMap<T, int[]>();
+            for (T entity : entityList) {
+                int[] columns = updateColumns(entity, whereColumns);
+                String key = Arrays.toString(columns);
+                List<T> group = groups.get(key);
+                if (group == null) {
+                    group = new ArrayList<T>();
+                    groups.put(key, group);
+                }
+                group.add(entity);
+                columnsOf.put(entity, columns);
+            }
+            for (List<T> group : groups.values()) {
+                for (T entity : group) {
+                    evictCachedEntity(entity);
+                    rows += updateRow(entity, whereColumns, columnsOf.get(entity));
                 }
+            }
 
-                RelationDao relationDao = relationsDaoField.getAnnotation(RelationDao.class);
-                //获取外键列名
-                foreignKey = relationDao.foreignKey();
-                //关联类型
-                type = relationDao.type();
-                //设置可访问
-                relationsDaoField.setAccessible(true);
-                if (RelationsType.one2one.equals(type)) {
-                    //一对一关系
-                    //获取关联表的对象
-                    relationsDaoField.setAccessible(true);
-                    String relationsDaoTableName = "";
-                    if (relationsDaoField.getType().isAnnotationPresent(Table.class)) {
-                        Table table = relationsDaoField.getType().getAnnotation(Table.class);
-                        relationsDaoTableName = table.name();
-                    } else {
-                        return rows;
-                    }
+            //需要判断是否有关联表
+            for (T entity : entityList) {
+                updateRelations(entity);
+            }
+            successful = true;
+        } catch (Exception e) {
+            Log.d(this.TAG, "[execSql] DB Exception.");
+            e.printStackTrace();
+            rows = -1;
+        } finally {
+            try {
+                endUnit(unit, successful);
+            } finally {
+                mDBLock.unlockWrite();
+            }
+        }
 
-                    String where1 = foreignKey + " = ?";
-                    ContentValues cv1 = new ContentValues();
-                    Object obj = relationsDaoField.get(entity);
-                    if (obj == null) {
-                        return rows;
-                    }
-                    //注意返回的sql中包含主键列
-                    String sql1 = setContentValues(obj, cv1, TYPE_NOT_INCREMENT, METHOD_UPDATE);
-                    //set sql中不能包含主键列
-                    String idValues1 = (String) cv1.get(foreignKey);
-
-                    String[] whereValue11 = {idValues1};
-                    Log.i(TAG, "DBImpl: execSql: " +
-                            "[sql10000]=" + sql1 + "     idValues1=" + idValues1);
-                    rows = mSQLiteDatabase.update(relationsDaoTableName, cv1, where1, whereValue11);
-
-
-                } else if (RelationsType.one2many.equals(type) || RelationsType.many2many.equals(type)) {
-                    //一对多关系
-                    //获取关联表的对象
-                    List<T> list = (List<T>) relationsDaoField.get(entity);
-
-                    if (list != null && list.size() > 0) {
-                        for (T relationsDaoEntity : list) {
-                            String relationsDaoTableName = "";
-                            if (relationsDaoEntity.getClass().isAnnotationPresent(Table.class)) {
-                                Table table = relationsDaoEntity.getClass().getAnnotation(Table.class);
-                                relationsDaoTableName = table.name();
-
-                                String where1 = foreignKey + " = ?";
-                                ContentValues cv1 = new ContentValues();
-                                Object obj = relationsDaoField.get(entity);
-                                if (obj == null) {
-                                    return rows;
-                                }
-                                //注意返回的sql中包含主键列
-                                String sql1 = setContentValues(obj, cv1, TYPE_NOT_INCREMENT, METHOD_UPDATE);
-                                //set sql中不能包含主键列
-                                String idValues1 = (String) cv1.get(foreignKey);
-
-                                String[] whereValue11 = {idValues1};
-                                Log.i(TAG, "DBImpl: execSql: " +
-                                        "[sql10000]=" + sql1 + "     idValues1=" + idValues1);
-                                rows = mSQLiteDatabase.update(relationsDaoTableName, cv1, where1, whereValue11);
-
-                            }
-                        }
-                    }
+        return rows;
+    }
 
-                }
+//    /**
+//     * 描述：更新列表
+//     */
+//    @Override
+//    public long updateListIdDao(List<T> entityList) {
+//        String sql = null;
+//        long rows = -1;
+//        try {
+//            lock.lock();
+//            for (T entity : entityList) {
+//                ContentValues cv = new ContentValues();
+//
+//                sql = setContentValues(entity, cv, TYPE_NOT_INCREMENT,
+//                        METHOD_UPDATE);
+//
+//                String where = this.idColumn + " = ?";
+//                String idValues = (String) cv.get(this.idColumn);
+////                int id = Integer.parseInt(cv.get(this.idColumn).toString());
+//
+////                cv.remove(this.idColumn);
+//
+//                Log.d(TAG, "[execSql]: execSql " + this.mTableName + " set " + sql
+//                        + " where " + where.replace("?", idValues));
+//
+//                String[] whereValue = {idValues};
+//                mSQLiteDatabase.execSql(this.mTableName, cv, where, whereValue);
+//
+//
+//                //获取关联域的操作类型和关系类型
+//                String foreignKey = null;
+//                String type = null;
+//                //需要判断是否有关联表
+//                for (Field relationsDaoField : allFields) {
+//                    if (!relationsDaoField.isAnnotationPresent(RelationDao.class)) {
+//                        continue;
+//                    }
+//
+//                    RelationDao relationDao = relationsDaoField.getAnnotation(RelationDao.class);
+//                    //获取外键列名
+//                    foreignKey = relationDao.foreignKey();
+//                    //关联类型
+//                    type = relationDao.type();
+//                    //设置可访问
+//                    relationsDaoField.setAccessible(true);
+//                    if (RelationsType.one2one.equals(type)) {
+//                        //一对一关系
+//                        //获取关联表的对象
+//                        relationsDaoField.setAccessible(true);
+//                        String relationsDaoTableName = "";
+//                        if (relationsDaoField.getType().isAnnotationPresent(Table.class)) {
+//                            Table table = relationsDaoField.getType().getAnnotation(Table.class);
+//                            relationsDaoTableName = table.name();
+//                        } else {
+//                            return rows;
+//                        }
+//
+//                        String where1 = foreignKey + " = ?";
+//                        ContentValues cv1 = new ContentValues();
+//                        Object obj = relationsDaoField.get(entity);
+//                        if (obj == null) {
+//                            return rows;
+//                        }
+//                        //注意返回的sql中包含主键列
+//                        String sql1 = setContentValues(obj, cv1, TYPE_NOT_INCREMENT, METHOD_UPDATE);
+//                        //set sql中不能包含主键列
+//                        String idValues1 = (String) cv1.get(foreignKey);
+//
+//                        String[] whereValue11 = {idValues1};
+//                        Log.i( TAG, "DBImpl: execSql: " +
+//                                "[sql10000]=" + sql1 + "     idValues1=" + idValues1);
+//                        rows = mSQLiteDatabase.execSql(relationsDaoTableName, cv1, where1, whereValue11);
+//
+//
+//                    } else if (RelationsType.one2many.equals(type) || RelationsType.many2many.equals(type)) {
+//                        //一对多关系
+//                        //获取关联表的对象
+//                        List<T> list = (List<T>) relationsDaoField.get(entity);
+//
+//                        if (list != null && list.size() > 0) {
+//                            for (T relationsDaoEntity : list) {
+//                                String relationsDaoTableName = "";
+//                                if (relationsDaoEntity.getClass().isAnnotationPresent(Table.class)) {
+//                                    Table table = relationsDaoEntity.getClass().getAnnotation(Table.class);
+//                                    relationsDaoTableName = table.name();
+//
+//                                    String where1 = foreignKey + " = ?";
+//                                    ContentValues cv1 = new ContentValues();
+//                                    Object obj = relationsDaoField.get(entity);
+//                                    if (obj == null) {
+//                                        return rows;
+//                                    }
+//                                    //注意返回的sql中包含主键列
+//                                    String sql1 = setContentValues(obj, cv1, TYPE_NOT_INCREMENT, METHOD_UPDATE);
+//                                    //set sql中不能包含主键列
+//                                    String idValues1 = (String) cv1.get(foreignKey);
+//
+//                                    String[] whereValue11 = {idValues1};
+//                                    Log.i( TAG, "DBImpl: execSql: " +
+//                                            "[sql10000]=" + sql1 + "     idValues1=" + idValues1);
+//                                    rows = mSQLiteDatabase.execSql(relationsDaoTableName, cv1, where1, whereValue11);
+//
+//                                }
+//                            }
+//                        }
+//
+//                    }
+//                }
+//
+//            }
+//        } catch (Exception e) {
+//            Log.d(this.TAG, "[execSql] DB Exception.");
+//            e.printStackTrace();
+//        } finally {
+//            lock.unlock();
+//        }
+//
+//        return rows;
+//    }
+
+    /**
+     * 插入一行数据，只写入值不为null的列.
+     * 通过实体的{@link ValueBinder}直接绑定到预编译语句.
+     *
+     * @param entity 映射实体，可以是关联表的实体
+     * @param autoId 整数主键为null或0时是否由数据库生成，生成的值会写回实体
+     * @return 插入的行号
+     * @throws SQLException 插入失败，所在的事务单元会回滚
+     */
+    private long insertRow(Object entity, boolean autoId) throws IllegalAccessException {
+        long row = executeInsert(entity, autoId, "INSERT");
+        if (row == -1) {
+            throw new SQLException("[insert] into " + EntityMeta.of(entity.getClass()).getTableName() + " failed");
+        }
+        return row;
+    }
+
+    /**
+     * 执行插入语句.
+     *
+     * @param entity 映射实体
+     * @param autoId 整数主键为null或0时是否由数据库生成，生成的值会写回实体
+     * @param verb   INSERT、INSERT OR IGNORE或INSERT OR REPLACE
+     * @return 插入的行号，没有插入时为-1
+     * @throws IllegalAccessException the illegal access exception
+     */
+    private long executeInsert(Object entity, boolean autoId, String verb) throws IllegalAccessException {
+        EntityMeta<?> meta = EntityMeta.of(entity.getClass());
+        ValueBinder<Object> binder = (ValueBinder<Object>) meta.getValueBinder();
+        ColumnMeta generatedId = autoId ? generatedIdColumn(meta, entity) : null;
+        int[] columns = nonNullColumns(binder, entity, meta.getColumnCount(),
+                generatedId == null ? NO_COLUMNS : new ColumnMeta[]{generatedId});
+
+        String key = statementKey(verb, meta.getTableName(), columns);
+        SQLiteStatement statement = mStatementCache.acquire(mSQLiteDatabase, key);
+        if (statement == null) {
+            StringBuilder sql = new StringBuilder(verb).append(" INTO ").append(meta.getTableName()).append(" (");
+            for (int i = 0; i < columns.length; i++) {
+                sql.append(i == 0 ? "" : ",").append(meta.getColumn(columns[i]).getName());
+            }
+            sql.append(") VALUES (");
+            for (int i = 0; i < columns.length; i++) {
+                sql.append(i == 0 ? "?" : ",?");
+            }
+            sql.append(")");
+            statement = mStatementCache.compile(mSQLiteDatabase, key, sql.toString());
+        }
+
+        for (int i = 0; i < columns.length; i++) {
+            binder.bind(statement, i + 1, entity, columns[i]);
+        }
+        long row = statement.executeInsert();
+        if (generatedId != null && row != -1) {
+            setId(generatedId, entity, row);
+        }
+        return row;
+    }
+
+    /**
+     * 需要由数据库生成的主键列：整数主键且值为null或0.
+     *
+     * @param meta   实体的元数据
+     * @param entity 映射实体
+     * @return 主键列，不需要生成时为null
+     * @throws IllegalAccessException the illegal access exception
+     */
+    private ColumnMeta generatedIdColumn(EntityMeta<?> meta, Object entity) throws IllegalAccessException {
+        ColumnMeta id = meta.getIdColumn();
+        if (id == null || !id.isIntegral()) {
+            return null;
+        }
+        Object value = id.get(entity);
+        return value == null || ((Number) value).longValue() == 0 ? id : null;
+    }
+
+    /**
+     * 把生成的rowid写回实体的主键，事务回滚时恢复.
+     */
+    private void setId(ColumnMeta id, Object entity, long rowId) throws IllegalAccessException {
+        Class<?> type = id.getFieldType();
+        Object value;
+        if (type == Integer.TYPE || type == Integer.class) {
+            value = (int) rowId;
+        } else if (type == Short.TYPE || type == Short.class) {
+            value = (short) rowId;
+        } else {
+            value = rowId;
+        }
+        mTransactionState.writeBack(entity, id.getField(), value);
+    }
+
+    /**
+     * 按某一列更新一行数据，只写入值不为null的列，不会写入条件列.
+     *
+     * @param entity      映射实体，可以是关联表的实体
+     * @param whereColumn 条件列，值取自实体
+     * @return 修改的行数
+     */
+    private long updateRow(Object entity, String whereColumn) throws IllegalAccessException {
+        return updateRow(entity, new String[]{whereColumn});
+    }
+
+    /**
+     * 按一组列更新一行数据，只写入值不为null的列，不会写入条件列.
+     *
+     * @param entity       映射实体，可以是关联表的实体
+     * @param whereColumns 条件列，值取自实体，条件之间为AND
+     * @return 修改的行数
+     * @throws IllegalAccessException the illegal access exception
+     */
+    private long updateRow(Object entity, String[] whereColumns) throws IllegalAccessException {
+        return updateRow(entity, whereColumns, updateColumns(entity, whereColumns));
+    }
+
+    /**
+     * 需要写入的列：值不为null的非条件列，开启修改跟踪且有读取记录时只取修改过的列.
+     *
+     * @param entity       映射实体
+     * @param whereColumns 条件列
+     * @return 列编号，条件列不存在或为空时为null
+     * @throws IllegalAccessException the illegal access exception
+     */
+    private int[] updateColumns(Object entity, String[] whereColumns) throws IllegalAccessException {
+        EntityMeta<?> meta = EntityMeta.of(entity.getClass());
+        ValueBinder<Object> binder = (ValueBinder<Object>) meta.getValueBinder();
+        ColumnMeta[] where = new ColumnMeta[whereColumns.length];
+        if (whereIndexes(meta, binder, entity, whereColumns, where) == null) {
+            return null;
+        }
+        int[] columns = nonNullColumns(binder, entity, meta.getColumnCount(), where);
+        EntitySnapshots snapshots = mSnapshots;
+        Object[] snapshot = snapshots == null ? null : snapshots.get(entity);
+        if (snapshot == null) {
+            return columns;
+        }
+        int size = 0;
+        for (int column : columns) {
+            if (EntitySnapshots.changed(snapshot[column], meta.getColumn(column).get(entity))) {
+                columns[size++] = column;
+            }
+        }
+        return size == columns.length ? columns : Arrays.copyOf(columns, size);
+    }
+
+    /**
+     * 按一组列更新一行数据的指定列.
+     *
+     * @param entity       映射实体
+     * @param whereColumns 条件列
+     * @param columns      {@link #updateColumns(Object, String[])}的结果
+     * @return 修改的行数，没有需要写入的列时按行是否存在返回1或0
+     * @throws IllegalAccessException the illegal access exception
+     */
+    private long updateRow(Object entity, String[] whereColumns, int[] columns) throws IllegalAccessException {
+        if (columns == null) {
+            return 0;
+        }
+        EntityMeta<?> meta = EntityMeta.of(entity.getClass());
+        ValueBinder<Object> binder = (ValueBinder<Object>) meta.getValueBinder();
+        EntitySnapshots snapshots = mSnapshots;
+        if (columns.length == 0) {
+            // 与写入相同的值一样，行存在时算作修改了一行
+            return snapshots != null && snapshots.get(entity) != null && existsRow(entity, whereColumns) ? 1 : 0;
+        }
+        int[] whereIndexes = whereIndexes(meta, binder, entity, whereColumns, new ColumnMeta[whereColumns.length]);
+
+        String key = statementKey("UPDATE", meta.getTableName(), columns) + "#" + Arrays.toString(whereIndexes);
+        SQLiteStatement statement = mStatementCache.acquire(mSQLiteDatabase, key);
+        if (statement == null) {
+            StringBuilder sql = new StringBuilder("UPDATE ").append(meta.getTableName()).append(" SET ");
+            for (int i = 0; i < columns.length; i++) {
+                sql.append(i == 0 ? "" : ",").append(meta.getColumn(columns[i]).getName()).append("=?");
+            }
+            appendWhere(sql, whereColumns);
+            statement = mStatementCache.compile(mSQLiteDatabase, key, sql.toString());
+        }
+
+        for (int i = 0; i < columns.length; i++) {
+            binder.bind(statement, i + 1, entity, columns[i]);
+        }
+        for (int i = 0; i < whereIndexes.length; i++) {
+            binder.bind(statement, columns.length + i + 1, entity, whereIndexes[i]);
+        }
+        long rows = statement.executeUpdateDelete();
+        if (rows > 0 && snapshots != null) {
+            snapshots.take(entity);
+        }
+        return rows;
+    }
+
+    /**
+     * 条件列的编号.
+     *
+     * @param meta         实体的元数据
+     * @param binder       实体的绑定器
+     * @param entity       映射实体
+     * @param whereColumns 条件列
+     * @param where        输出条件列的元数据
+     * @return 列编号，有列不存在或值为null时为null
+     */
+    private int[] whereIndexes(EntityMeta<?> meta, ValueBinder<Object> binder, Object entity,
+                               String[] whereColumns, ColumnMeta[] where) {
+        int[] whereIndexes = new int[whereColumns.length];
+        for (int i = 0; i < whereColumns.length; i++) {
+            where[i] = meta.getColumn(whereColumns[i]);
+            whereIndexes[i] = where[i] == null ? -1 : meta.getColumns().indexOf(where[i]);
+            if (whereIndexes[i] < 0 || binder.isNull(entity, whereIndexes[i])) {
+                Log.e(TAG, "[update] " + meta.getTableName() + " 条件列" + whereColumns[i] + "不存在或为空");
+                return null;
+            }
+        }
+        return whereIndexes;
+    }
+
+    private static void appendWhere(StringBuilder sql, String[] whereColumns) {
+        sql.append(" WHERE ");
+        for (int i = 0; i < whereColumns.length; i++) {
+            sql.append(i == 0 ? "" : " AND ").append(whereColumns[i]).append(" = ?");
+        }
+    }
+
+    /**
+     * 是否已存在条件列的值与实体相同的行.
+     *
+     * @param entity       映射实体
+     * @param whereColumns 条件列，值均不为null
+     * @return 是否存在
+     */
+    private boolean existsRow(Object entity, String[] whereColumns) {
+        EntityMeta<?> meta = EntityMeta.of(entity.getClass());
+        ValueBinder<Object> binder = (ValueBinder<Object>) meta.getValueBinder();
+        int[] whereIndexes = whereIndexes(meta, binder, entity, whereColumns, new ColumnMeta[whereColumns.length]);
+        if (whereIndexes == null) {
+            return false;
+        }
+        String key = "EXISTS:" + meta.getTableName() + "#" + Arrays.toString(whereIndexes);
+        SQLiteStatement statement = mStatementCache.acquire(mSQLiteDatabase, key);
+        if (statement == null) {
+            StringBuilder sql = new StringBuilder("SELECT COUNT(*) FROM ").append(meta.getTableName());
+            appendWhere(sql, whereColumns);
+            statement = mStatementCache.compile(mSQLiteDatabase, key, sql.toString());
+        }
+        for (int i = 0; i < whereIndexes.length; i++) {
+            binder.bind(statement, i + 1, entity, whereIndexes[i]);
+        }
+        return statement.simpleQueryForLong() > 0;
+    }
+
+    /**
+     * 判断实体是否已存在时使用的唯一键：已指定值的主键，或值都不为null的第一个唯一索引.
+     *
+     * @param entity 映射实体
+     * @return 唯一键的列，没有可用的唯一键时为null，此时只能插入
+     * @throws IllegalAccessException the illegal access exception
+     */
+    private String[] uniqueKey(T entity) throws IllegalAccessException {
+        ColumnMeta id = mEntityMeta.getIdColumn();
+        if (id != null && id.get(entity) != null && generatedIdColumn(mEntityMeta, entity) == null) {
+            return new String[]{id.getName()};
+        }
+        for (IndexMeta index : mEntityMeta.getIndexes()) {
+            if (!index.isUnique()) {
+                continue;
+            }
+            String[] columns = index.getColumns();
+            boolean complete = true;
+            for (String column : columns) {
+                ColumnMeta columnMeta = mEntityMeta.getColumn(column);
+                complete &= columnMeta != null && columnMeta.get(entity) != null;
+            }
+            if (complete) {
+                return columns;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 插入或按唯一键处理已存在的一行，只处理本表，不写关联表.
+     *
+     * @param entity   映射实体
+     * @param strategy 已存在时的处理方式
+     * @return 结果
+     * @throws IllegalAccessException the illegal access exception
+     */
+    private UpsertOutcome upsertRow(T entity, ConflictStrategy strategy) throws IllegalAccessException {
+        String[] key = uniqueKey(entity);
+        ColumnMeta id = mEntityMeta.getIdColumn();
+        if (key != null && id != null && !contains(key, id.getName())
+                && (generatedIdColumn(mEntityMeta, entity) != null || id.get(entity) == null)) {
+            // 按唯一索引匹配且主键未指定：沿用已有行的主键并写回实体，之后按主键处理，
+            // UPDATE不会把主键改写为0，REPLACE后关联表仍按原主键关联
+            if (!adoptExistingId(entity, key)) {
+                key = null;
+            } else {
+                key = new String[]{id.getName()};
+            }
+        }
+        switch (strategy) {
+            case IGNORE:
+                return executeInsert(entity, true, "INSERT OR IGNORE") == -1
+                        ? UpsertOutcome.IGNORED : UpsertOutcome.INSERTED;
+            case REPLACE: {
+                boolean existed = key != null && existsRow(entity, key);
+                if (executeInsert(entity, true, "INSERT OR REPLACE") == -1) {
+                    throw new SQLException("[upsert] into " + mTableName + " failed");
+                }
+                return existed ? UpsertOutcome.UPDATED : UpsertOutcome.INSERTED;
+            }
+            default:
+                if (key != null && updateRow(entity, key) > 0) {
+                    return UpsertOutcome.UPDATED;
+                }
+                insertRow(entity, true);
+                return UpsertOutcome.INSERTED;
+        }
+    }
+
+    /**
+     * 查询唯一键匹配的已有行的主键并写回实体.
+     *
+     * @param entity 映射实体，主键未指定
+     * @param key    唯一索引的列，值均不为null
+     * @return 是否存在匹配的行
+     * @throws IllegalAccessException the illegal access exception
+     */
+    private boolean adoptExistingId(T entity, String[] key) throws IllegalAccessException {
+        ColumnMeta id = mEntityMeta.getIdColumn();
+        ValueBinder<Object> binder = (ValueBinder<Object>) mEntityMeta.getValueBinder();
+        int[] whereIndexes = whereIndexes(mEntityMeta, binder, entity, key, new ColumnMeta[key.length]);
+        if (whereIndexes == null) {
+            return false;
+        }
+        String statementKey = "EXISTING_ID:" + mTableName + "#" + Arrays.toString(whereIndexes);
+        SQLiteStatement statement = mStatementCache.acquire(mSQLiteDatabase, statementKey);
+        if (statement == null) {
+            StringBuilder sql = new StringBuilder("SELECT ").append(id.getName()).append(" FROM ").append(mTableName);
+            appendWhere(sql, key);
+            sql.append(" LIMIT 1");
+            statement = mStatementCache.compile(mSQLiteDatabase, statementKey, sql.toString());
+        }
+        for (int i = 0; i < whereIndexes.length; i++) {
+            binder.bind(statement, i + 1, entity, whereIndexes[i]);
+        }
+        String existing;
+        try {
+            existing = statement.simpleQueryForString();
+        } catch (SQLiteDoneException e) {
+            return false;
+        }
+        if (existing == null) {
+            // 已有行的主键为NULL，无法按主键处理
+            throw new SQLException("[upsert] " + mTableName + " 已有行的主键" + id.getName() + "为空");
+        }
+        if (id.isIntegral()) {
+            setId(id, entity, Long.parseLong(existing));
+        } else if (id.getFieldType() == String.class) {
+            mTransactionState.writeBack(entity, id.getField(), existing);
+        } else {
+            throw new SQLException("[upsert] " + mTableName + " 不支持的主键类型" + id.getFieldType().getName());
+        }
+        return true;
+    }
+
+    private static boolean contains(String[] values, String value) {
+        for (String v : values) {
+            if (v.equals(value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 按某一列删除数据.
+     *
+     * @param table  表名
+     * @param column 条件列
+     * @param value  条件值
+     * @return 删除的行数
+     */
+    private long deleteRow(String table, String column, String value) {
+        String key = "DELETE:" + table + ":" + column;
+        SQLiteStatement statement = mStatementCache.acquire(mSQLiteDatabase, key);
+        if (statement == null) {
+            statement = mStatementCache.compile(mSQLiteDatabase, key,
+                    "DELETE FROM " + table + " WHERE " + column + " = ?");
+        }
+        statement.bindString(1, value);
+        return statement.executeUpdateDelete();
+    }
+
+    /**
+     * 按列的值分批删除，每批不超过{@link #MAX_IN_VARIABLES}个参数，同样大小的批次复用预编译语句.
+     *
+     * @return 删除的行数
+     */
+    private long deleteIn(String table, String column, List<String> values) {
+        long rows = 0;
+        for (int from = 0; from < values.size(); from += MAX_IN_VARIABLES) {
+            List<String> chunk = values.subList(from, Math.min(from + MAX_IN_VARIABLES, values.size()));
+            String key = "DELETE_IN:" + table + ":" + column + "#" + chunk.size();
+            SQLiteStatement statement = mStatementCache.acquire(mSQLiteDatabase, key);
+            if (statement == null) {
+                statement = mStatementCache.compile(mSQLiteDatabase, key,
+                        "DELETE FROM " + table + " WHERE " + column + " IN (" + placeholders(chunk.size()) + ")");
+            }
+            for (int i = 0; i < chunk.size(); i++) {
+                statement.bindString(i + 1, chunk.get(i));
+            }
+            rows += statement.executeUpdateDelete();
+        }
+        return rows;
+    }
+
+    /**
+     * 分批查询主键对应行的某列，去重并跳过NULL.
+     */
+    private List<String> queryColumnIn(String column, List<String> ids) {
+        Set<String> values = new LinkedHashSet<String>();
+        for (int from = 0; from < ids.size(); from += MAX_IN_VARIABLES) {
+            List<String> chunk = ids.subList(from, Math.min(from + MAX_IN_VARIABLES, ids.size()));
+            Cursor cursor = null;
+            try {
+                cursor = mSQLiteDatabase.rawQuery("SELECT DISTINCT " + column + " FROM " + this.mTableName
+                        + " WHERE " + this.idColumn + " IN (" + placeholders(chunk.size()) + ")",
+                        chunk.toArray(new String[chunk.size()]));
+                while (cursor.moveToNext()) {
+                    if (!cursor.isNull(0)) {
+                        values.add(cursor.getString(0));
+                    }
+                }
+            } finally {
+                closeCursor(cursor);
+            }
+        }
+        return new ArrayList<String>(values);
+    }
+
+    private static String placeholders(int count) {
+        StringBuilder s = new StringBuilder(count * 2);
+        for (int i = 0; i < count; i++) {
+            s.append(i == 0 ? "?" : ",?");
+        }
+        return s.toString();
+    }
+
+    /**
+     * 预编译语句在缓存中的key.
+     *
+     * @param operation 操作类型
+     * @param table     表名
+     * @param columns   参与的列编号
+     * @return key
+     */
+    private static String statementKey(String operation, String table, int[] columns) {
+        StringBuilder key = new StringBuilder(operation.length() + table.length() + columns.length * 3 + 2);
+        key.append(operation).append(':').append(table).append(':');
+        for (int column : columns) {
+            key.append(column).append(',');
+        }
+        return key.toString();
+    }
+
+    /**
+     * 值不为null的列的编号.
+     *
+     * @param binder  实体的绑定器
+     * @param entity  映射实体
+     * @param count   列数
+     * @param exclude 需要排除的列
+     * @return 列编号
+     */
+    private int[] nonNullColumns(ValueBinder<Object> binder, Object entity, int count, ColumnMeta[] exclude) {
+        int[] columns = new int[count];
+        int size = 0;
+        EntityMeta<?> meta = EntityMeta.of(entity.getClass());
+        for (int i = 0; i < count; i++) {
+            if (!binder.isNull(entity, i) && !contains(exclude, meta.getColumn(i))) {
+                columns[size++] = i;
+            }
+        }
+        return size == count ? columns : Arrays.copyOf(columns, size);
+    }
+
+    private static boolean contains(ColumnMeta[] columns, ColumnMeta column) {
+        for (ColumnMeta c : columns) {
+            if (c == column) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 描述：查询为map列表.
+     *
+     * @param sql           the sql
+     * @param selectionArgs the selection args
+     * @return the list
+     */
+    @Override
+    protected List<Map<String, String>> queryMapListAbs(String sql, String[] selectionArgs) {
+        Cursor cursor = null;
+        List<Map<String, String>> retList = new ArrayList<Map<String, String>>();
+        boolean readLocked = false;
+        try {
+            readLocked = mDBLock.lockRead();
+            Log.d(TAG, "[queryMapList]: " + getLogSql(sql, selectionArgs));
+            cursor = mSQLiteDatabase.rawQuery(sql, selectionArgs);
+            String[] keys = null;
+            int[] indexes = null;
+            while (cursor.moveToNext()) {
+                if (keys == null) {
+                    // 列名与位置每次查询只解析一次
+                    String[] columnNames = cursor.getColumnNames();
+                    keys = new String[columnNames.length];
+                    indexes = new int[columnNames.length];
+                    for (int i = 0; i < columnNames.length; i++) {
+                        keys[i] = columnNames[i].toLowerCase();
+                        indexes[i] = cursor.getColumnIndex(columnNames[i]);
+                    }
+                }
+                Map<String, String> map = new HashMap<String, String>(keys.length * 4 / 3 + 1);
+                for (int i = 0; i < keys.length; i++) {
+                    if (indexes[i] >= 0) {
+                        map.put(keys[i], cursor.getString(indexes[i]));
+                    }
+                }
+                retList.add(map);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            Log.e(TAG, "[queryMapList] from DB exception");
+        } finally {
+            closeCursor(cursor);
+            mDBLock.unlockRead(readLocked);
+        }
+        return retList;
+    }
+
+
+    @Override
+    protected long[] queryLongColumnAbs(String column, String where, String[] selectionArgs, String orderBy) {
+        return (long[]) queryColumn(column, where, selectionArgs, orderBy, Cursor.FIELD_TYPE_INTEGER);
+    }
+
+    @Override
+    protected double[] queryDoubleColumnAbs(String column, String where, String[] selectionArgs, String orderBy) {
+        return (double[]) queryColumn(column, where, selectionArgs, orderBy, Cursor.FIELD_TYPE_FLOAT);
+    }
+
+    @Override
+    protected String[] queryStringColumnAbs(String column, String where, String[] selectionArgs, String orderBy) {
+        return (String[]) queryColumn(column, where, selectionArgs, orderBy, Cursor.FIELD_TYPE_STRING);
+    }
+
+    /**
+     * 查询一列，直接读到数组，每次查询只分配一个数组.
+     *
+     * @param column        列名
+     * @param where         the selection
+     * @param selectionArgs the selection args
+     * @param orderBy       the order by
+     * @param type          数组类型，{@link Cursor#FIELD_TYPE_INTEGER}、{@link Cursor#FIELD_TYPE_FLOAT}
+     *                      或{@link Cursor#FIELD_TYPE_STRING}
+     * @return long[]、double[]或String[]，出错时为空数组
+     */
+    private Object queryColumn(String column, String where, String[] selectionArgs, String orderBy, int type) {
+        Cursor cursor = null;
+        boolean readLocked = false;
+        try {
+            readLocked = mDBLock.lockRead();
+            Log.d(TAG, "[queryColumn] " + column + " from " + this.mTableName + " where "
+                    + where + Arrays.toString(selectionArgs) + " order by " + orderBy);
+            cursor = mSQLiteDatabase.query(this.mTableName, new String[]{column}, where,
+                    selectionArgs, null, null, orderBy);
+            int count = cursor.getCount();
+            if (type == Cursor.FIELD_TYPE_INTEGER) {
+                long[] values = new long[count];
+                for (int i = 0; cursor.moveToNext(); i++) {
+                    values[i] = cursor.getLong(0);
+                }
+                return values;
+            } else if (type == Cursor.FIELD_TYPE_FLOAT) {
+                double[] values = new double[count];
+                for (int i = 0; cursor.moveToNext(); i++) {
+                    values[i] = cursor.getDouble(0);
+                }
+                return values;
+            } else {
+                String[] values = new String[count];
+                for (int i = 0; cursor.moveToNext(); i++) {
+                    values[i] = cursor.getString(0);
+                }
+                return values;
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "[queryColumn] from DB exception");
+            e.printStackTrace();
+        } finally {
+            closeCursor(cursor);
+            mDBLock.unlockRead(readLocked);
+        }
+        if (type == Cursor.FIELD_TYPE_INTEGER) {
+            return new long[0];
+        }
+        return type == Cursor.FIELD_TYPE_FLOAT ? new double[0] : new String[0];
+    }
+
+    /**
+     * 描述：执行{@link Query}，返回实体列表，同queryRaw使用查询缓存并读取关联表.
+     *
+     * @param query 查询
+     * @return the list
+     */
+    @Override
+    protected List<T> queryAbs(Query<T> query) {
+        return queryRawAbs(query.getSql(), query.getArgs(), query.getEntityClass());
+    }
+
+    /**
+     * 描述：执行只返回一个值的{@link Query}，例如聚合查询，语句按sql预编译并缓存.
+     *
+     * @param query 查询
+     * @return 第一行第一列，没有结果、为NULL或不是数字时为0
+     */
+    @Override
+    protected long queryForLongAbs(Query<T> query) {
+        String value = queryForStringAbs(query);
+        if (value == null) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            // 小数或文本
+        }
+        try {
+            return (long) Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            Log.w(TAG, "[queryForLong] 不是数字: " + value);
+            return 0;
+        }
+    }
+
+    /**
+     * 描述：执行只返回一个值的{@link Query}，语句按sql预编译并缓存.
+     *
+     * @param query 查询
+     * @return 第一行第一列，没有结果或为NULL时为null
+     */
+    @Override
+    protected String queryForStringAbs(Query<T> query) {
+        return simpleQueryForString("queryForString", query.getSql(), query.getArgs());
+    }
+
+    /**
+     * 在读锁内执行只返回一个值的查询，语句按sql预编译并缓存.
+     *
+     * @param operation 日志中的操作名
+     * @return 第一行第一列，没有结果、为NULL或出错时为null
+     */
+    private String simpleQueryForString(String operation, String sql, String[] args) {
+        boolean readLocked = false;
+        try {
+            readLocked = mDBLock.lockRead();
+            Log.d(TAG, "[" + operation + "]: " + getLogSql(sql, args));
+            synchronized (mQueryStatements) {
+                SQLiteStatement statement = mQueryStatements.acquire(mSQLiteDatabase, sql);
+                if (statement == null) {
+                    statement = mQueryStatements.compile(mSQLiteDatabase, sql, sql);
+                }
+                statement.bindAllArgsAsStrings(args);
+                return statement.simpleQueryForString();
+            }
+        } catch (SQLiteDoneException e) {
+            return null;
+        } catch (Exception e) {
+            Log.e(TAG, "[" + operation + "] from DB exception");
+            e.printStackTrace();
+        } finally {
+            mDBLock.unlockRead(readLocked);
+        }
+        return null;
+    }
+
+    /**
+     * 描述：在数据库中计算一列的聚合值，条件同queryList(where, selectionArgs).
+     * SUM使用TOTAL，没有行时为0；其它函数没有非NULL的值时为NaN.
+     *
+     * @param aggregate     聚合函数
+     * @param column        列名，COUNT可以为"*"
+     * @param where         where语句，可以为null
+     * @param selectionArgs 绑定变量值
+     * @return 聚合值，列不存在或出错时为NaN
+     */
+    @Override
+    protected double aggregateAbs(Aggregate aggregate, String column, String where, String[] selectionArgs) {
+        String expression = aggregateExpression(aggregate, column);
+        if (expression == null) {
+            return Double.NaN;
+        }
+        StringBuilder sql = new StringBuilder("SELECT ").append(expression).append(" FROM ").append(mTableName);
+        if (!AbStrUtil.isEmpty(where)) {
+            sql.append(" WHERE ").append(where);
+        }
+        String value = simpleQueryForString("aggregate", sql.toString(), selectionArgs);
+        if (value == null) {
+            return Double.NaN;
+        }
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            // 文本列的MIN、MAX
+            Log.e(TAG, "[aggregate] 不是数值: " + value);
+            return Double.NaN;
+        }
+    }
+
+    /**
+     * 描述：按条件计数，没有条件时同{@link #queryCountAbs()}使用缓存的行数.
+     *
+     * @param where         where语句，可以为null
+     * @param selectionArgs 绑定变量值
+     * @return 行数，出错时为-1
+     */
+    @Override
+    protected long countAbs(String where, String[] selectionArgs) {
+        if (AbStrUtil.isEmpty(where)) {
+            return queryCountAbs();
+        }
+        String value = simpleQueryForString("count", "SELECT COUNT(*) FROM " + mTableName + " WHERE " + where,
+                selectionArgs);
+        return value == null ? -1 : Long.parseLong(value);
+    }
+
+    /**
+     * 描述：按一列分组计算聚合值，只读取分组键与聚合值两列.
+     *
+     * @param keyColumn     分组的列
+     * @param aggregate     聚合函数
+     * @param valueColumn   聚合的列，COUNT可以为"*"
+     * @param where         where语句，可以为null
+     * @param selectionArgs 绑定变量值
+     * @return 分组键到聚合值，按分组键排序，NULL的键为null，聚合值为NULL时为NaN
+     */
+    @Override
+    protected Map<String, Double> groupByAbs(String keyColumn, Aggregate aggregate, String valueColumn,
+                                             String where, String[] selectionArgs) {
+        Map<String, Double> groups = new LinkedHashMap<String, Double>();
+        String expression = aggregateExpression(aggregate, valueColumn);
+        if (expression == null || mEntityMeta.getColumn(keyColumn) == null) {
+            Log.e(TAG, "[groupBy] 列不存在 " + keyColumn);
+            return groups;
+        }
+        StringBuilder sql = new StringBuilder("SELECT ").append(keyColumn).append(", ").append(expression)
+                .append(" FROM ").append(mTableName);
+        if (!AbStrUtil.isEmpty(where)) {
+            sql.append(" WHERE ").append(where);
+        }
+        sql.append(" GROUP BY ").append(keyColumn).append(" ORDER BY ").append(keyColumn);
+        Cursor cursor = null;
+        boolean readLocked = false;
+        try {
+            readLocked = mDBLock.lockRead();
+            Log.d(TAG, "[groupBy]: " + getLogSql(sql.toString(), selectionArgs));
+            cursor = mSQLiteDatabase.rawQuery(sql.toString(), selectionArgs);
+            while (cursor.moveToNext()) {
+                groups.put(cursor.isNull(0) ? null : cursor.getString(0),
+                        cursor.isNull(1) ? Double.NaN : cursor.getDouble(1));
             }
-
-
         } catch (Exception e) {
+            Log.e(TAG, "[groupBy] from DB exception");
             e.printStackTrace();
         } finally {
-            lock.unlock();
+            closeCursor(cursor);
+            mDBLock.unlockRead(readLocked);
         }
-        return rows;
+        return groups;
     }
 
     /**
-     * @param entityList 数据列表,ID主键
-     * @return
+     * 聚合表达式，只接受实体中的列，避免拼接任意sql.
+     *
+     * @return 例如TOTAL(price)，列不存在时为null
+     */
+    private String aggregateExpression(Aggregate aggregate, String column) {
+        if ("*".equals(column) && aggregate == Aggregate.COUNT) {
+            return "COUNT(*)";
+        }
+        if (mEntityMeta.getColumn(column) == null) {
+            Log.e(TAG, "[aggregate] 列不存在 " + column);
+            return null;
+        }
+        // SUM在没有行时为NULL，TOTAL为0.0
+        return (aggregate == Aggregate.SUM ? "TOTAL" : aggregate.name()) + "(" + column + ")";
+    }
+
+    /**
+     * 描述：在{@link com.remvp.library.db.orm.annotation.Fts}全文索引中搜索.
+     * 先从索引表读出匹配的docid与matchinfo，在内存中按相关度排序取前limit个，
+     * 再按rowid分批IN查询主表读取实体，结果按相关度排列，不使用查询缓存.
+     *
+     * @param match FTS的MATCH表达式，例如"sqlite AND data*"
+     * @param limit 最多返回的个数，小于等于0时不限制
+     * @return 按相关度从高到低的实体列表
      */
     @Override
-    protected long updateListAbs(List<T> entityList) {
-        String sql = null;
-        long rows = -1;
+    protected List<T> searchAbs(String match, int limit) {
+        List<T> list = new ArrayList<T>();
+        String ftsTable = mEntityMeta.getFtsTableName();
+        if (ftsTable == null) {
+            Log.e(TAG, "[search] " + clazz.getName() + " 未注解@Fts");
+            return list;
+        }
+        Cursor cursor = null;
+        boolean readLocked = false;
         try {
-            lock.lock();
-            for (T entity : entityList) {
-                ContentValues cv = new ContentValues();
-
-                sql = setContentValues(entity, cv, TYPE_NOT_INCREMENT,
-                        METHOD_UPDATE);
-
-                String where = this.idColumn + " = ?";
-                int id = Integer.parseInt(cv.get(this.idColumn).toString());
-                cv.remove(this.idColumn);
-
-                Log.d(TAG, "[execSql]: execSql " + this.mTableName + " set " + sql
-                        + " where " + where.replace("?", String.valueOf(id)));
-
-                String[] whereValue = {Integer.toString(id)};
-                rows = mSQLiteDatabase.update(this.mTableName, cv, where, whereValue);
-
-
-                //获取关联域的操作类型和关系类型
-                String foreignKey = null;
-                String type = null;
-                //需要判断是否有关联表
-                for (Field relationsDaoField : allFields) {
-                    if (!relationsDaoField.isAnnotationPresent(RelationDao.class)) {
-                        continue;
-                    }
-
-                    RelationDao relationDao = relationsDaoField.getAnnotation(RelationDao.class);
-                    //获取外键列名
-                    foreignKey = relationDao.foreignKey();
-                    //关联类型
-                    type = relationDao.type();
-                    //设置可访问
-                    relationsDaoField.setAccessible(true);
-                    if (RelationsType.one2one.equals(type)) {
-                        //一对一关系
-                        //获取关联表的对象
-                        relationsDaoField.setAccessible(true);
-                        String relationsDaoTableName = "";
-                        if (relationsDaoField.getType().isAnnotationPresent(Table.class)) {
-                            Table table = relationsDaoField.getType().getAnnotation(Table.class);
-                            relationsDaoTableName = table.name();
-                        } else {
-                            return rows;
-                        }
-
-                        String where1 = foreignKey + " = ?";
-                        ContentValues cv1 = new ContentValues();
-                        Object obj = relationsDaoField.get(entity);
-                        if (obj == null) {
-                            return rows;
-                        }
-                        //注意返回的sql中包含主键列
-                        String sql1 = setContentValues(obj, cv1, TYPE_NOT_INCREMENT, METHOD_UPDATE);
-                        //set sql中不能包含主键列
-                        String idValues1 = (String) cv1.get(foreignKey);
-
-                        String[] whereValue11 = {idValues1};
-                        Log.i(TAG, "DBImpl: execSql: " +
-                                "[sql10000]=" + sql1 + "     idValues1=" + idValues1);
-                        rows = mSQLiteDatabase.update(relationsDaoTableName, cv1, where1, whereValue11);
-
-
-                    } else if (RelationsType.one2many.equals(type) || RelationsType.many2many.equals(type)) {
-                        //一对多关系
-                        //获取关联表的对象
-                        List<T> list = (List<T>) relationsDaoField.get(entity);
-
-                        if (list != null && list.size() > 0) {
-                            for (T relationsDaoEntity : list) {
-                                String relationsDaoTableName = "";
-                                if (relationsDaoEntity.getClass().isAnnotationPresent(Table.class)) {
-                                    Table table = relationsDaoEntity.getClass().getAnnotation(Table.class);
-                                    relationsDaoTableName = table.name();
-
-                                    String where1 = foreignKey + " = ?";
-                                    ContentValues cv1 = new ContentValues();
-                                    Object obj = relationsDaoField.get(entity);
-                                    if (obj == null) {
-                                        return rows;
-                                    }
-                                    //注意返回的sql中包含主键列
-                                    String sql1 = setContentValues(obj, cv1, TYPE_NOT_INCREMENT, METHOD_UPDATE);
-                                    //set sql中不能包含主键列
-                                    String idValues1 = (String) cv1.get(foreignKey);
-
-                                    String[] whereValue11 = {idValues1};
-                                    Log.i(TAG, "DBImpl: execSql: " +
-                                            "[sql10000]=" + sql1 + "     idValues1=" + idValues1);
-                                    rows = mSQLiteDatabase.update(relationsDaoTableName, cv1, where1, whereValue11);
-
-                                }
-                            }
-                        }
+            readLocked = mDBLock.lockRead();
+            String sql = "SELECT docid, matchinfo(" + ftsTable + ", 'pcx') FROM " + ftsTable
+                    + " WHERE " + ftsTable + " MATCH ?";
+            Log.d(TAG, "[search]: " + getLogSql(sql, new String[]{match}));
+            cursor = mSQLiteDatabase.rawQuery(sql, new String[]{match});
+            final long[] docids = new long[cursor.getCount()];
+            final double[] scores = new double[docids.length];
+            for (int i = 0; cursor.moveToNext(); i++) {
+                docids[i] = cursor.getLong(0);
+                scores[i] = rank(cursor.getBlob(1));
+            }
+            closeCursor(cursor);
+            cursor = null;
 
-                    }
+            Integer[] order = new Integer[docids.length];
+            for (int i = 0; i < order.length; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer a, Integer b) {
+                    int c = Double.compare(scores[b], scores[a]);
+                    return c != 0 ? c : (docids[a] < docids[b] ? -1 : (docids[a] == docids[b] ? 0 : 1));
                 }
+            });
+            int count = limit > 0 ? Math.min(limit, order.length) : order.length;
+            List<String> rowids = new ArrayList<String>(count);
+            for (int i = 0; i < count; i++) {
+                rowids.add(String.valueOf(docids[order[i]]));
+            }
 
+            Map<String, T> rows = queryByRowid(rowids, true);
+            for (String rowid : rowids) {
+                // 索引中可能残留已被替换的行，跳过
+                T entity = rows.get(rowid);
+                if (entity != null) {
+                    list.add(entity);
+                }
             }
+            loadRelations(list);
         } catch (Exception e) {
-            Log.d(this.TAG, "[execSql] DB Exception.");
+            Log.e(TAG, "[search] from DB exception");
             e.printStackTrace();
         } finally {
-            lock.unlock();
+            closeCursor(cursor);
+            mDBLock.unlockRead(readLocked);
         }
-
-        return rows;
+        return list;
     }
 
-//    /**
-//     * 描述：更新列表
-//     */
-//    @Override
-//    public long updateListIdDao(List<T> entityList) {
-//        String sql = null;
-//        long rows = -1;
-//        try {
-//            lock.lock();
-//            for (T entity : entityList) {
-//                ContentValues cv = new ContentValues();
-//
-//                sql = setContentValues(entity, cv, TYPE_NOT_INCREMENT,
-//                        METHOD_UPDATE);
-//
-//                String where = this.idColumn + " = ?";
-//                String idValues = (String) cv.get(this.idColumn);
-////                int id = Integer.parseInt(cv.get(this.idColumn).toString());
-//
-////                cv.remove(this.idColumn);
-//
-//                Log.d(TAG, "[execSql]: execSql " + this.mTableName + " set " + sql
-//                        + " where " + where.replace("?", idValues));
-//
-//                String[] whereValue = {idValues};
-//                mSQLiteDatabase.execSql(this.mTableName, cv, where, whereValue);
-//
-//
-//                //获取关联域的操作类型和关系类型
-//                String foreignKey = null;
-//                String type = null;
-//                //需要判断是否有关联表
-//                for (Field relationsDaoField : allFields) {
-//                    if (!relationsDaoField.isAnnotationPresent(RelationDao.class)) {
-//                        continue;
-//                    }
-//
-//                    RelationDao relationDao = relationsDaoField.getAnnotation(RelationDao.class);
-//                    //获取外键列名
-//                    foreignKey = relationDao.foreignKey();
-//                    //关联类型
-//                    type = relationDao.type();
-//                    //设置可访问
-//                    relationsDaoField.setAccessible(true);
-//                    if (RelationsType.one2one.equals(type)) {
-//                        //一对一关系
-//                        //获取关联表的对象
-//                        relationsDaoField.setAccessible(true);
-//                        String relationsDaoTableName = "";
-//                        if (relationsDaoField.getType().isAnnotationPresent(Table.class)) {
-//                            Table table = relationsDaoField.getType().getAnnotation(Table.class);
-//                            relationsDaoTableName = table.name();
-//                        } else {
-//                            return rows;
-//                        }
-//
-//                        String where1 = foreignKey + " = ?";
-//                        ContentValues cv1 = new ContentValues();
-//                        Object obj = relationsDaoField.get(entity);
-//                        if (obj == null) {
-//                            return rows;
-//                        }
-//                        //注意返回的sql中包含主键列
-//                        String sql1 = setContentValues(obj, cv1, TYPE_NOT_INCREMENT, METHOD_UPDATE);
-//                        //set sql中不能包含主键列
-//                        String idValues1 = (String) cv1.get(foreignKey);
-//
-//                        String[] whereValue11 = {idValues1};
-//                        Log.i( TAG, "DBImpl: execSql: " +
-//                                "[sql10000]=" + sql1 + "     idValues1=" + idValues1);
-//                        rows = mSQLiteDatabase.execSql(relationsDaoTableName, cv1, where1, whereValue11);
-//
-//
-//                    } else if (RelationsType.one2many.equals(type) || RelationsType.many2many.equals(type)) {
-//                        //一对多关系
-//                        //获取关联表的对象
-//                        List<T> list = (List<T>) relationsDaoField.get(entity);
-//
-//                        if (list != null && list.size() > 0) {
-//                            for (T relationsDaoEntity : list) {
-//                                String relationsDaoTableName = "";
-//                                if (relationsDaoEntity.getClass().isAnnotationPresent(Table.class)) {
-//                                    Table table = relationsDaoEntity.getClass().getAnnotation(Table.class);
-//                                    relationsDaoTableName = table.name();
-//
-//                                    String where1 = foreignKey + " = ?";
-//                                    ContentValues cv1 = new ContentValues();
-//                                    Object obj = relationsDaoField.get(entity);
-//                                    if (obj == null) {
-//                                        return rows;
-//                                    }
-//                                    //注意返回的sql中包含主键列
-//                                    String sql1 = setContentValues(obj, cv1, TYPE_NOT_INCREMENT, METHOD_UPDATE);
-//                                    //set sql中不能包含主键列
-//                                    String idValues1 = (String) cv1.get(foreignKey);
-//
-//                                    String[] whereValue11 = {idValues1};
-//                                    Log.i( TAG, "DBImpl: execSql: " +
-//                                            "[sql10000]=" + sql1 + "     idValues1=" + idValues1);
-//                                    rows = mSQLiteDatabase.execSql(relationsDaoTableName, cv1, where1, whereValue11);
-//
-//                                }
-//                            }
-//                        }
-//
-//                    }
-//                }
-//
-//            }
-//        } catch (Exception e) {
-//            Log.d(this.TAG, "[execSql] DB Exception.");
-//            e.printStackTrace();
-//        } finally {
-//            lock.unlock();
-//        }
-//
-//        return rows;
-//    }
-
     /**
-     * 设置这个ContentValues.
+     * 按rowid分批IN查询主表，每批不超过{@link #MAX_IN_VARIABLES}个值.
      *
-     * @param entity 映射实体
-     * @param cv     the cv
-     * @param type   id类的类型，是否自增
-     * @param method 预执行的操作
-     * @return sql的字符串
-     * @throws IllegalAccessException the illegal access exception
+     * @param rowids 不重复的rowid
+     * @param track  是否记录修改跟踪
+     * @return rowid到实体的映射
      */
-    private String setContentValues(Object entity, ContentValues cv, int type,
-                                    int method) throws IllegalAccessException {
-        StringBuffer strField = new StringBuffer("(");
-        StringBuffer strValue = new StringBuffer(" values(");
-        StringBuffer strUpdate = new StringBuffer(" ");
-
-        // 加载所有字段
-        List<Field> allFields = AbTableHelper.joinFields(entity.getClass().getDeclaredFields(),
-                entity.getClass().getSuperclass().getDeclaredFields());
-        for (Field field : allFields) {
-            if (!field.isAnnotationPresent(Column.class)) {
-                continue;
-            }
-            Column column = field.getAnnotation(Column.class);
-
-            field.setAccessible(true);
-            Object fieldValue = field.get(entity);
-            if (fieldValue == null)
-                continue;
-//            if ((type == TYPE_INCREMENT) && (field.isAnnotationPresent(Id.class))) {
-//
-//                continue;
-//            }
-            // 处理java.util.Date类型,execSql
-            if (Date.class == field.getType()) {
-                // 2012-06-10
-                cv.put(column.name(), ((Date) fieldValue).getTime());
-                continue;
-            }
-            String value = String.valueOf(fieldValue);
-            cv.put(column.name(), value);
-            if (method == METHOD_INSERT) {
-                strField.append(column.name()).append(",");
-                strValue.append("'").append(value).append("',");
-            } else {
-                strUpdate.append(column.name()).append("=").append("'").append(
-                        value).append("',");
+    private Map<String, T> queryByRowid(List<String> rowids, boolean track)
+            throws IllegalAccessException, InstantiationException {
+        Map<String, T> rows = new HashMap<String, T>(rowids.size() * 2);
+        RowMapper<T> mapper = mEntityMeta.getRowMapper();
+        EntitySnapshots snapshots = track ? mSnapshots : null;
+        for (int from = 0; from < rowids.size(); from += MAX_IN_VARIABLES) {
+            List<String> chunk = rowids.subList(from, Math.min(from + MAX_IN_VARIABLES, rowids.size()));
+            String sql = "SELECT rowid AS " + ROWID_ALIAS + ", * FROM " + mTableName
+                    + " WHERE rowid IN (" + placeholders(chunk.size()) + ")";
+            Cursor cursor = null;
+            try {
+                cursor = mSQLiteDatabase.rawQuery(sql, chunk.toArray(new String[chunk.size()]));
+                int[] indexes = mapper.columnIndexes(cursor);
+                int rowidIndex = cursor.getColumnIndexOrThrow(ROWID_ALIAS);
+                while (cursor.moveToNext()) {
+                    T entity = mapper.map(cursor, indexes);
+                    if (snapshots != null) {
+                        snapshots.take(entity);
+                    }
+                    rows.put(cursor.getString(rowidIndex), entity);
+                }
+            } finally {
+                closeCursor(cursor);
             }
-
-        }
-        if (method == METHOD_INSERT) {
-            strField.deleteCharAt(strField.length() - 1).append(")");
-            strValue.deleteCharAt(strValue.length() - 1).append(")");
-            Log.i(TAG, "DBImpl: setContentValues: [inerttttttttt]="
-                    + strField.toString() + strValue.toString());
-            return strField.toString() + strValue.toString();
-        } else {
-            Log.i(TAG, "DBImpl: setContentValues: [inerttttttttt11]="
-                    + strUpdate.deleteCharAt(strUpdate.length() - 1).append(" ").toString());
-            return strUpdate.deleteCharAt(strUpdate.length() - 1).append(" ").toString();
         }
+        return rows;
     }
 
     /**
-     * 描述：查询为map列表.
+     * 按matchinfo的"pcx"计算相关度：每个短语在每列的命中数除以该短语在该列的总命中数，再求和.
+     * 在整个索引中少见的词权重更高.
      *
-     * @param sql           the sql
-     * @param selectionArgs the selection args
-     * @return the list
+     * @param matchinfo 本机字节序的32位无符号整数数组
+     * @return 相关度，越大越相关
      */
+    private static double rank(byte[] matchinfo) {
+        if (matchinfo == null || matchinfo.length < 8) {
+            return 0;
+        }
+        IntBuffer info = ByteBuffer.wrap(matchinfo).order(ByteOrder.nativeOrder()).asIntBuffer();
+        int phrases = info.get(0);
+        int columns = info.get(1);
+        double score = 0;
+        for (int p = 0; p < phrases; p++) {
+            for (int c = 0; c < columns; c++) {
+                int offset = 2 + 3 * (p * columns + c);
+                long hitsThisRow = info.get(offset) & 0xffffffffL;
+                long hitsAllRows = info.get(offset + 1) & 0xffffffffL;
+                if (hitsThisRow > 0 && hitsAllRows > 0) {
+                    score += (double) hitsThisRow / hitsAllRows;
+                }
+            }
+        }
+        return score;
+    }
+
     @Override
-    protected List<Map<String, String>> queryMapListAbs(String sql, String[] selectionArgs) {
+    protected ResultTable queryTableAbs(String sql, String[] selectionArgs) {
         Cursor cursor = null;
-        List<Map<String, String>> retList = new ArrayList<Map<String, String>>();
+        boolean readLocked = false;
         try {
-            lock.lock();
-            Log.d(TAG, "[queryMapList]: " + getLogSql(sql, selectionArgs));
+            readLocked = mDBLock.lockRead();
+            Log.d(TAG, "[queryTable]: " + getLogSql(sql, selectionArgs));
             cursor = mSQLiteDatabase.rawQuery(sql, selectionArgs);
-            while (cursor.moveToNext()) {
-                Map<String, String> map = new HashMap<String, String>();
-                for (String columnName : cursor.getColumnNames()) {
-                    int c = cursor.getColumnIndex(columnName);
-                    if (c < 0) {
-                        continue; // 如果不存在循环下个属性值
-                    } else {
-                        map.put(columnName.toLowerCase(), cursor.getString(c));
-                    }
-                }
-                retList.add(map);
-            }
+            return ResultTable.from(cursor);
         } catch (Exception e) {
+            Log.e(TAG, "[queryTable] from DB exception");
             e.printStackTrace();
-            Log.e(TAG, "[queryMapList] from DB exception");
         } finally {
             closeCursor(cursor);
-            lock.unlock();
+            mDBLock.unlockRead(readLocked);
         }
-        return retList;
+        return null;
     }
 
-
     /**
      * 描述：查询数量.
+     * 在数据库中计数，不再把所有行读到游标.
      *
      * @param sql           the sql
      * @param selectionArgs the selection args
@@ -1891,47 +3000,54 @@ public class DBImpl<T> extends AbBasicDBDao<T> {
      */
     @Override
     protected int queryCountAbs(String sql, String[] selectionArgs) {
-        Cursor cursor = null;
+        if (AbStrUtil.isEmpty(sql)) {
+            return queryCountAbs();
+        }
         int count = 0;
+        boolean readLocked = false;
         try {
-            lock.lock();
+            readLocked = mDBLock.lockRead();
             Log.d(TAG, "[queryCount]: " + getLogSql(sql, selectionArgs));
-            cursor = mSQLiteDatabase.query(this.mTableName, null, sql, selectionArgs, null, null, null);
-            if (cursor != null) {
-                count = cursor.getCount();
-            }
+            count = (int) DatabaseUtils.longForQuery(mSQLiteDatabase,
+                    "SELECT COUNT(*) FROM " + this.mTableName + " WHERE " + sql, selectionArgs);
         } catch (Exception e) {
             Log.e(TAG, "[queryCount] from DB exception");
             e.printStackTrace();
         } finally {
-            closeCursor(cursor);
-            lock.unlock();
+            mDBLock.unlockRead(readLocked);
         }
         return count;
     }
 
+    /**
+     * 描述：查询表的总行数.
+     * 结果按表的版本号缓存，任何Dao修改了这张表后重新计数.
+     *
+     * @return the int
+     */
     @Override
     protected int queryCountAbs() {
-        Cursor cursor = null;
+        RowCount cached = mRowCount;
+        if (cached != null && mTracker.isCurrent(mCountTables, cached.versions)) {
+            return (int) cached.count;
+        }
+        long[] versions = mTracker.getVersions(mCountTables);
         int count = 0;
+        boolean readLocked = false;
         try {
-            lock.lock();
-
-
-//                String sql = "SELECT COUNT(*) FROM " + DB_TABLE_PLACES;
-            String sql = "select count(*) from " + this.mTableName;
-            SQLiteStatement statement = mSQLiteDatabase.compileStatement(sql);
-            count = (int) statement.simpleQueryForLong();
-//            cursor = mSQLiteDatabase.queryRaw(sql, null);
-//            if (cursor != null) {
-//                count = cursor.getCount();
-//            }
+            readLocked = mDBLock.lockRead();
+            count = (int) DatabaseUtils.longForQuery(mSQLiteDatabase,
+                    "SELECT COUNT(*) FROM " + this.mTableName, null);
+            // 有线程在写入时数据可能尚未提交，不缓存；
+            // WAL下计数期间有事务提交时，提交后会再增加一次版本号，计数的可能是提交前的行，同样不缓存
+            if (!mDBLock.isWriteLocked() && mTracker.isCurrent(mCountTables, versions)) {
+                mRowCount = new RowCount(count, versions);
+            }
         } catch (Exception e) {
             Log.e(TAG, "[queryCount] from DB exception");
             e.printStackTrace();
         } finally {
-            closeCursor(cursor);
-            lock.unlock();
+            mDBLock.unlockRead(readLocked);
         }
         return count;
     }
@@ -1945,7 +3061,10 @@ public class DBImpl<T> extends AbBasicDBDao<T> {
     @Override
     public void execSqlAbs(String sql, Object[] selectionArgs) {
         try {
-            lock.lock();
+            mDBLock.lockWrite();
+            // 不确定修改了哪些表
+            mTracker.invalidateAll();
+            clearCached();
 
             if (selectionArgs == null) {
                 mSQLiteDatabase.execSQL(sql);
@@ -1957,58 +3076,51 @@ public class DBImpl<T> extends AbBasicDBDao<T> {
             Log.e(TAG, "[execSql] DB exception.");
             e.printStackTrace();
         } finally {
-            lock.unlock();
+            mDBLock.unlockWrite();
         }
     }
 
     /**
-     * 描述：获取写数据库，数据操作前必须调用
+     * 描述：获取写数据库，数据操作前必须调用，与{@link #closeDatabase(boolean)}成对使用.
+     * 持有写锁直到对应的closeDatabase，期间其它线程的写操作等待.
+     * 已在事务中时开启的是嵌套事务，由最外层的事务统一提交，任何一层未成功都会整体回滚.
      *
      * @param transaction 是否开启事务
      * @throws
      */
     protected void startWritableDatabase(boolean transaction) {
+        // 先取得写锁再开启事务，等待写锁时不会占用连接
+        mDBLock.lockWrite();
+        int state = STATE_WRITE_LOCKED;
         try {
-            mSQLiteOpenHelper.openDb();
-            lock.lock();
-            if (mSQLiteDatabase == null || !mSQLiteDatabase.isOpen() && !mSQLiteOpenHelper.isOpenDb()) {
-//                this.mSQLiteOpenHelper.close();
-                mSQLiteDatabase = this.mSQLiteOpenHelper.getWritableDatabase();
-            }
-//            if (mSQLiteDatabase != null && transaction) {
-//                mSQLiteDatabase.beginTransaction();
-//            }
+            mSQLiteDatabase = mSQLiteOpenHelper.getConnectionManager().getDatabase();
+            if (transaction) {
+                mTransactionState.begin(mSQLiteDatabase);
+                state |= STATE_TRANSACTION;
+            }
         } catch (Exception e) {
             e.printStackTrace();
         } finally {
-            lock.unlock();
+            mTransactions.get().push(state);
         }
-
     }
 
     /**
-     * 描述：获取读数据库，数据操作前必须调用
+     * 描述：获取读数据库，数据操作前必须调用，与{@link #closeDatabase(boolean)}成对使用.
+     * 读锁由每个查询自己持有，这里不加锁.
      *
-     * @param transaction 是否开启事务
+     * @param transaction 读操作不开启事务，保留参数只为兼容
      * @throws
      */
-    protected synchronized void startReadableDatabase(boolean transaction) {
+    protected void startReadableDatabase(boolean transaction) {
         try {
-            mSQLiteOpenHelper.openDb();
-            lock.lock();
-            if (mSQLiteDatabase == null || !mSQLiteDatabase.isOpen()) {
-                mSQLiteDatabase = this.mSQLiteOpenHelper.getReadableDatabase();
-            }
-
-//            if (mSQLiteDatabase != null && transaction) {
-//                mSQLiteDatabase.beginTransaction();
-//            }
+            mSQLiteDatabase = mSQLiteOpenHelper.getConnectionManager().getDatabase();
         } catch (Exception e) {
             e.printStackTrace();
             Log.i(TAG, "DBImpl: startReadableDatabase: [transaction]="
                     + e);
         } finally {
-            lock.unlock();
+            mTransactions.get().push(0);
         }
 
     }
@@ -2016,48 +3128,83 @@ public class DBImpl<T> extends AbBasicDBDao<T> {
 
     /**
      * 描述：操作完成后设置事务成功后才能调用closeDatabase(true);
+     * 只对最近一次{@link #startWritableDatabase(boolean)}开启的事务生效.
      *
      * @throws
      */
     protected void setTransactionSuccessful() {
-//        try {
-//            if (mSQLiteDatabase != null) {
-//                mSQLiteDatabase.setTransactionSuccessful();
-//            }
-//        } catch (Exception e) {
-//            e.printStackTrace();
-//            Log.i( TAG, "DBImpl: setTransactionSuccessful: []="
-//                    + e);
-//        }
+        ArrayDeque<Integer> states = mTransactions.get();
+        Integer state = states.peek();
+        if (state != null && (state & STATE_TRANSACTION) != 0) {
+            // 在closeDatabase结束事务时提交
+            states.pop();
+            states.push(state | STATE_SUCCESSFUL);
+        }
+    }
+
+    /**
+     * 当前事务中是否已有一层（含其它Dao的操作）失败，此时整个事务在最外层结束时回滚.
+     *
+     * @return 不在事务中时为false
+     */
+    protected boolean isTransactionFailed() {
+        return mTransactionState.isFailed();
     }
 
     /**
-     * 描述：关闭数据库，数据操作后必须调用
+     * 描述：数据操作后必须调用，结束对应的start开启的事务，未调用{@link #setTransactionSuccessful()}时回滚.
+     * 并释放对应的start获取的写锁.
+     * 数据库由{@link com.remvp.library.db.orm.DBConnectionManager}长期持有，这里不再关闭.
      *
      * @param transaction 关闭事务
      * @throws
      */
     protected void closeDatabase(boolean transaction) {
+        Integer state = mTransactions.get().poll();
+        if (state == null) {
+            return;
+        }
         try {
-            if (mSQLiteOpenHelper.canCloseDb()) {
-                if (mSQLiteDatabase != null) {
-                    Log.i(TAG, "DBImpl: closeDatabase: [ddddddd]="
-                            + mSQLiteDatabase.isOpen() + "   " + mSQLiteOpenHelper.isOpenDb());
-//                    if (transaction) {
-//                        mSQLiteDatabase.endTransaction();
-//                    }
-                    if (mSQLiteDatabase.isOpen()) {
-                        mSQLiteDatabase.close();
-                    }
-                }
+            if ((state & STATE_TRANSACTION) != 0) {
+                mTransactionState.end(mSQLiteDatabase, (state & STATE_SUCCESSFUL) != 0);
             }
         } catch (Exception e) {
             e.printStackTrace();
-            Log.i(TAG, "DBImpl: closeDatabase: [transaction]="
+            Log.i(TAG, "DBImpl: closeDatabase: [endTransaction]="
                     + e);
+        } finally {
+            if ((state & STATE_WRITE_LOCKED) != 0) {
+                mDBLock.unlockWrite();
+            }
+        }
+    }
+
+    /**
+     * 开启一个事务单元，已在事务中时为嵌套事务.
+     * 批量操作与关联表的写入在一个单元中完成，出错时整体回滚，也会导致外层事务回滚.
+     *
+     * @return 是否开启了事务，需要传给{@link #endUnit(boolean, boolean)}
+     */
+    private boolean beginUnit() {
+        if (mSQLiteDatabase == null || !mSQLiteDatabase.isOpen()) {
+            return false;
         }
+        mTransactionState.begin(mSQLiteDatabase);
+        return true;
     }
 
+    /**
+     * 结束{@link #beginUnit()}开启的事务单元，提交失败时抛出异常，调用方需要在finally中释放写锁.
+     *
+     * @param unit       beginUnit的返回值
+     * @param successful 单元内的操作是否全部成功
+     */
+    private void endUnit(boolean unit, boolean successful) {
+        if (!unit) {
+            return;
+        }
+        mTransactionState.end(mSQLiteDatabase, successful);
+    }
 
     /**
      * 打印当前sql语句.
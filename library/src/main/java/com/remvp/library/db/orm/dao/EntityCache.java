@@ -0,0 +1,116 @@
+package com.remvp.library.db.orm.dao;
+
+import android.util.LruCache;
+
+/**
+ * 描述：一个Dao按主键缓存的实体，LRU淘汰.
+ * 缓存的是queryOne返回的同一个对象，修改后需要通过Dao的update写回，不要只修改对象.
+ * 该Dao的增删改会移除相关的实体；其它Dao或sql直接修改同一张表时需要调用{@link #clear()}.
+ * <p>
+ * 每次移除都会增加版本号，查询前记录版本号，写入缓存时版本号已变化则放弃，
+ * 避免查询期间其它线程的修改被旧数据覆盖.
+ */
+public final class EntityCache<T> {
+
+    private final LruCache<String, T> mCache;
+
+    private long mVersion;
+
+    private long mHits;
+
+    private long mMisses;
+
+    EntityCache(int maxEntries) {
+        mCache = new LruCache<String, T>(maxEntries);
+    }
+
+    /**
+     * 获取缓存的实体.
+     *
+     * @param id 主键
+     * @return 实体，未缓存时为null
+     */
+    synchronized T get(String id) {
+        T entity = mCache.get(id);
+        if (entity != null) {
+            mHits++;
+        } else {
+            mMisses++;
+        }
+        return entity;
+    }
+
+    /**
+     * 当前版本号，查询前获取，传给{@link #put(String, Object, long)}.
+     */
+    synchronized long version() {
+        return mVersion;
+    }
+
+    /**
+     * 缓存查询的结果.
+     *
+     * @param id      主键
+     * @param entity  实体
+     * @param version 查询前的版本号，之后有过修改时不缓存
+     */
+    synchronized void put(String id, T entity, long version) {
+        if (version == mVersion) {
+            mCache.put(id, entity);
+        }
+    }
+
+    /**
+     * 移除一个实体.
+     *
+     * @param id 主键
+     */
+    synchronized void evict(String id) {
+        mVersion++;
+        mCache.remove(id);
+    }
+
+    /**
+     * 清空缓存.
+     */
+    public synchronized void clear() {
+        mVersion++;
+        mCache.evictAll();
+    }
+
+    /**
+     * 命中次数.
+     */
+    public synchronized long getHitCount() {
+        return mHits;
+    }
+
+    /**
+     * 未命中次数.
+     */
+    public synchronized long getMissCount() {
+        return mMisses;
+    }
+
+    /**
+     * 当前缓存的实体数.
+     */
+    public int size() {
+        return mCache.size();
+    }
+
+    /**
+     * 最多缓存的实体数.
+     */
+    public int maxSize() {
+        return mCache.maxSize();
+    }
+
+    /**
+     * 清零命中统计.
+     */
+    public synchronized void resetStats() {
+        mHits = 0;
+        mMisses = 0;
+    }
+}
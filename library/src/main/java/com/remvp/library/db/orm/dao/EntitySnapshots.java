@@ -0,0 +1,142 @@
+package com.remvp.library.db.orm.dao;
+
+import com.remvp.library.db.orm.EntityMeta;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 描述：实体读取时各列的值，用于更新时只写入修改过的列.
+ * 按对象身份（==）记录，不使用实体的equals与hashCode；只持有实体的弱引用，实体被回收后记录随之清除.
+ * byte[]与Date会复制一份，原地修改数组或时间也能识别.
+ */
+public final class EntitySnapshots {
+
+    /**
+     * 实体的弱引用，按身份比较.
+     */
+    private static final class Key extends WeakReference<Object> {
+        private final int hash;
+
+        Key(Object entity, ReferenceQueue<Object> queue) {
+            super(entity, queue);
+            this.hash = System.identityHashCode(entity);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o == this) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Object entity = get();
+            return entity != null && entity == ((Key) o).get();
+        }
+    }
+
+    private final ReferenceQueue<Object> mQueue = new ReferenceQueue<Object>();
+
+    private final Map<Key, Object[]> mSnapshots = new HashMap<Key, Object[]>();
+
+    EntitySnapshots() {
+    }
+
+    /**
+     * 记录实体当前各列的值，已记录时覆盖.
+     *
+     * @param entity 映射实体，可以是关联表的实体
+     * @throws IllegalAccessException the illegal access exception
+     */
+    void take(Object entity) throws IllegalAccessException {
+        EntityMeta<?> meta = EntityMeta.of(entity.getClass());
+        Object[] values = new Object[meta.getColumnCount()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = copy(meta.getColumn(i).get(entity));
+        }
+        synchronized (this) {
+            purge();
+            mSnapshots.put(new Key(entity, mQueue), values);
+        }
+    }
+
+    /**
+     * 读取时的值.
+     *
+     * @param entity 映射实体
+     * @return 各列的值，没有记录时为null
+     */
+    synchronized Object[] get(Object entity) {
+        purge();
+        return mSnapshots.get(new Key(entity, null));
+    }
+
+    synchronized void remove(Object entity) {
+        mSnapshots.remove(new Key(entity, null));
+    }
+
+    /**
+     * 清除所有记录，之后的更新写入全部非null列.
+     */
+    public synchronized void clear() {
+        mSnapshots.clear();
+    }
+
+    /**
+     * 记录的实体数.
+     */
+    public synchronized int size() {
+        purge();
+        return mSnapshots.size();
+    }
+
+    private void purge() {
+        Object key;
+        while ((key = mQueue.poll()) != null) {
+            mSnapshots.remove(key);
+        }
+    }
+
+    /**
+     * 列值相对读取时是否有变化.
+     *
+     * @param old     读取时的值
+     * @param current 当前值
+     * @return 有变化时返回true
+     */
+    static boolean changed(Object old, Object current) {
+        if (old == current) {
+            return false;
+        }
+        if (old == null || current == null) {
+            return true;
+        }
+        if (old instanceof byte[] && current instanceof byte[]) {
+            return !Arrays.equals((byte[]) old, (byte[]) current);
+        }
+        return !old.equals(current);
+    }
+
+    /**
+     * 复制可以原地修改的值（byte[]、Date），其它值原样返回.
+     */
+    static Object copy(Object value) {
+        if (value instanceof byte[]) {
+            return ((byte[]) value).clone();
+        }
+        if (value instanceof Date) {
+            return new Date(((Date) value).getTime());
+        }
+        return value;
+    }
+}
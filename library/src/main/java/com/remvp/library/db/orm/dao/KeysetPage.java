@@ -0,0 +1,39 @@
+package com.remvp.library.db.orm.dao;
+
+import java.util.List;
+
+/**
+ * 描述：按键值分页查询的一页数据.
+ * 下一页以{@link #getNextKey()}作为起点查询，不需要跳过前面的行.
+ */
+public class KeysetPage<T> {
+
+    private final List<T> list;
+    private final String nextKey;
+
+    public KeysetPage(List<T> list, String nextKey) {
+        this.list = list;
+        this.nextKey = nextKey;
+    }
+
+    /**
+     * 本页数据.
+     */
+    public List<T> getList() {
+        return list;
+    }
+
+    /**
+     * 下一页的起点，即本页最后一行排序列的值，没有下一页时为null.
+     */
+    public String getNextKey() {
+        return nextKey;
+    }
+
+    /**
+     * 是否还有下一页.
+     */
+    public boolean hasMore() {
+        return nextKey != null;
+    }
+}
@@ -0,0 +1,70 @@
+package com.remvp.library.db.orm.dao;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * 描述：按页读取的{@link CloseableIterator}，每页查询完即释放游标，两页之间不持有锁.
+ * 下一页由{@link PageLoader}从上一页结束的位置（rowid）继续查询，不使用OFFSET，
+ * 遍历期间其它线程的增删不会导致已有的行被跳过或重复返回，也不会阻塞写操作.
+ */
+final class PagedIterator<T> implements CloseableIterator<T> {
+
+    /**
+     * 读取下一页.
+     */
+    interface PageLoader<T> {
+
+        /**
+         * @return 下一页，没有更多数据时为空列表
+         */
+        List<T> next();
+    }
+
+    private final PageLoader<T> mLoader;
+
+    private Iterator<T> mPage;
+    private boolean mClosed;
+
+    PagedIterator(PageLoader<T> loader) {
+        this.mLoader = loader;
+    }
+
+    @Override
+    public synchronized boolean hasNext() {
+        if (mClosed) {
+            return false;
+        }
+        if (mPage == null || !mPage.hasNext()) {
+            List<T> page = mLoader.next();
+            if (page.isEmpty()) {
+                close();
+                return false;
+            }
+            mPage = page.iterator();
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return mPage.next();
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public synchronized void close() {
+        if (!mClosed) {
+            mClosed = true;
+            mPage = null;
+        }
+    }
+}
@@ -0,0 +1,327 @@
+package com.remvp.library.db.orm.dao;
+
+import android.database.Cursor;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * 描述：按列存储的查询结果，不创建实体也不为每行创建Map.
+ * 每一列只有一个数组：整数列为long[]，浮点列为double[]，文本列为String[]，二进制列为byte[][].
+ * 同一列出现不同类型的值时按 整数 &lt; 浮点 &lt; 文本 提升，null另外记录.
+ */
+public final class ResultTable {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final String[] columnNames;
+    private final int rowCount;
+    private final int[] types;
+    private final Object[] values;
+    private final BitSet[] nulls;
+
+    private ResultTable(String[] columnNames, int rowCount, int[] types, Object[] values, BitSet[] nulls) {
+        this.columnNames = columnNames;
+        this.rowCount = rowCount;
+        this.types = types;
+        this.values = values;
+        this.nulls = nulls;
+    }
+
+    /**
+     * 读取游标的所有行，不关闭游标.
+     *
+     * @param cursor 游标
+     * @return 结果
+     */
+    static ResultTable from(Cursor cursor) {
+        String[] names = cursor.getColumnNames();
+        int columnCount = names.length;
+        int capacity = Math.max(cursor.getCount(), 0);
+        if (capacity == 0) {
+            capacity = INITIAL_CAPACITY;
+        }
+        int[] types = new int[columnCount];
+        Object[] values = new Object[columnCount];
+        BitSet[] nulls = new BitSet[columnCount];
+        for (int c = 0; c < columnCount; c++) {
+            types[c] = Cursor.FIELD_TYPE_NULL;
+            nulls[c] = new BitSet();
+        }
+
+        int row = 0;
+        while (cursor.moveToNext()) {
+            if (row == capacity) {
+                capacity *= 2;
+                for (int c = 0; c < columnCount; c++) {
+                    values[c] = grow(types[c], values[c], capacity);
+                }
+            }
+            for (int c = 0; c < columnCount; c++) {
+                int type = cursor.getType(c);
+                if (type == Cursor.FIELD_TYPE_NULL) {
+                    nulls[c].set(row);
+                    continue;
+                }
+                if (type != types[c]) {
+                    int target = promote(types[c], type);
+                    values[c] = convert(types[c], values[c], target, capacity, row);
+                    types[c] = target;
+                }
+                switch (types[c]) {
+                    case Cursor.FIELD_TYPE_INTEGER:
+                        ((long[]) values[c])[row] = cursor.getLong(c);
+                        break;
+                    case Cursor.FIELD_TYPE_FLOAT:
+                        ((double[]) values[c])[row] = cursor.getDouble(c);
+                        break;
+                    case Cursor.FIELD_TYPE_BLOB:
+                        ((byte[][]) values[c])[row] = cursor.getBlob(c);
+                        break;
+                    default:
+                        ((String[]) values[c])[row] = cursor.getString(c);
+                        break;
+                }
+            }
+            row++;
+        }
+
+        for (int c = 0; c < columnCount; c++) {
+            values[c] = trim(types[c], values[c], row);
+        }
+        return new ResultTable(names, row, types, values, nulls);
+    }
+
+    /**
+     * 两种类型的值都能表示的类型.
+     */
+    private static int promote(int current, int type) {
+        if (current == Cursor.FIELD_TYPE_NULL) {
+            return type;
+        }
+        if ((current == Cursor.FIELD_TYPE_INTEGER && type == Cursor.FIELD_TYPE_FLOAT)
+                || (current == Cursor.FIELD_TYPE_FLOAT && type == Cursor.FIELD_TYPE_INTEGER)) {
+            return Cursor.FIELD_TYPE_FLOAT;
+        }
+        if (current == Cursor.FIELD_TYPE_BLOB && type == Cursor.FIELD_TYPE_BLOB) {
+            return Cursor.FIELD_TYPE_BLOB;
+        }
+        return Cursor.FIELD_TYPE_STRING;
+    }
+
+    /**
+     * 把已读取的rows行转换为新的类型.
+     */
+    private static Object convert(int from, Object array, int to, int capacity, int rows) {
+        switch (to) {
+            case Cursor.FIELD_TYPE_INTEGER:
+                return new long[capacity];
+            case Cursor.FIELD_TYPE_BLOB:
+                return new byte[capacity][];
+            case Cursor.FIELD_TYPE_FLOAT: {
+                double[] doubles = new double[capacity];
+                if (from == Cursor.FIELD_TYPE_INTEGER) {
+                    long[] longs = (long[]) array;
+                    for (int i = 0; i < rows; i++) {
+                        doubles[i] = longs[i];
+                    }
+                }
+                return doubles;
+            }
+            default: {
+                String[] strings = new String[capacity];
+                for (int i = 0; i < rows; i++) {
+                    strings[i] = toString(from, array, i);
+                }
+                return strings;
+            }
+        }
+    }
+
+    private static Object grow(int type, Object array, int capacity) {
+        switch (type) {
+            case Cursor.FIELD_TYPE_NULL:
+                return null;
+            case Cursor.FIELD_TYPE_INTEGER:
+                return Arrays.copyOf((long[]) array, capacity);
+            case Cursor.FIELD_TYPE_FLOAT:
+                return Arrays.copyOf((double[]) array, capacity);
+            case Cursor.FIELD_TYPE_BLOB:
+                return Arrays.copyOf((byte[][]) array, capacity);
+            default:
+                return Arrays.copyOf((String[]) array, capacity);
+        }
+    }
+
+    private static Object trim(int type, Object array, int rows) {
+        if (array == null) {
+            return null;
+        }
+        switch (type) {
+            case Cursor.FIELD_TYPE_INTEGER:
+                long[] longs = (long[]) array;
+                return longs.length == rows ? longs : Arrays.copyOf(longs, rows);
+            case Cursor.FIELD_TYPE_FLOAT:
+                double[] doubles = (double[]) array;
+                return doubles.length == rows ? doubles : Arrays.copyOf(doubles, rows);
+            case Cursor.FIELD_TYPE_BLOB:
+                byte[][] blobs = (byte[][]) array;
+                return blobs.length == rows ? blobs : Arrays.copyOf(blobs, rows);
+            default:
+                String[] strings = (String[]) array;
+                return strings.length == rows ? strings : Arrays.copyOf(strings, rows);
+        }
+    }
+
+    private static String toString(int type, Object array, int row) {
+        switch (type) {
+            case Cursor.FIELD_TYPE_INTEGER:
+                return Long.toString(((long[]) array)[row]);
+            case Cursor.FIELD_TYPE_FLOAT:
+                return Double.toString(((double[]) array)[row]);
+            case Cursor.FIELD_TYPE_BLOB:
+                byte[] blob = ((byte[][]) array)[row];
+                return blob == null ? null : new String(blob);
+            case Cursor.FIELD_TYPE_STRING:
+                return ((String[]) array)[row];
+            default:
+                return null;
+        }
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    public int getColumnCount() {
+        return columnNames.length;
+    }
+
+    public String getColumnName(int column) {
+        return columnNames[column];
+    }
+
+    /**
+     * 列的位置，不区分大小写.
+     *
+     * @param name 列名
+     * @return 位置，不存在时为-1
+     */
+    public int getColumnIndex(String name) {
+        for (int i = 0; i < columnNames.length; i++) {
+            if (columnNames[i].equalsIgnoreCase(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 列的存储类型，{@link Cursor#FIELD_TYPE_INTEGER}等，全部为null时为{@link Cursor#FIELD_TYPE_NULL}.
+     */
+    public int getColumnType(int column) {
+        return types[column];
+    }
+
+    public boolean isNull(int row, int column) {
+        return nulls[column].get(row);
+    }
+
+    /**
+     * 整数值，浮点列截断，文本列按数字解析，null与无法解析时为0.
+     */
+    public long getLong(int row, int column) {
+        switch (types[column]) {
+            case Cursor.FIELD_TYPE_INTEGER:
+                return ((long[]) values[column])[row];
+            case Cursor.FIELD_TYPE_FLOAT:
+                return (long) ((double[]) values[column])[row];
+            case Cursor.FIELD_TYPE_STRING:
+                String value = ((String[]) values[column])[row];
+                if (value == null) {
+                    return 0;
+                }
+                try {
+                    return Long.parseLong(value.trim());
+                } catch (NumberFormatException e) {
+                    return (long) getDouble(row, column);
+                }
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * 浮点值，文本列按数字解析，null与无法解析时为0.
+     */
+    public double getDouble(int row, int column) {
+        switch (types[column]) {
+            case Cursor.FIELD_TYPE_INTEGER:
+                return ((long[]) values[column])[row];
+            case Cursor.FIELD_TYPE_FLOAT:
+                return ((double[]) values[column])[row];
+            case Cursor.FIELD_TYPE_STRING:
+                String value = ((String[]) values[column])[row];
+                if (value == null) {
+                    return 0;
+                }
+                try {
+                    return Double.parseDouble(value.trim());
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * 文本值，null时为null.
+     */
+    public String getString(int row, int column) {
+        if (isNull(row, column)) {
+            return null;
+        }
+        return toString(types[column], values[column], row);
+    }
+
+    /**
+     * 二进制值，不是二进制列时为null.
+     */
+    public byte[] getBlob(int row, int column) {
+        if (types[column] != Cursor.FIELD_TYPE_BLOB) {
+            return null;
+        }
+        return ((byte[][]) values[column])[row];
+    }
+
+    /**
+     * 整数列的数组，不复制，null的行为0.
+     *
+     * @param column 列的位置
+     * @return 数组，不是整数列时为null
+     */
+    public long[] getLongColumn(int column) {
+        return types[column] == Cursor.FIELD_TYPE_INTEGER ? (long[]) values[column] : null;
+    }
+
+    /**
+     * 浮点列的数组，不复制，null的行为0.
+     *
+     * @param column 列的位置
+     * @return 数组，不是浮点列时为null
+     */
+    public double[] getDoubleColumn(int column) {
+        return types[column] == Cursor.FIELD_TYPE_FLOAT ? (double[]) values[column] : null;
+    }
+
+    /**
+     * 文本列的数组，不复制.
+     *
+     * @param column 列的位置
+     * @return 数组，不是文本列时为null
+     */
+    public String[] getStringColumn(int column) {
+        return types[column] == Cursor.FIELD_TYPE_STRING ? (String[]) values[column] : null;
+    }
+}
@@ -0,0 +1,83 @@
+package com.remvp.library.db.orm.dao;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+import android.util.LruCache;
+
+/**
+ * 描述：一个Dao预编译语句的LRU缓存.
+ * 以操作类型、表名和列组合为key，相同的增删改只编译一次，之后只需重新绑定参数.
+ * 语句只对编译时的数据库对象有效，数据库对象变化或关闭前需要清空.
+ * 非线程安全，由调用方的锁保护.
+ */
+final class StatementCache {
+
+    private static final String TAG = "StatementCache";
+
+    /**
+     * 每个Dao默认缓存的语句数.
+     */
+    static final int DEFAULT_SIZE = 16;
+
+    private final LruCache<String, SQLiteStatement> mCache;
+
+    /**
+     * 缓存中的语句所属的数据库.
+     */
+    private SQLiteDatabase mDatabase;
+
+    StatementCache(int maxSize) {
+        mCache = new LruCache<String, SQLiteStatement>(maxSize) {
+            @Override
+            protected void entryRemoved(boolean evicted, String key,
+                                        SQLiteStatement oldValue, SQLiteStatement newValue) {
+                oldValue.close();
+            }
+        };
+    }
+
+    /**
+     * 获取已编译的语句，参数已清空.
+     *
+     * @param db  当前的数据库
+     * @param key 语句的key
+     * @return 语句，未缓存时为null，此时调用{@link #compile(SQLiteDatabase, String, String)}
+     */
+    SQLiteStatement acquire(SQLiteDatabase db, String key) {
+        if (db != mDatabase) {
+            clear();
+            mDatabase = db;
+            return null;
+        }
+        SQLiteStatement statement = mCache.get(key);
+        if (statement != null) {
+            statement.clearBindings();
+        }
+        return statement;
+    }
+
+    /**
+     * 编译并缓存语句.
+     *
+     * @param db  当前的数据库
+     * @param key 语句的key
+     * @param sql sql语句
+     * @return 语句
+     */
+    SQLiteStatement compile(SQLiteDatabase db, String key, String sql) {
+        Log.d(TAG, "[compile]: " + sql);
+        SQLiteStatement statement = db.compileStatement(sql);
+        mDatabase = db;
+        mCache.put(key, statement);
+        return statement;
+    }
+
+    /**
+     * 关闭并移除所有语句.
+     */
+    void clear() {
+        mCache.evictAll();
+        mDatabase = null;
+    }
+}
@@ -0,0 +1,22 @@
+package com.remvp.library.db.orm.dao;
+
+/**
+ * 描述：{@link BaseDao#upsertList(java.util.List, ConflictStrategy)}中每一行的结果.
+ */
+public enum UpsertOutcome {
+
+    /**
+     * 插入了新行.
+     */
+    INSERTED,
+
+    /**
+     * 已存在，已更新或替换.
+     */
+    UPDATED,
+
+    /**
+     * 已存在，未写入.
+     */
+    IGNORED
+}
@@ -0,0 +1,314 @@
+package com.remvp.library.db.orm.dao;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import com.remvp.library.db.orm.DBHelper;
+import com.remvp.library.db.orm.DBLock;
+import com.remvp.library.db.orm.TransactionState;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 描述：一个{@link DBHelper}的异步写队列，所有Dao共用一个写线程.
+ * 写线程取出队列中的操作，每组最多{@link #MAX_BATCH_SIZE}个、最多等待{@link #MAX_BATCH_DELAY_MILLIS}毫秒，
+ * 在一个事务中提交，减少每次写入单独提交的开销.
+ * 一组中有操作失败时整组回滚，再逐个单独执行，失败的操作不影响同组的其它操作；
+ * 重试前写回实体的主键已恢复、各Dao的修改跟踪记录已清空，与操作从未执行过一致.
+ * 操作的结果在提交之后才能通过Future获取.
+ * 通过{@link #of(DBHelper)}获取，一般使用BaseDao的enqueue方法.
+ */
+public final class WriteQueue {
+
+    private static final String TAG = "WriteQueue";
+
+    /**
+     * 一组事务最多的操作数.
+     */
+    public static final int MAX_BATCH_SIZE = 64;
+
+    /**
+     * 一组事务从第一个操作开始最多等待的时间，毫秒.
+     */
+    public static final long MAX_BATCH_DELAY_MILLIS = 10;
+
+    /**
+     * 每个数据库一个队列，写线程与数据库同生命周期，一般为整个进程.
+     */
+    private static final Map<DBHelper, WriteQueue> QUEUES = new HashMap<DBHelper, WriteQueue>();
+
+    /**
+     * 一个待执行的操作.
+     */
+    private static final class Operation {
+        final Callable<Long> write;
+        final long enqueuedAt = System.nanoTime();
+        long result;
+        Exception error;
+        final FutureTask<Long> future = new FutureTask<Long>(new Callable<Long>() {
+            @Override
+            public Long call() throws Exception {
+                if (error != null) {
+                    throw error;
+                }
+                return result;
+            }
+        });
+
+        Operation(Callable<Long> write) {
+            this.write = write;
+        }
+
+        /**
+         * 执行写入，返回值小于0或抛出异常时为失败.
+         */
+        boolean execute() {
+            try {
+                result = write.call();
+                error = null;
+                return result >= 0;
+            } catch (Exception e) {
+                error = e;
+                return false;
+            }
+        }
+    }
+
+    private final DBHelper mHelper;
+
+    private final LinkedBlockingQueue<Operation> mQueue = new LinkedBlockingQueue<Operation>();
+
+    private final Thread mThread;
+
+    private final AtomicLong mMaxDepth = new AtomicLong();
+    private final AtomicLong mOperations = new AtomicLong();
+    private final AtomicLong mCommits = new AtomicLong();
+    private final AtomicLong mFallbacks = new AtomicLong();
+    private final AtomicLong mCommitNanos = new AtomicLong();
+    private final AtomicLong mMaxCommitNanos = new AtomicLong();
+    private final AtomicLong mLatencyNanos = new AtomicLong();
+    private final AtomicLong mMaxLatencyNanos = new AtomicLong();
+
+    /**
+     * 获取数据库的写队列，首次调用时启动写线程.
+     *
+     * @param helper 数据库
+     * @return 写队列
+     */
+    public static WriteQueue of(DBHelper helper) {
+        synchronized (QUEUES) {
+            WriteQueue queue = QUEUES.get(helper);
+            if (queue == null) {
+                queue = new WriteQueue(helper);
+                QUEUES.put(helper, queue);
+            }
+            return queue;
+        }
+    }
+
+    private WriteQueue(DBHelper helper) {
+        this.mHelper = helper;
+        this.mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                loop();
+            }
+        }, "DBWriteQueue-" + helper.getDatabaseName());
+        this.mThread.setDaemon(true);
+        this.mThread.start();
+    }
+
+    /**
+     * 加入一个写操作，write在写线程的事务中执行，可以调用任意Dao的增删改.
+     *
+     * @param write 写操作，返回值小于0表示失败
+     * @return 提交后的返回值
+     */
+    public Future<Long> enqueue(Callable<Long> write) {
+        Operation operation = new Operation(write);
+        mQueue.add(operation);
+        updateMax(mMaxDepth, mQueue.size());
+        return operation.future;
+    }
+
+    private void loop() {
+        List<Operation> batch = new ArrayList<Operation>(MAX_BATCH_SIZE);
+        while (true) {
+            try {
+                batch.add(mQueue.take());
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(MAX_BATCH_DELAY_MILLIS);
+                while (batch.size() < MAX_BATCH_SIZE) {
+                    long remaining = deadline - System.nanoTime();
+                    Operation next = remaining > 0
+                            ? mQueue.poll(remaining, TimeUnit.NANOSECONDS) : mQueue.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                commit(batch);
+            } catch (InterruptedException e) {
+                Log.w(TAG, "[loop] interrupted");
+                return;
+            } catch (Throwable t) {
+                // 写线程不能退出，未完成的操作以异常结束
+                Log.e(TAG, "[loop] " + t);
+                for (Operation operation : batch) {
+                    if (!operation.future.isDone()) {
+                        operation.error = new RuntimeException(t);
+                        operation.future.run();
+                    }
+                }
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * 在一个事务中执行一组操作，失败时逐个单独执行.
+     */
+    private void commit(List<Operation> batch) {
+        List<Operation> operations = new ArrayList<Operation>(batch.size());
+        for (Operation operation : batch) {
+            if (!operation.future.isCancelled()) {
+                operations.add(operation);
+            }
+        }
+        if (operations.isEmpty()) {
+            return;
+        }
+
+        long start = System.nanoTime();
+        boolean successful = true;
+        DBLock lock = mHelper.getDBLock();
+        lock.lockWrite();
+        try {
+            SQLiteDatabase db = mHelper.getConnectionManager().getDatabase();
+            // 与Dao共用事务状态，回滚时恢复实体并清空修改跟踪
+            TransactionState transaction = mHelper.getTransactionState();
+            transaction.begin(db);
+            try {
+                for (Operation operation : operations) {
+                    if (!operation.execute()) {
+                        successful = false;
+                        break;
+                    }
+                }
+            } finally {
+                if (!transaction.end(db, successful)) {
+                    successful = false;
+                }
+            }
+        } catch (RuntimeException e) {
+            Log.e(TAG, "[commit] " + e);
+            successful = false;
+        } finally {
+            // 最外层释放写锁后通知观察者
+            lock.unlockWrite();
+        }
+
+        if (!successful) {
+            // 整组已回滚，逐个单独提交
+            mFallbacks.incrementAndGet();
+            Log.w(TAG, "[commit] batch of " + operations.size() + " failed, retrying one by one");
+            for (Operation operation : operations) {
+                operation.execute();
+            }
+        }
+
+        long end = System.nanoTime();
+        long commitNanos = end - start;
+        mCommits.incrementAndGet();
+        mCommitNanos.addAndGet(commitNanos);
+        updateMax(mMaxCommitNanos, commitNanos);
+        for (Operation operation : operations) {
+            long latency = end - operation.enqueuedAt;
+            mLatencyNanos.addAndGet(latency);
+            updateMax(mMaxLatencyNanos, latency);
+            operation.future.run();
+        }
+        mOperations.addAndGet(operations.size());
+    }
+
+    private static void updateMax(AtomicLong max, long value) {
+        long current = max.get();
+        while (value > current && !max.compareAndSet(current, value)) {
+            current = max.get();
+        }
+    }
+
+    /**
+     * 当前排队的操作数.
+     */
+    public int getQueueDepth() {
+        return mQueue.size();
+    }
+
+    /**
+     * 最大排队的操作数.
+     */
+    public long getMaxQueueDepth() {
+        return mMaxDepth.get();
+    }
+
+    /**
+     * 已完成的操作数.
+     */
+    public long getOperationCount() {
+        return mOperations.get();
+    }
+
+    /**
+     * 已提交的组数.
+     */
+    public long getCommitCount() {
+        return mCommits.get();
+    }
+
+    /**
+     * 整组失败后逐个重试的次数.
+     */
+    public long getFallbackCount() {
+        return mFallbacks.get();
+    }
+
+    /**
+     * 每组事务的平均耗时，毫秒.
+     */
+    public double getAverageCommitMillis() {
+        long commits = mCommits.get();
+        return commits == 0 ? 0 : mCommitNanos.get() / 1000000.0 / commits;
+    }
+
+    /**
+     * 每组事务的最大耗时，毫秒.
+     */
+    public double getMaxCommitMillis() {
+        return mMaxCommitNanos.get() / 1000000.0;
+    }
+
+    /**
+     * 操作从加入队列到提交完成的平均耗时，毫秒.
+     */
+    public double getAverageLatencyMillis() {
+        long operations = mOperations.get();
+        return operations == 0 ? 0 : mLatencyNanos.get() / 1000000.0 / operations;
+    }
+
+    /**
+     * 操作从加入队列到提交完成的最大耗时，毫秒.
+     */
+    public double getMaxLatencyMillis() {
+        return mMaxLatencyNanos.get() / 1000000.0;
+    }
+}
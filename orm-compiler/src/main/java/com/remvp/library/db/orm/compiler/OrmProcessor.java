@@ -0,0 +1,559 @@
+package com.remvp.library.db.orm.compiler;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.Messager;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+/**
+ * 描述：为{@code @Table}实体生成"实体类名_RowMapper"与"实体类名_ValueBinder".
+ * 生成的类与实体在同一个包中，直接访问字段或setter/getter，避免运行时反射与装箱.
+ * 读写的格式与library中ColumnMeta的反射实现保持一致.
+ * <p>
+ * 注解按全限定名匹配，本模块不依赖Android library.
+ * 无法生成的实体（私有字段且没有setter/getter、没有可访问的无参构造器等）只输出NOTE，
+ * 运行时由EntityMeta回退到反射实现.
+ */
+public class OrmProcessor extends AbstractProcessor {
+
+    private static final String ORM_PACKAGE = "com.remvp.library.db.orm";
+    private static final String TABLE = ORM_PACKAGE + ".annotation.Table";
+    private static final String COLUMN = ORM_PACKAGE + ".annotation.Column";
+    private static final String ID = ORM_PACKAGE + ".annotation.Id";
+    private static final String RELATION_DAO = ORM_PACKAGE + ".annotation.RelationDao";
+    /**
+     * 与StorageMode.typed一致.
+     */
+    private static final String TYPED_STORAGE = "typed";
+
+    /**
+     * 与ColumnMeta.Handler一一对应.
+     */
+    private enum Handler {
+        INT, LONG, SHORT, FLOAT, DOUBLE, STRING, DATE, BLOB, BYTES, CHAR, BOOLEAN, UNSUPPORTED
+    }
+
+    /**
+     * 一列的生成信息.
+     */
+    private static final class ColumnInfo {
+        String name;
+        Handler handler;
+        boolean primitive;
+        /**
+         * 实体是否按StorageMode.typed存储.
+         */
+        boolean typed;
+        /**
+         * 读取值的表达式，entity为实体变量.
+         */
+        String getter;
+        /**
+         * 写入值的语句模板，%s为值表达式.
+         */
+        String setter;
+    }
+
+    private Elements elements;
+    private Types types;
+    private Messager messager;
+
+    @Override
+    public synchronized void init(javax.annotation.processing.ProcessingEnvironment processingEnv) {
+        super.init(processingEnv);
+        elements = processingEnv.getElementUtils();
+        types = processingEnv.getTypeUtils();
+        messager = processingEnv.getMessager();
+    }
+
+    @Override
+    public Set<String> getSupportedAnnotationTypes() {
+        return Collections.singleton(TABLE);
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        TypeElement table = elements.getTypeElement(TABLE);
+        if (table == null) {
+            return false;
+        }
+        for (Element element : roundEnv.getElementsAnnotatedWith(table)) {
+            if (element.getKind() != ElementKind.CLASS) {
+                continue;
+            }
+            TypeElement entity = (TypeElement) element;
+            try {
+                generate(entity);
+            } catch (IOException e) {
+                messager.printMessage(Diagnostic.Kind.ERROR, "生成失败: " + e.getMessage(), entity);
+            }
+        }
+        return false;
+    }
+
+    private void generate(TypeElement entity) throws IOException {
+        String skip = checkEntity(entity);
+        if (skip != null) {
+            note(entity, skip);
+            return;
+        }
+        String packageName = elements.getPackageOf(entity).getQualifiedName().toString();
+        boolean typed = TYPED_STORAGE.equals(stringValue(annotation(entity, TABLE), "storage"));
+        List<ColumnInfo> columns = new ArrayList<ColumnInfo>();
+        for (VariableElement field : collectColumns(entity)) {
+            ColumnInfo column = resolve(entity, packageName, field);
+            if (column == null) {
+                note(field, "字段不可访问且没有setter/getter，" + entity.getSimpleName() + "使用反射");
+                return;
+            }
+            column.typed = typed;
+            columns.add(column);
+        }
+
+        String entityType = entity.getQualifiedName().toString();
+        String prefix = binaryName(entity).substring(packageName.isEmpty() ? 0 : packageName.length() + 1);
+        writeRowMapper(entity, packageName, prefix + "_RowMapper", entityType, columns);
+        writeValueBinder(entity, packageName, prefix + "_ValueBinder", entityType, columns);
+    }
+
+    /**
+     * 检查实体能否由生成的类直接创建.
+     *
+     * @return 不能生成的原因，可以生成时为null
+     */
+    private String checkEntity(TypeElement entity) {
+        Set<Modifier> modifiers = entity.getModifiers();
+        if (modifiers.contains(Modifier.ABSTRACT)) {
+            return entity.getSimpleName() + "是抽象类，使用反射";
+        }
+        if (!entity.getTypeParameters().isEmpty()) {
+            return entity.getSimpleName() + "带有泛型参数，使用反射";
+        }
+        Element e = entity;
+        while (e instanceof TypeElement) {
+            TypeElement type = (TypeElement) e;
+            if (type.getModifiers().contains(Modifier.PRIVATE)) {
+                return entity.getSimpleName() + "不可访问，使用反射";
+            }
+            if (type.getNestingKind() == NestingKind.MEMBER && !type.getModifiers().contains(Modifier.STATIC)) {
+                return entity.getSimpleName() + "是非静态内部类，使用反射";
+            }
+            if (type.getNestingKind() == NestingKind.LOCAL || type.getNestingKind() == NestingKind.ANONYMOUS) {
+                return entity.getSimpleName() + "是局部类，使用反射";
+            }
+            e = type.getEnclosingElement();
+        }
+        for (ExecutableElement constructor : ElementFilter.constructorsIn(entity.getEnclosedElements())) {
+            if (constructor.getParameters().isEmpty() && !constructor.getModifiers().contains(Modifier.PRIVATE)) {
+                return null;
+            }
+        }
+        return entity.getSimpleName() + "没有可访问的无参构造器，使用反射";
+    }
+
+    /**
+     * 列字段，本类在前父类在后，按列名去重，主键放在首位置，与EntityMeta的顺序一致.
+     */
+    private List<VariableElement> collectColumns(TypeElement entity) {
+        List<TypeElement> hierarchy = new ArrayList<TypeElement>();
+        hierarchy.add(entity);
+        TypeMirror superclass = entity.getSuperclass();
+        if (superclass.getKind() == TypeKind.DECLARED) {
+            hierarchy.add((TypeElement) ((DeclaredType) superclass).asElement());
+        }
+
+        Map<String, VariableElement> byName = new LinkedHashMap<String, VariableElement>();
+        for (TypeElement type : hierarchy) {
+            for (VariableElement field : ElementFilter.fieldsIn(type.getEnclosedElements())) {
+                AnnotationMirror column = annotation(field, COLUMN);
+                if (column != null) {
+                    String name = stringValue(column, "name");
+                    if (!byName.containsKey(name)) {
+                        byName.put(name, field);
+                    }
+                } else if (annotation(field, RELATION_DAO) != null) {
+                    checkRelation(field);
+                }
+            }
+        }
+
+        List<VariableElement> fields = new ArrayList<VariableElement>(byName.size());
+        for (VariableElement field : byName.values()) {
+            if (annotation(field, ID) != null) {
+                fields.add(0, field);
+            } else {
+                fields.add(field);
+            }
+        }
+        return fields;
+    }
+
+    /**
+     * 关联字段不参与映射，只检查一对多、多对多的字段类型.
+     */
+    private void checkRelation(VariableElement field) {
+        String type = stringValue(annotation(field, RELATION_DAO), "type");
+        if (("one2many".equals(type) || "many2many".equals(type))
+                && !"java.util.List".equals(types.erasure(field.asType()).toString())) {
+            messager.printMessage(Diagnostic.Kind.WARNING, "一对多、多对多的关联字段需要声明为List", field);
+        }
+    }
+
+    private ColumnInfo resolve(TypeElement entity, String packageName, VariableElement field) {
+        ColumnInfo column = new ColumnInfo();
+        column.name = stringValue(annotation(field, COLUMN), "name");
+        TypeMirror type = field.asType();
+        column.primitive = type.getKind().isPrimitive();
+        column.handler = handler(types.erasure(type).toString());
+
+        String fieldName = field.getSimpleName().toString();
+        if (isAccessible(field, packageName)) {
+            column.getter = "entity." + fieldName;
+            column.setter = "entity." + fieldName + " = %s;";
+            return column;
+        }
+
+        String capitalized = Character.toUpperCase(fieldName.charAt(0)) + fieldName.substring(1);
+        ExecutableElement getter = findMethod(entity, packageName, "get" + capitalized, null, type);
+        if (getter == null && type.getKind() == TypeKind.BOOLEAN) {
+            getter = findMethod(entity, packageName, "is" + capitalized, null, type);
+        }
+        ExecutableElement setter = findMethod(entity, packageName, "set" + capitalized, type, null);
+        if (getter == null || setter == null) {
+            return null;
+        }
+        column.getter = "entity." + getter.getSimpleName() + "()";
+        column.setter = "entity." + setter.getSimpleName() + "(%s);";
+        return column;
+    }
+
+    private static Handler handler(String type) {
+        if ("int".equals(type) || "java.lang.Integer".equals(type)) {
+            return Handler.INT;
+        }
+        if ("java.lang.String".equals(type)) {
+            return Handler.STRING;
+        }
+        if ("long".equals(type) || "java.lang.Long".equals(type)) {
+            return Handler.LONG;
+        }
+        if ("float".equals(type) || "java.lang.Float".equals(type)) {
+            return Handler.FLOAT;
+        }
+        if ("short".equals(type) || "java.lang.Short".equals(type)) {
+            return Handler.SHORT;
+        }
+        if ("double".equals(type) || "java.lang.Double".equals(type)) {
+            return Handler.DOUBLE;
+        }
+        if ("java.util.Date".equals(type)) {
+            return Handler.DATE;
+        }
+        if ("java.sql.Blob".equals(type)) {
+            return Handler.BLOB;
+        }
+        if ("byte[]".equals(type)) {
+            return Handler.BYTES;
+        }
+        if ("char".equals(type)) {
+            return Handler.CHAR;
+        }
+        if ("boolean".equals(type) || "java.lang.Boolean".equals(type)) {
+            return Handler.BOOLEAN;
+        }
+        return Handler.UNSUPPORTED;
+    }
+
+    /**
+     * 生成的类与实体同包，但不是其子类，只能访问public或同包的非private成员.
+     */
+    private boolean isAccessible(Element member, String packageName) {
+        Set<Modifier> modifiers = member.getModifiers();
+        if (modifiers.contains(Modifier.PRIVATE)) {
+            return false;
+        }
+        if (modifiers.contains(Modifier.PUBLIC)) {
+            return true;
+        }
+        PackageElement memberPackage = elements.getPackageOf(member);
+        return memberPackage.getQualifiedName().contentEquals(packageName);
+    }
+
+    /**
+     * 在实体及其父类中查找可访问的方法.
+     *
+     * @param parameter  唯一参数的类型，无参时为null
+     * @param returnType 返回类型，不检查时为null
+     */
+    private ExecutableElement findMethod(TypeElement entity, String packageName, String name,
+                                         TypeMirror parameter, TypeMirror returnType) {
+        for (Element member : elements.getAllMembers(entity)) {
+            if (member.getKind() != ElementKind.METHOD || !member.getSimpleName().contentEquals(name)
+                    || member.getModifiers().contains(Modifier.STATIC) || !isAccessible(member, packageName)) {
+                continue;
+            }
+            ExecutableElement method = (ExecutableElement) member;
+            List<? extends VariableElement> parameters = method.getParameters();
+            if (parameter == null) {
+                if (parameters.isEmpty() && types.isSameType(method.getReturnType(), returnType)) {
+                    return method;
+                }
+            } else if (parameters.size() == 1 && types.isSameType(parameters.get(0).asType(), parameter)) {
+                return method;
+            }
+        }
+        return null;
+    }
+
+    private void writeRowMapper(TypeElement entity, String packageName, String className,
+                                String entityType, List<ColumnInfo> columns) throws IOException {
+        StringBuilder s = new StringBuilder();
+        header(s, packageName);
+        s.append("import android.database.Cursor;\n\n");
+        s.append("import com.remvp.library.db.orm.BindUtil;\n");
+        s.append("import com.remvp.library.db.orm.RowMapper;\n\n");
+        s.append("/**\n * 由orm-compiler生成，请勿修改.\n */\n");
+        s.append("public final class ").append(className).append(" implements RowMapper<")
+                .append(entityType).append("> {\n\n");
+        columnsField(s, columns);
+
+        s.append("    @Override\n");
+        s.append("    public int[] columnIndexes(Cursor cursor) {\n");
+        s.append("        int[] indexes = new int[COLUMNS.length];\n");
+        s.append("        for (int i = 0; i < COLUMNS.length; i++) {\n");
+        s.append("            indexes[i] = cursor.getColumnIndex(COLUMNS[i]);\n");
+        s.append("        }\n");
+        s.append("        return indexes;\n");
+        s.append("    }\n\n");
+
+        s.append("    @Override\n");
+        s.append("    public ").append(entityType).append(" map(Cursor cursor, int[] indexes) {\n");
+        s.append("        ").append(entityType).append(" entity = new ").append(entityType).append("();\n");
+        s.append("        int c;\n");
+        for (int i = 0; i < columns.size(); i++) {
+            ColumnInfo column = columns.get(i);
+            String read = readExpression(column.handler, column.typed);
+            if (read == null) {
+                // 与反射实现一致，不支持的类型不读取
+                continue;
+            }
+            s.append("        c = indexes[").append(i).append("];\n");
+            s.append("        if (c >= 0) {\n");
+            if (column.handler == Handler.CHAR && column.typed) {
+                s.append("            if (!cursor.isNull(c)) {\n");
+                s.append("                ").append(String.format(column.setter, read)).append("\n");
+                s.append("            }\n");
+            } else if (column.handler == Handler.CHAR) {
+                s.append("            String value").append(i).append(" = cursor.getString(c);\n");
+                s.append("            if (value").append(i).append(" != null && value").append(i)
+                        .append(".length() > 0) {\n");
+                s.append("                ").append(String.format(column.setter, "value" + i + ".charAt(0)"))
+                        .append("\n");
+                s.append("            }\n");
+            } else {
+                s.append("            ").append(String.format(column.setter, read)).append("\n");
+            }
+            s.append("        }\n");
+        }
+        s.append("        return entity;\n");
+        s.append("    }\n");
+        s.append("}\n");
+        write(entity, packageName, className, s);
+    }
+
+    private void writeValueBinder(TypeElement entity, String packageName, String className,
+                                  String entityType, List<ColumnInfo> columns) throws IOException {
+        StringBuilder s = new StringBuilder();
+        header(s, packageName);
+        s.append("import android.database.sqlite.SQLiteStatement;\n\n");
+        s.append("import com.remvp.library.db.orm.BindUtil;\n");
+        s.append("import com.remvp.library.db.orm.ValueBinder;\n\n");
+        s.append("/**\n * 由orm-compiler生成，请勿修改.\n */\n");
+        s.append("public final class ").append(className).append(" implements ValueBinder<")
+                .append(entityType).append("> {\n\n");
+        columnsField(s, columns);
+
+        s.append("    @Override\n");
+        s.append("    public String[] getColumns() {\n");
+        s.append("        return COLUMNS;\n");
+        s.append("    }\n\n");
+
+        s.append("    @Override\n");
+        s.append("    public boolean isNull(").append(entityType).append(" entity, int column) {\n");
+        s.append("        switch (column) {\n");
+        for (int i = 0; i < columns.size(); i++) {
+            ColumnInfo column = columns.get(i);
+            s.append("            case ").append(i).append(":\n");
+            s.append("                return ").append(column.primitive ? "false" : column.getter + " == null")
+                    .append(";\n");
+        }
+        s.append("            default:\n");
+        s.append("                throw new IndexOutOfBoundsException(String.valueOf(column));\n");
+        s.append("        }\n");
+        s.append("    }\n\n");
+
+        s.append("    @Override\n");
+        s.append("    public void bind(SQLiteStatement statement, int index, ").append(entityType)
+                .append(" entity, int column) {\n");
+        s.append("        switch (column) {\n");
+        for (int i = 0; i < columns.size(); i++) {
+            ColumnInfo column = columns.get(i);
+            s.append("            case ").append(i).append(":\n");
+            s.append("                ").append(bindStatement(column.handler, column.getter, column.typed))
+                    .append("\n");
+            s.append("                break;\n");
+        }
+        s.append("            default:\n");
+        s.append("                throw new IndexOutOfBoundsException(String.valueOf(column));\n");
+        s.append("        }\n");
+        s.append("    }\n");
+        s.append("}\n");
+        write(entity, packageName, className, s);
+    }
+
+    /**
+     * 与ColumnMeta.read一致的读取表达式，不读取的类型返回null.
+     */
+    private static String readExpression(Handler handler, boolean typed) {
+        switch (handler) {
+            case INT:
+                return "cursor.getInt(c)";
+            case STRING:
+                return "cursor.getString(c)";
+            case LONG:
+                return "cursor.getLong(c)";
+            case FLOAT:
+                return "cursor.getFloat(c)";
+            case SHORT:
+                return "cursor.getShort(c)";
+            case DOUBLE:
+                return "cursor.getDouble(c)";
+            case DATE:
+                return "new java.util.Date(cursor.getLong(c))";
+            case CHAR:
+                return typed ? "(char) cursor.getInt(c)" : "cursor.getString(c)";
+            case BOOLEAN:
+                return typed ? "cursor.getLong(c) != 0" : "BindUtil.toBoolean(cursor.getString(c))";
+            case BYTES:
+                return "cursor.getBlob(c)";
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * 与ColumnMeta.bind一致的绑定语句.
+     */
+    private static String bindStatement(Handler handler, String value, boolean typed) {
+        switch (handler) {
+            case INT:
+            case LONG:
+            case SHORT:
+                return "statement.bindLong(index, " + value + ");";
+            case FLOAT:
+                return "BindUtil.bindFloat(statement, index, " + value + ");";
+            case DOUBLE:
+                return "statement.bindDouble(index, " + value + ");";
+            case DATE:
+                return "BindUtil.bindDate(statement, index, " + value + ");";
+            case BOOLEAN:
+                return (typed ? "BindUtil.bindTypedBoolean" : "BindUtil.bindBoolean")
+                        + "(statement, index, " + value + ");";
+            case CHAR:
+                return (typed ? "BindUtil.bindTypedChar" : "BindUtil.bindChar")
+                        + "(statement, index, " + value + ");";
+            case STRING:
+                return "statement.bindString(index, " + value + ");";
+            case BYTES:
+                return "statement.bindBlob(index, " + value + ");";
+            default:
+                return "statement.bindString(index, String.valueOf(" + value + "));";
+        }
+    }
+
+    private static void header(StringBuilder s, String packageName) {
+        if (!packageName.isEmpty()) {
+            s.append("package ").append(packageName).append(";\n\n");
+        }
+    }
+
+    private static void columnsField(StringBuilder s, List<ColumnInfo> columns) {
+        s.append("    private static final String[] COLUMNS = {");
+        for (int i = 0; i < columns.size(); i++) {
+            s.append(i == 0 ? "" : ", ").append('"').append(columns.get(i).name).append('"');
+        }
+        s.append("};\n\n");
+    }
+
+    private void write(TypeElement entity, String packageName, String className, StringBuilder source)
+            throws IOException {
+        String name = packageName.isEmpty() ? className : packageName + "." + className;
+        JavaFileObject file = processingEnv.getFiler().createSourceFile(name, entity);
+        Writer writer = file.openWriter();
+        try {
+            writer.write(source.toString());
+        } finally {
+            writer.close();
+        }
+    }
+
+    private String binaryName(TypeElement entity) {
+        return elements.getBinaryName(entity).toString();
+    }
+
+    private void note(Element element, String message) {
+        messager.printMessage(Diagnostic.Kind.NOTE, message, element);
+    }
+
+    private static AnnotationMirror annotation(Element element, String annotationType) {
+        for (AnnotationMirror mirror : element.getAnnotationMirrors()) {
+            TypeElement type = (TypeElement) mirror.getAnnotationType().asElement();
+            if (type.getQualifiedName().contentEquals(annotationType)) {
+                return mirror;
+            }
+        }
+        return null;
+    }
+
+    private String stringValue(AnnotationMirror mirror, String name) {
+        for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry
+                : elements.getElementValuesWithDefaults(mirror).entrySet()) {
+            if (entry.getKey().getSimpleName().contentEquals(name)) {
+                return String.valueOf(entry.getValue().getValue());
+            }
+        }
+        return "";
+    }
+}